@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import java.util.Locale;
+
+/**
+ * Codecs which can be applied to the records of FileChannel data files.
+ * The codec a data file was written with is recorded in its metadata, so
+ * changing the configured codec only affects newly created data files.
+ */
+public enum CompressionCodec {
+  NONE,
+  SNAPPY;
+
+  /**
+   * @return the codec with the given case insensitive name, NONE if the
+   *         name is null or empty
+   */
+  public static CompressionCodec fromString(String name) {
+    if (name == null || name.trim().isEmpty()) {
+      return NONE;
+    }
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown compression codec: " +
+          name, e);
+    }
+  }
+}
@@ -39,7 +39,7 @@ import org.apache.flume.channel.file.Log.Builder;
 import org.apache.flume.channel.file.encryption.EncryptionConfiguration;
 import org.apache.flume.channel.file.encryption.KeyProvider;
 import org.apache.flume.channel.file.encryption.KeyProviderFactory;
-import org.apache.flume.instrumentation.ChannelCounter;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -93,7 +93,7 @@ public class FileChannel extends BasicChannelSemantics {
   private final ThreadLocal<FileBackedTransaction> transactions =
       new ThreadLocal<FileBackedTransaction>();
   private String channelNameDescriptor = "[channel=unknown]";
-  private ChannelCounter channelCounter;
+  private FileChannelCounter channelCounter;
   private boolean useLogReplayV1;
   private boolean useFastReplay = false;
   private KeyProvider encryptionKeyProvider;
@@ -101,6 +101,8 @@ public class FileChannel extends BasicChannelSemantics {
   private String encryptionCipherProvider;
   private boolean useDualCheckpoints;
   private boolean compressBackupCheckpoint;
+  private CompressionCodec compressionCodec;
+  private LogWriterSelector.Type logWriterSelector;
   private boolean fsyncPerTransaction;
   private int fsyncInterval;
   private boolean checkpointOnClose = true;
@@ -122,6 +124,14 @@ public class FileChannel extends BasicChannelSemantics {
         FileChannelConfiguration.COMPRESS_BACKUP_CHECKPOINT,
         FileChannelConfiguration.DEFAULT_COMPRESS_BACKUP_CHECKPOINT);
 
+    compressionCodec = CompressionCodec.fromString(context.getString(
+        FileChannelConfiguration.COMPRESSION_CODEC,
+        FileChannelConfiguration.DEFAULT_COMPRESSION_CODEC));
+
+    logWriterSelector = LogWriterSelector.Type.fromString(context.getString(
+        FileChannelConfiguration.DATA_DIR_SELECTOR,
+        FileChannelConfiguration.DEFAULT_DATA_DIR_SELECTOR));
+
     String homePath = System.getProperty("user.home").replace('\\', '/');
 
     String strCheckpointDir =
@@ -267,7 +277,7 @@ public class FileChannel extends BasicChannelSemantics {
     }
 
     if (channelCounter == null) {
-      channelCounter = new ChannelCounter(getName());
+      channelCounter = new FileChannelCounter(getName());
     }
   }
 
@@ -294,6 +304,9 @@ public class FileChannel extends BasicChannelSemantics {
       builder.setFsyncPerTransaction(fsyncPerTransaction);
       builder.setFsyncInterval(fsyncInterval);
       builder.setCheckpointOnClose(checkpointOnClose);
+      builder.setCompressionCodec(compressionCodec);
+      builder.setChannelCounter(channelCounter);
+      builder.setLogWriterSelector(logWriterSelector);
       log = builder.build();
       log.replay();
       open = true;
@@ -423,6 +436,11 @@ public class FileChannel extends BasicChannelSemantics {
     return capacity - queueRemaining.availablePermits();
   }
 
+  @Override
+  public Integer getCapacity() {
+    return capacity;
+  }
+
   /**
    * Transaction backed by a file. This transaction supports either puts
    * or takes but not both.
@@ -436,12 +454,12 @@ public class FileChannel extends BasicChannelSemantics {
     private final FlumeEventQueue queue;
     private final Semaphore queueRemaining;
     private final String channelNameDescriptor;
-    private final ChannelCounter channelCounter;
+    private final FileChannelCounter channelCounter;
     private final boolean fsyncPerTransaction;
 
     public FileBackedTransaction(Log log, long transactionID,
                                  int transCapacity, int keepAlive, Semaphore queueRemaining,
-                                 String name, boolean fsyncPerTransaction, ChannelCounter
+                                 String name, boolean fsyncPerTransaction, FileChannelCounter
                                      counter) {
       this.log = log;
       queue = log.getFlumeEventQueue();
@@ -90,6 +90,21 @@ public class FileChannelConfiguration {
   public static final String COMPRESS_BACKUP_CHECKPOINT = "compressBackupCheckpoint";
   public static final boolean DEFAULT_COMPRESS_BACKUP_CHECKPOINT = false;
 
+  /**
+   * Codec used to compress the records of new data files, see
+   * {@link CompressionCodec}.
+   */
+  public static final String COMPRESSION_CODEC = "compressionCodec";
+  public static final String DEFAULT_COMPRESSION_CODEC = "none";
+
+  /**
+   * How transactions are spread over the data directories: modulo of the
+   * transaction ID, or loadAware to prefer directories with lower write
+   * latency, fewer open transactions and enough free space.
+   */
+  public static final String DATA_DIR_SELECTOR = "dataDirSelector";
+  public static final String DEFAULT_DATA_DIR_SELECTOR = "modulo";
+
   public static final String FSYNC_PER_TXN = "fsyncPerTransaction";
   public static final boolean DEFAULT_FSYNC_PRE_TXN = true;
 
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import org.apache.flume.channel.file.proto.ProtosFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a {@link Put} into exactly the same bytes as
+ * {@link TransactionEventRecord#toByteBuffer(TransactionEventRecord)},
+ * but without copying the event body. The protobuf framing before and
+ * after the body is written into a caller supplied (typically direct and
+ * reused) buffer, and the body is exposed as a buffer wrapping the event's
+ * own array so the three can be handed to a gathering write.
+ */
+class GatheringPutEncoder {
+
+  private static final int FOOTER_SIZE =
+      CodedOutputStream.computeRawVarint32Size(0);
+
+  private final ProtosFactory.TransactionEventHeader header;
+  private final List<ProtosFactory.FlumeEventHeader> eventHeaders;
+  private final byte[] body;
+  private final long checksum;
+  private final int eventSize;
+  private final int putSize;
+  private final int prefixSize;
+  private final int suffixSize;
+
+  GatheringPutEncoder(Put put) {
+    header = ProtosFactory.TransactionEventHeader.newBuilder()
+        .setType(put.getRecordType())
+        .setTransactionID(put.getTransactionID())
+        .setWriteOrderID(put.getLogWriteOrderID())
+        .build();
+    FlumeEvent event = put.getEvent();
+    body = event.getBody();
+    checksum = put.calculateChecksum(body);
+    eventHeaders = Lists.newArrayList();
+    int headersSize = 0;
+    Map<String, String> headers = event.getHeaders();
+    if (headers != null) {
+      ProtosFactory.FlumeEventHeader.Builder headerBuilder =
+          ProtosFactory.FlumeEventHeader.newBuilder();
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        headerBuilder.clear();
+        ProtosFactory.FlumeEventHeader eventHeader = headerBuilder
+            .setKey(entry.getKey()).setValue(entry.getValue()).build();
+        eventHeaders.add(eventHeader);
+        headersSize += CodedOutputStream.computeMessageSize(1, eventHeader);
+      }
+    }
+    int bodyFramingSize = CodedOutputStream.computeTagSize(2) +
+        CodedOutputStream.computeRawVarint32Size(body.length);
+    eventSize = headersSize + bodyFramingSize + body.length;
+    int checksumSize = CodedOutputStream.computeSFixed64Size(2, checksum);
+    putSize = CodedOutputStream.computeTagSize(1) +
+        CodedOutputStream.computeRawVarint32Size(eventSize) + eventSize +
+        checksumSize;
+    int headerSize = header.getSerializedSize();
+    prefixSize = CodedOutputStream.computeRawVarint32Size(headerSize) +
+        headerSize + CodedOutputStream.computeRawVarint32Size(putSize) +
+        CodedOutputStream.computeTagSize(1) +
+        CodedOutputStream.computeRawVarint32Size(eventSize) +
+        headersSize + bodyFramingSize;
+    suffixSize = checksumSize + FOOTER_SIZE;
+  }
+
+  /**
+   * @return size of the whole serialized record, body included
+   */
+  int getSerializedSize() {
+    return prefixSize + body.length + suffixSize;
+  }
+
+  /**
+   * @return bytes written by {@link #writePrefix} and {@link #writeSuffix}
+   */
+  int getFramingSize() {
+    return prefixSize + suffixSize;
+  }
+
+  /**
+   * Writes the transaction header, the Put and FlumeEvent message framing
+   * and the event headers, up to but excluding the body bytes.
+   */
+  void writePrefix(ByteBuffer output) throws IOException {
+    CodedOutputStream out = newCodedOutputStream(output, prefixSize);
+    out.writeRawVarint32(header.getSerializedSize());
+    header.writeTo(out);
+    out.writeRawVarint32(putSize);
+    out.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    out.writeRawVarint32(eventSize);
+    for (ProtosFactory.FlumeEventHeader eventHeader : eventHeaders) {
+      out.writeMessage(1, eventHeader);
+    }
+    out.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    out.writeRawVarint32(body.length);
+    out.flush();
+  }
+
+  /**
+   * @return the event body, not copied
+   */
+  ByteBuffer getBody() {
+    return ByteBuffer.wrap(body);
+  }
+
+  /**
+   * Writes the body checksum and the (empty) transaction footer.
+   */
+  void writeSuffix(ByteBuffer output) throws IOException {
+    CodedOutputStream out = newCodedOutputStream(output, suffixSize);
+    out.writeSFixed64(2, checksum);
+    out.writeRawVarint32(0);
+    out.flush();
+  }
+
+  private static CodedOutputStream newCodedOutputStream(ByteBuffer output,
+                                                        int size) {
+    return CodedOutputStream.newInstance(new ByteBufferOutputStream(output),
+        Math.max(size, 1));
+  }
+
+  private static class ByteBufferOutputStream extends OutputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferOutputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      buffer.put(b, off, len);
+    }
+  }
+}
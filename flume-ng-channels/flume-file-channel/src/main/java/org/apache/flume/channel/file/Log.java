@@ -25,11 +25,11 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import org.apache.commons.io.FileUtils;
 import org.apache.flume.Event;
 import org.apache.flume.annotations.InterfaceAudience;
 import org.apache.flume.annotations.InterfaceStability;
 import org.apache.flume.channel.file.encryption.KeyProvider;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,6 +76,8 @@ public class Log {
   public static final String PREFIX = "log-";
   private static final Logger LOGGER = LoggerFactory.getLogger(Log.class);
   private static final int MIN_NUM_LOGS = 2;
+  // spare data files are preallocated up to this size before being used
+  private static final long SPARE_PREALLOCATE_SIZE = 8L * 1024 * 1024;
   public static final String FILE_LOCK = "in_use.lock";
   public static final String QUEUE_SET = "queueset";
   // for reader
@@ -89,6 +91,7 @@ public class Log {
   private final AtomicReferenceArray<LogFile.Writer> logFiles;
 
   private final ScheduledExecutorService workerExecutor;
+  private final LogFileAllocator fileAllocator;
 
   private volatile boolean open;
   private FlumeEventQueue queue;
@@ -124,6 +127,9 @@ public class Log {
   private boolean didFullReplayDueToBadCheckpointException = false;
   private final boolean useDualCheckpoints;
   private final boolean compressBackupCheckpoint;
+  private final CompressionCodec compressionCodec;
+  private final FileChannelCounter channelCounter;
+  private final LogWriterSelector writerSelector;
   private volatile boolean backupRestored = false;
 
   private final boolean fsyncPerTransaction;
@@ -155,6 +161,10 @@ public class Log {
     private boolean bUseDualCheckpoints = false;
     private boolean bCompressBackupCheckpoint = false;
     private File bBackupCheckpointDir = null;
+    private CompressionCodec bCompressionCodec = CompressionCodec.NONE;
+    private FileChannelCounter bChannelCounter;
+    private LogWriterSelector.Type bLogWriterSelector =
+        LogWriterSelector.Type.MODULO;
 
     private boolean fsyncPerTransaction = true;
     private int fsyncInterval;
@@ -262,13 +272,29 @@ public class Log {
       return this;
     }
 
+    Builder setCompressionCodec(CompressionCodec compressionCodec) {
+      this.bCompressionCodec = compressionCodec;
+      return this;
+    }
+
+    Builder setChannelCounter(FileChannelCounter channelCounter) {
+      this.bChannelCounter = channelCounter;
+      return this;
+    }
+
+    Builder setLogWriterSelector(LogWriterSelector.Type logWriterSelector) {
+      this.bLogWriterSelector = logWriterSelector;
+      return this;
+    }
+
     Log build() throws IOException {
       return new Log(bCheckpointInterval, bMaxFileSize, bQueueCapacity,
           bUseDualCheckpoints, bCompressBackupCheckpoint, bCheckpointDir,
           bBackupCheckpointDir, bName, useLogReplayV1, useFastReplay,
           bMinimumRequiredSpace, bEncryptionKeyProvider, bEncryptionKeyAlias,
           bEncryptionCipherProvider, bUsableSpaceRefreshInterval,
-          fsyncPerTransaction, fsyncInterval, checkpointOnClose, bLogDirs);
+          fsyncPerTransaction, fsyncInterval, checkpointOnClose,
+          bCompressionCodec, bChannelCounter, bLogWriterSelector, bLogDirs);
     }
   }
 
@@ -280,13 +306,18 @@ public class Log {
               @Nullable String encryptionKeyAlias,
               @Nullable String encryptionCipherProvider,
               long usableSpaceRefreshInterval, boolean fsyncPerTransaction,
-              int fsyncInterval, boolean checkpointOnClose, File... logDirs)
+              int fsyncInterval, boolean checkpointOnClose,
+              CompressionCodec compressionCodec,
+              @Nullable FileChannelCounter channelCounter,
+              LogWriterSelector.Type logWriterSelector, File... logDirs)
       throws IOException {
     Preconditions.checkArgument(checkpointInterval > 0,
         "checkpointInterval <= 0");
     Preconditions.checkArgument(queueCapacity > 0, "queueCapacity <= 0");
     Preconditions.checkArgument(maxFileSize > 0, "maxFileSize <= 0");
     Preconditions.checkNotNull(checkpointDir, "checkpointDir");
+    Preconditions.checkNotNull(compressionCodec, "compressionCodec");
+    Preconditions.checkNotNull(logWriterSelector, "logWriterSelector");
     Preconditions.checkArgument(usableSpaceRefreshInterval > 0,
         "usableSpaceRefreshInterval <= 0");
     Preconditions.checkArgument(
@@ -355,6 +386,8 @@ public class Log {
     this.queueCapacity = queueCapacity;
     this.useDualCheckpoints = useDualCheckpoints;
     this.compressBackupCheckpoint = compressBackupCheckpoint;
+    this.compressionCodec = compressionCodec;
+    this.channelCounter = channelCounter;
     this.checkpointDir = checkpointDir;
     this.backupCheckpointDir = backupCheckpointDir;
     this.logDirs = logDirs;
@@ -363,6 +396,15 @@ public class Log {
     this.checkpointOnClose = checkpointOnClose;
 
     logFiles = new AtomicReferenceArray<LogFile.Writer>(this.logDirs.length);
+    writerSelector = LogWriterSelector.create(logWriterSelector, logFiles,
+        minimumRequiredSpace, channelCounter);
+    fileAllocator = new LogFileAllocator(name, this.logDirs,
+        SPARE_PREALLOCATE_SIZE, new LogFileAllocator.WriterFactory() {
+          @Override
+          public LogFile.Writer newWriter(File dir) throws IOException {
+            return newLogFile(dir);
+          }
+        });
     workerExecutor = Executors.newSingleThreadScheduledExecutor(new
         ThreadFactoryBuilder().setNameFormat("Log-BackgroundWorker-" + name)
         .build());
@@ -636,36 +678,61 @@ public class Log {
     FlumeEvent flumeEvent = new FlumeEvent(
         event.getHeaders(), event.getBody());
     Put put = new Put(transactionID, WriteOrderOracle.next(), flumeEvent);
-    ByteBuffer buffer = TransactionEventRecord.toByteBuffer(put);
-    int logFileIndex = nextLogWriter(transactionID);
+    // Encrypted or compressed records have to be serialized into a single
+    // buffer, all others are written with the event body straight from the
+    // event.
+    ByteBuffer buffer = null;
+    GatheringPutEncoder encoder = null;
+    int recordLength;
+    if (encryptionCipherProvider == null &&
+        compressionCodec == CompressionCodec.NONE) {
+      encoder = new GatheringPutEncoder(put);
+      recordLength = encoder.getSerializedSize();
+    } else {
+      buffer = TransactionEventRecord.toByteBuffer(put);
+      recordLength = buffer.limit();
+    }
+    int logFileIndex = writerSelector.select(transactionID);
     long usableSpace = logFiles.get(logFileIndex).getUsableSpace();
-    long requiredSpace = minimumRequiredSpace + buffer.limit();
+    long requiredSpace = minimumRequiredSpace + recordLength;
     if (usableSpace <= requiredSpace) {
       throw new IOException("Usable space exhausted, only " + usableSpace +
           " bytes remaining, required " + requiredSpace + " bytes");
     }
     boolean error = true;
+    long start = System.nanoTime();
     try {
       try {
-        FlumeEventPointer ptr = logFiles.get(logFileIndex).put(buffer);
+        FlumeEventPointer ptr = put(logFiles.get(logFileIndex), encoder, buffer);
         error = false;
         return ptr;
       } catch (LogFileRetryableIOException e) {
         if (!open) {
           throw e;
         }
-        roll(logFileIndex, buffer);
-        FlumeEventPointer ptr = logFiles.get(logFileIndex).put(buffer);
+        roll(logFileIndex, recordLength);
+        FlumeEventPointer ptr = put(logFiles.get(logFileIndex), encoder, buffer);
         error = false;
         return ptr;
       }
     } finally {
+      writerSelector.writeCompleted(logFileIndex, System.nanoTime() - start,
+          !error);
       if (error && open) {
         roll(logFileIndex);
       }
     }
   }
 
+  private static FlumeEventPointer put(LogFile.Writer writer,
+      @Nullable GatheringPutEncoder encoder, @Nullable ByteBuffer buffer)
+      throws IOException {
+    if (encoder != null) {
+      return writer.put(encoder);
+    }
+    return writer.put(buffer);
+  }
+
   /**
    * Log a take of an event, pointer points at the corresponding put
    * <p>
@@ -681,7 +748,7 @@ public class Log {
     Take take = new Take(transactionID, WriteOrderOracle.next(),
         pointer.getOffset(), pointer.getFileID());
     ByteBuffer buffer = TransactionEventRecord.toByteBuffer(take);
-    int logFileIndex = nextLogWriter(transactionID);
+    int logFileIndex = writerSelector.select(transactionID);
     long usableSpace = logFiles.get(logFileIndex).getUsableSpace();
     long requiredSpace = minimumRequiredSpace + buffer.limit();
     if (usableSpace <= requiredSpace) {
@@ -689,6 +756,7 @@ public class Log {
           " bytes remaining, required " + requiredSpace + " bytes");
     }
     boolean error = true;
+    long start = System.nanoTime();
     try {
       try {
         logFiles.get(logFileIndex).take(buffer);
@@ -697,11 +765,13 @@ public class Log {
         if (!open) {
           throw e;
         }
-        roll(logFileIndex, buffer);
+        roll(logFileIndex, buffer.limit());
         logFiles.get(logFileIndex).take(buffer);
         error = false;
       }
     } finally {
+      writerSelector.writeCompleted(logFileIndex, System.nanoTime() - start,
+          !error);
       if (error && open) {
         roll(logFileIndex);
       }
@@ -724,30 +794,38 @@ public class Log {
     }
     Rollback rollback = new Rollback(transactionID, WriteOrderOracle.next());
     ByteBuffer buffer = TransactionEventRecord.toByteBuffer(rollback);
-    int logFileIndex = nextLogWriter(transactionID);
-    long usableSpace = logFiles.get(logFileIndex).getUsableSpace();
-    long requiredSpace = minimumRequiredSpace + buffer.limit();
-    if (usableSpace <= requiredSpace) {
-      throw new IOException("Usable space exhausted, only " + usableSpace +
-          " bytes remaining, required " + requiredSpace + " bytes");
-    }
-    boolean error = true;
     try {
+      int logFileIndex = writerSelector.select(transactionID);
+      long usableSpace = logFiles.get(logFileIndex).getUsableSpace();
+      long requiredSpace = minimumRequiredSpace + buffer.limit();
+      if (usableSpace <= requiredSpace) {
+        throw new IOException("Usable space exhausted, only " + usableSpace +
+            " bytes remaining, required " + requiredSpace + " bytes");
+      }
+      boolean error = true;
+      long start = System.nanoTime();
       try {
-        logFiles.get(logFileIndex).rollback(buffer);
-        error = false;
-      } catch (LogFileRetryableIOException e) {
-        if (!open) {
-          throw e;
+        try {
+          logFiles.get(logFileIndex).rollback(buffer);
+          error = false;
+        } catch (LogFileRetryableIOException e) {
+          if (!open) {
+            throw e;
+          }
+          roll(logFileIndex, buffer.limit());
+          logFiles.get(logFileIndex).rollback(buffer);
+          error = false;
+        }
+      } finally {
+        writerSelector.writeCompleted(logFileIndex, System.nanoTime() - start,
+            !error);
+        if (error && open) {
+          roll(logFileIndex);
         }
-        roll(logFileIndex, buffer);
-        logFiles.get(logFileIndex).rollback(buffer);
-        error = false;
       }
     } finally {
-      if (error && open) {
-        roll(logFileIndex);
-      }
+      // the transaction is complete, even if writing this failed
+      writerSelector.release(transactionID);
     }
   }
 
@@ -821,6 +899,7 @@ public class Log {
             "Replay will take longer next time channel is started.", err);
       }
       shutdownWorker();
+      fileAllocator.close();
       if (logFiles != null) {
         for (int index = 0; index < logFiles.length(); index++) {
           LogFile.Writer writer = logFiles.get(index);
@@ -893,48 +972,59 @@ public class Log {
     Preconditions.checkState(open, "Log is closed");
     Commit commit = new Commit(transactionID, WriteOrderOracle.next(), type);
     ByteBuffer buffer = TransactionEventRecord.toByteBuffer(commit);
-    int logFileIndex = nextLogWriter(transactionID);
-    long usableSpace = logFiles.get(logFileIndex).getUsableSpace();
-    long requiredSpace = minimumRequiredSpace + buffer.limit();
-    if (usableSpace <= requiredSpace) {
-      throw new IOException("Usable space exhausted, only " + usableSpace +
-          " bytes remaining, required " + requiredSpace + " bytes");
-    }
-    boolean error = true;
     try {
+      int logFileIndex = writerSelector.select(transactionID);
+      long usableSpace = logFiles.get(logFileIndex).getUsableSpace();
+      long requiredSpace = minimumRequiredSpace + buffer.limit();
+      if (usableSpace <= requiredSpace) {
+        throw new IOException("Usable space exhausted, only " + usableSpace +
+            " bytes remaining, required " + requiredSpace + " bytes");
+      }
+      boolean error = true;
+      long start = System.nanoTime();
       try {
-        LogFile.Writer logFileWriter = logFiles.get(logFileIndex);
-        // If multiple transactions are committing at the same time,
-        // this ensures that the number of actual fsyncs is small and a
-        // number of them are grouped together into one.
-        logFileWriter.commit(buffer);
-        logFileWriter.sync();
-        error = false;
-      } catch (LogFileRetryableIOException e) {
-        if (!open) {
-          throw e;
+        try {
+          LogFile.Writer logFileWriter = logFiles.get(logFileIndex);
+          // If multiple transactions are committing at the same time,
+          // this ensures that the number of actual fsyncs is small and a
+          // number of them are grouped together into one.
+          logFileWriter.commit(buffer);
+          logFileWriter.sync();
+          allocateIfHalfFull(logFileIndex, logFileWriter);
+          error = false;
+        } catch (LogFileRetryableIOException e) {
+          if (!open) {
+            throw e;
+          }
+          roll(logFileIndex, buffer.limit());
+          LogFile.Writer logFileWriter = logFiles.get(logFileIndex);
+          logFileWriter.commit(buffer);
+          logFileWriter.sync();
+          allocateIfHalfFull(logFileIndex, logFileWriter);
+          error = false;
+        }
+      } finally {
+        writerSelector.writeCompleted(logFileIndex, System.nanoTime() - start,
+            !error);
+        if (error && open) {
+          roll(logFileIndex);
         }
-        roll(logFileIndex, buffer);
-        LogFile.Writer logFileWriter = logFiles.get(logFileIndex);
-        logFileWriter.commit(buffer);
-        logFileWriter.sync();
-        error = false;
       }
     } finally {
-      if (error && open) {
-        roll(logFileIndex);
-      }
+      // the transaction is complete, even if writing this failed
+      writerSelector.release(transactionID);
     }
   }
 
 
   /**
-   * Atomic so not synchronization required.
-   *
-   * @return
+   * Starts creating the next data file of the given directory once the
+   * current one is half full, so that it is ready by the time of the roll.
    */
-  private int nextLogWriter(long transactionID) {
-    return (int) Math.abs(transactionID % (long) logFiles.length());
+  private void allocateIfHalfFull(int index, LogFile.Writer writer) {
+    if (writer.getLastCommitPosition() > writer.getMaxSize() / 2) {
+      fileAllocator.allocate(index);
+    }
   }
 
   /**
@@ -950,7 +1040,7 @@ public class Log {
 
   /**
    * Roll a log if needed. Roll always occurs if the log at the index
-   * does not exist (typically on startup), or buffer is null. Otherwise
+   * does not exist (typically on startup), or recordLength is null. Otherwise
    * LogFile.Writer.isRollRequired is checked again to ensure we don't
    * have threads pile up on this log resulting in multiple successive
    * rolls
@@ -963,7 +1053,7 @@ public class Log {
    * @param index
    * @throws IOException
    */
-  private synchronized void roll(int index, ByteBuffer buffer)
+  private synchronized void roll(int index, @Nullable Integer recordLength)
       throws IOException {
     lockShared();
 
@@ -971,18 +1061,19 @@ public class Log {
       LogFile.Writer oldLogFile = logFiles.get(index);
       // check to make sure a roll is actually required due to
       // the possibility of multiple writes waiting on lock
-      if (oldLogFile == null || buffer == null ||
-          oldLogFile.isRollRequired(buffer)) {
+      if (oldLogFile == null || recordLength == null ||
+          oldLogFile.isRollRequired(recordLength)) {
         try {
           LOGGER.info("Roll start " + logDirs[index]);
-          int fileID = nextFileID.incrementAndGet();
-          File file = new File(logDirs[index], PREFIX + fileID);
-          LogFile.Writer writer = LogFileFactory.getWriter(file, fileID,
-              maxFileSize, encryptionKey, encryptionKeyAlias,
-              encryptionCipherProvider, usableSpaceRefreshInterval,
-              fsyncPerTransaction, fsyncInterval);
-          idLogFileMap.put(fileID, LogFileFactory.getRandomReader(file,
-              encryptionKeyProvider, fsyncPerTransaction));
+          // usually the spare file created in the background after the
+          // previous roll is ready, so there is nothing left to do here
+          LogFile.Writer writer = fileAllocator.take(index);
+          if (writer == null) {
+            writer = newLogFile(logDirs[index]);
+          }
+          idLogFileMap.put(writer.getLogFileID(),
+              LogFileFactory.getRandomReader(writer.getFile(),
+                  encryptionKeyProvider, fsyncPerTransaction));
           // writer from this point on will get new reference
           logFiles.set(index, writer);
           // close out old log
@@ -998,6 +1089,15 @@ public class Log {
     }
   }
 
+  private LogFile.Writer newLogFile(File dir) throws IOException {
+    int fileID = nextFileID.incrementAndGet();
+    File file = new File(dir, PREFIX + fileID);
+    return LogFileFactory.getWriter(file, fileID, maxFileSize, encryptionKey,
+        encryptionKeyAlias, encryptionCipherProvider, compressionCodec,
+        channelCounter, usableSpaceRefreshInterval, fsyncPerTransaction,
+        fsyncInterval);
+  }
+
   private boolean writeCheckpoint() throws Exception {
     return writeCheckpoint(false);
   }
@@ -1090,6 +1190,10 @@ public class Log {
     //Delete logic is expensive.
     if (open && checkpointCompleted) {
       removeOldLogs(logFileRefCountsActive);
+      if (force) {
+        // files released by a forced checkpoint are gone when it returns
+        fileAllocator.awaitDeletes();
+      }
     }
     //Since the exception is not caught, this will not be returned if
     //an exception is thrown from the try.
@@ -1104,10 +1208,7 @@ public class Log {
     // these files) and delete them only after the next (since the current
     // checkpoint will become the backup at that time,
     // and thus these files are no longer needed).
-    for (File fileToDelete : pendingDeletes) {
-      LOGGER.info("Removing old file: " + fileToDelete);
-      FileUtils.deleteQuietly(fileToDelete);
-    }
+    fileAllocator.delete(Lists.newArrayList(pendingDeletes));
     pendingDeletes.clear();
     // we will find the smallest fileID currently in use and
     // won't delete any files with an id larger than the min
@@ -25,6 +25,7 @@ import com.google.common.collect.Lists;
 import org.apache.flume.annotations.InterfaceAudience;
 import org.apache.flume.annotations.InterfaceStability;
 import org.apache.flume.channel.file.encryption.CipherProvider;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
 import org.apache.flume.channel.file.encryption.KeyProvider;
 import org.apache.flume.tools.DirectMemoryUtils;
 import org.slf4j.Logger;
@@ -55,7 +56,9 @@ public abstract class LogFile {
   /**
    * This class preallocates the data files 1MB at time to avoid
    * the updating of the inode on each write and to avoid the disk
-   * filling up during a write. It's also faster, so there.
+   * filling up during a write. It's also faster, so there. The buffer is
+   * never modified after class initialization, writers use duplicates of it
+   * so preallocation does not need to lock across channels.
    */
   private static final ByteBuffer FILL = DirectMemoryUtils.allocate(1024 * 1024);
 
@@ -169,11 +172,14 @@ public abstract class LogFile {
 
   abstract static class Writer {
     private final int logFileID;
-    private final File file;
+    // changes when a spare data file is moved into place
+    private volatile File file;
     private final long maxFileSize;
     private final RandomAccessFile writeFileHandle;
     private final FileChannel writeFileChannel;
     private final CipherProvider.Encryptor encryptor;
+    private final RecordCompressor compressor;
+    private final FileChannelCounter channelCounter;
     private final CachedFSUsableSpace usableSpace;
     private volatile boolean open;
     private long lastCommitPosition;
@@ -187,14 +193,33 @@ public abstract class LogFile {
     // To ensure we can count the number of fsyncs.
     private long syncCount;
 
+    // Reused for whole records and for the framing around event bodies
+    // written by put(encoder), only accessed while holding this writer's
+    // monitor.
+    private static final int RECORD_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_RECORD_BUFFER_SIZE = 1024 * 1024;
+    private ByteBuffer recordBuffer;
+
     Writer(File file, int logFileID, long maxFileSize,
            CipherProvider.Encryptor encryptor, long usableSpaceRefreshInterval,
            boolean fsyncPerTransaction, int fsyncInterval) throws IOException {
+      this(file, logFileID, maxFileSize, encryptor, null, null,
+          usableSpaceRefreshInterval, fsyncPerTransaction, fsyncInterval);
+    }
+
+    Writer(File file, int logFileID, long maxFileSize,
+           CipherProvider.Encryptor encryptor,
+           @Nullable RecordCompressor compressor,
+           @Nullable FileChannelCounter channelCounter,
+           long usableSpaceRefreshInterval, boolean fsyncPerTransaction,
+           int fsyncInterval) throws IOException {
       this.file = file;
       this.logFileID = logFileID;
       this.maxFileSize = Math.min(maxFileSize,
           FileChannelConfiguration.DEFAULT_MAX_FILE_SIZE);
       this.encryptor = encryptor;
+      this.compressor = compressor;
+      this.channelCounter = channelCounter;
       writeFileHandle = new RandomAccessFile(file, "rw");
       writeFileChannel = writeFileHandle.getChannel();
       this.fsyncPerTransaction = fsyncPerTransaction;
@@ -239,6 +264,28 @@ public abstract class LogFile {
       return file.getParent();
     }
 
+    /**
+     * Moves this data file and its metadata file, the metadata first so
+     * that replay never finds a data file without it.
+     */
+    synchronized void renameTo(File dest) throws IOException {
+      File metaDataFile = Serialization.getMetaDataFile(file);
+      File destMetaDataFile = Serialization.getMetaDataFile(dest);
+      if (!metaDataFile.renameTo(destMetaDataFile)) {
+        throw new IOException("Unable to rename " + metaDataFile + " to " +
+            destMetaDataFile);
+      }
+      if (!file.renameTo(dest)) {
+        if (!destMetaDataFile.renameTo(metaDataFile)) {
+          LOG.warn("Unable to rename " + destMetaDataFile + " back to " +
+              metaDataFile);
+        }
+        throw new IOException("Unable to rename " + file + " to " + dest);
+      }
+      LOG.info("Moved " + file + " to " + dest);
+      file = dest;
+    }
+
     long getUsableSpace() {
       return usableSpace.getUsableSpace();
     }
@@ -247,7 +294,6 @@ public abstract class LogFile {
       return maxFileSize;
     }
 
-    @VisibleForTesting
     long getLastCommitPosition() {
       return lastCommitPosition;
     }
@@ -270,64 +316,186 @@ public abstract class LogFile {
     // methods, so all methods need to be synchronized.
 
     synchronized FlumeEventPointer put(ByteBuffer buffer) throws IOException {
-      if (encryptor != null) {
-        buffer = ByteBuffer.wrap(encryptor.encrypt(buffer.array()));
-      }
-      Pair<Integer, Integer> pair = write(buffer);
+      Pair<Integer, Integer> pair = writeRecord(buffer);
       return new FlumeEventPointer(pair.getLeft(), pair.getRight());
     }
 
     synchronized void take(ByteBuffer buffer) throws IOException {
-      if (encryptor != null) {
-        buffer = ByteBuffer.wrap(encryptor.encrypt(buffer.array()));
-      }
-      write(buffer);
+      writeRecord(buffer);
     }
 
     synchronized void rollback(ByteBuffer buffer) throws IOException {
-      if (encryptor != null) {
-        buffer = ByteBuffer.wrap(encryptor.encrypt(buffer.array()));
-      }
-      write(buffer);
+      writeRecord(buffer);
     }
 
     synchronized void commit(ByteBuffer buffer) throws IOException {
-      if (encryptor != null) {
-        buffer = ByteBuffer.wrap(encryptor.encrypt(buffer.array()));
-      }
-      write(buffer);
+      writeRecord(buffer);
       dirty = true;
       lastCommitPosition = position();
     }
 
+    /**
+     * Compresses and then encrypts a record, if this file is configured
+     * to do either, and writes it. Encryptors which know the cipher text
+     * length up front encrypt straight into the record buffer.
+     */
+    private Pair<Integer, Integer> writeRecord(ByteBuffer buffer)
+        throws IOException {
+      if (compressor != null) {
+        int length = buffer.remaining();
+        buffer = compressor.compress(buffer);
+        if (channelCounter != null) {
+          channelCounter.addToCompressedRecordSize(length, buffer.remaining());
+        }
+      }
+      if (encryptor == null) {
+        return write(buffer);
+      }
+      int length = encryptor.getEncryptedLength(buffer.remaining());
+      if (length < 0) {
+        return write(ByteBuffer.wrap(encryptor.encrypt(toArray(buffer))));
+      }
+      int offset = reserve(length);
+      // OP_RECORD + size + cipher text
+      ByteBuffer toWrite =
+          getRecordBuffer(1 + (int) Serialization.SIZE_OF_INT + length);
+      toWrite.put(OP_RECORD);
+      toWrite.putInt(length);
+      encryptor.encrypt(buffer, toWrite);
+      toWrite.flip();
+      int wrote = getFileChannel().write(toWrite);
+      Preconditions.checkState(wrote == toWrite.limit());
+      return Pair.of(getLogFileID(), offset);
+    }
+
+    /**
+     * Writes a put without encryption or compression using a gathering
+     * write, so the event body goes from the event's own array to the file
+     * without first being copied into a serialized record.
+     */
+    synchronized FlumeEventPointer put(GatheringPutEncoder encoder)
+        throws IOException {
+      Preconditions.checkState(encryptor == null && compressor == null,
+          "Gathering writes are not supported for encrypted or compressed " +
+          "data files");
+      int length = encoder.getSerializedSize();
+      int offset = reserve(length);
+      ByteBuffer framing = getRecordBuffer(
+          1 + (int) Serialization.SIZE_OF_INT + encoder.getFramingSize());
+      framing.put(OP_RECORD);
+      framing.putInt(length);
+      encoder.writePrefix(framing);
+      int prefixEnd = framing.position();
+      encoder.writeSuffix(framing);
+      framing.flip();
+      ByteBuffer prefix = framing.duplicate();
+      prefix.limit(prefixEnd);
+      ByteBuffer suffix = framing.duplicate();
+      suffix.position(prefixEnd);
+      ByteBuffer[] record = new ByteBuffer[] { prefix, encoder.getBody(), suffix };
+      long recordLength = 1 + Serialization.SIZE_OF_INT + length;
+      long wrote = 0;
+      while (wrote < recordLength) {
+        long written = getFileChannel().write(record);
+        Preconditions.checkState(written > 0, "Wrote " + wrote + " of " +
+            recordLength + " bytes to " + file);
+        wrote += written;
+      }
+      return new FlumeEventPointer(getLogFileID(), offset);
+    }
+
     private Pair<Integer, Integer> write(ByteBuffer buffer)
         throws IOException {
+      int offset = reserve(buffer.limit());
+      // OP_RECORD + size + buffer
+      int recordLength = 1 + (int) Serialization.SIZE_OF_INT + buffer.limit();
+      ByteBuffer toWrite = getRecordBuffer(recordLength);
+      toWrite.put(OP_RECORD);
+      writeDelimitedBuffer(toWrite, buffer);
+      toWrite.flip();
+      int wrote = getFileChannel().write(toWrite);
+      Preconditions.checkState(wrote == toWrite.limit());
+      return Pair.of(getLogFileID(), offset);
+    }
+
+    /**
+     * Checks a record of the given serialized length fits in this file,
+     * accounts for and preallocates the space it needs.
+     *
+     * @return the offset the record will be written at
+     */
+    private int reserve(int length) throws IOException {
       if (!isOpen()) {
         throw new LogFileRetryableIOException("File closed " + file);
       }
-      long length = position();
-      long expectedLength = length + (long) buffer.limit();
+      long position = position();
+      long expectedLength = position + (long) length;
       if (expectedLength > maxFileSize) {
         throw new LogFileRetryableIOException(expectedLength + " > " +
             maxFileSize);
       }
-      int offset = (int) length;
+      int offset = (int) position;
       Preconditions.checkState(offset >= 0, String.valueOf(offset));
       // OP_RECORD + size + buffer
-      int recordLength = 1 + (int) Serialization.SIZE_OF_INT + buffer.limit();
+      int recordLength = 1 + (int) Serialization.SIZE_OF_INT + length;
       usableSpace.decrement(recordLength);
       preallocate(recordLength);
-      ByteBuffer toWrite = ByteBuffer.allocate(recordLength);
-      toWrite.put(OP_RECORD);
-      writeDelimitedBuffer(toWrite, buffer);
-      toWrite.position(0);
-      int wrote = getFileChannel().write(toWrite);
-      Preconditions.checkState(wrote == toWrite.limit());
-      return Pair.of(getLogFileID(), offset);
+      return offset;
+    }
+
+    private byte[] toArray(ByteBuffer buffer) {
+      if (buffer.hasArray() && buffer.arrayOffset() == 0 &&
+          buffer.position() == 0 && buffer.limit() == buffer.array().length) {
+        return buffer.array();
+      }
+      byte[] array = new byte[buffer.remaining()];
+      buffer.duplicate().get(array);
+      return array;
+    }
+
+    private ByteBuffer getRecordBuffer(int size) {
+      if (size > MAX_RECORD_BUFFER_SIZE) {
+        // don't pin large amounts of direct memory for the odd huge record
+        return ByteBuffer.allocate(size);
+      }
+      if (recordBuffer == null || recordBuffer.capacity() < size) {
+        int capacity = Math.max(size, RECORD_BUFFER_SIZE);
+        if (recordBuffer != null) {
+          capacity = Math.max(capacity, Math.min(recordBuffer.capacity() * 2,
+              MAX_RECORD_BUFFER_SIZE));
+        }
+        recordBuffer = ByteBuffer.allocateDirect(capacity);
+      }
+      recordBuffer.clear();
+      return recordBuffer;
     }
 
     synchronized boolean isRollRequired(ByteBuffer buffer) throws IOException {
-      return isOpen() && position() + (long) buffer.limit() > getMaxSize();
+      return isRollRequired(buffer.limit());
+    }
+
+    synchronized boolean isRollRequired(int length) throws IOException {
+      return isOpen() &&
+          position() + (long) getMaxEncodedLength(length) > getMaxSize();
+    }
+
+    /**
+     * Upper bound of what {@link #writeRecord(ByteBuffer)} reserves for a
+     * record of the given serialized length, so that the roll check agrees
+     * with {@link #reserve(int)}.
+     */
+    private int getMaxEncodedLength(int length) {
+      if (compressor != null) {
+        length = compressor.getMaxCompressedLength(length);
+      }
+      if (encryptor != null) {
+        int encrypted = encryptor.getEncryptedLength(length);
+        // encryptors which can not tell, like CTR, do not pad
+        if (encrypted >= 0) {
+          length = encrypted;
+        }
+      }
+      return length;
     }
 
     /**
@@ -400,9 +568,33 @@ public abstract class LogFile {
       long position = position();
       if (position + size > getFileChannel().size()) {
         LOG.debug("Preallocating at position " + position);
-        synchronized (FILL) {
-          FILL.position(0);
-          getFileChannel().write(FILL, position);
+        fill(position, FILL.capacity());
+      }
+    }
+
+    /**
+     * Extends the file to the given length with EOF markers. Used to
+     * allocate data files before they are handed out for writing, the write
+     * position is not changed.
+     */
+    synchronized void preallocateTo(long length) throws IOException {
+      long size = getFileChannel().size();
+      if (size < length) {
+        LOG.debug("Preallocating " + file + " to " + length + " bytes");
+        fill(size, length - size);
+      }
+    }
+
+    private void fill(long offset, long length) throws IOException {
+      // positional writes of a duplicate leave both the shared buffer and
+      // the channel position untouched
+      ByteBuffer fill = FILL.duplicate();
+      long end = offset + length;
+      while (offset < end) {
+        fill.clear();
+        fill.limit((int) Math.min(fill.capacity(), end - offset));
+        while (fill.hasRemaining()) {
+          offset += getFileChannel().write(fill, offset);
         }
       }
     }
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the creation and removal of data files off the put/take path.
+ * For each data directory a spare data file is created, with its metadata
+ * written and its first bytes preallocated, once the current one is half
+ * full, so that a roll only has to swap writers. Data files which are no
+ * longer needed are deleted by a second thread, as unlinking a large file
+ * can take a while on some file systems.
+ * <p>
+ * Spare files are created in the {@link #SPARE_DIR} sub-directory of their
+ * data directory, where replay does not look for data files, and are moved
+ * next to the other data files when they are handed out. Spares which are
+ * still unused on close, or were left behind by an agent which died, are
+ * deleted.
+ */
+class LogFileAllocator {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(LogFileAllocator.class);
+
+  static final String SPARE_DIR = "spare";
+
+  interface WriterFactory {
+    /**
+     * Creates a new data file, with the next file ID, in the given
+     * directory.
+     */
+    LogFile.Writer newWriter(File dir) throws IOException;
+  }
+
+  private final File[] logDirs;
+  private final WriterFactory factory;
+  private final long preallocateSize;
+  private final ExecutorService allocateExecutor;
+  private final ExecutorService deleteExecutor;
+  private final AtomicReferenceArray<Future<LogFile.Writer>> spares;
+  private boolean closed;
+
+  /**
+   * @param preallocateSize number of bytes to preallocate in spare files
+   */
+  LogFileAllocator(String name, File[] logDirs, long preallocateSize,
+                   WriterFactory factory) {
+    this.logDirs = logDirs;
+    this.factory = factory;
+    this.preallocateSize = preallocateSize;
+    spares = new AtomicReferenceArray<Future<LogFile.Writer>>(logDirs.length);
+    for (File logDir : logDirs) {
+      deleteSpareDir(logDir);
+    }
+    allocateExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("Log-FileAllocator-" + name)
+            .setDaemon(true).build());
+    deleteExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("Log-FileDeleter-" + name)
+            .setDaemon(true).build());
+  }
+
+  /**
+   * Starts creating a spare data file for the given directory, unless one
+   * is already there or being created.
+   */
+  void allocate(final int index) {
+    // called for every commit once the current file is half full
+    if (spares.get(index) != null) {
+      return;
+    }
+    synchronized (this) {
+      if (closed || spares.get(index) != null) {
+        return;
+      }
+      spares.set(index, allocateExecutor.submit(newSpare(index)));
+    }
+  }
+
+  private Callable<LogFile.Writer> newSpare(final int index) {
+    return new Callable<LogFile.Writer>() {
+      @Override
+      public LogFile.Writer call() throws Exception {
+        File spareDir = new File(logDirs[index], SPARE_DIR);
+        if (!spareDir.isDirectory() && !spareDir.mkdir()) {
+          throw new IOException("Unable to create " + spareDir);
+        }
+        LogFile.Writer writer = factory.newWriter(spareDir);
+        try {
+          writer.preallocateTo(Math.min(preallocateSize, writer.getMaxSize()));
+        } catch (IOException e) {
+          // the writer is still usable, it preallocates as it goes
+          LOG.warn("Unable to preallocate " + writer.getFile(), e);
+        }
+        return writer;
+      }
+    };
+  }
+
+  /**
+   * Hands out the spare data file of the given directory, waiting for it
+   * if it is still being created, and moves it into the data directory.
+   *
+   * @return the spare writer or null if there is none, or creating or
+   * moving it failed, in which case the caller has to create the file itself
+   */
+  @Nullable
+  LogFile.Writer take(int index) {
+    Future<LogFile.Writer> spare = spares.getAndSet(index, null);
+    if (spare == null) {
+      return null;
+    }
+    LogFile.Writer writer;
+    try {
+      writer = spare.get();
+    } catch (ExecutionException e) {
+      LOG.warn("Unable to create spare data file", e.getCause());
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      discard(spare);
+      return null;
+    }
+    try {
+      writer.renameTo(new File(logDirs[index], writer.getFile().getName()));
+    } catch (IOException e) {
+      LOG.warn("Unable to move spare data file into place", e);
+      discard(spare);
+      return null;
+    }
+    return writer;
+  }
+
+  /**
+   * Deletes the given files in the background.
+   */
+  synchronized void delete(List<File> files) {
+    if (files.isEmpty()) {
+      return;
+    }
+    final File[] toDelete = files.toArray(new File[files.size()]);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        for (File file : toDelete) {
+          LOG.info("Removing old file: " + file);
+          FileUtils.deleteQuietly(file);
+        }
+      }
+    };
+    if (closed) {
+      task.run();
+    } else {
+      deleteExecutor.execute(task);
+    }
+  }
+
+  /**
+   * Waits until all deletes submitted so far are done.
+   */
+  void awaitDeletes() throws InterruptedException, ExecutionException {
+    Future<?> marker;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      marker = deleteExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+    }
+    marker.get();
+  }
+
+  /**
+   * Finishes pending deletes and removes spare files which were not used.
+   */
+  void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    allocateExecutor.shutdown();
+    deleteExecutor.shutdown();
+    try {
+      allocateExecutor.awaitTermination(10, TimeUnit.SECONDS);
+      deleteExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      LOG.error("Interrupted while waiting for file allocator to finish.");
+      Thread.currentThread().interrupt();
+    }
+    for (int index = 0; index < spares.length(); index++) {
+      Future<LogFile.Writer> spare = spares.getAndSet(index, null);
+      if (spare != null) {
+        discard(spare);
+      }
+    }
+    for (File logDir : logDirs) {
+      deleteSpareDir(logDir);
+    }
+  }
+
+  private void discard(Future<LogFile.Writer> spare) {
+    if (!spare.isDone()) {
+      // leave it, it is removed with the spare directory
+      spare.cancel(false);
+      return;
+    }
+    LogFile.Writer writer;
+    try {
+      writer = spare.get();
+    } catch (Exception e) {
+      return;
+    }
+    writer.close();
+    File file = writer.getFile();
+    LOG.info("Removing unused spare file: " + file);
+    FileUtils.deleteQuietly(file);
+    FileUtils.deleteQuietly(Serialization.getMetaDataFile(file));
+  }
+
+  private static void deleteSpareDir(File logDir) {
+    File spareDir = new File(logDir, SPARE_DIR);
+    if (spareDir.exists()) {
+      LOG.info("Removing spare directory: " + spareDir);
+      FileUtils.deleteQuietly(spareDir);
+    }
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.flume.channel.file;
 
 import com.google.common.base.Preconditions;
 import org.apache.flume.channel.file.encryption.KeyProvider;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,13 +70,27 @@ class LogFileFactory {
                                   @Nullable String encryptionCipherProvider,
                                   long usableSpaceRefreshInterval, boolean fsyncPerTransaction,
                                   int fsyncInterval) throws IOException {
+    return getWriter(file, logFileID, maxFileSize, encryptionKey,
+        encryptionKeyAlias, encryptionCipherProvider, CompressionCodec.NONE,
+        null, usableSpaceRefreshInterval, fsyncPerTransaction, fsyncInterval);
+  }
+
+  static LogFile.Writer getWriter(File file, int logFileID,
+                                  long maxFileSize, @Nullable Key encryptionKey,
+                                  @Nullable String encryptionKeyAlias,
+                                  @Nullable String encryptionCipherProvider,
+                                  CompressionCodec compressionCodec,
+                                  @Nullable FileChannelCounter channelCounter,
+                                  long usableSpaceRefreshInterval, boolean fsyncPerTransaction,
+                                  int fsyncInterval) throws IOException {
     Preconditions.checkState(!file.exists(), "File already exists " +
         file.getAbsolutePath());
     Preconditions.checkState(file.createNewFile(), "File could not be created "
         + file.getAbsolutePath());
     return new LogFileV3.Writer(file, logFileID, maxFileSize, encryptionKey,
-        encryptionKeyAlias, encryptionCipherProvider,
-        usableSpaceRefreshInterval, fsyncPerTransaction, fsyncInterval);
+        encryptionKeyAlias, encryptionCipherProvider, compressionCodec,
+        channelCounter, usableSpaceRefreshInterval, fsyncPerTransaction,
+        fsyncInterval);
   }
 
   static LogFile.RandomReader getRandomReader(File file,
@@ -27,6 +27,7 @@ import org.apache.flume.channel.file.encryption.CipherProvider;
 import org.apache.flume.channel.file.encryption.CipherProviderFactory;
 import org.apache.flume.channel.file.encryption.DecryptionFailureException;
 import org.apache.flume.channel.file.encryption.KeyProvider;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
 import org.apache.flume.channel.file.proto.ProtosFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -178,18 +179,55 @@ public class LogFileV3 extends LogFile {
 
   }
 
+  /**
+   * @return the codec the records of the data file described by metaData
+   *         were compressed with
+   */
+  private static CompressionCodec getCompressionCodec(
+      ProtosFactory.LogFileMetaData metaData, File file) throws IOException {
+    if (!metaData.hasCompressionCodec()) {
+      return CompressionCodec.NONE;
+    }
+    try {
+      return CompressionCodec.fromString(metaData.getCompressionCodec());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unsupported compression codec " +
+          metaData.getCompressionCodec() + " file: " + file, e);
+    }
+  }
+
+  /**
+   * Decompresses a record read from a data file written with codec, after
+   * it has been decrypted.
+   */
+  private static byte[] decompress(CompressionCodec codec, byte[] buffer)
+      throws CorruptEventException {
+    if (codec == CompressionCodec.NONE) {
+      return buffer;
+    }
+    return RecordCompressor.decompress(codec, buffer);
+  }
+
   static class Writer extends LogFile.Writer {
     Writer(File file, int logFileID, long maxFileSize,
            @Nullable Key encryptionKey,
            @Nullable String encryptionKeyAlias,
            @Nullable String encryptionCipherProvider,
+           CompressionCodec compressionCodec,
+           @Nullable FileChannelCounter channelCounter,
            long usableSpaceRefreshInterval, boolean fsyncPerTransaction,
            int fsyncInterval) throws IOException {
       super(file, logFileID, maxFileSize,
             CipherProviderFactory.getEncrypter(encryptionCipherProvider, encryptionKey),
-            usableSpaceRefreshInterval, fsyncPerTransaction, fsyncInterval);
+            compressionCodec == CompressionCodec.NONE ? null :
+                new RecordCompressor(compressionCodec),
+            channelCounter, usableSpaceRefreshInterval, fsyncPerTransaction,
+            fsyncInterval);
       ProtosFactory.LogFileMetaData.Builder metaDataBuilder =
           ProtosFactory.LogFileMetaData.newBuilder();
+      if (compressionCodec != CompressionCodec.NONE) {
+        metaDataBuilder.setCompressionCodec(compressionCodec.name());
+      }
       if (encryptionKey != null) {
         Preconditions.checkNotNull(encryptionKeyAlias, "encryptionKeyAlias");
         Preconditions.checkNotNull(encryptionCipherProvider,
@@ -224,6 +262,7 @@ public class LogFileV3 extends LogFile {
     private volatile Key key;
     private volatile String cipherProvider;
     private volatile byte[] parameters;
+    private volatile CompressionCodec compressionCodec;
     private BlockingQueue<CipherProvider.Decryptor> decryptors =
         new LinkedBlockingDeque<CipherProvider.Decryptor>();
 
@@ -245,6 +284,7 @@ public class LogFileV3 extends LogFile {
               " expected " + Integer.toHexString(getVersion())
               + " file: " + getFile().getCanonicalPath());
         }
+        compressionCodec = getCompressionCodec(metaData, getFile());
         encryptionEnabled = false;
         if (metaData.hasEncryption()) {
           if (getKeyProvider() == null) {
@@ -300,6 +340,7 @@ public class LogFileV3 extends LogFile {
           decryptor = getDecryptor();
           buffer = decryptor.decrypt(buffer);
         }
+        buffer = decompress(compressionCodec, buffer);
         TransactionEventRecord event = TransactionEventRecord.fromByteArray(buffer);
         success = true;
         return event;
@@ -315,6 +356,7 @@ public class LogFileV3 extends LogFile {
 
   public static class SequentialReader extends LogFile.SequentialReader {
     private CipherProvider.Decryptor decryptor;
+    private final CompressionCodec compressionCodec;
     private final boolean fsyncPerTransaction;
 
     public SequentialReader(File file, @Nullable KeyProvider
@@ -334,6 +376,7 @@ public class LogFileV3 extends LogFile {
               " expected " + Integer.toHexString(getVersion())
               + " file: " + file.getCanonicalPath());
         }
+        compressionCodec = getCompressionCodec(metaData, file);
         if (metaData.hasEncryption()) {
           if (getKeyProvider() == null) {
             throw new IllegalStateException("Data file is encrypted but no " +
@@ -374,6 +417,7 @@ public class LogFileV3 extends LogFile {
         if (decryptor != null) {
           buffer = decryptor.decrypt(buffer);
         }
+        buffer = decompress(compressionCodec, buffer);
         event = TransactionEventRecord.fromByteArray(buffer);
       } catch (CorruptEventException ex) {
         LOGGER.warn("Corrupt file found. File id: log-" + this.getLogFileID(),
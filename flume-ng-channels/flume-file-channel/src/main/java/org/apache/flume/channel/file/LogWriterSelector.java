@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
+
+import javax.annotation.Nullable;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Chooses which data directory the records of a transaction are written
+ * to. All records of a transaction must go to the same data file, as a
+ * commit only syncs the file it is written to, so a transaction keeps the
+ * directory it was first given until {@link #release(long)} is called on
+ * commit or rollback.
+ */
+abstract class LogWriterSelector {
+
+  enum Type {
+    /**
+     * Transaction ID modulo the number of data directories.
+     */
+    MODULO,
+    /**
+     * Least loaded data directory with enough free space, see
+     * {@link LoadAware}.
+     */
+    LOADAWARE;
+
+    static Type fromString(String name) {
+      try {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown data directory " +
+            "selector: " + name, e);
+      }
+    }
+  }
+
+  static LogWriterSelector create(Type type,
+      AtomicReferenceArray<LogFile.Writer> logFiles, long minimumRequiredSpace,
+      @Nullable FileChannelCounter channelCounter) {
+    switch (type) {
+      case LOADAWARE:
+        return new LoadAware(logFiles, minimumRequiredSpace, channelCounter);
+      default:
+        return new Modulo(logFiles.length());
+    }
+  }
+
+  /**
+   * @return index of the data directory the next record of the
+   *         transaction should be written to
+   */
+  abstract int select(long transactionID);
+
+  /**
+   * Called once the transaction has been committed or rolled back.
+   */
+  void release(long transactionID) {
+  }
+
+  /**
+   * Called after every write of a record to the data directory at index.
+   */
+  void writeCompleted(int index, long elapsedNanos, boolean success) {
+  }
+
+  static class Modulo extends LogWriterSelector {
+    private final int count;
+
+    Modulo(int count) {
+      this.count = count;
+    }
+
+    @Override
+    int select(long transactionID) {
+      return (int) Math.abs(transactionID % (long) count);
+    }
+  }
+
+  /**
+   * Sends new transactions to the data directory with the lowest write
+   * latency weighted by the number of transactions already writing to it,
+   * skipping directories close to running out of space. Latency is an
+   * exponentially weighted moving average which decays while a directory
+   * is not written to, so a directory which was slow for a while is
+   * eventually tried again.
+   */
+  static class LoadAware extends LogWriterSelector {
+    /**
+     * Directories with less than minimumRequiredSpace plus this much usable
+     * space only get transactions if all others are low on space as well.
+     */
+    @VisibleForTesting
+    static final long SPACE_HEADROOM = 64L * 1024L * 1024L;
+    private static final double ALPHA = 0.2d;
+    private static final long DECAY_HALF_LIFE_NANOS =
+        TimeUnit.SECONDS.toNanos(10);
+    /**
+     * Added to the latency sample of a failed write.
+     */
+    private static final long FAILURE_PENALTY_NANOS =
+        TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicReferenceArray<LogFile.Writer> logFiles;
+    private final long minimumRequiredSpace;
+    private final FileChannelCounter channelCounter;
+    private final DirectoryLoad[] loads;
+    private final ConcurrentMap<Long, Integer> assignments =
+        Maps.newConcurrentMap();
+
+    LoadAware(AtomicReferenceArray<LogFile.Writer> logFiles,
+              long minimumRequiredSpace,
+              @Nullable FileChannelCounter channelCounter) {
+      Preconditions.checkArgument(logFiles.length() > 0, "No data directories");
+      this.logFiles = logFiles;
+      this.minimumRequiredSpace = minimumRequiredSpace;
+      this.channelCounter = channelCounter;
+      loads = new DirectoryLoad[logFiles.length()];
+      for (int i = 0; i < loads.length; i++) {
+        loads[i] = new DirectoryLoad();
+      }
+      if (channelCounter != null) {
+        channelCounter.setDataDirCount(loads.length);
+      }
+    }
+
+    @Override
+    int select(long transactionID) {
+      Integer index = assignments.get(transactionID);
+      if (index != null) {
+        return index;
+      }
+      index = choose(transactionID, System.nanoTime());
+      Integer previous = assignments.putIfAbsent(transactionID, index);
+      if (previous != null) {
+        return previous;
+      }
+      loads[index].openTransactions.incrementAndGet();
+      return index;
+    }
+
+    private int choose(long transactionID, long now) {
+      // start at a different directory for consecutive transactions so
+      // that equally loaded directories are used in turn
+      int start = (int) Math.abs(transactionID % (long) loads.length);
+      int best = -1;
+      double bestScore = Double.MAX_VALUE;
+      int roomiest = start;
+      long roomiestSpace = -1L;
+      for (int i = 0; i < loads.length; i++) {
+        int index = (start + i) % loads.length;
+        long usableSpace = getUsableSpace(index);
+        if (usableSpace > roomiestSpace) {
+          roomiest = index;
+          roomiestSpace = usableSpace;
+        }
+        if (usableSpace <= minimumRequiredSpace + SPACE_HEADROOM) {
+          continue;
+        }
+        double score = loads[index].score(now);
+        if (score < bestScore) {
+          best = index;
+          bestScore = score;
+        }
+      }
+      return best >= 0 ? best : roomiest;
+    }
+
+    private long getUsableSpace(int index) {
+      LogFile.Writer writer = logFiles.get(index);
+      // writers only go missing while the log is being opened
+      return writer == null ? Long.MAX_VALUE : writer.getUsableSpace();
+    }
+
+    @Override
+    void release(long transactionID) {
+      Integer index = assignments.remove(transactionID);
+      if (index != null) {
+        loads[index].openTransactions.decrementAndGet();
+      }
+    }
+
+    @Override
+    void writeCompleted(int index, long elapsedNanos, boolean success) {
+      long sample = success ? elapsedNanos : elapsedNanos + FAILURE_PENALTY_NANOS;
+      long latency = loads[index].update(sample, System.nanoTime());
+      if (channelCounter != null) {
+        channelCounter.setDataDirWriteLatency(index,
+            TimeUnit.NANOSECONDS.toMicros(latency));
+      }
+    }
+
+    @VisibleForTesting
+    int getOpenTransactions(int index) {
+      return loads[index].openTransactions.get();
+    }
+
+    private static class DirectoryLoad {
+      private final AtomicInteger openTransactions = new AtomicInteger();
+      private boolean sampled;
+      private double latencyNanos;
+      private long lastUpdate;
+
+      synchronized long update(long sampleNanos, long now) {
+        latencyNanos = sampled ?
+            ALPHA * sampleNanos + (1 - ALPHA) * decayed(now) : sampleNanos;
+        sampled = true;
+        lastUpdate = now;
+        return (long) latencyNanos;
+      }
+
+      synchronized double score(long now) {
+        return (decayed(now) + 1d) * (openTransactions.get() + 1);
+      }
+
+      private double decayed(long now) {
+        if (!sampled) {
+          return 0d;
+        }
+        long idle = now - lastUpdate;
+        if (idle <= 0L) {
+          return latencyNanos;
+        }
+        return latencyNanos * Math.pow(0.5d,
+            idle / (double) DECAY_HALF_LIFE_NANOS);
+      }
+    }
+  }
+}
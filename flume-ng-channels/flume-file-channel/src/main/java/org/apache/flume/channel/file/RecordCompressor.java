@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import com.google.common.base.Preconditions;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses the serialized records of a data file. Each record is
+ * prefixed with a flag saying whether the rest of it is compressed, as
+ * records which are small (takes, commits, rollbacks) or do not compress
+ * well are stored as is.
+ * <p>
+ * Instances reuse their output buffer and are not thread safe, the
+ * {@link LogFile.Writer} which owns one only calls it while holding its
+ * monitor.
+ */
+class RecordCompressor {
+
+  static final byte STORED = 0;
+  static final byte COMPRESSED = 1;
+
+  /**
+   * Records shorter than this are not worth trying to compress.
+   */
+  static final int MIN_COMPRESSIBLE_SIZE = 64;
+  private static final int MAX_OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+  private final CompressionCodec codec;
+  private byte[] output;
+
+  RecordCompressor(CompressionCodec codec) {
+    Preconditions.checkArgument(codec == CompressionCodec.SNAPPY,
+        "Unsupported compression codec: " + codec);
+    this.codec = codec;
+  }
+
+  CompressionCodec getCodec() {
+    return codec;
+  }
+
+  /**
+   * @return the flagged record in a buffer which is overwritten by the
+   *         next call
+   */
+  ByteBuffer compress(ByteBuffer record) throws IOException {
+    int length = record.remaining();
+    byte[] input;
+    int offset;
+    if (record.hasArray()) {
+      input = record.array();
+      offset = record.arrayOffset() + record.position();
+    } else {
+      input = new byte[length];
+      record.duplicate().get(input);
+      offset = 0;
+    }
+    byte[] buffer = getOutputBuffer(1 + Snappy.maxCompressedLength(length));
+    if (length >= MIN_COMPRESSIBLE_SIZE) {
+      int compressed = Snappy.compress(input, offset, length, buffer, 1);
+      if (compressed < length) {
+        buffer[0] = COMPRESSED;
+        return ByteBuffer.wrap(buffer, 0, 1 + compressed);
+      }
+    }
+    buffer[0] = STORED;
+    System.arraycopy(input, offset, buffer, 1, length);
+    return ByteBuffer.wrap(buffer, 0, 1 + length);
+  }
+
+  /**
+   * @return the most {@link #compress(ByteBuffer)} returns for a record of
+   *         the given length: the flag and the record stored as is, since
+   *         compressed output which is not shorter than that is discarded
+   */
+  int getMaxCompressedLength(int length) {
+    return 1 + length;
+  }
+
+  private byte[] getOutputBuffer(int size) {
+    if (size > MAX_OUTPUT_BUFFER_SIZE) {
+      return new byte[size];
+    }
+    if (output == null || output.length < size) {
+      output = new byte[Math.max(size, output == null ? 0 :
+          Math.min(output.length * 2, MAX_OUTPUT_BUFFER_SIZE))];
+    }
+    return output;
+  }
+
+  /**
+   * Reverses {@link #compress(ByteBuffer)}.
+   */
+  static byte[] decompress(CompressionCodec codec, byte[] record)
+      throws CorruptEventException {
+    Preconditions.checkArgument(codec == CompressionCodec.SNAPPY,
+        "Unsupported compression codec: " + codec);
+    if (record.length == 0) {
+      throw new CorruptEventException("Compressed record is empty");
+    }
+    switch (record[0]) {
+      case STORED:
+        byte[] stored = new byte[record.length - 1];
+        System.arraycopy(record, 1, stored, 0, stored.length);
+        return stored;
+      case COMPRESSED:
+        try {
+          byte[] result = new byte[
+              Snappy.uncompressedLength(record, 1, record.length - 1)];
+          Snappy.uncompress(record, 1, record.length - 1, result, 0);
+          return result;
+        } catch (IOException e) {
+          throw new CorruptEventException("Unable to decompress record", e);
+        }
+      default:
+        throw new CorruptEventException("Unknown record compression flag " +
+            record[0]);
+    }
+  }
+}
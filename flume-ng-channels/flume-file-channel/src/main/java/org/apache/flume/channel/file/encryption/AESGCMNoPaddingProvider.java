@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * Authenticated encryption of data file records with AES in Galois/Counter
+ * mode. Unlike {@link AESCTRNoPaddingProvider} every record carries a 128 bit
+ * authentication tag, so a corrupted or tampered record fails to decrypt
+ * instead of being parsed as garbage.
+ * <p>
+ * The parameters stored in the data file metadata are a random 96 bit base
+ * nonce. Each record is encrypted under a nonce derived from the base and a
+ * per encryptor record counter, which is written in front of the cipher
+ * text: {@code counter (8 bytes) | cipher text | tag (16 bytes)}.
+ * <p>
+ * Encryptors and decryptors hold on to a single Cipher instance and, like
+ * the CTR provider, are not thread safe. Requires a JCE provider which
+ * supports GCM, e.g. the SunJCE provider of Java 8 and later.
+ */
+public class AESGCMNoPaddingProvider extends CipherProvider {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(AESGCMNoPaddingProvider.class);
+  static final String TYPE = "AES/GCM/NoPadding";
+  static final int NONCE_LENGTH = 12;
+  static final int COUNTER_LENGTH = 8;
+  static final int TAG_LENGTH = 16;
+
+  public Encryptor.Builder<AESGCMNoPaddingEncryptor> newEncryptorBuilder() {
+    return new EncryptorBuilder();
+  }
+
+  public Decryptor.Builder<AESGCMNoPaddingDecryptor> newDecryptorBuilder() {
+    return new DecryptorBuilder();
+  }
+
+  public static class EncryptorBuilder
+      extends CipherProvider.Encryptor.Builder<AESGCMNoPaddingEncryptor> {
+
+    @Override
+    public AESGCMNoPaddingEncryptor build() {
+      byte[] nonce = new byte[NONCE_LENGTH];
+      new SecureRandom().nextBytes(nonce);
+      return new AESGCMNoPaddingEncryptor(key, nonce);
+    }
+  }
+
+  public static class DecryptorBuilder
+      extends CipherProvider.Decryptor.Builder<AESGCMNoPaddingDecryptor> {
+    @Override
+    public AESGCMNoPaddingDecryptor build() {
+      return new AESGCMNoPaddingDecryptor(key, parameters);
+    }
+  }
+
+  private static class AESGCMNoPaddingEncryptor extends Encryptor {
+    private final Key key;
+    private final byte[] parameters;
+    private final byte[] nonce;
+    private final Cipher cipher;
+    private long counter;
+
+    private AESGCMNoPaddingEncryptor(Key key, byte[] parameters) {
+      this.key = key;
+      this.parameters = parameters;
+      nonce = new byte[NONCE_LENGTH];
+      cipher = getCipher();
+      // fail fast on bad keys rather than on the first record
+      init(cipher, key, Cipher.ENCRYPT_MODE, parameters);
+    }
+
+    @Override
+    public byte[] getParameters() {
+      return parameters;
+    }
+
+    @Override
+    public String getCodec() {
+      return TYPE;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] clearText) {
+      Preconditions.checkNotNull(clearText, "clearText cannot be null");
+      byte[] cipherText = new byte[getOutputSize(clearText.length)];
+      ByteBuffer result = ByteBuffer.wrap(cipherText);
+      doEncrypt(ByteBuffer.wrap(clearText), result);
+      return cipherText;
+    }
+
+    @Override
+    public int getEncryptedLength(int clearTextLength) {
+      return getOutputSize(clearTextLength);
+    }
+
+    /**
+     * Encrypts into the caller's buffer, e.g. the data file writer's direct
+     * record buffer, so the cipher text is not copied again.
+     */
+    @Override
+    public void encrypt(ByteBuffer clearText, ByteBuffer output) {
+      Preconditions.checkNotNull(clearText, "clearText cannot be null");
+      Preconditions.checkArgument(
+          output.remaining() >= getOutputSize(clearText.remaining()),
+          "output buffer too small");
+      doEncrypt(clearText.duplicate(), output);
+    }
+
+    private int getOutputSize(int clearTextLength) {
+      return COUNTER_LENGTH + clearTextLength + TAG_LENGTH;
+    }
+
+    private void doEncrypt(ByteBuffer clearText, ByteBuffer cipherText) {
+      long recordCounter = ++counter;
+      cipherText.putLong(recordCounter);
+      init(cipher, key, Cipher.ENCRYPT_MODE,
+          nonce(parameters, recordCounter, nonce));
+      doFinal(cipher, clearText, cipherText);
+    }
+  }
+
+  private static class AESGCMNoPaddingDecryptor extends Decryptor {
+    private final Key key;
+    private final byte[] parameters;
+    private final byte[] nonce;
+    private final Cipher cipher;
+
+    private AESGCMNoPaddingDecryptor(Key key, byte[] parameters) {
+      Preconditions.checkArgument(parameters != null &&
+          parameters.length == NONCE_LENGTH, "Invalid parameters for " + TYPE);
+      this.key = key;
+      this.parameters = parameters;
+      nonce = new byte[NONCE_LENGTH];
+      cipher = getCipher();
+      init(cipher, key, Cipher.DECRYPT_MODE, parameters);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] cipherText) {
+      Preconditions.checkNotNull(cipherText, "cipherText cannot be null");
+      if (cipherText.length < COUNTER_LENGTH + TAG_LENGTH) {
+        throw new DecryptionFailureException("Record of length " +
+            cipherText.length + " is too short to have been encrypted with " +
+            TYPE);
+      }
+      ByteBuffer input = ByteBuffer.wrap(cipherText);
+      long recordCounter = input.getLong();
+      init(cipher, key, Cipher.DECRYPT_MODE,
+          nonce(parameters, recordCounter, nonce));
+      byte[] clearText =
+          new byte[cipherText.length - COUNTER_LENGTH - TAG_LENGTH];
+      doFinal(cipher, input, ByteBuffer.wrap(clearText));
+      return clearText;
+    }
+
+    @Override
+    public String getCodec() {
+      return TYPE;
+    }
+  }
+
+  /**
+   * Derives the nonce of a record by xoring the record counter into the
+   * low 64 bits of the base nonce.
+   */
+  private static byte[] nonce(byte[] base, long counter, byte[] nonce) {
+    System.arraycopy(base, 0, nonce, 0, NONCE_LENGTH);
+    for (int i = NONCE_LENGTH - 1; i >= NONCE_LENGTH - 8; i--) {
+      nonce[i] ^= (byte) counter;
+      counter >>>= 8;
+    }
+    return nonce;
+  }
+
+  private static void doFinal(Cipher cipher, ByteBuffer input,
+                              ByteBuffer output)
+      throws DecryptionFailureException {
+    int length = input.remaining();
+    try {
+      cipher.doFinal(input, output);
+    } catch (Exception e) {
+      String msg = "Unable to encrypt or decrypt data " + TYPE
+          + " input.length " + length;
+      LOG.error(msg, e);
+      throw new DecryptionFailureException(msg, e);
+    }
+  }
+
+  private static Cipher getCipher() {
+    try {
+      return Cipher.getInstance(TYPE);
+    } catch (Exception e) {
+      String msg = "Unable to load transformation: " + TYPE;
+      LOG.error(msg, e);
+      throw Throwables.propagate(e);
+    }
+  }
+
+  private static void init(Cipher cipher, Key key, int mode, byte[] nonce) {
+    try {
+      cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+    } catch (Exception e) {
+      String msg = "Unable to load key using transformation: " + TYPE;
+      if (e instanceof InvalidKeyException) {
+        try {
+          int maxAllowedLen = Cipher.getMaxAllowedKeyLength(TYPE);
+          if (maxAllowedLen < 256) {
+            msg += "; Warning: Maximum allowed key length = " + maxAllowedLen
+                + " with the available JCE security policy files. Have you"
+                + " installed the JCE unlimited strength jurisdiction policy"
+                + " files?";
+          }
+        } catch (NoSuchAlgorithmException ex) {
+          msg += "; Unable to find specified algorithm?";
+        }
+      }
+      LOG.error(msg, e);
+      throw Throwables.propagate(e);
+    }
+  }
+}
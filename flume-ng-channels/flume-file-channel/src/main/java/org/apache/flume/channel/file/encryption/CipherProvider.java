@@ -18,6 +18,7 @@
  */
 package org.apache.flume.channel.file.encryption;
 
+import java.nio.ByteBuffer;
 import java.security.Key;
 
 import com.google.common.base.Preconditions;
@@ -30,6 +31,25 @@ public abstract class CipherProvider {
   public abstract static class Encryptor {
 
     public abstract byte[] encrypt(byte[] clearText);
+
+    /**
+     * @return the length of the cipher text of a clear text of the given
+     * length, or -1 if this encryptor can not tell before encrypting, in
+     * which case it does not support {@link #encrypt(ByteBuffer, ByteBuffer)}
+     */
+    public int getEncryptedLength(int clearTextLength) {
+      return -1;
+    }
+
+    /**
+     * Encrypts the remaining bytes of clearText straight into output, which
+     * must have {@link #getEncryptedLength(int)} bytes remaining.
+     */
+    public void encrypt(ByteBuffer clearText, ByteBuffer output) {
+      throw new UnsupportedOperationException(getCodec() +
+          " does not encrypt into a buffer");
+    }
+
     public abstract byte[] getParameters();
     public abstract String getCodec();
 
@@ -20,6 +20,7 @@ package org.apache.flume.channel.file.encryption;
 
 public enum CipherProviderType {
   AESCTRNOPADDING(AESCTRNoPaddingProvider.class),
+  AESGCMNOPADDING(AESGCMNoPaddingProvider.class),
   OTHER(null);
 
   private final Class<? extends CipherProvider> providerClass;
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file.instrumentation;
+
+import org.apache.flume.instrumentation.ChannelCounter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class FileChannelCounter extends ChannelCounter
+    implements FileChannelCounterMBean {
+
+  private static final String COUNTER_UNCOMPRESSED_BYTES =
+      "channel.file.compression.bytes.in";
+
+  private static final String COUNTER_COMPRESSED_BYTES =
+      "channel.file.compression.bytes.out";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_UNCOMPRESSED_BYTES, COUNTER_COMPRESSED_BYTES
+  };
+
+  private volatile AtomicLongArray dataDirWriteLatencies =
+      new AtomicLongArray(0);
+
+  public FileChannelCounter(String name) {
+    super(name, ATTRIBUTES);
+  }
+
+  /**
+   * Accounts for a data file record which was compressed from
+   * uncompressedSize to compressedSize bytes.
+   */
+  public void addToCompressedRecordSize(long uncompressedSize,
+                                        long compressedSize) {
+    addAndGet(COUNTER_UNCOMPRESSED_BYTES, uncompressedSize);
+    addAndGet(COUNTER_COMPRESSED_BYTES, compressedSize);
+  }
+
+  @Override
+  public long getUncompressedBytes() {
+    return get(COUNTER_UNCOMPRESSED_BYTES);
+  }
+
+  @Override
+  public long getCompressedBytes() {
+    return get(COUNTER_COMPRESSED_BYTES);
+  }
+
+  @Override
+  public double getCompressionRatio() {
+    long compressed = getCompressedBytes();
+    if (compressed != 0L) {
+      return getUncompressedBytes() / (double) compressed;
+    }
+    return 1.0d;
+  }
+
+  /**
+   * Resets the per data directory write latencies for count directories.
+   */
+  public void setDataDirCount(int count) {
+    dataDirWriteLatencies = new AtomicLongArray(count);
+  }
+
+  public void setDataDirWriteLatency(int index, long micros) {
+    AtomicLongArray latencies = dataDirWriteLatencies;
+    if (index < latencies.length()) {
+      latencies.set(index, micros);
+    }
+  }
+
+  public long getDataDirWriteLatency(int index) {
+    return dataDirWriteLatencies.get(index);
+  }
+
+  /**
+   * @return comma separated average write latencies in microseconds, in
+   *         the order the data directories are configured in
+   */
+  @Override
+  public String getDataDirWriteLatencies() {
+    AtomicLongArray latencies = dataDirWriteLatencies;
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < latencies.length(); i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(latencies.get(i));
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public long getMaxDataDirWriteLatency() {
+    AtomicLongArray latencies = dataDirWriteLatencies;
+    long max = 0L;
+    for (int i = 0; i < latencies.length(); i++) {
+      max = Math.max(max, latencies.get(i));
+    }
+    return max;
+  }
+}
@@ -1640,6 +1640,21 @@ public final class ProtosFactory {
      * <code>optional sfixed64 backupCheckpointWriteOrderID = 7;</code>
      */
     long getBackupCheckpointWriteOrderID();
+
+    // optional string compressionCodec = 8;
+    /**
+     * <code>optional string compressionCodec = 8;</code>
+     */
+    boolean hasCompressionCodec();
+    /**
+     * <code>optional string compressionCodec = 8;</code>
+     */
+    java.lang.String getCompressionCodec();
+    /**
+     * <code>optional string compressionCodec = 8;</code>
+     */
+    com.google.protobuf.ByteString
+        getCompressionCodecBytes();
   }
   /**
    * Protobuf type {@code LogFileMetaData}
@@ -1735,6 +1750,11 @@ public final class ProtosFactory {
               backupCheckpointWriteOrderID_ = input.readSFixed64();
               break;
             }
+            case 66: {
+              bitField0_ |= 0x00000080;
+              compressionCodec_ = input.readBytes();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -1893,6 +1913,49 @@ public final class ProtosFactory {
       return backupCheckpointWriteOrderID_;
     }
 
+    // optional string compressionCodec = 8;
+    public static final int COMPRESSIONCODEC_FIELD_NUMBER = 8;
+    private java.lang.Object compressionCodec_;
+    /**
+     * <code>optional string compressionCodec = 8;</code>
+     */
+    public boolean hasCompressionCodec() {
+      return ((bitField0_ & 0x00000080) == 0x00000080);
+    }
+    /**
+     * <code>optional string compressionCodec = 8;</code>
+     */
+    public java.lang.String getCompressionCodec() {
+      java.lang.Object ref = compressionCodec_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          compressionCodec_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string compressionCodec = 8;</code>
+     */
+    public com.google.protobuf.ByteString
+        getCompressionCodecBytes() {
+      java.lang.Object ref = compressionCodec_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        compressionCodec_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
     private void initFields() {
       version_ = 0;
       logFileID_ = 0;
@@ -1901,6 +1964,7 @@ public final class ProtosFactory {
       encryption_ = org.apache.flume.channel.file.proto.ProtosFactory.LogFileEncryption.getDefaultInstance();
       backupCheckpointPosition_ = 0L;
       backupCheckpointWriteOrderID_ = 0L;
+      compressionCodec_ = "";
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -1957,6 +2021,9 @@ public final class ProtosFactory {
       if (((bitField0_ & 0x00000040) == 0x00000040)) {
         output.writeSFixed64(7, backupCheckpointWriteOrderID_);
       }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        output.writeBytes(8, getCompressionCodecBytes());
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -1994,6 +2061,10 @@ public final class ProtosFactory {
         size += com.google.protobuf.CodedOutputStream
           .computeSFixed64Size(7, backupCheckpointWriteOrderID_);
       }
+      if (((bitField0_ & 0x00000080) == 0x00000080)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(8, getCompressionCodecBytes());
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -2129,6 +2200,8 @@ public final class ProtosFactory {
         bitField0_ = (bitField0_ & ~0x00000020);
         backupCheckpointWriteOrderID_ = 0L;
         bitField0_ = (bitField0_ & ~0x00000040);
+        compressionCodec_ = "";
+        bitField0_ = (bitField0_ & ~0x00000080);
         return this;
       }
 
@@ -2189,6 +2262,10 @@ public final class ProtosFactory {
           to_bitField0_ |= 0x00000040;
         }
         result.backupCheckpointWriteOrderID_ = backupCheckpointWriteOrderID_;
+        if (((from_bitField0_ & 0x00000080) == 0x00000080)) {
+          to_bitField0_ |= 0x00000080;
+        }
+        result.compressionCodec_ = compressionCodec_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -2226,6 +2303,11 @@ public final class ProtosFactory {
         if (other.hasBackupCheckpointWriteOrderID()) {
           setBackupCheckpointWriteOrderID(other.getBackupCheckpointWriteOrderID());
         }
+        if (other.hasCompressionCodec()) {
+          bitField0_ |= 0x00000080;
+          compressionCodec_ = other.compressionCodec_;
+          onChanged();
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -2590,6 +2672,80 @@ public final class ProtosFactory {
         return this;
       }
 
+      // optional string compressionCodec = 8;
+      private java.lang.Object compressionCodec_ = "";
+      /**
+       * <code>optional string compressionCodec = 8;</code>
+       */
+      public boolean hasCompressionCodec() {
+        return ((bitField0_ & 0x00000080) == 0x00000080);
+      }
+      /**
+       * <code>optional string compressionCodec = 8;</code>
+       */
+      public java.lang.String getCompressionCodec() {
+        java.lang.Object ref = compressionCodec_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          compressionCodec_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string compressionCodec = 8;</code>
+       */
+      public com.google.protobuf.ByteString
+          getCompressionCodecBytes() {
+        java.lang.Object ref = compressionCodec_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b =
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          compressionCodec_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string compressionCodec = 8;</code>
+       */
+      public Builder setCompressionCodec(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000080;
+        compressionCodec_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string compressionCodec = 8;</code>
+       */
+      public Builder clearCompressionCodec() {
+        bitField0_ = (bitField0_ & ~0x00000080);
+        compressionCodec_ = getDefaultInstance().getCompressionCodec();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string compressionCodec = 8;</code>
+       */
+      public Builder setCompressionCodecBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000080;
+        compressionCodec_ = value;
+        onChanged();
+        return this;
+      }
+
       // @@protoc_insertion_point(builder_scope:LogFileMetaData)
     }
 
@@ -7529,13 +7685,14 @@ public final class ProtosFactory {
       "sion\030\001 \002(\017\022\024\n\014writeOrderID\030\002 \002(\020\022\021\n\tqueu" +
       "eSize\030\003 \002(\017\022\021\n\tqueueHead\030\004 \002(\017\022\036\n\nactive" +
       "Logs\030\005 \003(\0132\n.ActiveLog\"-\n\tActiveLog\022\021\n\tl" +
-      "ogFileID\030\001 \002(\017\022\r\n\005count\030\002 \002(\017\"\341\001\n\017LogFil" +
+      "ogFileID\030\001 \002(\017\022\r\n\005count\030\002 \002(\017\"\373\001\n\017LogFil" +
       "eMetaData\022\017\n\007version\030\001 \002(\017\022\021\n\tlogFileID\030" +
       "\002 \002(\017\022\032\n\022checkpointPosition\030\003 \002(\020\022\036\n\026che" +
       "ckpointWriteOrderID\030\004 \002(\020\022&\n\nencryption\030" +
       "\005 \001(\0132\022.LogFileEncryption\022 \n\030backupCheck" +
       "pointPosition\030\006 \001(\020\022$\n\034backupCheckpointW",
-      "riteOrderID\030\007 \001(\020\"Q\n\021LogFileEncryption\022\026" +
+      "riteOrderID\030\007 \001(\020\022\030\n\020compressionCodec\030\010 \001(\t\"Q\n\021" +
+      "LogFileEncryption\022\026" +
       "\n\016cipherProvider\030\001 \002(\t\022\020\n\010keyAlias\030\002 \002(\t" +
       "\022\022\n\nparameters\030\003 \001(\014\"S\n\026TransactionEvent" +
       "Header\022\014\n\004type\030\001 \002(\017\022\025\n\rtransactionID\030\002 " +
@@ -7571,7 +7728,7 @@ public final class ProtosFactory {
           internal_static_LogFileMetaData_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_LogFileMetaData_descriptor,
-              new java.lang.String[] { "Version", "LogFileID", "CheckpointPosition", "CheckpointWriteOrderID", "Encryption", "BackupCheckpointPosition", "BackupCheckpointWriteOrderID", });
+              new java.lang.String[] { "Version", "LogFileID", "CheckpointPosition", "CheckpointWriteOrderID", "Encryption", "BackupCheckpointPosition", "BackupCheckpointWriteOrderID", "CompressionCodec", });
           internal_static_LogFileEncryption_descriptor =
             getDescriptor().getMessageTypes().get(3);
           internal_static_LogFileEncryption_fieldAccessorTable = new
@@ -26,6 +26,7 @@ import org.apache.flume.Event;
 import org.apache.flume.Transaction;
 import org.apache.flume.channel.file.FileChannel.FileBackedTransaction;
 import org.apache.flume.channel.file.FlumeEventQueue.InflightEventWrapper;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
 import org.apache.flume.conf.Configurables;
 import org.apache.flume.event.EventBuilder;
 import org.junit.After;
@@ -232,6 +233,48 @@ public class TestFileChannel extends TestFileChannelBase {
     compareInputAndOut(expected, actual);
   }
 
+  @Test
+  public void testLoadAwareDataDirSelector() throws Exception {
+    Map<String, String> overrides = Maps.newHashMap();
+    overrides.put(FileChannelConfiguration.DATA_DIR_SELECTOR, "loadAware");
+    channel = createFileChannel(overrides);
+    channel.start();
+    Assert.assertTrue(channel.isOpen());
+    Set<String> expected = putEvents(channel, "loadAware", 5, 100);
+    FileChannelCounter counter = field("channelCounter")
+        .ofType(FileChannelCounter.class)
+        .in(channel).get();
+    Assert.assertEquals(dataDirs.length,
+        counter.getDataDirWriteLatencies().split(",").length);
+    channel.stop();
+    channel = createFileChannel(overrides);
+    channel.start();
+    Assert.assertTrue(channel.isOpen());
+    compareInputAndOut(expected, consumeChannel(channel));
+  }
+
+  @Test
+  public void testCompressedReplayAfterCodecChange() throws Exception {
+    Map<String, String> overrides = Maps.newHashMap();
+    overrides.put(FileChannelConfiguration.COMPRESSION_CODEC, "snappy");
+    channel = createFileChannel(overrides);
+    channel.start();
+    Assert.assertTrue(channel.isOpen());
+    Set<String> expected = putEvents(channel, "compressed", 10, 100);
+    FileChannelCounter counter = field("channelCounter")
+        .ofType(FileChannelCounter.class)
+        .in(channel).get();
+    Assert.assertTrue(counter.getUncompressedBytes() > 0);
+    Assert.assertTrue(counter.getCompressedBytes() > 0);
+    channel.stop();
+    // data files written with a codec stay readable once it is turned off
+    channel = createFileChannel();
+    channel.start();
+    Assert.assertTrue(channel.isOpen());
+    expected.addAll(putEvents(channel, "uncompressed", 10, 100));
+    compareInputAndOut(expected, consumeChannel(channel));
+  }
+
   @Test
   public void testCommitAfterNoPutTake() throws Exception {
     channel.start();
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestGatheringPutEncoder {
+
+  @Test
+  public void testMatchesProtobufSerialization() throws Exception {
+    Map<String, String> headers = new HashMap<String, String>();
+    headers.put("key", "value");
+    headers.put("timestamp", String.valueOf(System.currentTimeMillis()));
+    assertSameAsProtobuf(new Put(1L, WriteOrderOracle.next(),
+        new FlumeEvent(headers, new byte[] { 1, 2, 3 })));
+  }
+
+  @Test
+  public void testNullHeadersAndEmptyBody() throws Exception {
+    assertSameAsProtobuf(new Put(1L, WriteOrderOracle.next(),
+        new FlumeEvent(null, new byte[0])));
+  }
+
+  @Test
+  public void testLargeBody() throws Exception {
+    byte[] body = new byte[100 * 1024];
+    Arrays.fill(body, (byte) 'x');
+    Put in = new Put(Long.MAX_VALUE, WriteOrderOracle.next(),
+        new FlumeEvent(new HashMap<String, String>(), body));
+    byte[] bytes = assertSameAsProtobuf(in);
+    Put out = (Put) TransactionEventRecord.fromByteArray(bytes);
+    Assert.assertEquals(in.getTransactionID(), out.getTransactionID());
+    Assert.assertTrue(Arrays.equals(body, out.getEvent().getBody()));
+  }
+
+  private byte[] assertSameAsProtobuf(Put put) throws IOException {
+    GatheringPutEncoder encoder = new GatheringPutEncoder(put);
+    ByteBuffer framing = ByteBuffer.allocateDirect(encoder.getFramingSize());
+    encoder.writePrefix(framing);
+    int prefixSize = framing.position();
+    encoder.writeSuffix(framing);
+    Assert.assertEquals(encoder.getFramingSize(), framing.position());
+    framing.flip();
+
+    ByteBuffer gathered = ByteBuffer.allocate(encoder.getSerializedSize());
+    ByteBuffer prefix = framing.duplicate();
+    prefix.limit(prefixSize);
+    gathered.put(prefix);
+    gathered.put(encoder.getBody());
+    framing.position(prefixSize);
+    gathered.put(framing);
+    Assert.assertFalse(gathered.hasRemaining());
+
+    byte[] expected = TransactionEventRecord.toByteBuffer(put).array();
+    Assert.assertTrue(Arrays.equals(expected, gathered.array()));
+    return gathered.array();
+  }
+}
@@ -18,9 +18,19 @@
  */
 package org.apache.flume.channel.file;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
+import org.apache.flume.Context;
+import org.apache.flume.channel.file.encryption.CipherProviderFactory;
+import org.apache.flume.channel.file.encryption.CipherProviderType;
+import org.apache.flume.channel.file.encryption.EncryptionConfiguration;
+import org.apache.flume.channel.file.encryption.EncryptionTestUtils;
+import org.apache.flume.channel.file.encryption.KeyProvider;
+import org.apache.flume.channel.file.encryption.KeyProviderFactory;
+import org.apache.flume.channel.file.encryption.KeyProviderType;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -31,7 +41,10 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -550,6 +563,109 @@ public class TestLog {
     Assert.assertFalse(before == after);
   }
 
+  /**
+   * The roll check has to account for the cipher text being longer than
+   * the serialized record, otherwise a put which does not fit in the
+   * remaining space is retried against the same file and fails.
+   */
+  @Test
+  public void testRollWithEncryption() throws Exception {
+    File keyDir = Files.createTempDir();
+    try {
+      File keyStoreFile = new File(keyDir, "keyStoreFile");
+      Map<String, File> keyAliasPassword = Maps.newHashMap();
+      keyAliasPassword.putAll(
+          EncryptionTestUtils.configureTestKeyStore(keyDir, keyStoreFile));
+      File keyStorePasswordFile = new File(keyDir, "keyStorePasswordFile");
+      Files.write("keyStorePassword", keyStorePasswordFile, Charsets.UTF_8);
+      Context context = new Context(
+          EncryptionTestUtils.configureForKeyStore(keyStoreFile,
+              keyStorePasswordFile, keyAliasPassword));
+      KeyProvider keyProvider = KeyProviderFactory.getInstance(
+          KeyProviderType.JCEKSFILE.name(), new Context(
+              context.getSubProperties(EncryptionConfiguration.KEY_PROVIDER + ".")));
+      FlumeEvent eventIn = TestUtils.newPersistableEvent(100);
+      int length = TransactionEventRecord.toByteBuffer(
+          new Put(transactionID, WriteOrderOracle.next(), eventIn)).limit();
+      int encryptedLength = CipherProviderFactory.getEncrypter(
+          CipherProviderType.AESGCMNOPADDING.name(),
+          keyProvider.getKey("key-1")).getEncryptedLength(length);
+      Assert.assertTrue(encryptedLength > length + 10);
+      // after the first put the file is 10 bytes short of the size the
+      // plain text record would need
+      long maxFileSize = 1 + Serialization.SIZE_OF_INT + encryptedLength +
+          length + 10;
+      newSingleDirLog(new Log.Builder()
+          .setMaxFileSize(maxFileSize)
+          .setEncryptionKeyProvider(keyProvider)
+          .setEncryptionKeyAlias("key-1")
+          .setEncryptionCipherProvider(CipherProviderType.AESGCMNOPADDING.name()));
+      putTwiceAndVerify(eventIn);
+    } finally {
+      FileUtils.deleteQuietly(keyDir);
+    }
+  }
+
+  /**
+   * Records which do not compress are written with a flag byte in front,
+   * which the roll check has to count as well.
+   */
+  @Test
+  public void testRollWithCompression() throws Exception {
+    byte[] body = new byte[200];
+    new Random(42).nextBytes(body);
+    Map<String, String> headers = Maps.newHashMap();
+    FlumeEvent eventIn = new FlumeEvent(headers, body);
+    ByteBuffer record = TransactionEventRecord.toByteBuffer(
+        new Put(transactionID, WriteOrderOracle.next(), eventIn));
+    int length = record.limit();
+    int compressedLength = new RecordCompressor(CompressionCodec.SNAPPY)
+        .compress(record).remaining();
+    Assert.assertEquals(1 + length, compressedLength);
+    // after the first put the file has room for the record but not the flag
+    long maxFileSize = 1 + Serialization.SIZE_OF_INT + compressedLength +
+        length;
+    newSingleDirLog(new Log.Builder()
+        .setMaxFileSize(maxFileSize)
+        .setCompressionCodec(CompressionCodec.SNAPPY));
+    putTwiceAndVerify(eventIn);
+  }
+
+  /**
+   * Replaces the log created in setup with one writing to a single data
+   * directory, so that consecutive puts go to the same file.
+   */
+  private void newSingleDirLog(Log.Builder builder) throws Exception {
+    log.close();
+    log = null;
+    for (File dataDir : dataDirs) {
+      FileUtils.deleteQuietly(dataDir);
+    }
+    dataDirs = new File[] { Files.createTempDir() };
+    log = builder.setCheckpointInterval(1L)
+                 .setQueueSize(CAPACITY)
+                 .setCheckpointDir(checkpointDir)
+                 .setLogDirs(dataDirs)
+                 .setCheckpointOnClose(false)
+                 .setChannelName("testlog")
+                 .build();
+    log.replay();
+  }
+
+  private void putTwiceAndVerify(FlumeEvent eventIn) throws Exception {
+    long putTransactionID = ++transactionID;
+    FlumeEventPointer first = log.put(putTransactionID, eventIn);
+    FlumeEventPointer second = log.put(putTransactionID, eventIn);
+    log.commitPut(putTransactionID);
+    Assert.assertTrue(first.getFileID() != second.getFileID());
+    for (FlumeEventPointer eventPointer : new FlumeEventPointer[] { first, second }) {
+      FlumeEvent eventOut = log.get(eventPointer);
+      Assert.assertNotNull(eventOut);
+      Assert.assertEquals(eventIn.getHeaders(), eventOut.getHeaders());
+      Assert.assertArrayEquals(eventIn.getBody(), eventOut.getBody());
+    }
+  }
+
   private void takeAndVerify(FlumeEventPointer eventPointerIn, FlumeEvent eventIn)
       throws IOException, InterruptedException, NoopRecordException, CorruptEventException {
     FlumeEventQueue queue = log.getFlumeEventQueue();
@@ -22,6 +22,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
 import org.apache.flume.channel.file.proto.ProtosFactory;
 import org.junit.After;
 import org.junit.Assert;
@@ -405,4 +406,77 @@ public class TestLogFile {
 
     executorService.shutdown();
   }
+
+  @Test
+  public void testCompressedPutGetAndReplay() throws Exception {
+    File compressedFile = new File(dataDir, String.valueOf(fileID + 1));
+    FileChannelCounter counter = new FileChannelCounter("testCompression");
+    LogFile.Writer writer = LogFileFactory.getWriter(compressedFile,
+        fileID + 1, Integer.MAX_VALUE, null, null, null,
+        CompressionCodec.SNAPPY, counter, Long.MAX_VALUE, true, 0);
+    Map<Integer, Put> puts = Maps.newHashMap();
+    long size;
+    try {
+      for (int i = 0; i < 100; i++) {
+        // alternate between events which compress well and tiny ones
+        // which are stored as is
+        FlumeEvent eventIn = i % 2 == 0 ? TestUtils.newPersistableEvent(1000)
+            : TestUtils.newPersistableEvent();
+        Put put = new Put(++transactionID, WriteOrderOracle.next(), eventIn);
+        FlumeEventPointer ptr =
+            writer.put(TransactionEventRecord.toByteBuffer(put));
+        puts.put(ptr.getOffset(), put);
+        writer.commit(TransactionEventRecord.toByteBuffer(
+            new Commit(transactionID, WriteOrderOracle.next())));
+      }
+      size = writer.position();
+    } finally {
+      writer.close();
+    }
+    // the data file is preallocated, so look at what was written instead
+    Assert.assertTrue(size < 50 * 1000 / 2);
+    Assert.assertTrue(counter.getCompressionRatio() > 2.0d);
+
+    FileInputStream in = new FileInputStream(
+        Serialization.getMetaDataFile(compressedFile));
+    try {
+      ProtosFactory.LogFileMetaData metaData =
+          ProtosFactory.LogFileMetaData.parseDelimitedFrom(in);
+      Assert.assertEquals(CompressionCodec.SNAPPY.name(),
+          metaData.getCompressionCodec());
+    } finally {
+      in.close();
+    }
+
+    LogFile.RandomReader randomReader =
+        LogFileFactory.getRandomReader(compressedFile, null, true);
+    for (Map.Entry<Integer, Put> entry : puts.entrySet()) {
+      FlumeEvent eventIn = entry.getValue().getEvent();
+      FlumeEvent eventOut = randomReader.get(entry.getKey());
+      Assert.assertEquals(eventIn.getHeaders(), eventOut.getHeaders());
+      Assert.assertTrue(Arrays.equals(eventIn.getBody(), eventOut.getBody()));
+    }
+    randomReader.close();
+
+    LogFile.SequentialReader reader =
+        LogFileFactory.getSequentialReader(compressedFile, null, true);
+    int putCount = 0;
+    int commitCount = 0;
+    LogRecord entry;
+    while ((entry = reader.next()) != null) {
+      TransactionEventRecord record = entry.getEvent();
+      if (record instanceof Put) {
+        putCount++;
+        FlumeEvent eventIn = puts.get(entry.getOffset()).getEvent();
+        FlumeEvent eventOut = ((Put) record).getEvent();
+        Assert.assertTrue(Arrays.equals(eventIn.getBody(), eventOut.getBody()));
+      } else {
+        Assert.assertTrue(record instanceof Commit);
+        commitCount++;
+      }
+    }
+    reader.close();
+    Assert.assertEquals(100, putCount);
+    Assert.assertEquals(100, commitCount);
+  }
 }
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.Assert;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestLogFileAllocator {
+  private static final long PREALLOCATE_SIZE = 64 * 1024;
+  private File dataDir;
+  private AtomicInteger nextFileID;
+  private LogFileAllocator allocator;
+
+  @Before
+  public void setup() {
+    dataDir = Files.createTempDir();
+    nextFileID = new AtomicInteger();
+    allocator = new LogFileAllocator("test", new File[] { dataDir },
+        PREALLOCATE_SIZE, new LogFileAllocator.WriterFactory() {
+          @Override
+          public LogFile.Writer newWriter(File dir) throws IOException {
+            int fileID = nextFileID.incrementAndGet();
+            return LogFileFactory.getWriter(
+                new File(dir, Log.PREFIX + fileID), fileID,
+                FileChannelConfiguration.DEFAULT_MAX_FILE_SIZE, null, null,
+                null, Long.MAX_VALUE, true, 0);
+          }
+        });
+  }
+
+  @After
+  public void cleanup() {
+    allocator.close();
+    FileUtils.deleteQuietly(dataDir);
+  }
+
+  @Test
+  public void testSpareIsPreallocated() throws Exception {
+    Assert.assertNull(allocator.take(0));
+    allocator.allocate(0);
+    allocator.allocate(0);
+    LogFile.Writer writer = allocator.take(0);
+    Assert.assertNotNull(writer);
+    Assert.assertEquals(1, nextFileID.get());
+    Assert.assertNull(allocator.take(0));
+    try {
+      Assert.assertEquals(new File(dataDir, Log.PREFIX + 1), writer.getFile());
+      Assert.assertEquals(Lists.newArrayList(writer.getFile()),
+          LogUtils.getLogs(dataDir));
+      Assert.assertTrue(Serialization.getMetaDataFile(writer.getFile()).exists());
+      Assert.assertEquals(0L, writer.position());
+      Assert.assertEquals(PREALLOCATE_SIZE, writer.getFile().length());
+      RandomAccessFile file = new RandomAccessFile(writer.getFile(), "r");
+      try {
+        for (long i = 0; i < PREALLOCATE_SIZE; i++) {
+          Assert.assertEquals(LogFile.OP_EOF, file.readByte());
+        }
+      } finally {
+        file.close();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testSpareNotListedAsLog() throws Exception {
+    allocator.allocate(0);
+    // wait for the spare by handing out and allocating another one
+    allocator.take(0).close();
+    allocator.allocate(0);
+    Assert.assertEquals(1, LogUtils.getLogs(dataDir).size());
+    allocator.close();
+    Assert.assertEquals(2, nextFileID.get());
+    Assert.assertEquals(1, LogUtils.getLogs(dataDir).size());
+  }
+
+  @Test
+  public void testUnusedSpareRemovedOnClose() throws Exception {
+    allocator.allocate(0);
+    allocator.close();
+    Assert.assertNull(allocator.take(0));
+    Assert.assertEquals(1, nextFileID.get());
+    Assert.assertTrue(LogUtils.getLogs(dataDir).isEmpty());
+    Assert.assertFalse(new File(dataDir, LogFileAllocator.SPARE_DIR).exists());
+    // no more spares once closed
+    allocator.allocate(0);
+    Assert.assertNull(allocator.take(0));
+  }
+
+  @Test
+  public void testLeftoverSparesRemoved() throws Exception {
+    allocator.close();
+    File spareDir = new File(dataDir, LogFileAllocator.SPARE_DIR);
+    Assert.assertTrue(spareDir.mkdir());
+    Assert.assertTrue(new File(spareDir, Log.PREFIX + 1).createNewFile());
+    allocator = new LogFileAllocator("test", new File[] { dataDir },
+        PREALLOCATE_SIZE, new LogFileAllocator.WriterFactory() {
+          @Override
+          public LogFile.Writer newWriter(File dir) throws IOException {
+            throw new IOException("not expected");
+          }
+        });
+    Assert.assertFalse(spareDir.exists());
+  }
+
+  @Test
+  public void testFailedAllocation() throws Exception {
+    allocator.close();
+    allocator = new LogFileAllocator("test", new File[] { dataDir },
+        PREALLOCATE_SIZE, new LogFileAllocator.WriterFactory() {
+          @Override
+          public LogFile.Writer newWriter(File dir) throws IOException {
+            throw new IOException("disk full");
+          }
+        });
+    allocator.allocate(0);
+    Assert.assertNull(allocator.take(0));
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    File first = new File(dataDir, "first");
+    File second = new File(dataDir, "second");
+    Assert.assertTrue(first.createNewFile());
+    Assert.assertTrue(second.createNewFile());
+    allocator.delete(Lists.newArrayList(first, second));
+    allocator.awaitDeletes();
+    Assert.assertFalse(first.exists());
+    Assert.assertFalse(second.exists());
+  }
+}
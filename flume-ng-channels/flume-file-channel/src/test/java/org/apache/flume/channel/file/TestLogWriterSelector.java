@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import junit.framework.Assert;
+import org.apache.flume.channel.file.instrumentation.FileChannelCounter;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestLogWriterSelector {
+
+  private static final long MINIMUM_REQUIRED_SPACE = 1024L * 1024L;
+
+  @Test
+  public void testModulo() {
+    LogWriterSelector selector = LogWriterSelector.create(
+        LogWriterSelector.Type.MODULO, writers(Long.MAX_VALUE,
+            Long.MAX_VALUE, Long.MAX_VALUE), MINIMUM_REQUIRED_SPACE, null);
+    Assert.assertEquals(0, selector.select(3L));
+    Assert.assertEquals(1, selector.select(4L));
+    Assert.assertEquals(2, selector.select(5L));
+  }
+
+  @Test
+  public void testTransactionsStickToTheirDirectory() {
+    LogWriterSelector.LoadAware selector = loadAware(Long.MAX_VALUE,
+        Long.MAX_VALUE);
+    int index = selector.select(1L);
+    // make the chosen directory look much slower than the other one
+    selector.writeCompleted(index, TimeUnit.SECONDS.toNanos(1), true);
+    Assert.assertEquals(index, selector.select(1L));
+    Assert.assertEquals(1, selector.getOpenTransactions(index));
+    selector.release(1L);
+    Assert.assertEquals(0, selector.getOpenTransactions(index));
+    Assert.assertEquals(1 - index, selector.select(2L));
+  }
+
+  @Test
+  public void testSpreadsOpenTransactions() {
+    LogWriterSelector.LoadAware selector = loadAware(Long.MAX_VALUE,
+        Long.MAX_VALUE, Long.MAX_VALUE);
+    for (long transactionID = 0; transactionID < 30; transactionID++) {
+      selector.select(transactionID);
+    }
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(10, selector.getOpenTransactions(i));
+    }
+  }
+
+  @Test
+  public void testAvoidsSlowDirectory() {
+    LogWriterSelector.LoadAware selector = loadAware(Long.MAX_VALUE,
+        Long.MAX_VALUE);
+    selector.writeCompleted(0, TimeUnit.MILLISECONDS.toNanos(500), true);
+    selector.writeCompleted(1, TimeUnit.MILLISECONDS.toNanos(1), true);
+    for (long transactionID = 0; transactionID < 10; transactionID++) {
+      Assert.assertEquals(1, selector.select(transactionID));
+    }
+  }
+
+  @Test
+  public void testFailedWritesArePenalized() {
+    LogWriterSelector.LoadAware selector = loadAware(Long.MAX_VALUE,
+        Long.MAX_VALUE);
+    selector.writeCompleted(0, 1000L, true);
+    selector.writeCompleted(1, 1000L, false);
+    Assert.assertEquals(0, selector.select(1L));
+  }
+
+  @Test
+  public void testAvoidsDirectoryLowOnSpace() {
+    long low = MINIMUM_REQUIRED_SPACE +
+        LogWriterSelector.LoadAware.SPACE_HEADROOM / 2;
+    LogWriterSelector.LoadAware selector = loadAware(low, Long.MAX_VALUE);
+    // even if the directory with room is slower
+    selector.writeCompleted(1, TimeUnit.MILLISECONDS.toNanos(100), true);
+    for (long transactionID = 0; transactionID < 10; transactionID++) {
+      Assert.assertEquals(1, selector.select(transactionID));
+    }
+  }
+
+  @Test
+  public void testRoomiestDirectoryWhenAllAreLowOnSpace() {
+    LogWriterSelector.LoadAware selector = loadAware(MINIMUM_REQUIRED_SPACE,
+        MINIMUM_REQUIRED_SPACE * 2, MINIMUM_REQUIRED_SPACE / 2);
+    Assert.assertEquals(1, selector.select(0L));
+    Assert.assertEquals(1, selector.select(2L));
+  }
+
+  @Test
+  public void testLatencyIsReported() {
+    FileChannelCounter counter = new FileChannelCounter("testSelector");
+    LogWriterSelector selector = LogWriterSelector.create(
+        LogWriterSelector.Type.LOADAWARE, writers(Long.MAX_VALUE,
+            Long.MAX_VALUE), MINIMUM_REQUIRED_SPACE, counter);
+    selector.writeCompleted(1, TimeUnit.MILLISECONDS.toNanos(3), true);
+    Assert.assertEquals(0L, counter.getDataDirWriteLatency(0));
+    Assert.assertEquals(3000L, counter.getDataDirWriteLatency(1));
+    Assert.assertEquals("0,3000", counter.getDataDirWriteLatencies());
+    Assert.assertEquals(3000L, counter.getMaxDataDirWriteLatency());
+  }
+
+  private static LogWriterSelector.LoadAware loadAware(long... usableSpace) {
+    return (LogWriterSelector.LoadAware) LogWriterSelector.create(
+        LogWriterSelector.Type.LOADAWARE, writers(usableSpace),
+        MINIMUM_REQUIRED_SPACE, null);
+  }
+
+  private static AtomicReferenceArray<LogFile.Writer> writers(
+      long... usableSpace) {
+    AtomicReferenceArray<LogFile.Writer> writers =
+        new AtomicReferenceArray<LogFile.Writer>(usableSpace.length);
+    for (int i = 0; i < usableSpace.length; i++) {
+      LogFile.Writer writer = mock(LogFile.Writer.class);
+      when(writer.getUsableSpace()).thenReturn(usableSpace[i]);
+      writers.set(i, writer);
+    }
+    return writers;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestRecordCompressor {
+
+  private final RecordCompressor compressor =
+      new RecordCompressor(CompressionCodec.SNAPPY);
+
+  @Test
+  public void testCompressibleRecord() throws Exception {
+    byte[] record = new byte[10 * 1024];
+    Arrays.fill(record, (byte) 'a');
+    ByteBuffer compressed = compressor.compress(ByteBuffer.wrap(record));
+    Assert.assertEquals(RecordCompressor.COMPRESSED, compressed.get(0));
+    Assert.assertTrue(compressed.remaining() < record.length / 10);
+    Assert.assertTrue(Arrays.equals(record, decompress(compressed)));
+  }
+
+  @Test
+  public void testSmallRecordIsStored() throws Exception {
+    byte[] record = new byte[RecordCompressor.MIN_COMPRESSIBLE_SIZE - 1];
+    ByteBuffer compressed = compressor.compress(ByteBuffer.wrap(record));
+    Assert.assertEquals(RecordCompressor.STORED, compressed.get(0));
+    Assert.assertEquals(record.length + 1, compressed.remaining());
+    Assert.assertTrue(Arrays.equals(record, decompress(compressed)));
+  }
+
+  @Test
+  public void testIncompressibleRecordIsStored() throws Exception {
+    byte[] record = new byte[4096];
+    new Random(1).nextBytes(record);
+    ByteBuffer compressed = compressor.compress(ByteBuffer.wrap(record));
+    Assert.assertEquals(RecordCompressor.STORED, compressed.get(0));
+    Assert.assertTrue(Arrays.equals(record, decompress(compressed)));
+  }
+
+  @Test
+  public void testDirectAndOffsetBuffers() throws Exception {
+    byte[] record = new byte[2048];
+    Arrays.fill(record, (byte) 'b');
+    ByteBuffer direct = ByteBuffer.allocateDirect(record.length);
+    direct.put(record).flip();
+    Assert.assertTrue(Arrays.equals(record,
+        decompress(compressor.compress(direct))));
+    ByteBuffer padded = ByteBuffer.allocate(record.length + 10);
+    padded.position(10);
+    ByteBuffer slice = padded.slice();
+    slice.put(record).flip();
+    Assert.assertTrue(Arrays.equals(record,
+        decompress(compressor.compress(slice))));
+  }
+
+  @Test(expected = CorruptEventException.class)
+  public void testUnknownFlag() throws Exception {
+    RecordCompressor.decompress(CompressionCodec.SNAPPY, new byte[] { 7, 1 });
+  }
+
+  @Test(expected = CorruptEventException.class)
+  public void testCorruptCompressedRecord() throws Exception {
+    byte[] record = new byte[1024];
+    ByteBuffer compressed = compressor.compress(ByteBuffer.wrap(record));
+    byte[] truncated = new byte[compressed.remaining() / 2];
+    compressed.get(truncated);
+    RecordCompressor.decompress(CompressionCodec.SNAPPY, truncated);
+  }
+
+  private static byte[] decompress(ByteBuffer compressed) throws Exception {
+    byte[] bytes = new byte[compressed.remaining()];
+    compressed.duplicate().get(bytes);
+    return RecordCompressor.decompress(CompressionCodec.SNAPPY, bytes);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.channel.file.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.Key;
+
+import javax.crypto.KeyGenerator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TestAESGCMNoPaddingProvider {
+  private Key key;
+  private CipherProvider.Encryptor encryptor;
+  private CipherProvider.Decryptor decryptor;
+  private CipherProviderTestSuite cipherProviderTestSuite;
+
+  @Before
+  public void setup() throws Exception {
+    KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+    key = keyGen.generateKey();
+    encryptor = CipherProviderFactory.getEncrypter(
+        CipherProviderType.AESGCMNOPADDING.name(), key);
+    decryptor = CipherProviderFactory.getDecrypter(
+        CipherProviderType.AESGCMNOPADDING.name(), key, encryptor.getParameters());
+    cipherProviderTestSuite = new CipherProviderTestSuite(encryptor, decryptor);
+  }
+
+  @Test
+  public void test() throws Exception {
+    cipherProviderTestSuite.test();
+  }
+
+  @Test
+  public void testEncryptIntoDirectBuffer() throws Exception {
+    String expected = "mn state fair is the place to be";
+    byte[] clearText = expected.getBytes(Charsets.UTF_8);
+    int length = encryptor.getEncryptedLength(clearText.length);
+    ByteBuffer output = ByteBuffer.allocateDirect(length + 10);
+    output.put((byte) 1);
+    encryptor.encrypt(ByteBuffer.wrap(clearText), output);
+    Assert.assertEquals(1 + length, output.position());
+    output.flip();
+    output.get();
+    byte[] cipherBytes = new byte[output.remaining()];
+    output.get(cipherBytes);
+    Assert.assertEquals(expected,
+        new String(decryptor.decrypt(cipherBytes), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testRecordsUseDistinctNonces() throws Exception {
+    byte[] clearText = "same clear text".getBytes(Charsets.UTF_8);
+    byte[] first = encryptor.encrypt(clearText);
+    byte[] second = encryptor.encrypt(clearText);
+    Assert.assertFalse(ByteBuffer.wrap(first).equals(ByteBuffer.wrap(second)));
+    Assert.assertEquals("same clear text",
+        new String(decryptor.decrypt(second), Charsets.UTF_8));
+    Assert.assertEquals("same clear text",
+        new String(decryptor.decrypt(first), Charsets.UTF_8));
+  }
+
+  @Test(expected = DecryptionFailureException.class)
+  public void testCorruptionIsDetected() throws Exception {
+    byte[] cipherText = encryptor.encrypt("some event".getBytes(Charsets.UTF_8));
+    cipherText[cipherText.length / 2] ^= 1;
+    decryptor.decrypt(cipherText);
+  }
+
+  @Test(expected = DecryptionFailureException.class)
+  public void testTruncatedRecord() throws Exception {
+    decryptor.decrypt(new byte[AESGCMNoPaddingProvider.COUNTER_LENGTH]);
+  }
+}
@@ -217,6 +217,24 @@ public class TestFileChannelEncryption extends TestFileChannelBase {
     compareInputAndOut(in, out);
   }
   @Test
+  public void testAESGCMEncryptionDecryption() throws Exception {
+    Map<String, String> overrides = getOverridesForEncryption();
+    overrides.put(EncryptionConfiguration.ENCRYPTION_PREFIX + "." +
+        EncryptionConfiguration.CIPHER_PROVIDER,
+        CipherProviderType.AESGCMNOPADDING.name());
+    channel = createFileChannel(overrides);
+    channel.start();
+    Assert.assertTrue(channel.isOpen());
+    Set<String> in = fillChannel(channel, "restart");
+    channel.stop();
+    channel = TestUtils.createFileChannel(checkpointDir.getAbsolutePath(),
+        dataDir, overrides);
+    channel.start();
+    Assert.assertTrue(channel.isOpen());
+    Set<String> out =  consumeChannel(channel);
+    compareInputAndOut(in, out);
+  }
+  @Test
   public void testEncryptedChannelWithoutEncryptionConfigFails() throws Exception {
     Map<String, String> overrides = getOverridesForEncryption();
     channel = createFileChannel(overrides);
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.clients.log4jappender;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue on a ring buffer which takes no locks, so that threads
+ * adding elements never wait for the thread removing them. Any number of
+ * threads may add and remove elements at the same time.
+ *
+ * Each slot carries a sequence number telling whether it is free to be
+ * written at a given position or holds the element of that position, and
+ * threads claim positions with a compare and set on the head or the tail.
+ * The capacity is rounded up to a power of two.
+ */
+class EventRingBuffer<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  // position of the next element to be removed
+  private final AtomicLong head = new AtomicLong();
+  // position of the next element to be added
+  private final AtomicLong tail = new AtomicLong();
+
+  EventRingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " +
+          capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    elements = new AtomicReferenceArray<E>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds an element unless the buffer is full.
+   * @return false if the buffer was full
+   */
+  boolean offer(E element) {
+    while (true) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long diff = sequences.get(index) - position;
+      if (diff == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.set(index, element);
+          sequences.set(index, position + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        // the slot still holds the element from one lap before
+        return false;
+      }
+      // otherwise another thread added an element first, try again
+    }
+  }
+
+  /**
+   * Removes the oldest element.
+   * @return the element, or null if the buffer was empty
+   */
+  E poll() {
+    while (true) {
+      long position = head.get();
+      int index = (int) position & mask;
+      long diff = sequences.get(index) - (position + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          E element = elements.get(index);
+          elements.set(index, null);
+          sequences.set(index, position + mask + 1);
+          return element;
+        }
+      } else if (diff < 0) {
+        // the slot has not been written yet
+        return null;
+      }
+    }
+  }
+
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0L, Math.min(size, capacity()));
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+}
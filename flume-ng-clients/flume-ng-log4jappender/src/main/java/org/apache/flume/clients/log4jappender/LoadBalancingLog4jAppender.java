@@ -22,6 +22,7 @@ import java.util.Properties;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.FlumeException;
+import org.apache.flume.api.RpcClient;
 import org.apache.flume.api.RpcClientConfigurationConstants;
 import org.apache.flume.api.RpcClientFactory;
 import org.apache.flume.api.RpcClientFactory.ClientType;
@@ -39,8 +40,9 @@ import org.apache.log4j.spi.LoggingEvent;
  * </p>
  * <p>
  * <strong>Selector</strong> : Selection mechanism. Must be either ROUND_ROBIN,
- * RANDOM or custom FQDN to class that inherits from LoadBalancingSelector. If
- * empty defaults to ROUND_ROBIN
+ * RANDOM, LATENCY or custom FQDN to class that inherits from
+ * LoadBalancingSelector. LATENCY prefers the hosts which responded faster
+ * recently. If empty defaults to ROUND_ROBIN
  * </p>
  * The appender also takes the following optional parameters:
  * <p>
@@ -67,6 +69,10 @@ import org.apache.log4j.spi.LoggingEvent;
  * log4j.logger.org.apache.flume.clients.log4jappender = DEBUG,out2</p>
  * </pre>
  * <p>
+ * The Async, BufferSize, BatchSize and OverflowPolicy parameters of
+ * {@link Log4jAppender} apply as well.
+ * </p>
+ * <p>
  * <i>Note: Change the last line to the package of the class(es), that will do
  * the appending.For example if classes from the package com.bar.foo are
  * appending, the last line would be:</i>
@@ -121,12 +127,12 @@ public class LoadBalancingLog4jAppender extends Log4jAppender {
   @Override
   public void activateOptions() throws FlumeException {
     try {
-      final Properties properties = getProperties(hosts, selector, maxBackoff, getTimeout());
-      rpcClient = RpcClientFactory.getInstance(properties);
+      connect();
       if (layout != null) {
         layout.activateOptions();
       }
       configured = true;
+      startSender();
     } catch (Exception e) {
       String errormsg = "RPC client creation failed! " + e.getMessage();
       LogLog.error(errormsg);
@@ -138,6 +144,12 @@ public class LoadBalancingLog4jAppender extends Log4jAppender {
 
   }
 
+  @Override
+  RpcClient createRpcClient() throws FlumeException {
+    return RpcClientFactory.getInstance(
+        getProperties(hosts, selector, maxBackoff, getTimeout()));
+  }
+
   private Properties getProperties(String hosts, String selector,
       String maxBackoff, long timeout) throws FlumeException {
 
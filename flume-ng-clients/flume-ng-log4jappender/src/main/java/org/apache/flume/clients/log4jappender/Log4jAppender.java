@@ -21,9 +21,15 @@ package org.apache.flume.clients.log4jappender;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
@@ -67,19 +73,62 @@ import org.apache.log4j.spi.LoggingEvent;
  *do the appending.For example if classes from the package
  *com.bar.foo are appending, the last line would be:</i></p>
  *<pre><p>log4j.logger.com.bar.foo = DEBUG,out2</p></pre>
+ *<p>
+ *By default <tt>append()</tt> sends each event to Flume before returning.
+ *With <strong>Async</strong> set to true events are only added to a buffer
+ *of <strong>BufferSize</strong> events, and a background thread sends them
+ *in batches of up to <strong>BatchSize</strong> events, retrying failed
+ *batches until the appender is closed. <strong>OverflowPolicy</strong>
+ *decides what happens when the buffer is full: BLOCK waits for at most the
+ *<strong>Timeout</strong> for space, then drops the event; DROP drops the
+ *new event and DROP_OLDEST drops the oldest buffered event instead. The
+ *number of dropped events is available from
+ *<tt>getDroppedEventCount()</tt>. <tt>close()</tt> waits for at most the
+ *<strong>Timeout</strong> for buffered events to be sent.
+ *</p>
+ *<pre><p>
+ *log4j.appender.out2.Async = true
+ *log4j.appender.out2.BufferSize = 10000
+ *log4j.appender.out2.OverflowPolicy = DROP</p></pre>
  *
  *
  */
 public class Log4jAppender extends AppenderSkeleton {
 
+  /**
+   * What an asynchronous appender does with an event when its buffer is
+   * full.
+   */
+  public enum OverflowPolicy {
+    BLOCK, DROP, DROP_OLDEST
+  }
+
+  private static final int DEFAULT_BUFFER_SIZE = 10000;
+  private static final int DEFAULT_BATCH_SIZE = 100;
+  private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long BLOCK_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long RETRY_INTERVAL_MILLIS = 1000L;
+
   private String hostname;
   private int port;
   private boolean unsafeMode = false;
   private long timeout = RpcClientConfigurationConstants.DEFAULT_REQUEST_TIMEOUT_MILLIS;
   private boolean avroReflectionEnabled;
   private String avroSchemaUrl;
+  private boolean async = false;
+  private int bufferSize = DEFAULT_BUFFER_SIZE;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
 
-  RpcClient rpcClient = null;
+  volatile RpcClient rpcClient = null;
+  // guarded by this, set by close() so that the async sender does not
+  // connect again
+  private boolean closed = false;
+
+  private volatile EventRingBuffer<Event> buffer;
+  private volatile AsyncSender sender;
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final AtomicLong unreportedDrops = new AtomicLong();
 
 
   /**
@@ -126,10 +175,29 @@ public class Log4jAppender extends AppenderSkeleton {
       throw new FlumeException(errorMsg);
     }
 
+    if (sender != null) {
+      enqueue(createFlumeEvent(event));
+      return;
+    }
+
     if (!rpcClient.isActive()) {
       reconnect();
     }
 
+    Event flumeEvent = createFlumeEvent(event);
+    try {
+      rpcClient.append(flumeEvent);
+    } catch (EventDeliveryException e) {
+      String msg = "Flume append() failed.";
+      LogLog.error(msg);
+      if (unsafeMode) {
+        return;
+      }
+      throw new FlumeException(msg + " Exception follows.", e);
+    }
+  }
+
+  private Event createFlumeEvent(LoggingEvent event) {
     //Client created first time append is called.
     Map<String, String> hdrs = new HashMap<String, String>();
     hdrs.put(Log4jAvroHeaders.LOGGER_NAME.toString(), event.getLoggerName());
@@ -157,16 +225,213 @@ public class Log4jAppender extends AppenderSkeleton {
       String msg = layout != null ? layout.format(event) : message.toString();
       flumeEvent = EventBuilder.withBody(msg, Charset.forName("UTF8"), hdrs);
     }
+    return flumeEvent;
+  }
 
-    try {
-      rpcClient.append(flumeEvent);
-    } catch (EventDeliveryException e) {
-      String msg = "Flume append() failed.";
-      LogLog.error(msg);
-      if (unsafeMode) {
-        return;
+  /**
+   * Adds an event to the buffer of the async sender, applying the overflow
+   * policy if the buffer is full.
+   */
+  private void enqueue(Event flumeEvent) {
+    EventRingBuffer<Event> events = buffer;
+    AsyncSender current = sender;
+    boolean added = events.offer(flumeEvent);
+    if (!added) {
+      switch (overflowPolicy) {
+        case DROP_OLDEST:
+          while (!added) {
+            if (events.poll() != null) {
+              dropped(1);
+            }
+            added = events.offer(flumeEvent);
+          }
+          break;
+        case BLOCK:
+          long deadline = System.nanoTime() +
+              TimeUnit.MILLISECONDS.toNanos(timeout);
+          while (!added && !current.stopping
+              && System.nanoTime() < deadline) {
+            current.wakeUp();
+            LockSupport.parkNanos(this, BLOCK_WAIT_NANOS);
+            added = events.offer(flumeEvent);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    if (added) {
+      current.wakeUp();
+    } else {
+      dropped(1);
+    }
+  }
+
+  private void dropped(long count) {
+    droppedEvents.addAndGet(count);
+    unreportedDrops.addAndGet(count);
+  }
+
+  /**
+   * Starts the async sender, if the appender is asynchronous and the sender
+   * is not running yet. Called once the RPC client has been created.
+   */
+  void startSender() {
+    if (!async || sender != null) {
+      return;
+    }
+    buffer = new EventRingBuffer<Event>(bufferSize);
+    AsyncSender newSender = new AsyncSender(buffer);
+    newSender.setName("Log4jAppender-sender" +
+        (getName() == null ? "" : "-" + getName()));
+    newSender.setDaemon(true);
+    sender = newSender;
+    newSender.start();
+  }
+
+  /**
+   * Stops the async sender, waiting for at most the timeout for the events
+   * it still buffers to be sent.
+   */
+  private void stopSender() {
+    AsyncSender current = sender;
+    if (current == null) {
+      return;
+    }
+    current.shutdown(timeout);
+    sender = null;
+    int left = 0;
+    while (current.events.poll() != null) {
+      left++;
+    }
+    if (left > 0) {
+      dropped(left);
+      LogLog.warn("Flume Log4jAppender closed before " + left +
+          " buffered events could be sent.");
+    }
+  }
+
+  /**
+   * Sends batches of buffered events, retrying failed batches until the
+   * appender is closed.
+   */
+  private class AsyncSender extends Thread {
+    private final EventRingBuffer<Event> events;
+    private volatile boolean stopping = false;
+    private volatile boolean waiting = false;
+    private volatile long stopDeadline;
+
+    AsyncSender(EventRingBuffer<Event> events) {
+      this.events = events;
+    }
+
+    void wakeUp() {
+      if (waiting) {
+        LockSupport.unpark(this);
+      }
+    }
+
+    void shutdown(long timeoutMillis) {
+      stopDeadline = System.currentTimeMillis() + timeoutMillis;
+      stopping = true;
+      LockSupport.unpark(this);
+      try {
+        join(timeoutMillis + RETRY_INTERVAL_MILLIS);
+        if (isAlive()) {
+          interrupt();
+          join(RETRY_INTERVAL_MILLIS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private boolean pastDeadline() {
+      return stopping && System.currentTimeMillis() >= stopDeadline;
+    }
+
+    @Override
+    public void run() {
+      List<Event> batch = new ArrayList<Event>(batchSize);
+      while (!pastDeadline() && !isInterrupted()) {
+        Event event;
+        while (batch.size() < batchSize && (event = events.poll()) != null) {
+          batch.add(event);
+        }
+        if (batch.isEmpty()) {
+          if (stopping) {
+            return;
+          }
+          waiting = true;
+          if (events.isEmpty() && !stopping) {
+            LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+          }
+          waiting = false;
+          continue;
+        }
+        while (!send(batch)) {
+          if (pastDeadline() || isInterrupted()) {
+            dropped(batch.size());
+            return;
+          }
+          LockSupport.parkNanos(this,
+              TimeUnit.MILLISECONDS.toNanos(RETRY_INTERVAL_MILLIS));
+        }
+        batch.clear();
+        long drops = unreportedDrops.getAndSet(0);
+        if (drops > 0) {
+          LogLog.warn("Flume Log4jAppender dropped " + drops +
+              " events because its buffer was full.");
+        }
+      }
+    }
+
+    private boolean send(List<Event> batch) {
+      try {
+        RpcClient client = rpcClient;
+        if (client == null || !client.isActive()) {
+          client = reconnectClient();
+          if (client == null) {
+            return false;
+          }
+        }
+        client.appendBatch(batch);
+        return true;
+      } catch (EventDeliveryException e) {
+        LogLog.error("Flume appendBatch() failed, will retry.", e);
+      } catch (FlumeException e) {
+        LogLog.error("Flume appendBatch() failed, will retry.", e);
+      }
+      return false;
+    }
+
+    /**
+     * Replaces an inactive RPC client, unless the appender was closed in
+     * the meantime. Only the client is replaced, the layout and this
+     * sender stay as they are.
+     *
+     * @return the client to send with, or null if the appender was closed
+     */
+    private RpcClient reconnectClient() throws FlumeException {
+      synchronized (Log4jAppender.this) {
+        if (closed) {
+          return null;
+        }
+        if (rpcClient != null) {
+          if (rpcClient.isActive()) {
+            return rpcClient;
+          }
+          // the closed client stays in place until there is a new one, so
+          // that close() still finds one to close
+          try {
+            rpcClient.close();
+          } catch (FlumeException e) {
+            LogLog.warn("Error while trying to close RpcClient.", e);
+          }
+        }
+        rpcClient = createRpcClient();
+        return rpcClient;
       }
-      throw new FlumeException(msg + " Exception follows.", e);
     }
   }
 
@@ -214,6 +479,8 @@ public class Log4jAppender extends AppenderSkeleton {
    */
   @Override
   public synchronized void close() throws FlumeException {
+    closed = true;
+    stopSender();
     // Any append calls after this will result in an Exception.
     if (rpcClient != null) {
       try {
@@ -286,6 +553,71 @@ public class Log4jAppender extends AppenderSkeleton {
     this.avroSchemaUrl = avroSchemaUrl;
   }
 
+  /**
+   * Send events from a background thread instead of the logging thread.
+   */
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+
+  public boolean getAsync() {
+    return async;
+  }
+
+  /**
+   * Set the number of events an asynchronous appender buffers. Rounded up
+   * to a power of two.
+   */
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Set the maximum number of events an asynchronous appender sends in one
+   * batch.
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set what an asynchronous appender does when its buffer is full, one of
+   * BLOCK, DROP or DROP_OLDEST.
+   */
+  public void setOverflowPolicy(String overflowPolicy) {
+    this.overflowPolicy = OverflowPolicy.valueOf(
+        overflowPolicy.trim().toUpperCase(Locale.ENGLISH));
+  }
+
+  public String getOverflowPolicy() {
+    return overflowPolicy.name();
+  }
+
+  /**
+   * @return the number of events an asynchronous appender dropped, because
+   * its buffer was full or it was closed before it could send them
+   */
+  public long getDroppedEventCount() {
+    return droppedEvents.get();
+  }
+
+  /**
+   * @return the number of events an asynchronous appender buffers, which
+   * have not been sent yet
+   */
+  public int getPendingEventCount() {
+    EventRingBuffer<Event> events = buffer;
+    return sender == null || events == null ? 0 : events.size();
+  }
+
   /**
    * Activate the options set using <tt>setPort()</tt>
    * and <tt>setHostname()</tt>
@@ -295,19 +627,20 @@ public class Log4jAppender extends AppenderSkeleton {
    */
   @Override
   public void activateOptions() throws FlumeException {
-    Properties props = new Properties();
-    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "h1");
-    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX + "h1",
-        hostname + ":" + port);
-    props.setProperty(RpcClientConfigurationConstants.CONFIG_CONNECT_TIMEOUT,
-        String.valueOf(timeout));
-    props.setProperty(RpcClientConfigurationConstants.CONFIG_REQUEST_TIMEOUT,
-        String.valueOf(timeout));
+    if (async && (bufferSize < 1 || batchSize < 1)) {
+      String errormsg = "BufferSize and BatchSize must be greater than 0";
+      LogLog.error(errormsg);
+      if (unsafeMode) {
+        return;
+      }
+      throw new FlumeException(errormsg);
+    }
     try {
-      rpcClient = RpcClientFactory.getInstance(props);
+      connect();
       if (layout != null) {
         layout.activateOptions();
       }
+      startSender();
     } catch (FlumeException e) {
       String errormsg = "RPC client creation failed! " + e.getMessage();
       LogLog.error(errormsg);
@@ -318,6 +651,30 @@ public class Log4jAppender extends AppenderSkeleton {
     }
   }
 
+  /**
+   * Creates the RPC client and allows the async sender to replace it when
+   * it becomes inactive, until the appender is closed.
+   */
+  synchronized void connect() throws FlumeException {
+    closed = false;
+    rpcClient = createRpcClient();
+  }
+
+  /**
+   * @return a new RPC client for the configured agent
+   */
+  RpcClient createRpcClient() throws FlumeException {
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS, "h1");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_HOSTS_PREFIX + "h1",
+        hostname + ":" + port);
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_CONNECT_TIMEOUT,
+        String.valueOf(timeout));
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_REQUEST_TIMEOUT,
+        String.valueOf(timeout));
+    return RpcClientFactory.getInstance(props);
+  }
+
   /**
    * Make it easy to reconnect on failure
    * @throws FlumeException
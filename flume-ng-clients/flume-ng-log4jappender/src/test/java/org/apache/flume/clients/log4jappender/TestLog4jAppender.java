@@ -253,6 +253,97 @@ public class TestLog4jAppender {
   }
 
 
+  @Test
+  public void testLog4jAppenderAsync() throws Exception {
+    configureSource();
+    props.put("log4j.appender.out2.Async", "true");
+    props.put("log4j.appender.out2.BatchSize", "10");
+    PropertyConfigurator.configure(props);
+    Logger logger = LogManager.getLogger(TestLog4jAppender.class);
+    Log4jAppender appender = (Log4jAppender) LogManager.getLogger(
+        "org.apache.flume.clients.log4jappender").getAppender("out2");
+    Assert.assertTrue(appender.getAsync());
+
+    int n = 100;
+    for (int count = 0; count < n; count++) {
+      logger.info("This is log message number" + String.valueOf(count));
+    }
+
+    List<String> received = new ArrayList<String>();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (received.size() < n && System.currentTimeMillis() < deadline) {
+      Transaction transaction = ch.getTransaction();
+      transaction.begin();
+      Event event = ch.take();
+      if (event != null) {
+        received.add(new String(event.getBody(), "UTF8"));
+        Assert.assertEquals(logger.getName(),
+            event.getHeaders().get(Log4jAvroHeaders.LOGGER_NAME.toString()));
+      }
+      transaction.commit();
+      transaction.close();
+      if (event == null) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+    }
+    Assert.assertEquals(n, received.size());
+    for (int count = 0; count < n; count++) {
+      Assert.assertTrue(received.contains(
+          "This is log message number" + String.valueOf(count)));
+    }
+    Assert.assertEquals(0, appender.getDroppedEventCount());
+  }
+
+  @Test
+  public void testLog4jAppenderAsyncDrop() throws Exception {
+    ch = new SlowMemoryChannel(2000);
+    Configurables.configure(ch, new Context());
+    configureSource();
+    props.put("log4j.appender.out2.Timeout", "1000");
+    props.put("log4j.appender.out2.Async", "true");
+    props.put("log4j.appender.out2.BufferSize", "4");
+    props.put("log4j.appender.out2.BatchSize", "1");
+    props.put("log4j.appender.out2.OverflowPolicy", "drop");
+    PropertyConfigurator.configure(props);
+    Logger logger = LogManager.getLogger(TestLog4jAppender.class);
+    Log4jAppender appender = (Log4jAppender) LogManager.getLogger(
+        "org.apache.flume.clients.log4jappender").getAppender("out2");
+
+    long start = System.currentTimeMillis();
+    for (int count = 0; count < 20; count++) {
+      logger.info("This is log message number" + String.valueOf(count));
+    }
+    // logging must not wait for the slow channel
+    Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+    Assert.assertTrue(appender.getDroppedEventCount() >= 15);
+    Assert.assertTrue(appender.getPendingEventCount() <= 4);
+  }
+
+  @Test
+  public void testLog4jAppenderAsyncClosedWhileReconnecting() throws Exception {
+    configureSource();
+    props.put("log4j.appender.out2.Timeout", "500");
+    props.put("log4j.appender.out2.Async", "true");
+    props.put("log4j.appender.out2.BatchSize", "1");
+    PropertyConfigurator.configure(props);
+    Logger logger = LogManager.getLogger(TestLog4jAppender.class);
+    Log4jAppender appender = (Log4jAppender) LogManager.getLogger(
+        "org.apache.flume.clients.log4jappender").getAppender("out2");
+
+    // the sender keeps failing and replacing the client until closed
+    source.stop();
+    for (int count = 0; count < 5; count++) {
+      logger.info("This is log message number" + String.valueOf(count));
+    }
+    TimeUnit.MILLISECONDS.sleep(1500);
+    appender.close();
+    Assert.assertNull(appender.rpcClient);
+    // a sender still running must not connect again
+    TimeUnit.MILLISECONDS.sleep(2500);
+    Assert.assertNull(appender.rpcClient);
+    Assert.assertEquals(5, appender.getDroppedEventCount());
+  }
+
   @After
   public void cleanUp() {
     source.stop();
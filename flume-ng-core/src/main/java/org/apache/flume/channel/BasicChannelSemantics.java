@@ -129,6 +129,14 @@ public abstract class BasicChannelSemantics extends AbstractChannel {
     return 0;
   }
 
+  /**
+   * @return the number of events the channel can hold, or 0 if it does not
+   * tell
+   */
+  public Integer getCapacity() {
+    return 0;
+  }
+
   public boolean isFull() {
     return false;
   }
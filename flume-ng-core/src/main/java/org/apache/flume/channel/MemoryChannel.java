@@ -380,6 +380,11 @@ public class MemoryChannel extends BasicChannelSemantics {
     return capacity - queueRemaining.availablePermits();
   }
 
+  @Override
+  public Integer getCapacity() {
+    return capacity;
+  }
+
   @Override
   public boolean isFull() {
     return ((queueRemaining.availablePermits()/(float)capacity) <= 0.3);
@@ -38,6 +38,7 @@ import org.apache.flume.serialization.ResettableFileInputStream;
 import org.apache.flume.serialization.ResettableInputStream;
 import org.apache.flume.source.SpoolDirectorySourceConfigurationConstants;
 import org.apache.flume.source.SpoolDirectorySourceConfigurationConstants.ConsumeOrder;
+import org.apache.flume.tools.DirectoryWatcher;
 import org.apache.flume.tools.PlatformDetect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,9 +54,18 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -79,6 +89,18 @@ import java.util.regex.Pattern;
  * <li> All files in the spooling directory will eventually be opened
  *      and delivered to a {@link #readEvents(int)} caller.
  * </ul>
+ * <p>When the directory is watched, the candidate files are kept in an index
+ * ordered by the {@link #consumeOrder}, which is updated from the events of a
+ * {@link DirectoryWatcher} instead of listing the directory every time a file
+ * is picked. The directory is still listed in full every
+ * {@link #rescanInterval} milliseconds and whenever events were lost.
+ * <p>Several readers can consume the same spooling directory in parallel,
+ * each from its own thread, when they share {@link SharedFiles}: the files
+ * in progress and one listing of the directory, which they take their files
+ * from in turn. Each reader keeps its own meta file, so each file is still
+ * read, committed and renamed by a single reader and its events keep their
+ * order. The meta files of readers beyond the configured number, left by a
+ * run with more readers, are taken over by the remaining ones.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
@@ -88,6 +110,8 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       .getLogger(ReliableSpoolingFileEventReader.class);
 
   static final String metaFileName = ".flumespool-main.meta";
+  private static final Pattern readerMetaFileName =
+      Pattern.compile("\\.flumespool-main-(\\d{1,9})\\.meta");
   private final File spoolDirectory;
   private final String completedSuffix;
   private final String deserializerType;
@@ -104,6 +128,13 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
   private final DecodeErrorPolicy decodeErrorPolicy;
   private final ConsumeOrder consumeOrder;
   private final boolean recursiveDirectorySearch;
+  private final long rescanInterval;
+  /** Files being read by this reader and its siblings, null if it has none */
+  private final Set<String> filesInProgress;
+  /** Files left to pick, shared with the siblings if there are any */
+  private final Listing listing;
+  /** Meta files of former readers taken over by this one, and their files */
+  private final Map<File, File> orphanMetaFiles = new LinkedHashMap<>();
 
   private Optional<FileInfo> currentFile = Optional.absent();
   /** Always contains the last file from which lines have been read. */
@@ -115,6 +146,11 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
   private Iterator<File> candidateFileIter = null;
   private int listFilesCount = 0;
 
+  private boolean closed;
+
+  /** File this reader was in the middle of when it was last stopped */
+  private File resumeFile;
+
   /**
    * Create a ReliableSpoolingFileEventReader to watch the given directory.
    */
@@ -126,7 +162,9 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       String deletePolicy, String inputCharset,
       DecodeErrorPolicy decodeErrorPolicy,
       ConsumeOrder consumeOrder,
-      boolean recursiveDirectorySearch) throws IOException {
+      boolean recursiveDirectorySearch,
+      boolean watchDirectory, long rescanInterval,
+      int readerIndex, int readerCount, SharedFiles sharedFiles) throws IOException {
 
     // Sanity checks
     Preconditions.checkNotNull(spoolDirectory);
@@ -138,6 +176,8 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     Preconditions.checkNotNull(deserializerContext);
     Preconditions.checkNotNull(deletePolicy);
     Preconditions.checkNotNull(inputCharset);
+    Preconditions.checkArgument(readerIndex >= 0 && readerIndex < readerCount,
+        "Reader index %s out of %s readers", readerIndex, readerCount);
 
     // validate delete policy
     if (!deletePolicy.equalsIgnoreCase(DeletePolicy.NEVER.name()) &&
@@ -192,6 +232,14 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     this.decodeErrorPolicy = Preconditions.checkNotNull(decodeErrorPolicy);
     this.consumeOrder = Preconditions.checkNotNull(consumeOrder);
     this.recursiveDirectorySearch = recursiveDirectorySearch;
+    this.rescanInterval = rescanInterval;
+    if (sharedFiles != null) {
+      this.filesInProgress = sharedFiles.filesInProgress;
+      this.listing = sharedFiles.getListing(consumeOrder);
+    } else {
+      this.filesInProgress = null;
+      this.listing = new Listing(consumeOrder);
+    }
 
     File trackerDirectory = new File(trackerDirPath);
 
@@ -214,11 +262,51 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
           trackerDirectory);
     }
 
-    this.metaFile = new File(trackerDirectory, metaFileName);
+    this.metaFile = new File(trackerDirectory, readerIndex == 0 ? metaFileName
+        : ".flumespool-main-" + readerIndex + ".meta");
 
     if (metaFile.exists() && metaFile.length() == 0) {
       deleteMetaFile();
     }
+
+    // go back to the file this reader was in the middle of before picking
+    // any other, and before a sibling can pick it
+    resumeFile = claimTarget(metaFile);
+
+    // take over the meta files of the readers a former run had beyond
+    // readerCount, sharing them out among the readers by index
+    File[] trackerFiles = trackerDirectory.listFiles();
+    if (trackerFiles != null) {
+      for (File file : trackerFiles) {
+        Matcher matcher = readerMetaFileName.matcher(file.getName());
+        if (!matcher.matches()) {
+          continue;
+        }
+        int index = Integer.parseInt(matcher.group(1));
+        if (index < readerCount || index % readerCount != readerIndex) {
+          continue;
+        }
+        File target = file.length() == 0 ? null : claimTarget(file);
+        if (target != null) {
+          logger.info("Taking over meta file {} of a former reader for {}", file, target);
+          orphanMetaFiles.put(file, target);
+        } else if (!file.delete()) {
+          throw new IOException("Unable to delete old meta file " + file);
+        }
+      }
+    }
+
+    synchronized (listing) {
+      if (watchDirectory && listing.users == 0) {
+        try {
+          listing.watcher = new DirectoryWatcher();
+        } catch (IOException e) {
+          logger.warn("Unable to watch spooling directory " + spoolDirectory +
+              ", it will be listed on every poll instead", e);
+        }
+      }
+      listing.users++;
+    }
   }
 
   /**
@@ -235,26 +323,26 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
             throws IOException {
-          if (directory.equals(dir)) { // The top directory should always be listed
-            return FileVisitResult.CONTINUE;
-          }
-          String directoryName = dir.getFileName().toString();
-          if (!recursiveDirectorySearch ||
-              directoryName.startsWith(".") ||
-              ignorePattern.matcher(directoryName).matches()) {
+          // The top directory should always be listed
+          if (!directory.equals(dir) &&
+              !isSearchableDirectory(dir.getFileName().toString())) {
             return FileVisitResult.SKIP_SUBTREE;
           }
+          if (listing.watcher != null) {
+            try {
+              listing.watcher.register(dir);
+            } catch (IOException e) {
+              logger.warn("Unable to watch directory " + dir + ", new files " +
+                  "in it will only be found by the next full listing", e);
+            }
+          }
           return FileVisitResult.CONTINUE;
         }
 
         @Override
         public FileVisitResult visitFile(Path candidate, BasicFileAttributes attrs)
             throws IOException {
-          String fileName = candidate.getFileName().toString();
-          if (!fileName.endsWith(completedSuffix) &&
-              !fileName.startsWith(".") &&
-              includePattern.matcher(fileName).matches() &&
-              !ignorePattern.matcher(fileName).matches()) {
+          if (isCandidateName(candidate.getFileName().toString())) {
             candidateFiles.add(candidate.toFile());
           }
 
@@ -269,6 +357,19 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     return candidateFiles;
   }
 
+  private boolean isCandidateName(String fileName) {
+    return !fileName.endsWith(completedSuffix) &&
+        !fileName.startsWith(".") &&
+        includePattern.matcher(fileName).matches() &&
+        !ignorePattern.matcher(fileName).matches();
+  }
+
+  private boolean isSearchableDirectory(String directoryName) {
+    return recursiveDirectorySearch &&
+        !directoryName.startsWith(".") &&
+        !ignorePattern.matcher(directoryName).matches();
+  }
+
   @VisibleForTesting
   int getListFilesCount() {
     return listFilesCount;
@@ -368,8 +469,26 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
   public void close() throws IOException {
     if (currentFile.isPresent()) {
       currentFile.get().getDeserializer().close();
+      release(currentFile.get().getFile());
       currentFile = Optional.absent();
     }
+    if (resumeFile != null) {
+      release(resumeFile);
+      resumeFile = null;
+    }
+    for (File file : orphanMetaFiles.values()) {
+      release(file);
+    }
+    orphanMetaFiles.clear();
+    if (!closed) {
+      closed = true;
+      synchronized (listing) {
+        if (--listing.users == 0 && listing.watcher != null) {
+          listing.watcher.close();
+          listing.watcher = null;
+        }
+      }
+    }
   }
 
   /**
@@ -419,6 +538,7 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       throw new IllegalArgumentException("Unsupported delete policy: " +
           deletePolicy);
     }
+    release(fileToRoll);
   }
 
   /**
@@ -515,6 +635,20 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
    * any arbitary file from the directory.
    */
   private Optional<FileInfo> getNextFile() {
+    while (resumeFile == null && !orphanMetaFiles.isEmpty()) {
+      resumeFile = takeOverMetaFile();
+    }
+    if (resumeFile != null) {
+      File file = resumeFile;
+      resumeFile = null;
+      firstTimeRead = true;
+      return openClaimedFile(file);
+    }
+
+    if (listing.watcher != null || filesInProgress != null) {
+      return getNextIndexedFile();
+    }
+
     List<File> candidateFiles = Collections.emptyList();
 
     if (consumeOrder != ConsumeOrder.RANDOM ||
@@ -566,6 +700,203 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     return f2;
   }
 
+  /**
+   * Same as {@link #getNextFile()}, but takes the file from the index of
+   * candidate files, which is shared by the readers of the directory. When
+   * the directory is watched the index is first updated with the events the
+   * watcher collected since the last call. Otherwise the directory is only
+   * listed again once no file of the last listing is left to take. The
+   * picked file leaves the index; if it cannot be opened the next full
+   * listing brings it back.
+   */
+  private Optional<FileInfo> getNextIndexedFile() {
+    Candidate selected;
+    synchronized (listing) {
+      if (listing.watcher != null) {
+        updateCandidates();
+        selected = takeCandidate();
+      } else {
+        selected = takeCandidate();
+        if (selected == null) {
+          listCandidates();
+          selected = takeCandidate();
+        }
+      }
+    }
+    if (selected == null) { // No matching file in spooling directory.
+      return Optional.absent();
+    }
+    if (consumeOrder != ConsumeOrder.RANDOM) {
+      firstTimeRead = true;
+    }
+    return openClaimedFile(selected.file);
+  }
+
+  /**
+   * Removes the first file of the index which no other reader has and
+   * which still exists, skipping those which other readers have.
+   */
+  private Candidate takeCandidate() {
+    for (Iterator<Candidate> it = listing.candidateIndex.iterator(); it.hasNext();) {
+      Candidate candidate = it.next();
+      if (!candidate.file.isFile()) { // deleted since it was listed
+        it.remove();
+        listing.candidates.remove(candidate.file.toPath());
+      } else if (claim(candidate.file)) {
+        // files read by other readers leave the index once they are
+        // renamed, or when the directory is listed again
+        it.remove();
+        listing.candidates.remove(candidate.file.toPath());
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private void listCandidates() {
+    listing.candidates.clear();
+    listing.candidateIndex.clear();
+    for (File file : getCandidateFiles(spoolDirectory.toPath())) {
+      if (filesInProgress == null ||
+          !filesInProgress.contains(file.getAbsolutePath())) {
+        addCandidate(file.toPath());
+      }
+    }
+    listFilesCount++;
+    listing.lastRescan = System.currentTimeMillis();
+  }
+
+  /**
+   * Reads which file a meta file tracks and takes that file for this reader.
+   *
+   * @return the file, or null if there is no meta file, the file is gone or
+   * another reader has it
+   */
+  private File claimTarget(File meta) throws IOException {
+    if (!meta.exists()) {
+      return null;
+    }
+    PositionTracker tracker = DurablePositionTracker.getInstance(meta, "");
+    File target = new File(tracker.getTarget());
+    tracker.close();
+    return target.isFile() && claim(target) ? target : null;
+  }
+
+  /**
+   * Makes the next meta file taken over from a former reader the meta file
+   * of this reader, so that its file is read on from where it was left.
+   *
+   * @return the file to resume, or null if the meta file could not be moved
+   */
+  private File takeOverMetaFile() {
+    Iterator<Map.Entry<File, File>> it = orphanMetaFiles.entrySet().iterator();
+    Map.Entry<File, File> orphan = it.next();
+    it.remove();
+    try {
+      deleteMetaFile();
+      Files.move(orphan.getKey().toPath(), metaFile.toPath());
+      return orphan.getValue();
+    } catch (IOException e) {
+      logger.error("Unable to take over meta file " + orphan.getKey() + ", " +
+          orphan.getValue() + " will be read again from its start", e);
+      release(orphan.getValue());
+      return null;
+    }
+  }
+
+  /**
+   * Takes the file for this reader, unless another reader sharing the
+   * spooling directory already has it.
+   */
+  private boolean claim(File file) {
+    return filesInProgress == null ||
+        filesInProgress.add(file.getAbsolutePath());
+  }
+
+  private void release(File file) {
+    if (filesInProgress != null) {
+      filesInProgress.remove(file.getAbsolutePath());
+    }
+  }
+
+  private Optional<FileInfo> openClaimedFile(File file) {
+    Optional<FileInfo> fileInfo = openFile(file);
+    if (!fileInfo.isPresent()) {
+      release(file);
+    }
+    return fileInfo;
+  }
+
+  private void updateCandidates() {
+    Set<Path> changed = new HashSet<>();
+    long now = System.currentTimeMillis();
+    if (!listing.watcher.poll(changed, changed) ||
+        now - listing.lastRescan >= rescanInterval) {
+      listCandidates();
+      return;
+    }
+
+    for (Path path : changed) {
+      removeCandidate(path);
+      String name = path.getFileName().toString();
+      if (Files.isDirectory(path)) {
+        // a directory created or moved in, which has not been walked yet
+        if (isSearchableDirectory(name) && !listing.watcher.isRegistered(path)) {
+          for (File file : getCandidateFiles(path)) {
+            addCandidate(file.toPath());
+          }
+        }
+      } else if (isCandidateName(name)) {
+        addCandidate(path);
+      }
+    }
+  }
+
+  private void addCandidate(Path path) {
+    BasicFileAttributes attrs;
+    try {
+      attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      return; // gone again already
+    }
+    if (attrs.isDirectory()) {
+      return;
+    }
+    removeCandidate(path);
+    Candidate candidate =
+        new Candidate(path.toFile(), attrs.lastModifiedTime().toMillis());
+    listing.candidates.put(path, candidate);
+    listing.candidateIndex.add(candidate);
+  }
+
+  private void removeCandidate(Path path) {
+    Candidate candidate = listing.candidates.remove(path);
+    if (candidate != null) {
+      listing.candidateIndex.remove(candidate);
+    }
+  }
+
+  /**
+   * Orders candidate files the way {@link #getNextFile()} picks them: by
+   * modification time, oldest or youngest first, then by name. Files with
+   * the same name in different directories are told apart by their path.
+   */
+  private static Comparator<Candidate> candidateOrder(
+      final ConsumeOrder consumeOrder) {
+    return new Comparator<Candidate>() {
+      @Override
+      public int compare(Candidate c1, Candidate c2) {
+        if (consumeOrder != ConsumeOrder.RANDOM &&
+            c1.lastModified != c2.lastModified) {
+          boolean older = c1.lastModified < c2.lastModified;
+          return older == (consumeOrder == ConsumeOrder.OLDEST) ? -1 : 1;
+        }
+        int compare = c1.file.getName().compareTo(c2.file.getName());
+        return compare != 0 ? compare : c1.file.compareTo(c2.file);
+      }
+    };
+  }
+
   /**
    * Opens a file for consuming
    *
@@ -647,6 +978,59 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     }
   }
 
+  /**
+   * A file waiting in a watched spooling directory.
+   */
+  private static class Candidate {
+    private final File file;
+    private final long lastModified;
+
+    Candidate(File file, long lastModified) {
+      this.file = file;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * The files waiting in the spooling directory, in consume order, and the
+   * watcher which keeps them up to date. Shared by the parallel readers of
+   * the directory, which hold its lock while using it.
+   */
+  private static class Listing {
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    private final TreeSet<Candidate> candidateIndex;
+    private DirectoryWatcher watcher;
+    private long lastRescan;
+    private int users;
+
+    Listing(ConsumeOrder consumeOrder) {
+      candidateIndex = new TreeSet<>(candidateOrder(consumeOrder));
+    }
+  }
+
+  /**
+   * What the readers consuming one spooling directory in parallel share: the
+   * files they are reading, so that each file has a single reader, and the
+   * listing of the directory they take their files from.
+   */
+  public static class SharedFiles {
+    private final Set<String> filesInProgress =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Listing listing;
+
+    private synchronized Listing getListing(ConsumeOrder consumeOrder) {
+      if (listing == null) {
+        listing = new Listing(consumeOrder);
+      }
+      return listing;
+    }
+
+    @VisibleForTesting
+    Set<String> getFilesInProgress() {
+      return filesInProgress;
+    }
+  }
+
   @InterfaceAudience.Private
   @InterfaceStability.Unstable
   static enum DeletePolicy {
@@ -690,6 +1074,13 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
         SpoolDirectorySourceConfigurationConstants.DEFAULT_CONSUME_ORDER;
     private boolean recursiveDirectorySearch =
         SpoolDirectorySourceConfigurationConstants.DEFAULT_RECURSIVE_DIRECTORY_SEARCH;
+    private boolean watchDirectory =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_WATCH_DIRECTORY;
+    private long rescanInterval =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_RESCAN_INTERVAL;
+    private int readerIndex = 0;
+    private int readerCount = 1;
+    private SharedFiles sharedFiles;
 
     public Builder spoolDirectory(File directory) {
       this.spoolDirectory = directory;
@@ -771,12 +1162,50 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       return this;
     }
 
+    public Builder watchDirectory(boolean watchDirectory) {
+      this.watchDirectory = watchDirectory;
+      return this;
+    }
+
+    public Builder rescanInterval(long rescanInterval) {
+      this.rescanInterval = rescanInterval;
+      return this;
+    }
+
+    /**
+     * Index of this reader among the readers sharing the spooling directory,
+     * which tells its meta file apart from theirs.
+     */
+    public Builder readerIndex(int readerIndex) {
+      this.readerIndex = readerIndex;
+      return this;
+    }
+
+    /**
+     * Number of readers consuming the spooling directory, which tells the
+     * meta files left by former readers apart from those of current ones.
+     */
+    public Builder readerCount(int readerCount) {
+      this.readerCount = readerCount;
+      return this;
+    }
+
+    /**
+     * State shared by the readers consuming the same spooling directory in
+     * parallel, null for a single reader.
+     */
+    public Builder sharedFiles(SharedFiles sharedFiles) {
+      this.sharedFiles = sharedFiles;
+      return this;
+    }
+
     public ReliableSpoolingFileEventReader build() throws IOException {
       return new ReliableSpoolingFileEventReader(spoolDirectory, completedSuffix,
           includePattern, ignorePattern, trackerDirPath, annotateFileName, fileNameHeader,
           annotateBaseName, baseNameHeader, deserializerType,
           deserializerContext, deletePolicy, inputCharset, decodeErrorPolicy,
-          consumeOrder, recursiveDirectorySearch);
+          consumeOrder, recursiveDirectorySearch, watchDirectory,
+          rescanInterval, readerIndex, readerCount, sharedFiles);
     }
   }
 
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+/**
+ * Source counter for sources which receive datagrams, and so can lose
+ * events without ever seeing them when their socket buffer overflows.
+ */
+public class DatagramSourceCounter extends SourceCounter
+    implements DatagramSourceCounterMBean {
+
+  private static final String GAUGE_DATAGRAMS_DROPPED =
+      "src.datagrams.dropped";
+
+  private static final String[] ATTRIBUTES = {
+    GAUGE_DATAGRAMS_DROPPED
+  };
+
+  public DatagramSourceCounter(String name) {
+    super(name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getDatagramsDroppedCount() {
+    return get(GAUGE_DATAGRAMS_DROPPED);
+  }
+
+  public void setDatagramsDroppedCount(long dropped) {
+    set(GAUGE_DATAGRAMS_DROPPED, dropped);
+  }
+}
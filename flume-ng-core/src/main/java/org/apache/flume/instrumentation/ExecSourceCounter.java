@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+/**
+ * Source counter for the exec source, which can buffer the lines of the
+ * command between its reader and the channel.
+ */
+public class ExecSourceCounter extends SourceCounter
+    implements ExecSourceCounterMBean {
+
+  private static final String GAUGE_BUFFER_DEPTH =
+      "src.buffer.depth";
+
+  private static final String COUNTER_BUFFER_FULL =
+      "src.buffer.full";
+
+  private static final String[] ATTRIBUTES = {
+    GAUGE_BUFFER_DEPTH, COUNTER_BUFFER_FULL
+  };
+
+  public ExecSourceCounter(String name) {
+    super(name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getBufferDepth() {
+    return get(GAUGE_BUFFER_DEPTH);
+  }
+
+  public void setBufferDepth(long depth) {
+    set(GAUGE_BUFFER_DEPTH, depth);
+  }
+
+  @Override
+  public long getBufferFullCount() {
+    return get(COUNTER_BUFFER_FULL);
+  }
+
+  public long incrementBufferFullCount() {
+    return increment(COUNTER_BUFFER_FULL);
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+/**
+ * Counters of a sink as seen by the latency selector of a load balancing
+ * sink processor. The latency is the moving average the selector goes by,
+ * updated whenever the sink is used.
+ */
+public class LoadBalancedSinkCounter extends MonitoredCounterGroup implements
+    LoadBalancedSinkCounterMBean {
+
+  private static final String COUNTER_LATENCY =
+      "sink.selection.latency.micros";
+
+  private static final String COUNTER_SUCCESS =
+      "sink.selection.success.count";
+
+  private static final String COUNTER_FAILURE =
+      "sink.selection.failure.count";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_LATENCY, COUNTER_SUCCESS, COUNTER_FAILURE
+  };
+
+  public LoadBalancedSinkCounter(String name) {
+    super(MonitoredCounterGroup.Type.SINK_PROCESSOR, name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getLatencyMicros() {
+    return get(COUNTER_LATENCY);
+  }
+
+  public void setLatencyMicros(long latency) {
+    set(COUNTER_LATENCY, latency);
+  }
+
+  @Override
+  public long getSuccessCount() {
+    return get(COUNTER_SUCCESS);
+  }
+
+  public long incrementSuccessCount() {
+    return increment(COUNTER_SUCCESS);
+  }
+
+  @Override
+  public long getFailureCount() {
+    return get(COUNTER_FAILURE);
+  }
+
+  public long incrementFailureCount() {
+    return increment(COUNTER_FAILURE);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+/**
+ * Source counter for sources which serve requests from a bounded queue, and
+ * ask clients to try again later when they cannot take more events.
+ */
+public class RpcSourceCounter extends SourceCounter implements RpcSourceCounterMBean {
+
+  private static final String GAUGE_REQUEST_QUEUE_DEPTH =
+      "src.request.queue.depth";
+
+  private static final String COUNTER_REQUEST_REJECTED =
+      "src.request.rejected";
+
+  private static final String COUNTER_TRY_LATER =
+      "src.try-later.count";
+
+  private static final String[] ATTRIBUTES = {
+    GAUGE_REQUEST_QUEUE_DEPTH, COUNTER_REQUEST_REJECTED, COUNTER_TRY_LATER
+  };
+
+  public RpcSourceCounter(String name) {
+    super(name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getRequestQueueDepth() {
+    return get(GAUGE_REQUEST_QUEUE_DEPTH);
+  }
+
+  public void setRequestQueueDepth(long depth) {
+    set(GAUGE_REQUEST_QUEUE_DEPTH, depth);
+  }
+
+  @Override
+  public long getRequestRejectedCount() {
+    return get(COUNTER_REQUEST_REJECTED);
+  }
+
+  public long incrementRequestRejectedCount() {
+    return increment(COUNTER_REQUEST_REJECTED);
+  }
+
+  @Override
+  public long getTryLaterCount() {
+    return get(COUNTER_TRY_LATER);
+  }
+
+  public long incrementTryLaterCount() {
+    return increment(COUNTER_TRY_LATER);
+  }
+}
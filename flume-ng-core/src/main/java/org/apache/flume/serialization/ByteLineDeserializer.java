@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.serialization;
+
+import com.google.common.collect.Lists;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+import org.apache.flume.event.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A deserializer that parses text lines from a file without decoding them.
+ * Line boundaries are found on the raw bytes and the bytes of each line
+ * become the event body as they are, so the input must be in a charset
+ * where a newline byte always is a newline, such as UTF-8, ASCII or
+ * ISO-8859-1, and the events carry the charset of the input.
+ * <p/>
+ * Bytes are read ahead in chunks. At the end of each read the stream is
+ * sought back to the end of the last line returned, so that a mark is
+ * taken just after it.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class ByteLineDeserializer implements EventDeserializer {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(ByteLineDeserializer.class);
+
+  private static final int MIN_BUF_SIZE = 16384;
+
+  private final ResettableInputStream in;
+  private final int maxLineLength;
+  private final byte[] buf;
+  // bytes read ahead are buf[pos, limit), buf[pos, scanned) hold no newline
+  private int pos;
+  private int scanned;
+  private int limit;
+  private volatile boolean isOpen;
+
+  public static final String MAXLINE_KEY = "maxLineLength";
+  public static final int MAXLINE_DFLT = 2048;
+
+  ByteLineDeserializer(Context context, ResettableInputStream in) {
+    this.in = in;
+    this.maxLineLength = context.getInteger(MAXLINE_KEY, MAXLINE_DFLT);
+    // room for the longest line and its newline
+    this.buf = new byte[Math.max(MIN_BUF_SIZE, maxLineLength + 1)];
+    this.isOpen = true;
+  }
+
+  /**
+   * Reads a line from a file and returns an event
+   * @return Event containing parsed line
+   * @throws IOException
+   */
+  @Override
+  public Event readEvent() throws IOException {
+    ensureOpen();
+    try {
+      return readLineEvent();
+    } finally {
+      unread();
+    }
+  }
+
+  /**
+   * Batch line read
+   * @param numEvents Maximum number of events to return.
+   * @return List of events containing read lines
+   * @throws IOException
+   */
+  @Override
+  public List<Event> readEvents(int numEvents) throws IOException {
+    ensureOpen();
+    List<Event> events = Lists.newLinkedList();
+    try {
+      for (int i = 0; i < numEvents; i++) {
+        Event event = readLineEvent();
+        if (event != null) {
+          events.add(event);
+        } else {
+          break;
+        }
+      }
+    } finally {
+      unread();
+    }
+    return events;
+  }
+
+  @Override
+  public void mark() throws IOException {
+    ensureOpen();
+    in.mark();
+  }
+
+  @Override
+  public void reset() throws IOException {
+    ensureOpen();
+    discard();
+    in.reset();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (isOpen) {
+      reset();
+      in.close();
+      isOpen = false;
+    }
+  }
+
+  private void ensureOpen() {
+    if (!isOpen) {
+      throw new IllegalStateException("Serializer has been closed");
+    }
+  }
+
+  private Event readLineEvent() throws IOException {
+    while (true) {
+      // a newline right after maxLineLength bytes still ends the line
+      int end = Math.min(limit, pos + maxLineLength + 1);
+      for (int i = scanned; i < end; i++) {
+        if (buf[i] == '\n') {
+          Event event = EventBuilder.withBody(Arrays.copyOfRange(buf, pos, i));
+          pos = scanned = i + 1;
+          return event;
+        }
+      }
+      scanned = end;
+
+      if (limit - pos > maxLineLength) {
+        logger.warn("Line length exceeds max ({}), truncating line!",
+            maxLineLength);
+        // do not split a UTF-8 sequence, unless it is all there is
+        int len = maxLineLength;
+        while (len > 0 && (buf[pos + len] & 0xC0) == 0x80) {
+          len--;
+        }
+        if (len == 0) {
+          len = maxLineLength;
+        }
+        Event event = EventBuilder.withBody(
+            Arrays.copyOfRange(buf, pos, pos + len));
+        pos = scanned = pos + len;
+        return event;
+      }
+
+      if (!fill()) {
+        if (limit > pos) { // last line without a newline
+          Event event = EventBuilder.withBody(
+              Arrays.copyOfRange(buf, pos, limit));
+          pos = scanned = limit;
+          return event;
+        }
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Reads more bytes after the ones not consumed yet.
+   * @return false at the end of the stream
+   */
+  private boolean fill() throws IOException {
+    if (pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+      limit -= pos;
+      scanned -= pos;
+      pos = 0;
+    }
+    int n = in.read(buf, limit, buf.length - limit);
+    if (n <= 0) {
+      return false;
+    }
+    limit += n;
+    return true;
+  }
+
+  /**
+   * Gives the bytes read ahead back to the stream, which then stands right
+   * after the last line returned.
+   */
+  private void unread() throws IOException {
+    if (limit > pos) {
+      in.seek(in.tell() - (limit - pos));
+    }
+    discard();
+  }
+
+  private void discard() {
+    pos = scanned = limit = 0;
+  }
+
+  public static class Builder implements EventDeserializer.Builder {
+
+    @Override
+    public EventDeserializer build(Context context, ResettableInputStream in) {
+      return new ByteLineDeserializer(context, in);
+    }
+
+  }
+
+}
@@ -111,6 +111,7 @@ public class ResettableFileInputStream extends ResettableInputStream
   private long position;
   private long syncPosition;
   private int maxCharWidth;
+  private final boolean asciiCompatible;
 
 
   /**
@@ -180,6 +181,9 @@ public class ResettableFileInputStream extends ResettableInputStream
     charBuf.flip();
     this.fileSize = file.length();
     this.decoder = charset.newDecoder();
+    // charsets which encode ASCII characters as the same single bytes
+    this.asciiCompatible = charset.equals(Charsets.UTF_8) ||
+        charset.equals(Charsets.US_ASCII) || charset.equals(Charsets.ISO_8859_1);
     this.position = 0;
     this.syncPosition = 0;
     if (charset.name().startsWith("UTF-8")) {
@@ -260,6 +264,16 @@ public class ResettableFileInputStream extends ResettableInputStream
       return lowSurrogate;
     }
 
+    // ASCII characters need no decoding, in charsets which keep them as is
+    if (asciiCompatible && buf.hasRemaining()) {
+      byte b = buf.get(buf.position());
+      if (b >= 0) {
+        buf.position(buf.position() + 1);
+        incrPosition(1, true);
+        return b;
+      }
+    }
+
     // The decoder can have issues with multi-byte characters.
     // This check ensures that there are at least maxCharWidth bytes in the buffer
     // before reaching EOF.
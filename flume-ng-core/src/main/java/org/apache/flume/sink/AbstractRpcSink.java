@@ -30,6 +30,8 @@ import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 import org.apache.flume.Transaction;
+import org.apache.flume.api.AppendFuture;
+import org.apache.flume.api.AsyncRpcClient;
 import org.apache.flume.api.RpcClient;
 import org.apache.flume.api.RpcClientConfigurationConstants;
 import org.apache.flume.conf.Configurable;
@@ -37,6 +39,7 @@ import org.apache.flume.instrumentation.SinkCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
@@ -115,8 +118,8 @@ import java.util.concurrent.locks.ReentrantLock;
  * </tr>
  * <tr>
  * <td><tt>compression-type</tt></td>
- * <td>Select compression type. Default is "none" and the only compression type available
- *     is "deflate"</td>
+ * <td>Select compression type. Default is "none", the compression types available
+ *     are "deflate" and "snappy"</td>
  * <td>compression type</td>
  * <td>none</td>
  * </tr>
@@ -194,6 +197,20 @@ public abstract class AbstractRpcSink extends AbstractSink implements Configurab
    */
   protected abstract RpcClient initializeRpcClient(Properties props);
 
+  /**
+   * Called when the connection reset interval expires, to replace the
+   * connections of the given client without closing it, so that requests
+   * keep flowing while reconnecting. Implementations whose client cannot do
+   * that return false, and the client is closed and a new one created.
+   * @param client the active client
+   * @return true if the connections were replaced
+   * @throws FlumeException if replacing the connections failed
+   */
+  protected boolean resetClientConnections(RpcClient client)
+      throws FlumeException {
+    return false;
+  }
+
   /**
    * If this function is called successively without calling
    * {@see #destroyConnection()}, only the first call has any effect.
@@ -211,14 +228,7 @@ public abstract class AbstractRpcSink extends AbstractSink implements Configurab
         Preconditions.checkNotNull(client, "Rpc Client could not be " +
             "initialized. " + getName() + " could not be started");
         sinkCounter.incrementConnectionCreatedCount();
-        if (cxnResetInterval > 0) {
-          cxnResetExecutor.schedule(new Runnable() {
-            @Override
-            public void run() {
-              resetConnectionFlag.set(true);
-            }
-          }, cxnResetInterval, TimeUnit.SECONDS);
-        }
+        scheduleConnectionReset();
       } catch (Exception ex) {
         sinkCounter.incrementConnectionFailedCount();
         if (ex instanceof FlumeException) {
@@ -232,7 +242,30 @@ public abstract class AbstractRpcSink extends AbstractSink implements Configurab
 
   }
 
+  private void scheduleConnectionReset() {
+    if (cxnResetInterval > 0) {
+      cxnResetExecutor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          resetConnectionFlag.set(true);
+        }
+      }, cxnResetInterval, TimeUnit.SECONDS);
+    }
+  }
+
   private void resetConnection() {
+    try {
+      if (client != null && client.isActive() &&
+          resetClientConnections(client)) {
+        logger.debug("Rpc sink {}: Replaced connections of Rpc client: {}",
+            getName(), client);
+        scheduleConnectionReset();
+        return;
+      }
+    } catch (Throwable throwable) {
+      logger.warn("Rpc sink " + getName() + ": Unable to replace " +
+          "connections, reconnecting", throwable);
+    }
     try {
       destroyConnection();
       createConnection();
@@ -340,43 +373,70 @@ public abstract class AbstractRpcSink extends AbstractSink implements Configurab
       resetConnectionFlag.set(false);
     }
 
+    // batches sent so far, the transaction is only committed or rolled
+    // back once none of them is outstanding any more
+    List<AppendFuture> sent = new ArrayList<AppendFuture>();
     try {
       transaction.begin();
 
       verifyConnection();
 
-      List<Event> batch = Lists.newLinkedList();
+      // a pipelining client sends each batch as soon as it is taken, so its
+      // round trip overlaps taking the next one. All batches belong to this
+      // transaction and are rolled back together if any of them fails.
+      int batchSize = client.getBatchSize();
+      int maxInFlight = client instanceof AsyncRpcClient ?
+          ((AsyncRpcClient) client).getMaxInFlight() : 1;
+      int maxEvents = batchSize * maxInFlight;
+      int size = 0;
 
-      for (int i = 0; i < client.getBatchSize(); i++) {
-        Event event = channel.take();
+      for (int i = 0; i < maxInFlight; i++) {
+        List<Event> batch = Lists.newLinkedList();
 
-        if (event == null) {
-          break;
+        for (int j = 0; j < batchSize; j++) {
+          Event event = channel.take();
+
+          if (event == null) {
+            break;
+          }
+
+          batch.add(event);
         }
 
-        batch.add(event);
+        if (batch.isEmpty()) {
+          break;
+        }
+        size += batch.size();
+        sinkCounter.addToEventDrainAttemptCount(batch.size());
+        if (maxInFlight > 1) {
+          sent.add(((AsyncRpcClient) client).appendBatchAsync(batch));
+        } else {
+          client.appendBatch(batch);
+        }
+        if (batch.size() < batchSize) {
+          break;
+        }
       }
 
-      int size = batch.size();
-      int batchSize = client.getBatchSize();
-
       if (size == 0) {
         sinkCounter.incrementBatchEmptyCount();
         status = Status.BACKOFF;
       } else {
-        if (size < batchSize) {
+        if (size < maxEvents) {
           sinkCounter.incrementBatchUnderflowCount();
         } else {
           sinkCounter.incrementBatchCompleteCount();
         }
-        sinkCounter.addToEventDrainAttemptCount(size);
-        client.appendBatch(batch);
+        if (!sent.isEmpty()) {
+          AppendFuture.allOf(sent).await();
+        }
       }
 
       transaction.commit();
       sinkCounter.addToEventDrainSuccessCount(size);
 
     } catch (Throwable t) {
+      awaitSent(sent);
       transaction.rollback();
       if (t instanceof Error) {
         throw (Error) t;
@@ -395,6 +455,22 @@ public abstract class AbstractRpcSink extends AbstractSink implements Configurab
     return status;
   }
 
+  /**
+   * Waits for batches which may still be in flight after another one
+   * failed, so the events are not handed out again while the next hop may
+   * still be storing them. Their outcome does not matter any more.
+   */
+  private void awaitSent(List<AppendFuture> sent) {
+    if (sent.isEmpty()) {
+      return;
+    }
+    try {
+      AppendFuture.allOf(sent).await();
+    } catch (EventDeliveryException e) {
+      // already failing, the first failure is the one reported
+    }
+  }
+
   @VisibleForTesting
   RpcClient getUnderlyingClient() {
     return client;
@@ -30,6 +30,7 @@ import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 import org.apache.flume.Sink;
 import org.apache.flume.Transaction;
+import org.apache.flume.api.NettyAvroRpcClient;
 import org.apache.flume.api.RpcClient;
 import org.apache.flume.api.RpcClientConfigurationConstants;
 import org.apache.flume.api.RpcClientFactory;
@@ -126,4 +127,14 @@ public class AvroSink extends AbstractRpcSink {
     logger.info("Attempting to create Avro Rpc client.");
     return RpcClientFactory.getInstance(props);
   }
+
+  @Override
+  protected boolean resetClientConnections(RpcClient client)
+      throws FlumeException {
+    if (client instanceof NettyAvroRpcClient) {
+      ((NettyAvroRpcClient) client).resetConnections();
+      return true;
+    }
+    return false;
+  }
 }
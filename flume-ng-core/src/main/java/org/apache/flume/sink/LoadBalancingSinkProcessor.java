@@ -18,8 +18,10 @@
  */
 package org.apache.flume.sink;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.flume.Context;
 import org.apache.flume.EventDeliveryException;
@@ -27,11 +29,13 @@ import org.apache.flume.FlumeException;
 import org.apache.flume.Sink;
 import org.apache.flume.Sink.Status;
 import org.apache.flume.conf.Configurable;
+import org.apache.flume.instrumentation.LoadBalancedSinkCounter;
 import org.apache.flume.lifecycle.LifecycleAware;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import org.apache.flume.util.LatencyAwareOrderSelector;
 import org.apache.flume.util.OrderSelector;
 import org.apache.flume.util.RandomOrderSelector;
 import org.apache.flume.util.RoundRobinOrderSelector;
@@ -66,8 +70,9 @@ import org.apache.flume.util.RoundRobinOrderSelector;
  * </pre>
  *
  * The value of processor.selector could be either <tt>round_robin</tt> for
- * round-robin scheme of load-balancing or <tt>random</tt> for random
- * selection. Alternatively you can specify your own implementation of the
+ * round-robin scheme of load-balancing, <tt>random</tt> for random
+ * selection or <tt>latency</tt> to prefer the sinks which processed their
+ * recent batches faster. Alternatively you can specify your own implementation of the
  * selection algorithm by implementing the <tt>LoadBalancingSelector</tt>
  * interface. If no selector mechanism is specified, the round-robin selector
  * is used by default.
@@ -88,11 +93,13 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
   public static final String SELECTOR_NAME_RANDOM = "RANDOM";
   public static final String SELECTOR_NAME_ROUND_ROBIN_BACKOFF = "ROUND_ROBIN_BACKOFF";
   public static final String SELECTOR_NAME_RANDOM_BACKOFF = "RANDOM_BACKOFF";
+  public static final String SELECTOR_NAME_LATENCY = "LATENCY";
 
   private static final Logger LOGGER = LoggerFactory
       .getLogger(LoadBalancingSinkProcessor.class);
 
   private SinkSelector selector;
+  private LatencyAwareSinkSelector latencySelector;
 
   @Override
   public void configure(Context context) {
@@ -111,6 +118,8 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
       selector = new RoundRobinSinkSelector(shouldBackOff);
     } else if (selectorTypeName.equalsIgnoreCase(SELECTOR_NAME_RANDOM)) {
       selector = new RandomOrderSinkSelector(shouldBackOff);
+    } else if (selectorTypeName.equalsIgnoreCase(SELECTOR_NAME_LATENCY)) {
+      selector = new LatencySinkSelector(shouldBackOff);
     } else {
       try {
         @SuppressWarnings("unchecked")
@@ -127,6 +136,8 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
     selector.setSinks(getSinks());
     selector.configure(
         new Context(context.getSubProperties(CONFIG_SELECTOR_PREFIX)));
+    latencySelector = selector instanceof LatencyAwareSinkSelector ?
+        (LatencyAwareSinkSelector) selector : null;
 
     LOGGER.debug("Sink selector: " + selector + " initialized");
   }
@@ -152,8 +163,15 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
     Iterator<Sink> sinkIterator = selector.createSinkIterator();
     while (sinkIterator.hasNext()) {
       Sink sink = sinkIterator.next();
+      long startNanos = System.nanoTime();
       try {
         status = sink.process();
+        // a sink backing off had nothing to do, which says nothing about
+        // how fast it is
+        if (status == Status.READY && latencySelector != null) {
+          latencySelector.informSinkSucceeded(sink,
+              System.nanoTime() - startNanos);
+        }
         break;
       } catch (Exception ex) {
         selector.informSinkFailed(sink);
@@ -201,6 +219,16 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
     void informSinkFailed(Sink failedSink);
   }
 
+  /**
+   * A sink selector which is also told how long a sink took to process a
+   * batch. The processor calls {@link #informSinkSucceeded(Sink, long)} when
+   * a sink returns <tt>READY</tt>.
+   */
+  public interface LatencyAwareSinkSelector extends SinkSelector {
+
+    void informSinkSucceeded(Sink sink, long latencyNanos);
+  }
+
   /**
    * <p>A sink selector that implements the round-robin sink selection policy.
    * This implementation is not MT safe.</p>
@@ -276,4 +304,83 @@ public class LoadBalancingSinkProcessor extends AbstractSinkProcessor {
       selector.informFailure(failedSink);
     }
   }
+
+  /**
+   * A sink selector which prefers the sinks which processed their recent
+   * batches faster, and keeps counters of each sink. This implementation is
+   * not thread safe.
+   */
+  private static class LatencySinkSelector extends AbstractSinkSelector
+      implements LatencyAwareSinkSelector {
+
+    private LatencyAwareOrderSelector<Sink> selector;
+    private final Map<Sink, LoadBalancedSinkCounter> counters =
+        new HashMap<Sink, LoadBalancedSinkCounter>();
+
+    LatencySinkSelector(boolean backoff) {
+      selector = new LatencyAwareOrderSelector<Sink>(backoff);
+    }
+
+    @Override
+    public void configure(Context context) {
+      super.configure(context);
+      if (maxTimeOut != 0) {
+        selector.setMaxTimeOut(maxTimeOut);
+      }
+      Long decay = context.getLong("latencyDecay");
+      if (decay != null) {
+        selector.setDecayTime(decay);
+      }
+    }
+
+    @Override
+    public void setSinks(List<Sink> sinks) {
+      selector.setObjects(sinks);
+      for (Sink sink : sinks) {
+        counters.put(sink, new LoadBalancedSinkCounter(sink.getName()));
+      }
+    }
+
+    @Override
+    public void start() {
+      super.start();
+      for (LoadBalancedSinkCounter counter : counters.values()) {
+        counter.start();
+      }
+    }
+
+    @Override
+    public void stop() {
+      super.stop();
+      for (LoadBalancedSinkCounter counter : counters.values()) {
+        counter.stop();
+      }
+    }
+
+    @Override
+    public Iterator<Sink> createSinkIterator() {
+      return selector.createIterator();
+    }
+
+    @Override
+    public void informSinkSucceeded(Sink sink, long latencyNanos) {
+      selector.informSuccess(sink, latencyNanos);
+      LoadBalancedSinkCounter counter = counters.get(sink);
+      counter.incrementSuccessCount();
+      updateLatency(sink, counter);
+    }
+
+    @Override
+    public void informSinkFailed(Sink failedSink) {
+      selector.informFailure(failedSink);
+      LoadBalancedSinkCounter counter = counters.get(failedSink);
+      counter.incrementFailureCount();
+      updateLatency(failedSink, counter);
+    }
+
+    private void updateLatency(Sink sink, LoadBalancedSinkCounter counter) {
+      counter.setLatencyMicros(
+          (long) (selector.getStats(sink).getLatencyMillis() * 1000));
+    }
+  }
 }
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.source;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.base.Preconditions;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.channel.BasicChannelSemantics;
+import org.apache.flume.channel.ChannelProcessor;
+
+/**
+ * <p>Decides whether an event driven source takes a request, from how full
+ * the channels it writes to are, and how long it asks the client of a
+ * refused request to wait before sending again.</p>
+ *
+ * <p>Once the fullest channel is filled beyond <tt>admission.highWatermark</tt>
+ * percent, requests are refused with a probability that grows with the fill
+ * until all are refused when the channel is full. Refusing some requests
+ * early spreads the load over the clients instead of failing all of them
+ * when the channel is full. Only channels which report their capacity are
+ * looked at, and requests without events are always taken as clients send
+ * them to check the connection.</p>
+ *
+ * <p>The time a refused client is asked to wait is
+ * <tt>admission.retryAfter</tt> millis, give or take half of it at random so
+ * that the clients refused at the same time do not all come back at the
+ * same time.</p>
+ */
+public class AdmissionController {
+
+  public static final String CONFIG_PREFIX = "admission.";
+
+  /**
+   * Fill percentage of the fullest channel above which requests are
+   * refused. 0, the default, takes all requests.
+   */
+  public static final String CONFIG_HIGH_WATERMARK = "highWatermark";
+  public static final int DEFAULT_HIGH_WATERMARK = 0;
+
+  /**
+   * Time in millis the client of a refused request is asked to wait.
+   */
+  public static final String CONFIG_RETRY_AFTER = "retryAfter";
+  public static final long DEFAULT_RETRY_AFTER = 1000;
+
+  private int highWatermark = DEFAULT_HIGH_WATERMARK;
+  private long retryAfter = DEFAULT_RETRY_AFTER;
+
+  public void configure(Context context) {
+    Context subContext = new Context(context.getSubProperties(CONFIG_PREFIX));
+    highWatermark = subContext.getInteger(CONFIG_HIGH_WATERMARK,
+        DEFAULT_HIGH_WATERMARK);
+    Preconditions.checkArgument(highWatermark >= 0 && highWatermark <= 100,
+        CONFIG_PREFIX + CONFIG_HIGH_WATERMARK + " must be between 0 and 100");
+    retryAfter = subContext.getLong(CONFIG_RETRY_AFTER, DEFAULT_RETRY_AFTER);
+    Preconditions.checkArgument(retryAfter > 0,
+        CONFIG_PREFIX + CONFIG_RETRY_AFTER + " must be greater than 0");
+  }
+
+  /**
+   * @param processor the channel processor of the source
+   * @param events the number of events in the request, or -1 if not known
+   * @return false if the request should be refused
+   */
+  public boolean admit(ChannelProcessor processor, int events) {
+    if (highWatermark == 0 || events == 0) {
+      return true;
+    }
+    double fill = getFillPercentage(processor);
+    if (fill <= highWatermark) {
+      return true;
+    }
+    if (fill >= 100) {
+      return false;
+    }
+    double refuse = (fill - highWatermark) / (100 - highWatermark);
+    return ThreadLocalRandom.current().nextDouble() >= refuse;
+  }
+
+  /**
+   * @return the time in millis to ask the client of a refused request to
+   * wait before sending again
+   */
+  public long getRetryAfterMillis() {
+    return retryAfter / 2 + ThreadLocalRandom.current().nextLong(retryAfter + 1);
+  }
+
+  private static double getFillPercentage(ChannelProcessor processor) {
+    double fill = 0;
+    for (Channel channel : processor.getSelector().getAllChannels()) {
+      if (channel instanceof BasicChannelSemantics) {
+        BasicChannelSemantics basicChannel = (BasicChannelSemantics) channel;
+        Integer capacity = basicChannel.getCapacity();
+        if (capacity != null && capacity > 0) {
+          fill = Math.max(fill,
+              basicChannel.getQueueSize() * 100.0 / capacity);
+        }
+      }
+    }
+    return fill;
+  }
+}
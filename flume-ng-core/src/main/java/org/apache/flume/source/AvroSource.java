@@ -29,16 +29,19 @@ import org.apache.avro.ipc.Server;
 import org.apache.avro.ipc.specific.SpecificResponder;
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelFullException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.FlumeException;
 import org.apache.flume.Source;
+import org.apache.flume.api.RetryAfterPlugin;
+import org.apache.flume.api.SnappyFrameCodec;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.conf.Configurables;
 import org.apache.flume.conf.LogPrivacyUtil;
-import org.apache.flume.event.EventBuilder;
-import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.event.WrappedAvroEvent;
+import org.apache.flume.instrumentation.RpcSourceCounter;
 import org.apache.flume.source.avro.AvroFlumeEvent;
 import org.apache.flume.source.avro.AvroSourceProtocol;
 import org.apache.flume.source.avro.Status;
@@ -64,10 +67,8 @@ import java.security.KeyStore;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -119,6 +120,19 @@ import java.util.concurrent.TimeUnit;
  * <td>Count / int</td>
  * <td>0(optional)</td>
  * </tr>
+ * <tr>
+ * <td><tt>admission.highWatermark</tt></td>
+ * <td>Channel fill percentage above which requests are refused, 0 takes
+ * all requests. See {@link AdmissionController}.</td>
+ * <td>Percent / int</td>
+ * <td>0(optional)</td>
+ * </tr>
+ * <tr>
+ * <td><tt>admission.retryAfter</tt></td>
+ * <td>Time the client of a refused request is asked to wait</td>
+ * <td>Millis / long</td>
+ * <td>1000(optional)</td>
+ * </tr>
  * </table>
  * <p>
  * <b>Metrics</b>
@@ -157,7 +171,9 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
   private String patternRuleConfigDefinition;
 
   private Server server;
-  private SourceCounter sourceCounter;
+  private RpcSourceCounter sourceCounter;
+  private final AdmissionController admissionController =
+      new AdmissionController();
 
   private int maxThreads;
   private ScheduledExecutorService connectionCountUpdater;
@@ -224,8 +240,10 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
       }
     }
 
+    admissionController.configure(context);
+
     if (sourceCounter == null) {
-      sourceCounter = new SourceCounter(getName());
+      sourceCounter = new RpcSourceCounter(getName());
     }
   }
 
@@ -234,6 +252,7 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
     logger.info("Starting {}...", this);
 
     Responder responder = new SpecificResponder(AvroSourceProtocol.class, this);
+    responder.addRPCPlugin(new RetryAfterPlugin());
 
     NioServerSocketChannelFactory socketChannelFactory = initSocketChannelFactory();
 
@@ -280,7 +299,8 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
   private ChannelPipelineFactory initChannelPipelineFactory() {
     ChannelPipelineFactory pipelineFactory;
     boolean enableCompression = compressionType.equalsIgnoreCase("deflate");
-    if (enableCompression || enableSsl || enableIpFilter) {
+    boolean enableSnappy = compressionType.equalsIgnoreCase("snappy");
+    if (enableCompression || enableSnappy || enableSsl || enableIpFilter) {
       pipelineFactory = new AdvancedChannelPipelineFactory(
         enableCompression, enableSsl, keystore,
         keystorePassword, keystoreType, enableIpFilter,
@@ -330,19 +350,6 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
         ", port: " + port + " }";
   }
 
-  /**
-   * Helper function to convert a map of CharSequence to a map of String.
-   */
-  private static Map<String, String> toStringMap(
-      Map<CharSequence, CharSequence> charSeqMap) {
-    Map<String, String> stringMap =
-        new HashMap<String, String>();
-    for (Map.Entry<CharSequence, CharSequence> entry : charSeqMap.entrySet()) {
-      stringMap.put(entry.getKey().toString(), entry.getValue().toString());
-    }
-    return stringMap;
-  }
-
   @Override
   public Status append(AvroFlumeEvent avroEvent) {
     if (logger.isDebugEnabled()) {
@@ -356,11 +363,18 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
     sourceCounter.incrementAppendReceivedCount();
     sourceCounter.incrementEventReceivedCount();
 
-    Event event = EventBuilder.withBody(avroEvent.getBody().array(),
-        toStringMap(avroEvent.getHeaders()));
+    if (!admissionController.admit(getChannelProcessor(), 1)) {
+      return tryLater();
+    }
+
+    Event event = new WrappedAvroEvent(avroEvent);
 
     try {
       getChannelProcessor().processEvent(event);
+    } catch (ChannelFullException ex) {
+      logger.warn("Avro source " + getName() + ": Channel is full, asking " +
+          "the client to try later.");
+      return tryLater();
     } catch (ChannelException ex) {
       logger.warn("Avro source " + getName() + ": Unable to process event. " +
           "Exception follows.", ex);
@@ -380,17 +394,22 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
     sourceCounter.incrementAppendBatchReceivedCount();
     sourceCounter.addToEventReceivedCount(events.size());
 
-    List<Event> batch = new ArrayList<Event>();
+    if (!admissionController.admit(getChannelProcessor(), events.size())) {
+      return tryLater();
+    }
+
+    List<Event> batch = new ArrayList<Event>(events.size());
 
     for (AvroFlumeEvent avroEvent : events) {
-      Event event = EventBuilder.withBody(avroEvent.getBody().array(),
-          toStringMap(avroEvent.getHeaders()));
-
-      batch.add(event);
+      batch.add(new WrappedAvroEvent(avroEvent));
     }
 
     try {
       getChannelProcessor().processEventBatch(batch);
+    } catch (ChannelFullException ex) {
+      logger.warn("Avro source " + getName() + ": Channel is full, asking " +
+          "the client to try later.");
+      return tryLater();
     } catch (Throwable t) {
       logger.error("Avro source " + getName() + ": Unable to process event " +
           "batch. Exception follows.", t);
@@ -406,6 +425,16 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
     return Status.OK;
   }
 
+  /**
+   * Refuses the request being handled with a hint to the client of how
+   * long to wait before sending it again.
+   */
+  private Status tryLater() {
+    sourceCounter.incrementTryLaterCount();
+    RetryAfterPlugin.setRetryAfter(admissionController.getRetryAfterMillis());
+    return Status.FAILED;
+  }
+
   private PatternRule generateRule(String patternRuleDefinition) throws FlumeException {
     patternRuleDefinition = patternRuleDefinition.trim();
     //first validate the format
@@ -508,6 +537,11 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
         pipeline.addFirst("inflater", new ZlibDecoder());
       }
 
+      if (compressionType.equalsIgnoreCase("snappy")) {
+        // switches to snappy frames only for clients which ask for them
+        pipeline.addFirst("snappyDetector", new SnappyFrameCodec.Detector());
+      }
+
       if (enableSsl) {
         SSLEngine sslEngine = createServerSSLContext().createSSLEngine();
         sslEngine.setUseClientMode(false);
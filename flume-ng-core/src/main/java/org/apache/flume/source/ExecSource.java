@@ -20,10 +20,15 @@
 package org.apache.flume.source;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -40,10 +45,12 @@ import org.apache.flume.SystemClock;
 import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.event.EventBuilder;
-import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.instrumentation.ExecSourceCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
@@ -138,6 +145,15 @@ import java.nio.charset.Charset;
  * <td>long</td>
  * <td>3000</td>
  * </tr>
+ * <tr>
+ * <td><tt>bufferCapacity</tt></td>
+ * <td>Number of events buffered between the thread reading the output of the
+ *     command and the thread committing them to the channel, so that a slow
+ *     channel does not hold the command up until the buffer is full. 0 to
+ *     commit them from the reading thread.</td>
+ * <td>integer</td>
+ * <td>0</td>
+ * </tr>
  * </table>
  * <p>
  * <b>Metrics</b>
@@ -152,7 +168,7 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
 
   private String shell;
   private String command;
-  private SourceCounter sourceCounter;
+  private ExecSourceCounter sourceCounter;
   private ExecutorService executor;
   private Future<?> runnerFuture;
   private long restartThrottle;
@@ -162,15 +178,27 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
   private long batchTimeout;
   private ExecRunnable runner;
   private Charset charset;
+  private int bufferCapacity;
+  private BufferCommitter committer;
 
   @Override
   public void start() {
     logger.info("Exec source starting with command:{}", command);
 
-    executor = Executors.newSingleThreadExecutor();
+    BlockingQueue<Event> buffer = null;
+    if (bufferCapacity > 0) {
+      executor = Executors.newFixedThreadPool(2);
+      buffer = new ArrayBlockingQueue<Event>(bufferCapacity);
+      committer = new BufferCommitter(buffer, getChannelProcessor(),
+          sourceCounter, bufferCount, batchTimeout);
+      executor.submit(committer);
+    } else {
+      executor = Executors.newSingleThreadExecutor();
+    }
 
     runner = new ExecRunnable(shell, command, getChannelProcessor(), sourceCounter,
-        restart, restartThrottle, logStderr, bufferCount, batchTimeout, charset);
+        restart, restartThrottle, logStderr, bufferCount, batchTimeout, charset,
+        buffer);
 
     // FIXME: Use a callback-like executor / future to signal us upon failure.
     runnerFuture = executor.submit(runner);
@@ -199,6 +227,11 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
       runnerFuture.cancel(true);
       logger.debug("Exec runner stopped");
     }
+    if (committer != null) {
+      // events already read still go to the channel
+      committer.stop();
+      committer = null;
+    }
     executor.shutdown();
 
     while (!executor.isTerminated()) {
@@ -246,16 +279,27 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
 
     shell = context.getString(ExecSourceConfigurationConstants.CONFIG_SHELL, null);
 
+    bufferCapacity = context.getInteger(ExecSourceConfigurationConstants.CONFIG_BUFFER_CAPACITY,
+        ExecSourceConfigurationConstants.DEFAULT_BUFFER_CAPACITY);
+    Preconditions.checkState(bufferCapacity >= 0,
+        "bufferCapacity must not be negative");
+
     if (sourceCounter == null) {
-      sourceCounter = new SourceCounter(getName());
+      sourceCounter = new ExecSourceCounter(getName());
     }
   }
 
+  @VisibleForTesting
+  protected ExecSourceCounter getSourceCounter() {
+    return sourceCounter;
+  }
+
   private static class ExecRunnable implements Runnable {
 
     public ExecRunnable(String shell, String command, ChannelProcessor channelProcessor,
-        SourceCounter sourceCounter, boolean restart, long restartThrottle,
-        boolean logStderr, int bufferCount, long batchTimeout, Charset charset) {
+        ExecSourceCounter sourceCounter, boolean restart, long restartThrottle,
+        boolean logStderr, int bufferCount, long batchTimeout, Charset charset,
+        BlockingQueue<Event> buffer) {
       this.command = command;
       this.channelProcessor = channelProcessor;
       this.sourceCounter = sourceCounter;
@@ -266,18 +310,21 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
       this.logStderr = logStderr;
       this.charset = charset;
       this.shell = shell;
+      this.buffer = buffer;
     }
 
     private final String shell;
     private final String command;
     private final ChannelProcessor channelProcessor;
-    private final SourceCounter sourceCounter;
+    private final ExecSourceCounter sourceCounter;
     private volatile boolean restart;
     private final long restartThrottle;
     private final int bufferCount;
     private long batchTimeout;
     private final boolean logStderr;
     private final Charset charset;
+    // events go through this buffer to the committer thread, if it is set
+    private final BlockingQueue<Event> buffer;
     private Process process = null;
     private SystemClock systemClock = new SystemClock();
     private Long lastPushToChannel = systemClock.currentTimeMillis();
@@ -292,10 +339,12 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
         String line = null;
         final List<Event> eventList = new ArrayList<Event>();
 
-        timedFlushService = Executors.newSingleThreadScheduledExecutor(
-                new ThreadFactoryBuilder().setNameFormat(
-                "timedFlushExecService" +
-                Thread.currentThread().getId() + "-%d").build());
+        if (buffer == null) {
+          timedFlushService = Executors.newSingleThreadScheduledExecutor(
+                  new ThreadFactoryBuilder().setNameFormat(
+                  "timedFlushExecService" +
+                  Thread.currentThread().getId() + "-%d").build());
+        }
         try {
           if (shell != null) {
             String[] commandArgs = formulateShellCommand(shell, command);
@@ -304,8 +353,6 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
             String[] commandArgs = command.split("\\s+");
             process = new ProcessBuilder(commandArgs).start();
           }
-          reader = new BufferedReader(
-              new InputStreamReader(process.getInputStream(), charset));
 
           // StderrLogger dies as soon as the input stream is invalid
           StderrReader stderrReader = new StderrReader(new BufferedReader(
@@ -314,40 +361,48 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
           stderrReader.setDaemon(true);
           stderrReader.start();
 
-          future = timedFlushService.scheduleWithFixedDelay(new Runnable() {
-              @Override
-              public void run() {
-                try {
-                  synchronized (eventList) {
-                    if (!eventList.isEmpty() && timeout()) {
-                      flushEventBatch(eventList);
+          if (buffer != null) {
+            // the committer takes the events to the channel from there
+            readIntoBuffer(process.getInputStream());
+          } else {
+            reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), charset));
+
+            future = timedFlushService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    synchronized (eventList) {
+                      if (!eventList.isEmpty() && timeout()) {
+                        flushEventBatch(eventList);
+                      }
+                    }
+                  } catch (Exception e) {
+                    logger.error("Exception occured when processing event batch", e);
+                    if (e instanceof InterruptedException) {
+                      Thread.currentThread().interrupt();
                     }
-                  }
-                } catch (Exception e) {
-                  logger.error("Exception occured when processing event batch", e);
-                  if (e instanceof InterruptedException) {
-                    Thread.currentThread().interrupt();
                   }
                 }
+            },
+            batchTimeout, batchTimeout, TimeUnit.MILLISECONDS);
+
+            while ((line = reader.readLine()) != null) {
+              synchronized (eventList) {
+                sourceCounter.incrementEventReceivedCount();
+                eventList.add(EventBuilder.withBody(line.getBytes(charset)));
+                if (eventList.size() >= bufferCount || timeout()) {
+                  flushEventBatch(eventList);
+                }
               }
-          },
-          batchTimeout, batchTimeout, TimeUnit.MILLISECONDS);
+            }
 
-          while ((line = reader.readLine()) != null) {
             synchronized (eventList) {
-              sourceCounter.incrementEventReceivedCount();
-              eventList.add(EventBuilder.withBody(line.getBytes(charset)));
-              if (eventList.size() >= bufferCount || timeout()) {
+              if (!eventList.isEmpty()) {
                 flushEventBatch(eventList);
               }
             }
           }
-
-          synchronized (eventList) {
-            if (!eventList.isEmpty()) {
-              flushEventBatch(eventList);
-            }
-          }
         } catch (Exception e) {
           logger.error("Failed while running command: " + command, e);
           if (e instanceof InterruptedException) {
@@ -388,6 +443,45 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
       return (systemClock.currentTimeMillis() - lastPushToChannel) >= batchTimeout;
     }
 
+    /**
+     * Hands the lines of the command to the committer. This thread only
+     * waits when the buffer is full, never on the channel.
+     */
+    private void readIntoBuffer(InputStream in)
+        throws IOException, InterruptedException {
+      try {
+        if (isAsciiCompatible(charset)) {
+          // lines can be split on the raw bytes, which then are the body
+          ByteLineReader reader = new ByteLineReader(in);
+          byte[] line;
+          while ((line = reader.readLine()) != null) {
+            enqueue(EventBuilder.withBody(line));
+          }
+        } else {
+          BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+          String line;
+          while ((line = reader.readLine()) != null) {
+            enqueue(EventBuilder.withBody(line.getBytes(charset)));
+          }
+        }
+      } finally {
+        in.close();
+      }
+    }
+
+    private void enqueue(Event event) throws InterruptedException {
+      sourceCounter.incrementEventReceivedCount();
+      if (!buffer.offer(event)) {
+        sourceCounter.incrementBufferFullCount();
+        buffer.put(event);
+      }
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+      return charset.equals(Charsets.UTF_8) || charset.equals(Charsets.US_ASCII) ||
+          charset.equals(Charsets.ISO_8859_1);
+    }
+
     private static String[] formulateShellCommand(String shell, String command) {
       String[] shellArgs = shell.split("\\s+");
       String[] result = new String[shellArgs.length + 1];
@@ -435,6 +529,181 @@ public class ExecSource extends AbstractSource implements EventDrivenSource, Con
     }
   }
 
+  /**
+   * Splits a stream into lines on its raw bytes. Like
+   * {@link BufferedReader#readLine()}, a line ends at "\n", "\r" or "\r\n",
+   * and the last line needs no line ending.
+   */
+  private static class ByteLineReader {
+    private final InputStream in;
+    private final byte[] buf = new byte[65536];
+    private int pos;
+    private int limit;
+    private boolean skipLF;
+
+    ByteLineReader(InputStream in) {
+      this.in = in;
+    }
+
+    /**
+     * @return the next line, or null at the end of the stream
+     */
+    byte[] readLine() throws IOException {
+      ByteArrayOutputStream partial = null;
+      while (true) {
+        if (pos == limit) {
+          int n = in.read(buf);
+          if (n < 0) {
+            return partial == null ? null : partial.toByteArray();
+          }
+          pos = 0;
+          limit = n;
+        }
+        if (skipLF) {
+          skipLF = false;
+          if (buf[pos] == '\n') {
+            pos++;
+            continue;
+          }
+        }
+        int start = pos;
+        while (pos < limit) {
+          byte b = buf[pos];
+          if (b == '\n' || b == '\r') {
+            skipLF = b == '\r';
+            byte[] line;
+            if (partial == null) {
+              line = Arrays.copyOfRange(buf, start, pos);
+            } else {
+              partial.write(buf, start, pos - start);
+              line = partial.toByteArray();
+            }
+            pos++;
+            return line;
+          }
+          pos++;
+        }
+        // the line goes on in the next read
+        if (partial == null) {
+          partial = new ByteArrayOutputStream(2 * (limit - start));
+        }
+        partial.write(buf, start, limit - start);
+      }
+    }
+  }
+
+  /**
+   * Takes the events out of the buffer and commits them to the channel in
+   * batches of up to batchSize events, or whatever arrived within
+   * batchTimeout of the first one. A batch the channel refused is retried,
+   * backing off, while the reader keeps filling the buffer.
+   */
+  private static class BufferCommitter implements Runnable {
+    private static final long MIN_BACKOFF = 100L;
+    private static final long MAX_BACKOFF = 4000L;
+    private static final long POLL_INTERVAL = 100L;
+
+    private final BlockingQueue<Event> buffer;
+    private final ChannelProcessor channelProcessor;
+    private final ExecSourceCounter sourceCounter;
+    private final int batchSize;
+    private final long batchTimeout;
+    private final Object stopLock = new Object();
+    private volatile boolean stopping;
+    private boolean stopped;
+
+    BufferCommitter(BlockingQueue<Event> buffer, ChannelProcessor channelProcessor,
+        ExecSourceCounter sourceCounter, int batchSize, long batchTimeout) {
+      this.buffer = buffer;
+      this.channelProcessor = channelProcessor;
+      this.sourceCounter = sourceCounter;
+      this.batchSize = batchSize;
+      this.batchTimeout = batchTimeout;
+    }
+
+    @Override
+    public void run() {
+      List<Event> batch = new ArrayList<Event>(batchSize);
+      long backoff = MIN_BACKOFF;
+      try {
+        while (true) {
+          if (batch.isEmpty()) {
+            fillBatch(batch);
+            if (batch.isEmpty()) {
+              if (stopping) {
+                break;
+              }
+              continue;
+            }
+          }
+          sourceCounter.setBufferDepth(buffer.size());
+          try {
+            channelProcessor.processEventBatch(batch);
+            sourceCounter.addToEventAcceptedCount(batch.size());
+            batch.clear();
+            backoff = MIN_BACKOFF;
+          } catch (Exception e) {
+            if (stopping) {
+              logger.warn("Dropping " + (batch.size() + buffer.size()) +
+                  " events on stop, the channel did not take them", e);
+              break;
+            }
+            logger.warn("Failed to commit a batch of " + batch.size() +
+                " events, retrying in " + backoff + "ms", e);
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        sourceCounter.setBufferDepth(buffer.size());
+        synchronized (stopLock) {
+          stopped = true;
+          stopLock.notifyAll();
+        }
+      }
+    }
+
+    private void fillBatch(List<Event> batch) throws InterruptedException {
+      Event first = buffer.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      if (first == null) {
+        return;
+      }
+      batch.add(first);
+      long deadline = System.currentTimeMillis() + batchTimeout;
+      while (batch.size() < batchSize) {
+        buffer.drainTo(batch, batchSize - batch.size());
+        long wait = deadline - System.currentTimeMillis();
+        if (batch.size() >= batchSize || wait <= 0 || stopping) {
+          return;
+        }
+        Event event = buffer.poll(Math.min(wait, POLL_INTERVAL), TimeUnit.MILLISECONDS);
+        if (event != null) {
+          batch.add(event);
+        }
+      }
+    }
+
+    /**
+     * Waits for the events left in the buffer to be committed, or for the
+     * channel to refuse them once.
+     */
+    void stop() {
+      stopping = true;
+      synchronized (stopLock) {
+        while (!stopped) {
+          try {
+            stopLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+    }
+  }
+
   private static class StderrReader extends Thread {
     private BufferedReader input;
     private boolean logStderr;
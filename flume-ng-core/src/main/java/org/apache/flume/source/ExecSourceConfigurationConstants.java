@@ -61,4 +61,12 @@ public class ExecSourceConfigurationConstants {
    * Optional shell/command processor used to run command
    */
   public static final String CONFIG_SHELL = "shell";
+
+  /**
+   * Number of events buffered between the thread reading the command's
+   * output and the thread committing them to the channel. 0 to commit them
+   * from the reading thread: default 0
+   */
+  public static final String CONFIG_BUFFER_CAPACITY = "bufferCapacity";
+  public static final int DEFAULT_BUFFER_CAPACITY = 0;
 }
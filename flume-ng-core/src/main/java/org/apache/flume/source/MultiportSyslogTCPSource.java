@@ -236,7 +236,7 @@ public class MultiportSyslogTCPSource extends AbstractSource implements
       this.defaultDecoder = defaultDecoder;
       this.portCharsets = portCharsets;
       this.keepFields = keepFields;
-      syslogParser = new SyslogParser();
+      syslogParser = new SyslogParser(null, SyslogParser.Compat.MULTIPORT);
       lineSplitter = new LineSplitter(maxEventSize);
     }
 
@@ -336,6 +336,28 @@ public class MultiportSyslogTCPSource extends AbstractSource implements
      * @return
      */
     Event parseEvent(ParsedBuffer parsedBuf, CharsetDecoder decoder) {
+      // Lines of 7-bit characters are valid in any charset which agrees with
+      // ASCII, so they can be parsed without decoding them first.
+      IoBuffer buffer = parsedBuf.buffer;
+      if (SyslogParser.isAsciiCompatible(decoder.charset()) && isAscii(buffer)) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        Event event;
+        try {
+          event = syslogParser.parseMessage(bytes, 0, bytes.length, keepFields);
+          if (parsedBuf.incomplete) {
+            event.getHeaders().put(SyslogUtils.EVENT_STATUS,
+                SyslogUtils.SyslogStatus.INCOMPLETE.getSyslogStatus());
+          }
+        } catch (IllegalArgumentException ex) {
+          event = EventBuilder.withBody(bytes);
+          event.getHeaders().put(SyslogUtils.EVENT_STATUS,
+              SyslogUtils.SyslogStatus.INVALID.getSyslogStatus());
+          logger.debug("Error parsing syslog event", ex);
+        }
+        return event;
+      }
+
       String msg = null;
       try {
         msg = parsedBuf.buffer.getString(decoder);
@@ -382,6 +404,15 @@ public class MultiportSyslogTCPSource extends AbstractSource implements
 
       return event;
     }
+
+    private static boolean isAscii(IoBuffer buffer) {
+      for (int i = buffer.position(); i < buffer.limit(); i++) {
+        if (buffer.get(i) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 
   /**
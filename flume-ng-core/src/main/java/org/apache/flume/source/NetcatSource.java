@@ -28,8 +28,17 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -49,6 +58,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
@@ -95,6 +105,28 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * <td>Number of UTF-8 characters / int</td>
  * <td>512</td>
  * </tr>
+ * <tr>
+ * <td><tt>event-loop</tt></td>
+ * <td>Serve all connections from one selector thread and write the lines read
+ * to the channel in batches, instead of using a thread and a transaction per
+ * line.</td>
+ * <td>boolean</td>
+ * <td>false</td>
+ * </tr>
+ * <tr>
+ * <td><tt>batch-size</tt></td>
+ * <td>The maximum # of events per channel transaction in event loop
+ * mode.</td>
+ * <td>events / int</td>
+ * <td>100</td>
+ * </tr>
+ * <tr>
+ * <td><tt>batch-linger</tt></td>
+ * <td>How long a partial batch may wait for more lines in event loop mode.
+ * With 0 the lines read in one pass of the loop are written together.</td>
+ * <td>milliseconds / long</td>
+ * <td>0</td>
+ * </tr>
  * </table>
  * <p>
  * <b>Metrics</b>
@@ -114,9 +146,13 @@ public class NetcatSource extends AbstractSource implements Configurable,
   private int maxLineLength;
   private boolean ackEveryEvent;
   private String sourceEncoding;
+  private boolean eventLoop;
+  private int batchSize;
+  private long batchLinger;
 
   private CounterGroup counterGroup;
   private ServerSocketChannel serverSocket;
+  private Selector selector;
   private AtomicBoolean acceptThreadShouldStop;
   private Thread acceptThread;
   private ExecutorService handlerService;
@@ -147,6 +183,19 @@ public class NetcatSource extends AbstractSource implements Configurable,
         NetcatSourceConfigurationConstants.CONFIG_SOURCE_ENCODING,
         NetcatSourceConfigurationConstants.DEFAULT_ENCODING
     );
+    eventLoop = context.getBoolean(
+        NetcatSourceConfigurationConstants.CONFIG_EVENT_LOOP,
+        NetcatSourceConfigurationConstants.DEFAULT_EVENT_LOOP);
+    batchSize = context.getInteger(
+        NetcatSourceConfigurationConstants.CONFIG_BATCH_SIZE,
+        NetcatSourceConfigurationConstants.DEFAULT_BATCH_SIZE);
+    batchLinger = context.getLong(
+        NetcatSourceConfigurationConstants.CONFIG_BATCH_LINGER,
+        NetcatSourceConfigurationConstants.DEFAULT_BATCH_LINGER);
+    Preconditions.checkArgument(batchSize > 0,
+        "batch-size must be greater than 0");
+    Preconditions.checkArgument(batchLinger >= 0,
+        "batch-linger must not be negative");
   }
 
   @Override
@@ -156,9 +205,6 @@ public class NetcatSource extends AbstractSource implements Configurable,
 
     counterGroup.incrementAndGet("open.attempts");
 
-    handlerService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-        .setNameFormat("netcat-handler-%d").build());
-
     try {
       SocketAddress bindPoint = new InetSocketAddress(hostName, port);
 
@@ -167,14 +213,41 @@ public class NetcatSource extends AbstractSource implements Configurable,
       serverSocket.socket().bind(bindPoint);
 
       logger.info("Created serverSocket:{}", serverSocket);
+
+      if (eventLoop) {
+        serverSocket.configureBlocking(false);
+        selector = Selector.open();
+      }
     } catch (IOException e) {
       counterGroup.incrementAndGet("open.errors");
       logger.error("Unable to bind to socket. Exception follows.", e);
       throw new FlumeException(e);
     }
 
-    AcceptHandler acceptRunnable = new AcceptHandler(maxLineLength);
     acceptThreadShouldStop.set(false);
+
+    if (eventLoop) {
+      EventLoopHandler loopRunnable = new EventLoopHandler(maxLineLength,
+          batchSize, batchLinger, Charset.forName(sourceEncoding));
+      loopRunnable.counterGroup = counterGroup;
+      loopRunnable.shouldStop = acceptThreadShouldStop;
+      loopRunnable.ackEveryEvent = ackEveryEvent;
+      loopRunnable.source = this;
+      loopRunnable.serverSocket = serverSocket;
+      loopRunnable.selector = selector;
+
+      acceptThread = new Thread(loopRunnable);
+      acceptThread.start();
+
+      logger.debug("Source started");
+      super.start();
+      return;
+    }
+
+    handlerService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("netcat-handler-%d").build());
+
+    AcceptHandler acceptRunnable = new AcceptHandler(maxLineLength);
     acceptRunnable.counterGroup = counterGroup;
     acceptRunnable.handlerService = handlerService;
     acceptRunnable.shouldStop = acceptThreadShouldStop;
@@ -197,6 +270,10 @@ public class NetcatSource extends AbstractSource implements Configurable,
 
     acceptThreadShouldStop.set(true);
 
+    if (selector != null) {
+      selector.wakeup();
+    }
+
     if (acceptThread != null) {
       logger.debug("Stopping accept handler thread");
 
@@ -215,6 +292,15 @@ public class NetcatSource extends AbstractSource implements Configurable,
       logger.debug("Stopped accept handler thread");
     }
 
+    if (selector != null) {
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.error("Unable to close selector. Exception follows.", e);
+      }
+      selector = null;
+    }
+
     if (serverSocket != null) {
       try {
         serverSocket.close();
@@ -471,4 +557,373 @@ public class NetcatSource extends AbstractSource implements Configurable,
     }
 
   }
+
+  /**
+   * <p>Serves the server socket and all its connections from one thread. The
+   * lines read in a pass over the ready connections are collected and written
+   * to the channel with one <tt>processEventBatch</tt> call
+   * per <tt>batchSize</tt> events, so a busy source does one transaction per
+   * batch rather than per line.</p>
+   *
+   * <p>Acks are sent once the batch holding the line is committed. A
+   * connection is not read from while it has replies the client has not taken
+   * yet.</p>
+   */
+  private static class EventLoopHandler implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private Selector selector;
+    private ServerSocketChannel serverSocket;
+    private CounterGroup counterGroup;
+    private Source source;
+    private AtomicBoolean shouldStop;
+    private boolean ackEveryEvent;
+
+    private final int maxLineLength;
+    private final int batchSize;
+    private final long batchLinger;
+    private final Charset charset;
+
+    private final List<Event> pendingEvents;
+    private final List<NetcatConnection> pendingConnections;
+    private long firstPendingTime;
+
+    public EventLoopHandler(int maxLineLength, int batchSize, long batchLinger,
+                            Charset charset) {
+      this.maxLineLength = maxLineLength;
+      this.batchSize = batchSize;
+      this.batchLinger = batchLinger;
+      this.charset = charset;
+      pendingEvents = new ArrayList<Event>(batchSize);
+      pendingConnections = new ArrayList<NetcatConnection>(batchSize);
+    }
+
+    @Override
+    public void run() {
+      logger.debug("Starting event loop");
+
+      try {
+        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+
+        while (!shouldStop.get()) {
+          if (pendingEvents.isEmpty()) {
+            selector.select();
+          } else {
+            long wait = firstPendingTime + batchLinger -
+                System.currentTimeMillis();
+            if (wait > 0) {
+              selector.select(wait);
+            } else {
+              selector.selectNow();
+            }
+          }
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept();
+              continue;
+            }
+            NetcatConnection connection = (NetcatConnection) key.attachment();
+            if (key.isReadable()) {
+              read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+              write(connection);
+            }
+          }
+
+          if (!pendingEvents.isEmpty() &&
+              System.currentTimeMillis() - firstPendingTime >= batchLinger) {
+            flush();
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        // Parent is canceling us.
+      } catch (IOException e) {
+        logger.error("Event loop failed. Exception follows.", e);
+      } finally {
+        flush();
+        try {
+          for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NetcatConnection) {
+              close((NetcatConnection) key.attachment());
+            }
+          }
+        } catch (ClosedSelectorException e) {
+          // nothing left to close
+        }
+      }
+
+      logger.debug("Event loop exiting");
+    }
+
+    private void accept() {
+      try {
+        SocketChannel socketChannel = serverSocket.accept();
+        if (socketChannel == null) {
+          return;
+        }
+        socketChannel.configureBlocking(false);
+
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        NetcatConnection connection = new NetcatConnection(socketChannel,
+            decoder, READ_BUFFER_SIZE, maxLineLength);
+        connection.key = socketChannel.register(selector,
+            SelectionKey.OP_READ, connection);
+
+        counterGroup.incrementAndGet("accept.succeeded");
+      } catch (IOException e) {
+        logger.error("Unable to accept connection. Exception follows.", e);
+        counterGroup.incrementAndGet("accept.failed");
+      }
+    }
+
+    private void read(NetcatConnection connection) {
+      int bytesRead;
+      try {
+        bytesRead = connection.socketChannel.read(connection.in);
+      } catch (IOException e) {
+        counterGroup.incrementAndGet("sessions.broken");
+        close(connection);
+        return;
+      }
+      boolean eof = bytesRead == -1;
+
+      // decode and cut lines until what was read is used up or a line does
+      // not fit the buffer
+      CharBuffer chars = connection.chars;
+      boolean more = true;
+      while (more) {
+        int charsBefore = chars.position();
+        connection.in.flip();
+        connection.decoder.decode(connection.in, chars, eof);
+        connection.in.compact();
+        counterGroup.addAndGet("characters.received",
+            Long.valueOf(chars.position() - charsBefore));
+
+        more = processLines(connection) > 0 && connection.in.position() > 0;
+      }
+      // only now, so the connection is not closed while lines are cut
+      connection.eof = eof;
+
+      if (!chars.hasRemaining()) {
+        // Same as the blocking handler: the client sent a line longer than
+        // the buffer, so tell it and drop the connection.
+        logger.warn("Client sent event exceeding the maximum length");
+        counterGroup.incrementAndGet("events.failed");
+        connection.replies.append("FAILED: Event exceeds the maximum length (")
+            .append(chars.capacity()).append(" chars, including newline)\n");
+        connection.failed = true;
+        sendReplies(connection);
+      } else {
+        update(connection);
+      }
+    }
+
+    /**
+     * Turns each complete line in the connection's buffer into an event and
+     * leaves the rest of the data at the front of the buffer.
+     *
+     * @return number of lines found
+     */
+    private int processLines(NetcatConnection connection) {
+      CharBuffer chars = connection.chars;
+      chars.flip();
+
+      int lines = 0;
+      int start = chars.position();
+      int limit = chars.limit();
+      for (int pos = start; pos < limit; pos++) {
+        if (chars.get(pos) == '\n') {
+          // parse event body bytes out of CharBuffer
+          chars.position(start);
+          chars.limit(pos); // temporary limit
+          ByteBuffer bytes = Charsets.UTF_8.encode(chars);
+          chars.limit(limit); // restore limit
+
+          byte[] body = new byte[bytes.remaining()];
+          bytes.get(body);
+          addEvent(EventBuilder.withBody(body), connection);
+
+          start = pos + 1; // skip newline
+          lines++;
+        }
+      }
+
+      chars.position(start);
+      chars.compact();
+      return lines;
+    }
+
+    private void addEvent(Event event, NetcatConnection connection) {
+      if (pendingEvents.isEmpty()) {
+        firstPendingTime = System.currentTimeMillis();
+      }
+      pendingEvents.add(event);
+      pendingConnections.add(connection);
+      connection.pendingEvents++;
+
+      if (pendingEvents.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    /**
+     * Writes the pending events to the channel in one transaction and queues
+     * the ack or failure of each line for its connection.
+     */
+    private void flush() {
+      if (pendingEvents.isEmpty()) {
+        return;
+      }
+
+      RuntimeException ex = null;
+      try {
+        source.getChannelProcessor().processEventBatch(pendingEvents);
+      } catch (ChannelException chEx) {
+        ex = chEx;
+        logger.warn("Error processing events. Exception follows.", ex);
+      } catch (RuntimeException rtEx) {
+        // e.g. from an interceptor, must not kill the event loop
+        ex = rtEx;
+        logger.error("Error processing events. Exception follows.", ex);
+      }
+
+      if (ex == null) {
+        counterGroup.addAndGet("events.processed",
+            Long.valueOf(pendingEvents.size()));
+      } else {
+        counterGroup.addAndGet("events.failed",
+            Long.valueOf(pendingEvents.size()));
+      }
+
+      for (NetcatConnection connection : pendingConnections) {
+        connection.pendingEvents--;
+        if (ex != null) {
+          connection.replies.append("FAILED: ").append(ex.getMessage())
+              .append('\n');
+        } else if (ackEveryEvent) {
+          connection.replies.append("OK\n");
+        }
+      }
+      for (NetcatConnection connection : pendingConnections) {
+        if (connection.pendingEvents == 0 || connection.replies.length() > 0) {
+          sendReplies(connection);
+        }
+      }
+
+      pendingEvents.clear();
+      pendingConnections.clear();
+    }
+
+    private void sendReplies(NetcatConnection connection) {
+      if (connection.closed) {
+        connection.replies.setLength(0);
+        return;
+      }
+      if (connection.replies.length() > 0) {
+        ByteBuffer bytes = charset.encode(
+            CharBuffer.wrap(connection.replies));
+        connection.replies.setLength(0);
+        if (connection.out == null) {
+          connection.out = bytes;
+        } else {
+          ByteBuffer out = ByteBuffer.allocate(
+              connection.out.remaining() + bytes.remaining());
+          out.put(connection.out).put(bytes).flip();
+          connection.out = out;
+        }
+      }
+      write(connection);
+    }
+
+    private void write(NetcatConnection connection) {
+      if (connection.out != null) {
+        try {
+          connection.socketChannel.write(connection.out);
+        } catch (IOException e) {
+          counterGroup.incrementAndGet("sessions.broken");
+          close(connection);
+          return;
+        }
+        if (!connection.out.hasRemaining()) {
+          connection.out = null;
+        }
+      }
+      update(connection);
+    }
+
+    /**
+     * Closes the connection once it is done with, otherwise chooses what to
+     * wait for on it next.
+     */
+    private void update(NetcatConnection connection) {
+      if (connection.closed) {
+        return;
+      }
+      if (connection.out != null) {
+        connection.key.interestOps(SelectionKey.OP_WRITE);
+      } else if (connection.eof || connection.failed) {
+        if (connection.pendingEvents == 0) {
+          counterGroup.incrementAndGet("sessions.completed");
+          close(connection);
+        } else {
+          connection.key.interestOps(0);
+        }
+      } else {
+        connection.key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    private void close(NetcatConnection connection) {
+      if (connection.closed) {
+        return;
+      }
+      connection.closed = true;
+      connection.key.cancel();
+      try {
+        connection.socketChannel.close();
+      } catch (IOException ex) {
+        logger.error("Unable to close socket channel. Exception follows.", ex);
+      }
+    }
+  }
+
+  /**
+   * State of one connection served by the {@link EventLoopHandler}.
+   */
+  private static class NetcatConnection {
+
+    private final SocketChannel socketChannel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer in;
+    private final CharBuffer chars;
+    private final StringBuilder replies;
+
+    private SelectionKey key;
+    private ByteBuffer out;
+    private int pendingEvents;
+    private boolean eof;
+    private boolean failed;
+    private boolean closed;
+
+    public NetcatConnection(SocketChannel socketChannel,
+                            CharsetDecoder decoder, int readBufferSize,
+                            int maxLineLength) {
+      this.socketChannel = socketChannel;
+      this.decoder = decoder;
+      in = ByteBuffer.allocate(readBufferSize);
+      chars = CharBuffer.allocate(maxLineLength);
+      replies = new StringBuilder();
+    }
+  }
 }
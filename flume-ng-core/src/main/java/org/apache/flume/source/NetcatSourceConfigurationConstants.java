@@ -47,4 +47,23 @@ public class NetcatSourceConfigurationConstants {
    */
   public static final String CONFIG_SOURCE_ENCODING = "encoding";
   public static final String DEFAULT_ENCODING = "utf-8";
+
+  /**
+   * Serve all connections from a single selector thread and write the lines
+   * read from them to the channel in batches.
+   */
+  public static final String CONFIG_EVENT_LOOP = "event-loop";
+  public static final boolean DEFAULT_EVENT_LOOP = false;
+
+  /**
+   * Maximum number of events per channel transaction in event loop mode.
+   */
+  public static final String CONFIG_BATCH_SIZE = "batch-size";
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /**
+   * Milliseconds a partial batch may wait for more events in event loop mode.
+   */
+  public static final String CONFIG_BATCH_LINGER = "batch-linger";
+  public static final long DEFAULT_BATCH_LINGER = 0;
 }
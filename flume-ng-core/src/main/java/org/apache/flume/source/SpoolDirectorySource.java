@@ -20,6 +20,7 @@ package org.apache.flume.source;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import org.apache.flume.ChannelException;
 import org.apache.flume.ChannelFullException;
 import org.apache.flume.Context;
@@ -69,6 +70,7 @@ public class SpoolDirectorySource extends AbstractSource
 
   private SourceCounter sourceCounter;
   ReliableSpoolingFileEventReader reader;
+  private List<ReliableSpoolingFileEventReader> readers;
   private ScheduledExecutorService executor;
   private boolean backoff = true;
   private boolean hitChannelException = false;
@@ -77,42 +79,63 @@ public class SpoolDirectorySource extends AbstractSource
   private ConsumeOrder consumeOrder;
   private int pollDelay;
   private boolean recursiveDirectorySearch;
+  private boolean watchDirectory;
+  private long rescanInterval;
+  private int readerCount;
 
   @Override
   public synchronized void start() {
     logger.info("SpoolDirectorySource source starting with directory: {}",
         spoolDirectory);
 
-    executor = Executors.newSingleThreadScheduledExecutor();
+    executor = Executors.newScheduledThreadPool(readerCount);
+
+    // readers consuming the directory together must not pick the same file
+    ReliableSpoolingFileEventReader.SharedFiles sharedFiles = null;
+    if (readerCount > 1) {
+      sharedFiles = new ReliableSpoolingFileEventReader.SharedFiles();
+    }
 
     File directory = new File(spoolDirectory);
+    readers = Lists.newArrayListWithCapacity(readerCount);
     try {
-      reader = new ReliableSpoolingFileEventReader.Builder()
-          .spoolDirectory(directory)
-          .completedSuffix(completedSuffix)
-          .includePattern(includePattern)
-          .ignorePattern(ignorePattern)
-          .trackerDirPath(trackerDirPath)
-          .annotateFileName(fileHeader)
-          .fileNameHeader(fileHeaderKey)
-          .annotateBaseName(basenameHeader)
-          .baseNameHeader(basenameHeaderKey)
-          .deserializerType(deserializerType)
-          .deserializerContext(deserializerContext)
-          .deletePolicy(deletePolicy)
-          .inputCharset(inputCharset)
-          .decodeErrorPolicy(decodeErrorPolicy)
-          .consumeOrder(consumeOrder)
-          .recursiveDirectorySearch(recursiveDirectorySearch)
-          .build();
+      for (int i = 0; i < readerCount; i++) {
+        readers.add(new ReliableSpoolingFileEventReader.Builder()
+              .spoolDirectory(directory)
+              .completedSuffix(completedSuffix)
+              .includePattern(includePattern)
+              .ignorePattern(ignorePattern)
+              .trackerDirPath(trackerDirPath)
+              .annotateFileName(fileHeader)
+              .fileNameHeader(fileHeaderKey)
+              .annotateBaseName(basenameHeader)
+              .baseNameHeader(basenameHeaderKey)
+              .deserializerType(deserializerType)
+              .deserializerContext(deserializerContext)
+              .deletePolicy(deletePolicy)
+              .inputCharset(inputCharset)
+              .decodeErrorPolicy(decodeErrorPolicy)
+              .consumeOrder(consumeOrder)
+              .recursiveDirectorySearch(recursiveDirectorySearch)
+              .watchDirectory(watchDirectory)
+              .rescanInterval(rescanInterval)
+              .readerIndex(i)
+              .readerCount(readerCount)
+              .sharedFiles(sharedFiles)
+              .build());
+      }
     } catch (IOException ioe) {
+      closeReaders();
       throw new FlumeException("Error instantiating spooling event parser",
           ioe);
     }
+    reader = readers.get(0);
 
-    Runnable runner = new SpoolDirectoryRunnable(reader, sourceCounter);
-    executor.scheduleWithFixedDelay(
-        runner, 0, pollDelay, TimeUnit.MILLISECONDS);
+    for (ReliableSpoolingFileEventReader r : readers) {
+      Runnable runner = new SpoolDirectoryRunnable(r, sourceCounter);
+      executor.scheduleWithFixedDelay(
+          runner, 0, pollDelay, TimeUnit.MILLISECONDS);
+    }
 
     super.start();
     logger.debug("SpoolDirectorySource source started");
@@ -123,17 +146,40 @@ public class SpoolDirectorySource extends AbstractSource
   public synchronized void stop() {
     executor.shutdown();
     try {
-      executor.awaitTermination(10L, TimeUnit.SECONDS);
+      if (!executor.awaitTermination(10L, TimeUnit.SECONDS)) {
+        executor.shutdownNow();
+        // a reader may still be busy with the interrupted file, and it must
+        // not be closed underneath it
+        if (!executor.awaitTermination(10L, TimeUnit.SECONDS)) {
+          logger.warn("Spooling directory readers did not stop in time");
+        }
+      }
     } catch (InterruptedException ex) {
       logger.info("Interrupted while awaiting termination", ex);
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
     }
-    executor.shutdownNow();
+
+    closeReaders();
 
     super.stop();
     sourceCounter.stop();
     logger.info("SpoolDir source {} stopped. Metrics: {}", getName(), sourceCounter);
   }
 
+  private void closeReaders() {
+    if (readers == null) {
+      return;
+    }
+    for (ReliableSpoolingFileEventReader r : readers) {
+      try {
+        r.close();
+      } catch (IOException e) {
+        logger.warn("Error closing the spooling directory reader", e);
+      }
+    }
+  }
+
   @Override
   public String toString() {
     return "Spool Directory source " + getName() +
@@ -180,6 +226,16 @@ public class SpoolDirectorySource extends AbstractSource
     recursiveDirectorySearch = context.getBoolean(RECURSIVE_DIRECTORY_SEARCH,
         DEFAULT_RECURSIVE_DIRECTORY_SEARCH);
 
+    watchDirectory = context.getBoolean(WATCH_DIRECTORY,
+        DEFAULT_WATCH_DIRECTORY);
+    rescanInterval = context.getLong(RESCAN_INTERVAL, DEFAULT_RESCAN_INTERVAL);
+    Preconditions.checkState(rescanInterval > 0,
+        "rescanInterval must be greater than 0");
+
+    readerCount = context.getInteger(READERS, DEFAULT_READERS);
+    Preconditions.checkState(readerCount > 0,
+        "readers must be greater than 0");
+
     // "Hack" to support backwards compatibility with previous generation of
     // spooling directory source, which did not support deserializers
     Integer bufferMaxLineLength = context.getInteger(BUFFER_MAX_LINE_LENGTH);
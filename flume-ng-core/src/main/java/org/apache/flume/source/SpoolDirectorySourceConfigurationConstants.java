@@ -107,6 +107,28 @@ public class SpoolDirectorySourceConfigurationConstants {
   public static final String RECURSIVE_DIRECTORY_SEARCH = "recursiveDirectorySearch";
   public static final boolean DEFAULT_RECURSIVE_DIRECTORY_SEARCH = false;
 
+  /**
+   * Flag to indicate if the spooling directory, and the directories below it
+   * when searching recursively, should be followed through a watch service
+   * rather than listed on every poll.
+   */
+  public static final String WATCH_DIRECTORY = "watchDirectory";
+  public static final boolean DEFAULT_WATCH_DIRECTORY = false;
+
+  /**
+   * Interval (in milliseconds) at which a watched spooling directory is
+   * listed in full anyway, in case the watch service missed some files.
+   */
+  public static final String RESCAN_INTERVAL = "rescanInterval";
+  public static final long DEFAULT_RESCAN_INTERVAL = 300000L;
+
+  /**
+   * Number of files read in parallel, each by its own reader thread. Events
+   * of a file keep their order, files are no longer consumed one at a time.
+   */
+  public static final String READERS = "readers";
+  public static final int DEFAULT_READERS = 1;
+
   /** Delay(in milliseconds) used when polling for new files. The default is 500ms */
   public static final String POLL_DELAY = "pollDelay";
   public static final int DEFAULT_POLL_DELAY = 500;
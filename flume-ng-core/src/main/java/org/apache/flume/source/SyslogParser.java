@@ -24,329 +24,758 @@ package org.apache.flume.source;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.collect.Maps;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.regex.Pattern;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.flume.Event;
 import org.apache.flume.annotations.InterfaceAudience;
 import org.apache.flume.annotations.InterfaceStability;
 import org.apache.flume.event.EventBuilder;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+/**
+ * <p>Parses the header of RFC 3164 and RFC 5424 syslog messages straight
+ * from their bytes, without decoding them to a <tt>String</tt> or running
+ * regular expressions over them. It is shared by all the syslog sources.</p>
+ *
+ * <p>Timestamps are parsed by hand too. The epoch of the last second seen in
+ * each format is cached, so a stream of messages from the same second costs
+ * a byte comparison per message. The parser keeps no other state and can be
+ * used by several threads at once.</p>
+ */
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
 public class SyslogParser {
 
-  private static final Logger logger =
-      LoggerFactory.getLogger(SyslogParser.class);
-
-  private static final int TS_CACHE_MAX = 1000;  // timestamp cache size limit
-  private static final Pattern TWO_SPACES = Pattern.compile("  ");
-  private static final DateTimeFormatter rfc3164Format =
-      DateTimeFormat.forPattern("MMM d HH:mm:ss").withZoneUTC();
+  /**
+   * Returned by {@link Header#getTimestamp()} when a message has no usable
+   * timestamp.
+   */
+  public static final long NO_TIMESTAMP = Long.MIN_VALUE;
 
-  private static final String timePat = "yyyy-MM-dd'T'HH:mm:ss";
-  private static final int RFC3164_LEN = 15;
   private static final int RFC5424_PREFIX_LEN = 19;
-  private final DateTimeFormatter timeParser;
+  private static final int MAX_PRIORITY_DIGITS = 3;
+  private static final byte[] MONTHS =
+      "janfebmaraprmayjunjulaugsepoctnovdec".getBytes(Charsets.US_ASCII);
+  private static final ConcurrentMap<Charset, Boolean> asciiCompatible =
+      Maps.newConcurrentMap();
+
+  /**
+   * The quirks of the parsers this one replaced. Each source keeps those of
+   * the parser it used before, so that moving it to this one changes no event.
+   */
+  enum Compat {
+    /** None, timestamps and hostnames are read as documented. */
+    NONE,
+    /**
+     * The regular expressions and date formats of {@link SyslogUtils}. A
+     * fraction of a second is a number of milliseconds, ".5" is 5 ms, and the
+     * zone offset after it is ignored. RFC 5424 fractions have at most six
+     * digits. Month names are capitalised. Hostnames start with a word
+     * character and go on with word characters, dots, at signs and dashes.
+     * RFC 3164 dates more than eleven months back are moved a further year
+     * back.
+     */
+    SYSLOG_UTILS,
+    /**
+     * The Joda based parser of {@link MultiportSyslogTCPSource}. RFC 3164
+     * dates more than a month ahead are put in 1999, those more than a month
+     * back in 2001.
+     */
+    MULTIPORT
+  }
 
-  private Cache<String, Long> timestampCache;
+  private final TimeZone zone;
+  private final boolean utc;
+  private final Compat compat;
 
+  private volatile CachedSecond lastRfc5424;
+  private volatile CachedSecond lastRfc3164;
+
+  /**
+   * Creates a parser which takes timestamps without a zone offset as UTC.
+   */
   public SyslogParser() {
-    timeParser = DateTimeFormat.forPattern(timePat).withZoneUTC();
-    timestampCache = CacheBuilder.newBuilder().maximumSize(TS_CACHE_MAX).build(
-        new CacheLoader<String, Long>() {
-
-          @Override
-          public Long load(String key) throws Exception {
-            return timeParser.parseMillis(key);
-          }
-        });
+    this(null);
   }
 
   /**
-   * Parses a Flume Event out of a syslog message string.
-   * @param msg Syslog message, not including the newline character
-   * @return Parsed Flume Event
-   * @throws IllegalArgumentException if unable to successfully parse message
+   * @param defaultZone zone of the timestamps which do not carry an offset,
+   * RFC 3164 ones included, or null for UTC
    */
-  public Event parseMessage(String msg, Charset charset, Set<String> keepFields) {
-    Map<String, String> headers = Maps.newHashMap();
+  public SyslogParser(TimeZone defaultZone) {
+    this(defaultZone, Compat.NONE);
+  }
 
-    int msgLen = msg.length();
+  SyslogParser(TimeZone defaultZone, Compat compat) {
+    zone = defaultZone == null ? TimeZone.getTimeZone("UTC") : defaultZone;
+    utc = zone.getRawOffset() == 0 && !zone.useDaylightTime();
+    this.compat = Preconditions.checkNotNull(compat);
+  }
 
-    int curPos = 0;
+  /**
+   * Where the parts of a message were found by {@link #parseHeader}. An
+   * instance can be reused for any number of messages by one thread.
+   */
+  public static final class Header {
+    private byte[] buf;
+    private int priority;
+    private int priorityStart;
+    private int priorityEnd;
+    private int versionPos;
+    private int timestampStart;
+    private int timestampEnd;
+    private boolean nilTimestamp;
+    private long timestamp;
+    private int hostStart;
+    private int hostEnd;
+    private int bodyStart;
+    private int end;
+
+    public int getPriority() {
+      return priority;
+    }
 
-    Preconditions.checkArgument(msg.charAt(curPos) == '<',
-        "Bad format: invalid priority: cannot find open bracket '<' (%s)", msg);
+    public int getFacility() {
+      return priority / 8;
+    }
 
-    int endBracketPos = msg.indexOf('>');
-    Preconditions.checkArgument(endBracketPos > 0 && endBracketPos <= 6,
-        "Bad format: invalid priority: cannot find end bracket '>' (%s)", msg);
+    public int getSeverity() {
+      return priority % 8;
+    }
 
-    String priority = msg.substring(1, endBracketPos);
-    int pri = Integer.parseInt(priority);
-    int facility = pri / 8;
-    int severity = pri % 8;
+    public String getPriorityString() {
+      return ascii(priorityStart, priorityEnd);
+    }
 
-    // Remember priority
-    headers.put(SyslogUtils.SYSLOG_PRIORITY, priority);
+    public boolean hasVersion() {
+      return versionPos >= 0;
+    }
 
-    // put fac / sev into header
-    headers.put(SyslogUtils.SYSLOG_FACILITY, String.valueOf(facility));
-    headers.put(SyslogUtils.SYSLOG_SEVERITY, String.valueOf(severity));
+    /**
+     * @return the version digit, or null if the message has none
+     */
+    public String getVersionString() {
+      return versionPos < 0 ? null : ascii(versionPos, versionPos + 1);
+    }
 
-    Preconditions.checkArgument(msgLen > endBracketPos + 1,
-        "Bad format: no data except priority (%s)", msg);
+    /**
+     * @return whether the timestamp is the RFC 5424 nil value <tt>-</tt>
+     */
+    public boolean isNilTimestamp() {
+      return nilTimestamp;
+    }
 
-    // update parsing position
-    curPos = endBracketPos + 1;
+    /**
+     * @return milliseconds since the epoch, or {@link #NO_TIMESTAMP} if the
+     * timestamp is nil or names a date which does not exist
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
 
-    // remember version string
-    String version = null;
-    if (msgLen > curPos + 2 && "1 ".equals(msg.substring(curPos, curPos + 2))) {
-      version = msg.substring(curPos, curPos + 1);
-      headers.put(SyslogUtils.SYSLOG_VERSION, version);
-      curPos += 2;
+    /**
+     * @return the timestamp as it was written in the message
+     */
+    public String getTimestampString() {
+      return ascii(timestampStart, timestampEnd);
     }
 
-    // now parse timestamp (handle different varieties)
+    /**
+     * @return whether the hostname is the RFC 5424 nil value <tt>-</tt>
+     */
+    public boolean isNilHostname() {
+      return hostEnd - hostStart == 1 && buf[hostStart] == '-';
+    }
 
-    long ts;
-    String tsString;
-    char dateStartChar = msg.charAt(curPos);
+    public String getHostname() {
+      return ascii(hostStart, hostEnd);
+    }
 
-    try {
+    public int getBodyStart() {
+      return bodyStart;
+    }
 
-      // no timestamp specified; use relay current time
-      if (dateStartChar == '-') {
-        tsString = Character.toString(dateStartChar);
-        ts = System.currentTimeMillis();
-        if (msgLen <= curPos + 2) {
-          throw new IllegalArgumentException(
-              "bad syslog format (missing hostname)");
-        }
-        curPos += 2; // assume we skip past a space to get to the hostname
+    public int getEnd() {
+      return end;
+    }
 
-      // rfc3164 timestamp
-      } else if (dateStartChar >= 'A' && dateStartChar <= 'Z') {
-        if (msgLen <= curPos + RFC3164_LEN) {
-          throw new IllegalArgumentException("bad timestamp format");
-        }
-        tsString = msg.substring(curPos, curPos + RFC3164_LEN);
-        ts = parseRfc3164Time(tsString);
-        curPos += RFC3164_LEN + 1;
+    /**
+     * Copies the message body, after the fields the configuration asks to
+     * keep, in the order <tt>&lt;priority&gt;version timestamp hostname</tt>.
+     *
+     * @see SyslogUtils#addFieldsToBody
+     */
+    public byte[] getBody(Set<String> keepFields) {
+      boolean keepPriority = false;
+      boolean keepVersion = false;
+      boolean keepTimestamp = false;
+      boolean keepHostname = false;
+      if (keepFields != null) {
+        keepPriority = keepFields.contains(
+            SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS_PRIORITY);
+        keepVersion = versionPos >= 0 && keepFields.contains(
+            SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS_VERSION);
+        keepTimestamp = keepFields.contains(
+            SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS_TIMESTAMP);
+        keepHostname = keepFields.contains(
+            SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS_HOSTNAME);
+      }
 
-      // rfc 5424 timestamp
-      } else {
-        int nextSpace = msg.indexOf(' ', curPos);
-        if (nextSpace == -1) {
-          throw new IllegalArgumentException("bad timestamp format");
-        }
-        tsString = msg.substring(curPos, nextSpace);
-        ts = parseRfc5424Date(tsString);
-        curPos = nextSpace + 1;
+      int length = end - bodyStart;
+      if (keepPriority) {
+        length += priorityEnd - priorityStart + 2;
+      }
+      if (keepVersion) {
+        length += 2;
+      }
+      if (keepTimestamp) {
+        length += timestampEnd - timestampStart + 1;
+      }
+      if (keepHostname) {
+        length += hostEnd - hostStart + 1;
       }
 
-    } catch (IllegalArgumentException ex) {
-      throw new IllegalArgumentException("Unable to parse message: " + msg, ex);
+      byte[] body = new byte[length];
+      int pos = 0;
+      if (keepPriority) {
+        body[pos++] = '<';
+        pos = copy(priorityStart, priorityEnd, body, pos);
+        body[pos++] = '>';
+      }
+      if (keepVersion) {
+        pos = copy(versionPos, versionPos + 1, body, pos);
+        body[pos++] = ' ';
+      }
+      if (keepTimestamp) {
+        pos = copy(timestampStart, timestampEnd, body, pos);
+        body[pos++] = ' ';
+      }
+      if (keepHostname) {
+        pos = copy(hostStart, hostEnd, body, pos);
+        body[pos++] = ' ';
+      }
+      copy(bodyStart, end, body, pos);
+      return body;
     }
 
-    headers.put("timestamp", String.valueOf(ts));
+    private int copy(int from, int to, byte[] dest, int pos) {
+      System.arraycopy(buf, from, dest, pos, to - from);
+      return pos + to - from;
+    }
 
-    // parse out hostname
-    int nextSpace = msg.indexOf(' ', curPos);
-    if (nextSpace == -1) {
-      throw new IllegalArgumentException(
-          "bad syslog format (missing hostname)");
-    }
-    // copy the host string to avoid holding the message string in memory
-    // if using a memory-based queue
-    String hostname = new String(msg.substring(curPos, nextSpace));
-    headers.put("host", hostname);
-
-    // EventBuilder will do a copy of its own, so no defensive copy of the body
-    String data = "";
-    if (msgLen > nextSpace + 1 && !SyslogUtils.keepAllFields(keepFields)) {
-      curPos = nextSpace + 1;
-      data = msg.substring(curPos);
-      data = SyslogUtils.addFieldsToBody(keepFields, data, priority, version, tsString, hostname);
+    private String ascii(int from, int to) {
+      return new String(buf, from, to - from, Charsets.ISO_8859_1);
+    }
+  }
+
+  /**
+   * Finds the priority, version, timestamp and hostname of a message. The
+   * priority is 1 to 3 digits in angle brackets. The version is a digit and
+   * a space and may be missing. The timestamp is an RFC 3339 date-time, an
+   * RFC 3164 <tt>Mmm dd hh:mm:ss</tt> or the nil value <tt>-</tt>. The hostname
+   * runs up to the next space. The body is all that follows.
+   *
+   * @return false if the message does not have such a header, in which case
+   * the contents of <tt>header</tt> are undefined
+   */
+  public boolean parseHeader(byte[] buf, int offset, int length,
+                             Header header) {
+    int end = offset + length;
+    int p = offset;
+    header.buf = buf;
+    header.end = end;
+
+    if (p >= end || buf[p] != '<') {
+      return false;
+    }
+    p++;
+    int priority = 0;
+    int digits = 0;
+    while (p < end && isDigit(buf[p]) && digits < MAX_PRIORITY_DIGITS) {
+      priority = priority * 10 + buf[p] - '0';
+      digits++;
+      p++;
+    }
+    if (digits == 0 || p >= end || buf[p] != '>') {
+      return false;
+    }
+    header.priority = priority;
+    header.priorityStart = offset + 1;
+    header.priorityEnd = p;
+    p++;
+
+    header.versionPos = -1;
+    if (p + 1 < end && isDigit(buf[p]) && buf[p + 1] == ' ') {
+      header.versionPos = p;
+      p += 2;
+    } else if (p < end && buf[p] == ' ') {
+      p++;
+    }
+
+    if (p >= end) {
+      return false;
+    }
+    header.timestampStart = p;
+    header.nilTimestamp = false;
+    byte first = buf[p];
+    if (first == '-') {
+      header.nilTimestamp = true;
+      header.timestamp = NO_TIMESTAMP;
+      p++;
+    } else if (first >= 'A' && first <= 'Z') {
+      p = parseRfc3164(buf, p, end, header);
+    } else if (isDigit(first)) {
+      p = parseRfc5424(buf, p, end, header);
     } else {
-      data = msg;
+      return false;
+    }
+    if (p < 0 || p >= end || buf[p] != ' ') {
+      return false;
     }
+    header.timestampEnd = p;
+    p++;
 
-    Event event = EventBuilder.withBody(data, charset, headers);
+    header.hostStart = p;
+    while (p < end && buf[p] != ' ') {
+      p++;
+    }
+    if (p >= end || p == header.hostStart) {
+      return false;
+    }
+    if (compat == Compat.SYSLOG_UTILS &&
+        !isLegacyHostname(buf, header.hostStart, p, isDigit(first) ||
+            header.nilTimestamp)) {
+      return false;
+    }
+    header.hostEnd = p;
+    header.bodyStart = p + 1;
+    return true;
+  }
 
+  /**
+   * Parses a Flume Event out of a syslog message string.
+   * @param msg Syslog message, not including the newline character
+   * @return Parsed Flume Event
+   * @throws IllegalArgumentException if unable to successfully parse message
+   */
+  public Event parseMessage(String msg, Charset charset, Set<String> keepFields) {
+    byte[] bytes = msg.getBytes(Charsets.UTF_8);
+    Event event = parseMessage(bytes, 0, bytes.length, keepFields);
+    if (!Charsets.UTF_8.equals(charset)) {
+      event.setBody(new String(event.getBody(), Charsets.UTF_8).getBytes(charset));
+    }
     return event;
   }
 
   /**
-   * Parse date in RFC 5424 format. Uses an LRU cache to speed up parsing for
-   * multiple messages that occur in the same second.
+   * Parses a Flume Event out of the bytes of a syslog message. The charset
+   * of the message must be one in which ASCII characters are single bytes,
+   * see {@link #isAsciiCompatible}.
+   * @param msg array holding the message, not including the newline
+   * @return Parsed Flume Event
+   * @throws IllegalArgumentException if unable to successfully parse message
+   */
+  public Event parseMessage(byte[] msg, int offset, int length,
+                            Set<String> keepFields) {
+    Header header = new Header();
+    if (!parseHeader(msg, offset, length, header)) {
+      throw new IllegalArgumentException("Bad format: not a syslog message: " +
+          new String(msg, offset, length, Charsets.UTF_8));
+    }
+    if (!header.isNilTimestamp() && header.getTimestamp() == NO_TIMESTAMP) {
+      throw new IllegalArgumentException("Unable to parse message: " +
+          new String(msg, offset, length, Charsets.UTF_8),
+          new IllegalArgumentException("bad timestamp format"));
+    }
+
+    Map<String, String> headers = Maps.newHashMap();
+    headers.put(SyslogUtils.SYSLOG_PRIORITY, header.getPriorityString());
+    headers.put(SyslogUtils.SYSLOG_FACILITY, String.valueOf(header.getFacility()));
+    headers.put(SyslogUtils.SYSLOG_SEVERITY, String.valueOf(header.getSeverity()));
+    if (header.hasVersion()) {
+      headers.put(SyslogUtils.SYSLOG_VERSION, header.getVersionString());
+    }
+    // no timestamp specified; use relay current time
+    long ts = header.isNilTimestamp() ? System.currentTimeMillis() :
+        header.getTimestamp();
+    headers.put("timestamp", String.valueOf(ts));
+    headers.put("host", header.getHostname());
+
+    byte[] body;
+    if (header.getEnd() > header.getBodyStart() &&
+        !SyslogUtils.keepAllFields(keepFields)) {
+      body = header.getBody(keepFields);
+    } else {
+      body = Arrays.copyOfRange(msg, offset, offset + length);
+    }
+    return EventBuilder.withBody(body, headers);
+  }
+
+  /**
+   * Parse date in RFC 5424 format.
    * @param msg
    * @return Typical (for Java) milliseconds since UNIX epoch
    */
   protected long parseRfc5424Date(String msg) {
-
-    Long ts = null;
-    int curPos = 0;
-
-    int msgLen = msg.length();
-    Preconditions.checkArgument(msgLen > RFC5424_PREFIX_LEN,
+    byte[] bytes = msg.getBytes(Charsets.ISO_8859_1);
+    Header header = new Header();
+    int end = parseRfc5424(bytes, 0, bytes.length, header);
+    Preconditions.checkArgument(end == bytes.length &&
+        header.getTimestamp() != NO_TIMESTAMP,
         "Bad format: Not a valid RFC5424 timestamp: %s", msg);
-    String timestampPrefix = msg.substring(curPos, RFC5424_PREFIX_LEN);
+    return header.getTimestamp();
+  }
 
-    try {
-      ts = timestampCache.get(timestampPrefix);
-    } catch (ExecutionException ex) {
-      throw new IllegalArgumentException("bad timestamp format", ex);
+  /**
+   * Parse the RFC3164 date format.
+   * @param ts RFC3164-compatible timestamp to be parsed
+   * @return Typical (for Java) milliseconds since the UNIX epoch, or 0 if
+   * the timestamp is not valid
+   */
+  protected long parseRfc3164Time(String ts) {
+    byte[] bytes = ts.getBytes(Charsets.ISO_8859_1);
+    Header header = new Header();
+    int end = parseRfc3164(bytes, 0, bytes.length, header);
+    if (end != bytes.length || header.getTimestamp() == NO_TIMESTAMP) {
+      return 0;
     }
+    return header.getTimestamp();
+  }
 
-    curPos += RFC5424_PREFIX_LEN;
-
-    Preconditions.checkArgument(ts != null, "Parsing error: timestamp is null");
-
-    // look for the optional fractional seconds
-    if (msg.charAt(curPos) == '.') {
-      // figure out how many numeric digits
-      boolean foundEnd = false;
-      int endMillisPos = curPos + 1;
-
-      if (msgLen <= endMillisPos) {
-        throw new IllegalArgumentException("bad timestamp format (no TZ)");
-      }
+  /**
+   * @return whether the charset encodes the characters of a syslog header
+   * the way ASCII does, so that the header can be parsed from the bytes
+   */
+  public static boolean isAsciiCompatible(Charset charset) {
+    Boolean compatible = asciiCompatible.get(charset);
+    if (compatible == null) {
+      String probe = "<0123456789> -+.:TZ\n" +
+          "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+      compatible = charset.canEncode() && Arrays.equals(
+          probe.getBytes(Charsets.US_ASCII), probe.getBytes(charset));
+      asciiCompatible.put(charset, compatible);
+    }
+    return compatible;
+  }
 
-      // FIXME: TODO: ensure we handle all bad formatting cases
-      while (!foundEnd) {
-        char curDigit = msg.charAt(endMillisPos);
-        if (curDigit >= '0' && curDigit <= '9') {
-          endMillisPos++;
-        } else {
-          foundEnd = true;
+  /**
+   * Parses <tt>yyyy-MM-ddTHH:mm:ss[.fraction][Z|+hh:mm|-hh:mm]</tt>.
+   * Fractions are truncated to milliseconds.
+   *
+   * @return position after the timestamp, or -1 if it is malformed
+   */
+  private int parseRfc5424(byte[] buf, int p, int end, Header header) {
+    int start = p;
+    if (end - p < RFC5424_PREFIX_LEN ||
+        !digits(buf, p, 4) || buf[p + 4] != '-' ||
+        !digits(buf, p + 5, 2) || buf[p + 7] != '-' ||
+        !digits(buf, p + 8, 2) || (buf[p + 10] != 'T' && buf[p + 10] != 't') ||
+        !digits(buf, p + 11, 2) || buf[p + 13] != ':' ||
+        !digits(buf, p + 14, 2) || buf[p + 16] != ':' ||
+        !digits(buf, p + 17, 2)) {
+      return -1;
+    }
+    p += RFC5424_PREFIX_LEN;
+
+    int millis = 0;
+    boolean ignoreOffset = false;
+    if (p < end && buf[p] == '.') {
+      p++;
+      int fractionDigits = 0;
+      while (p < end && isDigit(buf[p])) {
+        if (fractionDigits < 3) {
+          millis = millis * 10 + buf[p] - '0';
         }
+        fractionDigits++;
+        p++;
       }
-
-      // if they had a valid fractional second, append it rounded to millis
-      final int fractionalPositions = endMillisPos - (curPos + 1);
-      if (fractionalPositions > 0) {
-        long milliseconds = Long.parseLong(msg.substring(curPos + 1, endMillisPos));
-        if (fractionalPositions > 3) {
-          milliseconds /= Math.pow(10, (fractionalPositions - 3));
-        } else if (fractionalPositions < 3) {
-          milliseconds *= Math.pow(10, (3 - fractionalPositions));
-        }
-        ts += milliseconds;
+      if (fractionDigits == 0 ||
+          (compat == Compat.SYSLOG_UTILS && fractionDigits > 6)) {
+        return -1;
+      }
+      if (compat == Compat.SYSLOG_UTILS) {
+        // read by SimpleDateFormat as a number of milliseconds, which also
+        // ignored the offset that follows
+        ignoreOffset = true;
       } else {
-        throw new IllegalArgumentException(
-            "Bad format: Invalid timestamp (fractional portion): " + msg);
+        for (int i = fractionDigits; i < 3; i++) {
+          millis *= 10;
+        }
       }
-
-      curPos = endMillisPos;
     }
 
-    // look for timezone
-    char tzFirst = msg.charAt(curPos);
+    boolean hasOffset = false;
+    int offsetMillis = 0;
+    if (p < end && (buf[p] == 'Z' || buf[p] == 'z')) {
+      hasOffset = true;
+      p++;
+    } else if (p < end && (buf[p] == '+' || buf[p] == '-')) {
+      if (end - p < 6 || !digits(buf, p + 1, 2) || buf[p + 3] != ':' ||
+          !digits(buf, p + 4, 2)) {
+        return -1;
+      }
+      offsetMillis = (number(buf, p + 1, 2) * 60 + number(buf, p + 4, 2)) *
+          60000;
+      if (buf[p] == '-') {
+        offsetMillis = -offsetMillis;
+      }
+      hasOffset = true;
+      p += 6;
+    }
 
-    // UTC
-    if (tzFirst == 'Z') {
-      // no-op
-    } else if (tzFirst == '+' || tzFirst == '-') {
+    CachedSecond second = lastRfc5424;
+    if (second == null ||
+        !second.matches(buf, start, start + RFC5424_PREFIX_LEN)) {
+      long local = localMillis(number(buf, start, 4), number(buf, start + 5, 2),
+          number(buf, start + 8, 2), number(buf, start + 11, 2),
+          number(buf, start + 14, 2), number(buf, start + 17, 2));
+      second = new CachedSecond(buf, start, start + RFC5424_PREFIX_LEN, local,
+          local == NO_TIMESTAMP ? NO_TIMESTAMP : inZone(local));
+      lastRfc5424 = second;
+    }
 
-      Preconditions.checkArgument(msgLen > curPos + 5,
-          "Bad format: Invalid timezone (%s)", msg);
+    if (second.localMillis == NO_TIMESTAMP) {
+      header.timestamp = NO_TIMESTAMP;
+    } else if (hasOffset && !ignoreOffset) {
+      header.timestamp = second.localMillis - offsetMillis + millis;
+    } else {
+      header.timestamp = second.zonedMillis + millis;
+    }
+    return p;
+  }
 
-      int polarity;
-      if (tzFirst == '+') {
-        polarity = +1;
-      } else {
-        polarity = -1;
-      }
+  /**
+   * Parses <tt>Mmm dd hh:mm:ss</tt>, where the day may be padded with a
+   * space or not. The year is taken to be the one which puts the date
+   * between eleven months ago and a month from now.
+   *
+   * @return position after the timestamp, or -1 if it is malformed
+   */
+  private int parseRfc3164(byte[] buf, int p, int end, Header header) {
+    int start = p;
+    if (end - p < 14) {
+      return -1;
+    }
+    int month = month(buf, p);
+    if (month < 0 || buf[p + 3] != ' ') {
+      return -1;
+    }
+    if (compat == Compat.SYSLOG_UTILS &&
+        (!isLowerCase(buf[p + 1]) || !isLowerCase(buf[p + 2]))) {
+      return -1;
+    }
+    p += 4;
+    if (buf[p] == ' ') {
+      p++;
+    }
+    int day = 0;
+    int dayDigits = 0;
+    while (p < end && isDigit(buf[p]) && dayDigits < 2) {
+      day = day * 10 + buf[p] - '0';
+      dayDigits++;
+      p++;
+    }
+    if (dayDigits == 0 || end - p < 9 || buf[p] != ' ' ||
+        !digits(buf, p + 1, 2) || buf[p + 3] != ':' ||
+        !digits(buf, p + 4, 2) || buf[p + 6] != ':' ||
+        !digits(buf, p + 7, 2)) {
+      return -1;
+    }
+    p += 9;
+
+    // The year guessed for a date only changes a month after it, so the
+    // cached second is never stale in practice.
+    CachedSecond second = lastRfc3164;
+    if (second == null || !second.matches(buf, start, p)) {
+      long millis = guessYear(month, day, number(buf, p - 8, 2),
+          number(buf, p - 5, 2), number(buf, p - 2, 2));
+      second = new CachedSecond(buf, start, p, millis, millis);
+      lastRfc3164 = second;
+    }
+    header.timestamp = second.zonedMillis;
+    return p;
+  }
 
-      char[] h = new char[5];
-      for (int i = 0; i < 5; i++) {
-        h[i] = msg.charAt(curPos + 1 + i);
-      }
+  private long guessYear(int month, int day, int hour, int minute,
+                         int second) {
+    if (day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+      return NO_TIMESTAMP;
+    }
+    Calendar now = Calendar.getInstance(zone);
+    Calendar date = Calendar.getInstance(zone);
+    date.clear();
+    date.set(now.get(Calendar.YEAR), month - 1, day, hour, minute, second);
 
-      if (h[0] >= '0' && h[0] <= '9'
-          && h[1] >= '0' && h[1] <= '9'
-          && h[2] == ':'
-          && h[3] >= '0' && h[3] <= '9'
-          && h[4] >= '0' && h[4] <= '9') {
-        int hourOffset = Integer.parseInt(msg.substring(curPos + 1, curPos + 3));
-        int minOffset = Integer.parseInt(msg.substring(curPos + 4, curPos + 6));
-        ts -= polarity * ((hourOffset * 60) + minOffset) * 60000;
-      } else {
-        throw new IllegalArgumentException(
-            "Bad format: Invalid timezone: " + msg);
+    /*
+     * Without a year in the message we need to make some educated guessing.
+     * Take the date in the current year. If that is more than one month in
+     * the future roll it back a year, if it is more than eleven months in
+     * the past roll it forward a year. This gives us a 12 month rolling
+     * window of timestamps.
+     */
+    Calendar monthAhead = (Calendar) now.clone();
+    monthAhead.add(Calendar.MONTH, 1);
+    Calendar elevenMonthsBack = (Calendar) now.clone();
+    elevenMonthsBack.add(Calendar.MONTH, -11);
+    if (compat == Compat.MULTIPORT) {
+      // the Joda parser rolled the date it parsed, which was in 2000
+      Calendar monthBack = (Calendar) now.clone();
+      monthBack.add(Calendar.MONTH, -1);
+      if (date.after(monthAhead)) {
+        date.set(Calendar.YEAR, 1999);
+      } else if (date.before(monthBack)) {
+        date.set(Calendar.YEAR, 2001);
       }
-
+    } else if (date.after(monthAhead)) {
+      date.add(Calendar.YEAR, -1);
+    } else if (date.before(elevenMonthsBack)) {
+      date.add(Calendar.YEAR, compat == Compat.SYSLOG_UTILS ? -1 : 1);
     }
+    return date.getTimeInMillis();
+  }
 
+  /**
+   * @return the date-time as milliseconds since the epoch in UTC, or
+   * {@link #NO_TIMESTAMP} if it does not exist
+   */
+  private static long localMillis(int year, int month, int day, int hour,
+                                  int minute, int second) {
+    if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+        hour > 23 || minute > 59 || second > 59) {
+      return NO_TIMESTAMP;
+    }
+    // days from the civil date, after H. Hinnant's algorithm
+    int y = month <= 2 ? year - 1 : year;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 +
+        dayOfYear;
+    long days = era * 146097L + dayOfEra - 719468;
+    return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+  }
 
-    return ts;
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return leap ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
   }
 
   /**
-   * Parse the RFC3164 date format. This is trickier than it sounds because this
-   * format does not specify a year so we get weird edge cases at year
-   * boundaries. This implementation tries to "do what I mean".
-   * @param ts RFC3164-compatible timestamp to be parsed
-   * @return Typical (for Java) milliseconds since the UNIX epoch
+   * Moves a UTC date-time to the same wall clock time in the default zone.
    */
-  protected long parseRfc3164Time(String ts) {
-    DateTime now = DateTime.now();
-    int year = now.getYear();
-
-    ts = TWO_SPACES.matcher(ts).replaceFirst(" ");
+  private long inZone(long localMillis) {
+    if (utc) {
+      return localMillis;
+    }
+    int offset = zone.getOffset(localMillis - zone.getRawOffset());
+    return localMillis - zone.getOffset(localMillis - offset);
+  }
 
-    DateTime date;
-    try {
-      date = rfc3164Format.parseDateTime(ts);
-    } catch (IllegalArgumentException e) {
-      logger.debug("rfc3164 date parse failed on (" + ts + "): invalid format", e);
-      return 0;
+  private static int month(byte[] buf, int p) {
+    int b0 = buf[p] | 0x20;
+    int b1 = buf[p + 1] | 0x20;
+    int b2 = buf[p + 2] | 0x20;
+    for (int i = 0; i < 12; i++) {
+      if (MONTHS[i * 3] == b0 && MONTHS[i * 3 + 1] == b1 &&
+          MONTHS[i * 3 + 2] == b2) {
+        return i + 1;
+      }
     }
+    return -1;
+  }
 
-    // rfc3164 dates are really dumb.
-    /*
-     * Some code to try and add some smarts to the year insertion as without a year in the message
-     * we need to make some educated guessing.
-     * First set the "fixed" to be the timestamp with the current year.
-     * If the "fixed" time is more than one month in the future then roll it back a year.
-     * If the "fixed" time is more than eleven months in the past then roll it forward a year.
-     * This gives us a 12 month rolling window (11 months in the past, 1 month in the future) of
-     * timestamps.
-     */
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isLowerCase(byte b) {
+    return b >= 'a' && b <= 'z';
+  }
 
-    if (date != null) {
-      DateTime fixed = date.withYear(year);
+  private static boolean isWordChar(byte b) {
+    return isDigit(b) || isLowerCase(b) || (b >= 'A' && b <= 'Z') || b == '_';
+  }
 
-      // flume clock is ahead or there is some latency, and the year rolled
-      if (fixed.isAfter(now) && fixed.minusMonths(1).isAfter(now)) {
-        fixed = date.minusYears(1);
-      // flume clock is behind and the year rolled
-      } else if (fixed.isBefore(now) && fixed.plusMonths(1).isBefore(now)) {
-        fixed = date.plusYears(1);
+  /**
+   * @return whether SyslogUtils' expressions took the bytes for a hostname,
+   * or for the nil hostname of an RFC 5424 message
+   */
+  private static boolean isLegacyHostname(byte[] buf, int from, int to,
+                                          boolean rfc5424) {
+    if (rfc5424 && to - from == 1 && buf[from] == '-') {
+      return true;
+    }
+    if (!isWordChar(buf[from])) {
+      return false;
+    }
+    for (int i = from + 1; i < to; i++) {
+      byte b = buf[i];
+      if (!isWordChar(b) && b != '.' && b != '@' && b != '-') {
+        return false;
       }
-      date = fixed;
     }
+    return true;
+  }
 
-    if (date == null) {
-      return 0;
+  private static boolean digits(byte[] buf, int p, int count) {
+    for (int i = p; i < p + count; i++) {
+      if (!isDigit(buf[i])) {
+        return false;
+      }
     }
+    return true;
+  }
 
-    return date.getMillis();
+  private static int number(byte[] buf, int p, int count) {
+    int value = 0;
+    for (int i = p; i < p + count; i++) {
+      value = value * 10 + buf[i] - '0';
+    }
+    return value;
   }
 
+  /**
+   * A date-time to the second as it was written and the epoch millis it
+   * stands for. Immutable, so it can be handed between threads through a
+   * volatile field.
+   */
+  private static final class CachedSecond {
+    private final byte[] text;
+    private final long localMillis;
+    private final long zonedMillis;
+
+    CachedSecond(byte[] buf, int from, int to, long localMillis,
+                 long zonedMillis) {
+      this.text = Arrays.copyOfRange(buf, from, to);
+      this.localMillis = localMillis;
+      this.zonedMillis = zonedMillis;
+    }
 
+    boolean matches(byte[] buf, int from, int to) {
+      if (to - from != text.length) {
+        return false;
+      }
+      for (int i = text.length - 1; i >= 0; i--) {
+        if (buf[from + i] != text[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
 }
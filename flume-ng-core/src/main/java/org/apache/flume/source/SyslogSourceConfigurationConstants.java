@@ -59,6 +59,29 @@ public final class SyslogSourceConfigurationConstants {
 
   public static final int DEFAULT_BATCHSIZE = 100;
 
+  /**
+   * Milliseconds a partial batch may wait for more events.
+   */
+  public static final String CONFIG_BATCH_LINGER = "batchLinger";
+
+  public static final long DEFAULT_BATCH_LINGER = 0;
+
+  /**
+   * Number of threads receiving datagrams in the UDP source. With 0 the
+   * source uses a single Netty receiver which writes each event on its own.
+   */
+  public static final String CONFIG_READERS = "readers";
+
+  public static final int DEFAULT_READERS = 0;
+
+  /**
+   * Size of the socket receive buffer (SO_RCVBUF) asked for by the UDP
+   * source, 0 to keep the operating system default.
+   */
+  public static final String CONFIG_RECEIVE_BUFFER_SIZE = "receiveBufferBytes";
+
+  public static final int DEFAULT_RECEIVE_BUFFER_SIZE = 0;
+
   public static final String CONFIG_PORT_HEADER = "portHeader";
 
   public static final String DEFAULT_PORT_HEADER = "port";
@@ -20,12 +20,18 @@ package org.apache.flume.source;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
@@ -40,6 +46,7 @@ import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
@@ -62,10 +69,21 @@ public class SyslogTcpSource extends AbstractSource
   private Map<String, String> formaterProp;
   private SourceCounter sourceCounter;
   private Set<String> keepFields;
+  private int batchSize;
+  private long batchLinger;
+  private ScheduledExecutorService lingerService;
 
+  /**
+   * Collects the events read from one connection and writes them to the
+   * channel in batches of up to <tt>batchSize</tt>. Whatever is left after a
+   * read is written at once, or after <tt>batchLinger</tt> milliseconds if
+   * more data has not filled the batch by then.
+   */
   public class syslogTcpHandler extends SimpleChannelHandler {
 
     private SyslogUtils syslogUtils = new SyslogUtils();
+    private final List<Event> pendingEvents = new ArrayList<Event>();
+    private ScheduledFuture<?> lingerFuture;
 
     public void setEventSize(int eventSize) {
       syslogUtils.setEventSize(eventSize);
@@ -80,7 +98,8 @@ public class SyslogTcpSource extends AbstractSource
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent mEvent) {
+    public synchronized void messageReceived(ChannelHandlerContext ctx,
+                                             MessageEvent mEvent) {
       ChannelBuffer buff = (ChannelBuffer) mEvent.getMessage();
       while (buff.readable()) {
         Event e = syslogUtils.extractEvent(buff);
@@ -91,22 +110,63 @@ public class SyslogTcpSource extends AbstractSource
         }
         sourceCounter.incrementEventReceivedCount();
 
-        try {
-          getChannelProcessor().processEvent(e);
-          sourceCounter.incrementEventAcceptedCount();
-        } catch (ChannelException ex) {
-          logger.error("Error writting to channel, event dropped", ex);
-        } catch (RuntimeException ex) {
-          logger.error("Error parsing event from syslog stream, event dropped", ex);
-          return;
+        pendingEvents.add(e);
+        if (pendingEvents.size() >= batchSize) {
+          flushEvents();
         }
       }
 
+      if (batchLinger == 0) {
+        flushEvents();
+      } else if (!pendingEvents.isEmpty() && lingerFuture == null) {
+        lingerFuture = lingerService.schedule(new Runnable() {
+          @Override
+          public void run() {
+            flushEvents();
+          }
+        }, batchLinger, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+        throws Exception {
+      flushEvents();
+      super.channelClosed(ctx, e);
+    }
+
+    private synchronized void flushEvents() {
+      if (lingerFuture != null) {
+        lingerFuture.cancel(false);
+        lingerFuture = null;
+      }
+      if (pendingEvents.isEmpty()) {
+        return;
+      }
+
+      try {
+        getChannelProcessor().processEventBatch(pendingEvents);
+        sourceCounter.addToEventAcceptedCount(pendingEvents.size());
+      } catch (ChannelException ex) {
+        logger.error("Error writting to channel, " + pendingEvents.size() +
+            " events dropped", ex);
+      } catch (RuntimeException ex) {
+        logger.error("Error processing events from syslog stream, " +
+            pendingEvents.size() + " events dropped", ex);
+      } finally {
+        pendingEvents.clear();
+      }
     }
   }
 
   @Override
   public void start() {
+    if (batchLinger > 0) {
+      lingerService = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat(
+              "syslog-tcp-linger-" + getName() + "-%d").build());
+    }
+
     ChannelFactory factory = new NioServerSocketChannelFactory(
         Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
 
@@ -150,6 +210,19 @@ public class SyslogTcpSource extends AbstractSource
       }
     }
 
+    if (lingerService != null) {
+      // batches still lingering are written before the service terminates
+      lingerService.shutdown();
+      try {
+        lingerService.awaitTermination(batchLinger + 1000,
+            TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        logger.warn("Interrupted while waiting for lingering batches", e);
+        Thread.currentThread().interrupt();
+      }
+      lingerService = null;
+    }
+
     sourceCounter.stop();
     super.stop();
   }
@@ -167,6 +240,16 @@ public class SyslogTcpSource extends AbstractSource
         context.getString(
             SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS,
             SyslogSourceConfigurationConstants.DEFAULT_KEEP_FIELDS));
+    batchSize = context.getInteger(
+        SyslogSourceConfigurationConstants.CONFIG_BATCHSIZE,
+        SyslogSourceConfigurationConstants.DEFAULT_BATCHSIZE);
+    batchLinger = context.getLong(
+        SyslogSourceConfigurationConstants.CONFIG_BATCH_LINGER,
+        SyslogSourceConfigurationConstants.DEFAULT_BATCH_LINGER);
+    Preconditions.checkArgument(batchSize > 0,
+        "batchSize must be greater than 0");
+    Preconditions.checkArgument(batchLinger >= 0,
+        "batchLinger must not be negative");
 
     if (sourceCounter == null) {
       sourceCounter = new SourceCounter(getName());
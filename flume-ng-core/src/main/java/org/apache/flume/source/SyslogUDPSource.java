@@ -18,23 +18,45 @@
  */
 package org.apache.flume.source;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
+import org.apache.flume.FlumeException;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.conf.Configurables;
-import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.instrumentation.DatagramSourceCounter;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.AdaptiveReceiveBufferSizePredictorFactory;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -57,15 +79,37 @@ public class SyslogUDPSource extends AbstractSource
   private Channel nettyChannel;
   private Map<String, String> formaterProp;
   private Set<String> keepFields;
+  private int readers;
+  private int batchSize;
+  private long batchLinger;
+  private int receiveBufferSize;
+
+  private final List<DatagramChannel> datagramChannels =
+      new ArrayList<DatagramChannel>();
+  private final List<DatagramReader> datagramReaders =
+      new ArrayList<DatagramReader>();
+  private ExecutorService readerService;
+  private InetSocketAddress boundAddress;
+  private volatile boolean running;
+  private ScheduledExecutorService statsService;
 
   private static final Logger logger = LoggerFactory.getLogger(SyslogUDPSource.class);
 
-  private SourceCounter sourceCounter;
+  private DatagramSourceCounter sourceCounter;
 
   // Default Min size
   public static final int DEFAULT_MIN_SIZE = 2048;
   public static final int DEFAULT_INITIAL_SIZE = DEFAULT_MIN_SIZE;
 
+  // Socket tables the kernel keeps the per socket drop counts in
+  private static final String[] PROC_NET_UDP = {
+    "/proc/net/udp", "/proc/net/udp6"
+  };
+  private static final long DROP_STATS_INTERVAL_SECONDS = 10;
+
+  // StandardSocketOptions.SO_REUSEPORT only exists from Java 9 on
+  private static final SocketOption<Boolean> SO_REUSEPORT = findReusePort();
+
   public class syslogHandler extends SimpleChannelHandler {
     private SyslogUtils syslogUtils = new SyslogUtils(DEFAULT_INITIAL_SIZE, null, true);
 
@@ -99,8 +143,151 @@ public class SyslogUDPSource extends AbstractSource
     }
   }
 
+  /**
+   * Receives datagrams on one channel. Every datagram which is already
+   * queued on the socket is read before the events are written, in batches
+   * of at most <tt>batchSize</tt>. What is left is written once the socket
+   * is drained, or after <tt>batchLinger</tt> milliseconds if that is set.
+   */
+  private class DatagramReader implements Runnable {
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer buffer = ByteBuffer.allocate(maxsize);
+    private final SyslogUtils syslogUtils =
+        new SyslogUtils(DEFAULT_INITIAL_SIZE, null, true);
+    private final List<Event> pendingEvents = new ArrayList<Event>();
+    private long batchStart;
+
+    DatagramReader(DatagramChannel channel) throws IOException {
+      this.channel = channel;
+      syslogUtils.addFormats(formaterProp);
+      syslogUtils.setKeepFields(keepFields);
+      syslogUtils.setEventSize(maxsize);
+      selector = Selector.open();
+      try {
+        channel.register(selector, SelectionKey.OP_READ);
+      } catch (IOException e) {
+        selector.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          long timeout = 0;
+          if (!pendingEvents.isEmpty()) {
+            timeout = batchStart + batchLinger - System.currentTimeMillis();
+            if (timeout <= 0) {
+              flushEvents();
+              continue;
+            }
+          }
+          selector.select(timeout);
+          selector.selectedKeys().clear();
+          receiveDatagrams();
+        }
+      } catch (ClosedChannelException e) {
+        // the source is stopping
+      } catch (IOException e) {
+        if (running) {
+          logger.error("Error receiving datagrams, reader stopped", e);
+        }
+      } finally {
+        flushEvents();
+        try {
+          selector.close();
+        } catch (IOException e) {
+          logger.warn("Error closing selector", e);
+        }
+      }
+    }
+
+    void wakeup() {
+      selector.wakeup();
+    }
+
+    private void receiveDatagrams() throws IOException {
+      while (running) {
+        buffer.clear();
+        if (channel.receive(buffer) == null) {
+          break;
+        }
+        buffer.flip();
+        Event e;
+        try {
+          e = syslogUtils.extractEvent(ChannelBuffers.wrappedBuffer(buffer));
+        } catch (RuntimeException ex) {
+          logger.error("Error parsing event from syslog stream, event dropped",
+              ex);
+          continue;
+        }
+        if (e == null) {
+          continue;
+        }
+        sourceCounter.incrementEventReceivedCount();
+        if (pendingEvents.isEmpty()) {
+          batchStart = System.currentTimeMillis();
+        }
+        pendingEvents.add(e);
+        if (pendingEvents.size() >= batchSize) {
+          flushEvents();
+        }
+      }
+      if (batchLinger == 0) {
+        flushEvents();
+      }
+    }
+
+    private void flushEvents() {
+      if (pendingEvents.isEmpty()) {
+        return;
+      }
+      try {
+        getChannelProcessor().processEventBatch(pendingEvents);
+        sourceCounter.addToEventAcceptedCount(pendingEvents.size());
+      } catch (ChannelException ex) {
+        logger.error("Error writting to channel, " + pendingEvents.size() +
+            " events dropped", ex);
+      } catch (RuntimeException ex) {
+        logger.error("Error processing events from syslog stream, " +
+            pendingEvents.size() + " events dropped", ex);
+      } finally {
+        pendingEvents.clear();
+      }
+    }
+  }
+
   @Override
   public void start() {
+    InetSocketAddress address = host == null ?
+        new InetSocketAddress(port) : new InetSocketAddress(host, port);
+    if (readers > 0) {
+      startReaders(address);
+    } else {
+      startNetty(address);
+    }
+
+    final int boundPort = getBoundAddress().getPort();
+    if (new File(PROC_NET_UDP[0]).canRead()) {
+      statsService = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat(
+              "syslog-udp-stats-" + getName() + "-%d").build());
+      statsService.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          updateDropCount(boundPort);
+        }
+      }, DROP_STATS_INTERVAL_SECONDS, DROP_STATS_INTERVAL_SECONDS,
+          TimeUnit.SECONDS);
+    }
+
+    sourceCounter.start();
+    super.start();
+  }
+
+  private void startNetty(InetSocketAddress address) {
     // setup Netty server
     ConnectionlessBootstrap serverBootstrap = new ConnectionlessBootstrap(
         new OioDatagramChannelFactory(Executors.newCachedThreadPool()));
@@ -110,6 +297,9 @@ public class SyslogUDPSource extends AbstractSource
     serverBootstrap.setOption("receiveBufferSizePredictorFactory",
         new AdaptiveReceiveBufferSizePredictorFactory(DEFAULT_MIN_SIZE,
             DEFAULT_INITIAL_SIZE, maxsize));
+    if (receiveBufferSize > 0) {
+      serverBootstrap.setOption("receiveBufferSize", receiveBufferSize);
+    }
     serverBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
       @Override
       public ChannelPipeline getPipeline() {
@@ -117,19 +307,85 @@ public class SyslogUDPSource extends AbstractSource
       }
     });
 
-    if (host == null) {
-      nettyChannel = serverBootstrap.bind(new InetSocketAddress(port));
-    } else {
-      nettyChannel = serverBootstrap.bind(new InetSocketAddress(host, port));
+    nettyChannel = serverBootstrap.bind(address);
+  }
+
+  private void startReaders(InetSocketAddress address) {
+    running = true;
+    try {
+      DatagramChannel channel = openChannel(false);
+      boolean reusePort = readers > 1 && SO_REUSEPORT != null &&
+          channel.supportedOptions().contains(SO_REUSEPORT);
+      if (reusePort) {
+        channel.setOption(SO_REUSEPORT, true);
+      }
+      channel.bind(address);
+      boundAddress = (InetSocketAddress) channel.getLocalAddress();
+      if (reusePort) {
+        // one socket per reader, the kernel spreads the datagrams over them
+        for (int i = 1; i < readers; i++) {
+          openChannel(true).bind(boundAddress);
+        }
+      }
+      logger.info("Syslog UDP Source listening on {} with {} readers on {} " +
+          "socket(s)", boundAddress, readers, datagramChannels.size());
+
+      for (int i = 0; i < readers; i++) {
+        datagramReaders.add(new DatagramReader(
+            datagramChannels.get(reusePort ? i : 0)));
+      }
+    } catch (IOException e) {
+      running = false;
+      closeChannels();
+      throw new FlumeException("Unable to bind to " + address, e);
     }
 
-    sourceCounter.start();
-    super.start();
+    readerService = Executors.newFixedThreadPool(readers,
+        new ThreadFactoryBuilder().setNameFormat(
+            "syslog-udp-reader-" + getName() + "-%d").build());
+    for (DatagramReader reader : datagramReaders) {
+      readerService.submit(reader);
+    }
+  }
+
+  private DatagramChannel openChannel(boolean reusePort) throws IOException {
+    DatagramChannel channel = DatagramChannel.open();
+    datagramChannels.add(channel);
+    channel.configureBlocking(false);
+    if (reusePort) {
+      channel.setOption(SO_REUSEPORT, true);
+    }
+    if (receiveBufferSize > 0) {
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+      int granted = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+      if (granted < receiveBufferSize) {
+        logger.warn("Asked for a receive buffer of {} bytes but got {}, " +
+            "the operating system limit may need raising",
+            receiveBufferSize, granted);
+      }
+    }
+    return channel;
+  }
+
+  private void closeChannels() {
+    for (DatagramChannel channel : datagramChannels) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.warn("Error closing datagram channel", e);
+      }
+    }
+    datagramChannels.clear();
   }
 
   @Override
   public void stop() {
     logger.info("Syslog UDP Source stopping...");
+    if (statsService != null) {
+      statsService.shutdownNow();
+      statsService = null;
+      updateDropCount(getBoundAddress().getPort());
+    }
     logger.info("Metrics: {}", sourceCounter);
     if (nettyChannel != null) {
       nettyChannel.close();
@@ -141,6 +397,26 @@ public class SyslogUDPSource extends AbstractSource
         nettyChannel = null;
       }
     }
+    if (readerService != null) {
+      running = false;
+      for (DatagramReader reader : datagramReaders) {
+        reader.wakeup();
+      }
+      readerService.shutdown();
+      try {
+        if (!readerService.awaitTermination(60, TimeUnit.SECONDS)) {
+          readerService.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        logger.warn("Interrupted while waiting for readers to stop", e);
+        readerService.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      readerService = null;
+      datagramReaders.clear();
+      closeChannels();
+      boundAddress = null;
+    }
 
     sourceCounter.stop();
     super.stop();
@@ -158,14 +434,98 @@ public class SyslogUDPSource extends AbstractSource
         context.getString(
             SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS,
             SyslogSourceConfigurationConstants.DEFAULT_KEEP_FIELDS));
+    readers = context.getInteger(
+        SyslogSourceConfigurationConstants.CONFIG_READERS,
+        SyslogSourceConfigurationConstants.DEFAULT_READERS);
+    batchSize = context.getInteger(
+        SyslogSourceConfigurationConstants.CONFIG_BATCHSIZE,
+        SyslogSourceConfigurationConstants.DEFAULT_BATCHSIZE);
+    batchLinger = context.getLong(
+        SyslogSourceConfigurationConstants.CONFIG_BATCH_LINGER,
+        SyslogSourceConfigurationConstants.DEFAULT_BATCH_LINGER);
+    receiveBufferSize = context.getInteger(
+        SyslogSourceConfigurationConstants.CONFIG_RECEIVE_BUFFER_SIZE,
+        SyslogSourceConfigurationConstants.DEFAULT_RECEIVE_BUFFER_SIZE);
+    Preconditions.checkArgument(readers >= 0,
+        "readers must not be negative");
+    Preconditions.checkArgument(batchSize > 0,
+        "batchSize must be greater than 0");
+    Preconditions.checkArgument(batchLinger >= 0,
+        "batchLinger must not be negative");
+    Preconditions.checkArgument(receiveBufferSize >= 0,
+        "receiveBufferBytes must not be negative");
 
     if (sourceCounter == null) {
-      sourceCounter = new SourceCounter(getName());
+      sourceCounter = new DatagramSourceCounter(getName());
+    }
+  }
+
+  private void updateDropCount(int boundPort) {
+    long dropped = 0;
+    for (String path : PROC_NET_UDP) {
+      File file = new File(path);
+      if (file.canRead()) {
+        try {
+          dropped += readDropCount(file, boundPort);
+        } catch (IOException e) {
+          logger.debug("Unable to read " + path, e);
+        }
+      }
+    }
+    sourceCounter.setDatagramsDroppedCount(dropped);
+  }
+
+  /**
+   * Sums the <tt>drops</tt> column of a <tt>/proc/net/udp</tt> style socket
+   * table over the sockets bound to the given local port. The count is an
+   * estimate: it includes other sockets on the same port, such as ones bound
+   * to a different address.
+   */
+  @VisibleForTesting
+  static long readDropCount(File table, int localPort) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(table), Charsets.US_ASCII));
+    try {
+      long dropped = 0;
+      String line = reader.readLine(); // column names
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length < 13) {
+          continue;
+        }
+        int colon = fields[1].lastIndexOf(':');
+        try {
+          if (colon >= 0 &&
+              Integer.parseInt(fields[1].substring(colon + 1), 16) == localPort) {
+            dropped += Long.parseLong(fields[fields.length - 1]);
+          }
+        } catch (NumberFormatException e) {
+          // not a socket line
+        }
+      }
+      return dropped;
+    } finally {
+      reader.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static SocketOption<Boolean> findReusePort() {
+    try {
+      Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+      return (SocketOption<Boolean>) field.get(null);
+    } catch (NoSuchFieldException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
     }
   }
 
   @VisibleForTesting
   InetSocketAddress getBoundAddress() {
+    if (boundAddress != null) {
+      return boundAddress;
+    }
     SocketAddress localAddress = nettyChannel.getLocalAddress();
     if (!(localAddress instanceof InetSocketAddress)) {
       throw new IllegalArgumentException("Not bound to an internet address");
@@ -174,7 +534,7 @@ public class SyslogUDPSource extends AbstractSource
   }
 
   @VisibleForTesting
-  SourceCounter getSourceCounter() {
+  DatagramSourceCounter getSourceCounter() {
     return sourceCounter;
   }
 }
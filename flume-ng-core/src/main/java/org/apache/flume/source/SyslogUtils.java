@@ -27,7 +27,6 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -39,6 +38,7 @@ import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -80,8 +80,10 @@ public class SyslogUtils {
   public static final int SYSLOG_BODY_POS = 5;
 
   private Mode m = Mode.START;
-  private StringBuilder prio = new StringBuilder();
-  private ByteArrayOutputStream baos;
+  private int prio;
+  private int prioDigits;
+  private byte[] buffer;
+  private int length;
   private static final Logger logger = LoggerFactory
       .getLogger(SyslogUtils.class);
 
@@ -107,12 +109,19 @@ public class SyslogUtils {
   }
 
   private ArrayList<SyslogFormatter> formats = new ArrayList<SyslogFormatter>();
+  private boolean customFormats;
+
+  // headers are parsed by the shared byte level parser unless the
+  // configuration adds its own regex formats
+  private final SyslogParser parser = new SyslogParser(TimeZone.getDefault(),
+      SyslogParser.Compat.SYSLOG_UTILS);
+  private final SyslogParser.Header header = new SyslogParser.Header();
 
   private String priority = null;
   private String version = null;
   private String timeStamp = null;
   private String hostName = null;
-  private String msgBody = null;
+  private byte[] msgBody = null;
 
   private static final String[] DEFAULT_FIELDS_TO_KEEP = {
       SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS_PRIORITY,
@@ -199,7 +208,7 @@ public class SyslogUtils {
     isBadEvent = false;
     isIncompleteEvent = false;
     maxSize = (eventSize < MIN_SIZE) ? MIN_SIZE : eventSize;
-    baos = new ByteArrayOutputStream(eventSize);
+    buffer = new byte[Math.min(maxSize, 1024)];
     this.keepFields = keepFields;
     initHeaderFormats();
   }
@@ -226,6 +235,7 @@ public class SyslogUtils {
           formatProp.get(SyslogSourceConfigurationConstants.CONFIG_DATEFORMAT)));
     }
     formats.add(0, fmt1);
+    customFormats = true;
   }
 
   // setup built-in formats
@@ -292,10 +302,14 @@ public class SyslogUtils {
       int facility = 0;
 
       if (!isBadEvent) {
-        pri = Integer.parseInt(prio.toString());
+        pri = prio;
         sev = pri % 8;
         facility = pri / 8;
-        formatHeaders();
+        if (customFormats) {
+          formatHeaders();
+        } else {
+          parseHeaders();
+        }
       }
 
       Map<String, String> headers = new HashMap<String, String>();
@@ -323,14 +337,14 @@ public class SyslogUtils {
       }
 
       if (!keepAllFields(keepFields)) {
-        if ((msgBody != null) && (msgBody.length() > 0)) {
-          body = msgBody.getBytes();
+        if ((msgBody != null) && (msgBody.length > 0)) {
+          body = msgBody;
         } else {
           // Parse failed.
-          body = baos.toByteArray();
+          body = Arrays.copyOf(buffer, length);
         }
       } else {
-        body = baos.toByteArray();
+        body = Arrays.copyOf(buffer, length);
       }
       // format the message
       return EventBuilder.withBody(body, headers);
@@ -339,9 +353,25 @@ public class SyslogUtils {
     }
   }
 
+  // Take the headers apart with the shared parser
+  private void parseHeaders() {
+    if (!parser.parseHeader(buffer, 0, length, header)) {
+      return;
+    }
+    priority = header.getPriorityString();
+    version = header.getVersionString();
+    if (header.getTimestamp() != SyslogParser.NO_TIMESTAMP) {
+      timeStamp = String.valueOf(header.getTimestamp());
+    }
+    if (!header.isNilHostname()) {
+      hostName = header.getHostname();
+    }
+    msgBody = header.getBody(keepFields);
+  }
+
   // Apply each known pattern to message
   private void formatHeaders() {
-    String eventStr = baos.toString();
+    String eventStr = new String(buffer, 0, length);
     String timeStampString = null;
 
     for (int p = 0; p < formats.size(); p++) {
@@ -426,7 +456,7 @@ public class SyslogUtils {
           version = value;
         } else if (grp == SYSLOG_BODY_POS) {
           msgBody = addFieldsToBody(keepFields, value, priority, version,
-                                    timeStampString, hostName);
+                                    timeStampString, hostName).getBytes();
         }
       }
       break; // we successfully parsed the message using this pattern
@@ -434,16 +464,37 @@ public class SyslogUtils {
   }
 
   private void reset() {
-    baos.reset();
+    length = 0;
     m = Mode.START;
-    prio.delete(0, prio.length());
+    prio = 0;
+    prioDigits = 0;
     isBadEvent = false;
     isIncompleteEvent = false;
+    priority = null;
+    version = null;
     hostName = null;
     timeStamp = null;
     msgBody = null;
   }
 
+  private void write(byte b) {
+    ensureCapacity(1);
+    buffer[length++] = b;
+  }
+
+  private void write(ChannelBuffer in, int count) {
+    ensureCapacity(count);
+    in.readBytes(buffer, length, count);
+    length += count;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer,
+          Math.max(length + extra, Math.min(buffer.length * 2, maxSize)));
+    }
+  }
+
   // extract relevant syslog data needed for building Flume event
   public Event extractEvent(ChannelBuffer in) {
 
@@ -461,11 +512,11 @@ public class SyslogUtils {
 
     try {
       while (!doneReading && in.readable()) {
-        b = in.readByte();
         switch (m) {
           case START:
+            b = in.readByte();
             if (b == '<') {
-              baos.write(b);
+              write(b);
               m = Mode.PRIO;
             } else if (b == '\n') {
               //If the character is \n, it was because the last event was exactly
@@ -478,44 +529,52 @@ public class SyslogUtils {
 
             } else {
               isBadEvent = true;
-              baos.write(b);
+              write(b);
               //Bad event, just dump everything as if it is data.
               m = Mode.DATA;
             }
             break;
           case PRIO:
-            baos.write(b);
+            b = in.readByte();
+            write(b);
             if (b == '>') {
-              if (prio.length() == 0) {
+              if (prioDigits == 0) {
                 isBadEvent = true;
               }
               m = Mode.DATA;
             } else {
-              char ch = (char) b;
-              prio.append(ch);
+              prioDigits++;
               // Priority is max 3 digits per both RFC 3164 and 5424
               // With this check there is basically no danger of
-              // boas.size() exceeding this.maxSize before getting to the
+              // the event exceeding this.maxSize before getting to the
               // DATA state where this is actually checked
-              if (!Character.isDigit(ch) || prio.length() > 3) {
+              if (b < '0' || b > '9' || prioDigits > 3) {
                 isBadEvent = true;
                 //If we hit a bad priority, just write as if everything is data.
                 m = Mode.DATA;
+              } else {
+                prio = prio * 10 + b - '0';
               }
             }
             break;
           case DATA:
-            // TCP syslog entries are separated by '\n'
-            if (b == '\n') {
+            // TCP syslog entries are separated by '\n', copy everything up
+            // to the next one in one go
+            int room = this.maxSize - length;
+            int newline = in.bytesBefore((byte) '\n');
+            int available = newline == -1 ? in.readableBytes() : newline;
+            if (available >= room) {
+              write(in, Math.max(room, 0));
+              isIncompleteEvent = true;
               e = buildEvent();
               doneReading = true;
-            } else {
-              baos.write(b);
-            }
-            if (baos.size() == this.maxSize && !doneReading) {
-              isIncompleteEvent = true;
+            } else if (newline != -1) {
+              write(in, newline);
+              in.skipBytes(1);
               e = buildEvent();
               doneReading = true;
+            } else {
+              write(in, available);
             }
             break;
         }
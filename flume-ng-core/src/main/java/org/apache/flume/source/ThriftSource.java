@@ -22,6 +22,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelFullException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
@@ -29,8 +30,8 @@ import org.apache.flume.FlumeException;
 import org.apache.flume.auth.FlumeAuthenticationUtil;
 import org.apache.flume.auth.FlumeAuthenticator;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.event.EventBuilder;
-import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.event.SimpleEvent;
+import org.apache.flume.instrumentation.RpcSourceCounter;
 import org.apache.flume.thrift.Status;
 import org.apache.flume.thrift.ThriftSourceProtocol;
 import org.apache.flume.thrift.ThriftFlumeEvent;
@@ -69,12 +70,31 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.security.PrivilegedAction;
 
+/**
+ * <p>A source which receives events from Thrift clients.</p>
+ *
+ * <p>Unless SSL or Kerberos is enabled, connections are served by a
+ * non-blocking server: a few selector threads read requests from all
+ * connections and hand them to a bounded pool of worker threads through a
+ * bounded queue. Each connection has at most one request in the queue, so
+ * connections are served in turn however busy some of them are. When the
+ * queue is full further requests, including new connections, are turned
+ * away. When the channel is full the client is answered
+ * {@link Status#FAILED}, or {@link Status#TRY_LATER} if {@link #CONFIG_TRY_LATER}
+ * is set. TRY_LATER is off by default, as Thrift clients built from an
+ * older flume.thrift do not know the value.</p>
+ */
 public class ThriftSource extends AbstractSource implements Configurable, EventDrivenSource {
 
   public static final Logger logger = LoggerFactory.getLogger(ThriftSource.class);
@@ -84,6 +104,22 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
    * handle incoming data.
    */
   public static final String CONFIG_THREADS = "threads";
+  /**
+   * Config param for the maximum number of requests waiting for a worker
+   * thread of the non-blocking server.
+   */
+  public static final String CONFIG_QUEUE_SIZE = "queue-size";
+  /**
+   * Config param for the number of selector threads of the non-blocking
+   * server.
+   */
+  public static final String CONFIG_SELECTOR_THREADS = "selector-threads";
+  /**
+   * Config param for answering requests refused because the channel is full
+   * with TRY_LATER rather than FAILED. Only clients built from a flume.thrift
+   * which has TRY_LATER, such as the Flume SDK's, can read the answer.
+   */
+  public static final String CONFIG_TRY_LATER = "try-later";
   /**
    * Config param for the hostname to listen on.
    */
@@ -105,6 +141,15 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
   private static final String KEYSTORE_TYPE_KEY = "keystore-type";
   private static final String EXCLUDE_PROTOCOLS = "exclude-protocols";
 
+  private static final int DEFAULT_WORKER_THREADS = 100;
+  private static final int DEFAULT_QUEUE_SIZE = 1000;
+  private static final int DEFAULT_SELECTOR_THREADS = 2;
+
+  private static final String[] NONBLOCKING_SERVERS = {
+    "org.apache.thrift.server.TThreadedSelectorServer",
+    "org.apache.thrift.server.THsHaServer"
+  };
+
   private static final String KERBEROS_KEY = "kerberos";
   private static final String AGENT_PRINCIPAL = "agent-principal";
   private static final String AGENT_KEYTAB = "agent-keytab";
@@ -112,9 +157,16 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
   private Integer port;
   private String bindAddress;
   private int maxThreads = 0;
-  private SourceCounter sourceCounter;
+  private int queueSize;
+  private int selectorThreads;
+  private boolean tryLater;
+  private RpcSourceCounter sourceCounter;
+  private final AdmissionController admissionController =
+      new AdmissionController();
   private TServer server;
   private ExecutorService servingExecutor;
+  private ExecutorService workerPool;
+  private BlockingQueue<Runnable> requestQueue;
   private String protocol;
   private String keystore;
   private String keystorePassword;
@@ -143,8 +195,20 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
                   "integer value: " + context.getString(CONFIG_THREADS));
     }
 
+    queueSize = context.getInteger(CONFIG_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+    Preconditions.checkArgument(queueSize > 0, CONFIG_QUEUE_SIZE +
+        " must be greater than 0");
+    selectorThreads = context.getInteger(CONFIG_SELECTOR_THREADS,
+        DEFAULT_SELECTOR_THREADS);
+    Preconditions.checkArgument(selectorThreads > 0, CONFIG_SELECTOR_THREADS +
+        " must be greater than 0");
+
+    tryLater = context.getBoolean(CONFIG_TRY_LATER, false);
+
+    admissionController.configure(context);
+
     if (sourceCounter == null) {
-      sourceCounter = new SourceCounter(getName());
+      sourceCounter = new RpcSourceCounter(getName());
     }
 
     protocol = context.getString(CONFIG_PROTOCOL);
@@ -203,7 +267,7 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
     logger.info("Starting thrift source");
 
     // create the server
-    server = getTThreadedSelectorServer();
+    server = getNonblockingServer();
 
     // if in ssl mode or if SelectorServer is unavailable
     if (server == null) {
@@ -300,53 +364,118 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
     }
   }
 
-  private TServer getTThreadedSelectorServer() {
+  private TServer getNonblockingServer() {
     if (enableSsl || enableKerberos) {
       return null;
     }
-    Class<?> serverClass;
-    Class<?> argsClass;
-    TServer.AbstractServerArgs args;
-    try {
-      serverClass = Class.forName("org.apache.thrift" +
-              ".server.TThreadedSelectorServer");
-      argsClass = Class.forName("org.apache.thrift" +
-              ".server.TThreadedSelectorServer$Args");
-
-      TServerTransport serverTransport = new TNonblockingServerSocket(
-              new InetSocketAddress(bindAddress, port));
-
-      ExecutorService sourceService;
-      ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(
-              "Flume Thrift IPC Thread %d").build();
-      if (maxThreads == 0) {
-        sourceService = Executors.newCachedThreadPool(threadFactory);
-      } else {
-        sourceService = Executors.newFixedThreadPool(maxThreads, threadFactory);
+    for (String serverClassName : NONBLOCKING_SERVERS) {
+      Class<?> serverClass;
+      Class<?> argsClass;
+      try {
+        serverClass = Class.forName(serverClassName);
+        argsClass = Class.forName(serverClassName + "$Args");
+      } catch (ClassNotFoundException e) {
+        continue;
       }
-      args = (TNonblockingServer.AbstractNonblockingServerArgs) argsClass
-              .getConstructor(TNonblockingServerTransport.class)
-              .newInstance(serverTransport);
-      Method m = argsClass.getDeclaredMethod("executorService",
-              ExecutorService.class);
-      m.invoke(args, sourceService);
-
-      populateServerParams(args);
-
-      /*
-       * Both THsHaServer and TThreadedSelectorServer allows us to pass in
-       * the executor service to use - unfortunately the "executorService"
-       * method does not exist in the parent abstract Args class,
-       * so use reflection to pass the executor in.
-       *
-       */
-      server = (TServer) serverClass.getConstructor(argsClass).newInstance(args);
+      try {
+        TServerTransport serverTransport = new TNonblockingServerSocket(
+                new InetSocketAddress(bindAddress, port));
+        TServer.AbstractServerArgs args =
+            (TNonblockingServer.AbstractNonblockingServerArgs) argsClass
+                .getConstructor(TNonblockingServerTransport.class)
+                .newInstance(serverTransport);
+
+        /*
+         * Both THsHaServer and TThreadedSelectorServer allows us to pass in
+         * the executor service to use - unfortunately the "executorService"
+         * method does not exist in the parent abstract Args class,
+         * so use reflection to pass the executor in. Older Thrift versions
+         * only take the number of worker threads.
+         */
+        int workers = (maxThreads == Integer.MAX_VALUE) ?
+            DEFAULT_WORKER_THREADS : maxThreads;
+        Method executorService = getMethod(argsClass, "executorService",
+            ExecutorService.class);
+        if (executorService != null) {
+          workerPool = createWorkerPool(workers);
+          executorService.invoke(args, workerPool);
+        } else {
+          logger.warn("This Thrift version does not support a bounded " +
+              "request queue, " + CONFIG_QUEUE_SIZE + " is ignored");
+          argsClass.getMethod("workerThreads", int.class).invoke(args, workers);
+        }
+
+        Method selectors = getMethod(argsClass, "selectorThreads", int.class);
+        if (selectors != null) {
+          selectors.invoke(args, selectorThreads);
+          setFairAcceptPolicy(argsClass, args);
+        }
+
+        populateServerParams(args);
+        server = (TServer) serverClass.getConstructor(argsClass).newInstance(args);
+        logger.info("Using {} with {} worker threads", serverClass.getSimpleName(),
+            workers);
+        return server;
+      } catch (Throwable ex) {
+        throw new FlumeException("Cannot start Thrift Source.", ex);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Creates the pool of worker threads of the non-blocking server. Requests
+   * which do not fit into its queue are rejected, upon which the server
+   * closes their connection.
+   */
+  private ExecutorService createWorkerPool(int workers) {
+    requestQueue = new ArrayBlockingQueue<Runnable>(queueSize);
+    ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(
+            "Flume Thrift IPC Thread %d").build();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers,
+        60L, TimeUnit.SECONDS, requestQueue, threadFactory,
+        new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            sourceCounter.incrementRequestRejectedCount();
+            throw new RejectedExecutionException("Thrift source " + getName() +
+                " request queue is full");
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Makes the selector server register new connections through the worker
+   * pool, so that when it is saturated new connections are closed instead
+   * of adding to its load. Needs Thrift 0.9.1 or later.
+   */
+  private void setFairAcceptPolicy(Class<?> argsClass, Object args)
+      throws Exception {
+    Class<?> policyClass;
+    try {
+      policyClass = Class.forName(argsClass.getName() + "$AcceptPolicy");
     } catch (ClassNotFoundException e) {
+      return;
+    }
+    Method acceptPolicy = getMethod(argsClass, "acceptPolicy", policyClass);
+    if (acceptPolicy != null) {
+      for (Object policy : policyClass.getEnumConstants()) {
+        if (((Enum<?>) policy).name().equals("FAIR_ACCEPT")) {
+          acceptPolicy.invoke(args, policy);
+        }
+      }
+    }
+  }
+
+  private static Method getMethod(Class<?> clazz, String name,
+                                  Class<?> parameterType) {
+    try {
+      return clazz.getMethod(name, parameterType);
+    } catch (NoSuchMethodException e) {
       return null;
-    } catch (Throwable ex) {
-      throw new FlumeException("Cannot start Thrift Source.", ex);
     }
-    return server;
   }
 
   private TServer getTThreadPoolServer() {
@@ -412,21 +541,71 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
           "shutdown.");
       }
     }
+    if (workerPool != null) {
+      workerPool.shutdown();
+      try {
+        if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
+          workerPool.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        workerPool.shutdownNow();
+      }
+      workerPool = null;
+      requestQueue = null;
+    }
     sourceCounter.stop();
     super.stop();
   }
 
+  private void updateQueueDepth() {
+    BlockingQueue<Runnable> queue = requestQueue;
+    if (queue != null) {
+      sourceCounter.setRequestQueueDepth(queue.size());
+    }
+  }
+
+  /**
+   * Wraps the body and headers of a Thrift event, without copying them.
+   */
+  private static Event toFlumeEvent(ThriftFlumeEvent event) {
+    Event flumeEvent = new SimpleEvent();
+    flumeEvent.setBody(event.getBody());
+    if (event.getHeaders() != null) {
+      flumeEvent.setHeaders(event.getHeaders());
+    }
+    return flumeEvent;
+  }
+
   private class ThriftSourceHandler implements ThriftSourceProtocol.Iface {
 
+    /**
+     * The answer to a request refused because the channel is full or
+     * filling up.
+     */
+    private Status busy() {
+      sourceCounter.incrementTryLaterCount();
+      return tryLater ? Status.TRY_LATER : Status.FAILED;
+    }
+
     @Override
     public Status append(ThriftFlumeEvent event) throws TException {
-      Event flumeEvent = EventBuilder.withBody(event.getBody(), event.getHeaders());
+      Event flumeEvent = toFlumeEvent(event);
 
+      updateQueueDepth();
       sourceCounter.incrementAppendReceivedCount();
       sourceCounter.incrementEventReceivedCount();
 
+      if (!admissionController.admit(getChannelProcessor(), 1)) {
+        return busy();
+      }
+
       try {
         getChannelProcessor().processEvent(flumeEvent);
+      } catch (ChannelFullException ex) {
+        logger.warn("Thrift source " + getName() + " could not append events " +
+                    "to the full channel.");
+        return busy();
       } catch (ChannelException ex) {
         logger.warn("Thrift source " + getName() + " could not append events " +
                     "to the channel.", ex);
@@ -439,16 +618,25 @@ public class ThriftSource extends AbstractSource implements Configurable, EventD
 
     @Override
     public Status appendBatch(List<ThriftFlumeEvent> events) throws TException {
+      updateQueueDepth();
       sourceCounter.incrementAppendBatchReceivedCount();
       sourceCounter.addToEventReceivedCount(events.size());
 
-      List<Event> flumeEvents = Lists.newArrayList();
+      if (!admissionController.admit(getChannelProcessor(), events.size())) {
+        return busy();
+      }
+
+      List<Event> flumeEvents = Lists.newArrayListWithCapacity(events.size());
       for (ThriftFlumeEvent event : events) {
-        flumeEvents.add(EventBuilder.withBody(event.getBody(), event.getHeaders()));
+        flumeEvents.add(toFlumeEvent(event));
       }
 
       try {
         getChannelProcessor().processEventBatch(flumeEvents);
+      } catch (ChannelFullException ex) {
+        logger.warn("Thrift source " + getName() + " could not append events " +
+                    "to the full channel.");
+        return busy();
       } catch (ChannelException ex) {
         logger.warn("Thrift source %s could not append events to the channel.", getName());
         return Status.FAILED;
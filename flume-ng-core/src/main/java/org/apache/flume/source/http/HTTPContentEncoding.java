@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.source.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Reads the body of a request decoded by its <tt>Content-Encoding</tt>,
+ * which may be <tt>gzip</tt>, <tt>deflate</tt> or <tt>identity</tt>. The body
+ * is decoded while it is read, so a compressed request is never held in
+ * memory as a whole.
+ */
+public final class HTTPContentEncoding {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private HTTPContentEncoding() {
+    // disable explicit object creation
+  }
+
+  /**
+   * @return the decoded body of the request
+   * @throws HTTPBadRequestException if the content encoding is not supported
+   */
+  public static InputStream getInputStream(HttpServletRequest request)
+          throws HTTPBadRequestException, IOException {
+    String encoding = getContentEncoding(request);
+    InputStream in = request.getInputStream();
+    if (encoding == null) {
+      return in;
+    } else if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    } else if (encoding.equals("deflate")) {
+      return new InflaterInputStream(in);
+    }
+    throw new HTTPBadRequestException("Unsupported content encoding: " +
+            encoding);
+  }
+
+  /**
+   * @return the decoded body of the request as text in the given charset
+   * @throws HTTPBadRequestException if the content encoding is not supported
+   */
+  public static BufferedReader getReader(HttpServletRequest request,
+          String charset) throws HTTPBadRequestException, IOException {
+    if (getContentEncoding(request) == null) {
+      return request.getReader();
+    }
+    return new BufferedReader(new InputStreamReader(getInputStream(request),
+            charset), BUFFER_SIZE);
+  }
+
+  private static String getContentEncoding(HttpServletRequest request) {
+    String encoding = request.getHeader("Content-Encoding");
+    if (encoding == null) {
+      return null;
+    }
+    encoding = encoding.trim().toLowerCase();
+    return encoding.isEmpty() || encoding.equals("identity") ? null : encoding;
+  }
+}
@@ -20,12 +20,14 @@ package org.apache.flume.source.http;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelFullException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.instrumentation.RpcSourceCounter;
 import org.apache.flume.source.AbstractSource;
+import org.apache.flume.source.AdmissionController;
 import org.apache.flume.tools.HTTPServerConstraintUtil;
 import org.mortbay.jetty.Connector;
 import org.mortbay.jetty.Server;
@@ -69,6 +71,15 @@ import java.util.Map;
  * append events to the channel, the source will return a HTTP 503 - Temporarily
  * unavailable status.
  *
+ * With <tt>batchSize</tt> set and a handler which implements
+ * {@link StreamingHTTPSourceHandler}, events are instead committed to the
+ * channel every <tt>batchSize</tt> events while the request is read, so a
+ * large request is never held in memory as a whole. If the request fails
+ * part way, the events committed up to then stay in the channel. Each
+ * response then carries the number of events committed in the
+ * {@value #ACCEPTED_EVENTS_HEADER} header, so that the client can send the
+ * rest again.
+ *
  * A JSON handler which converts JSON objects to Flume events is provided.
  *
  */
@@ -88,11 +99,21 @@ public class HTTPSource extends AbstractSource implements
    */
 
   private static final Logger LOG = LoggerFactory.getLogger(HTTPSource.class);
+
+  /**
+   * Response header with the number of events of a request which were
+   * committed to the channel, when the request was read in batches.
+   */
+  public static final String ACCEPTED_EVENTS_HEADER = "X-Flume-Accepted-Events";
+
   private volatile Integer port;
   private volatile Server srv;
   private volatile String host;
   private HTTPSourceHandler handler;
-  private SourceCounter sourceCounter;
+  private int batchSize;
+  private RpcSourceCounter sourceCounter;
+  private final AdmissionController admissionController =
+      new AdmissionController();
 
   // SSL configuration variable
   private volatile String keyStorePath;
@@ -116,6 +137,11 @@ public class HTTPSource extends AbstractSource implements
       Preconditions.checkNotNull(port, "HTTPSource requires a port number to be"
           + " specified");
 
+      batchSize = context.getInteger(HTTPSourceConfigurationConstants.CONFIG_BATCH_SIZE,
+          HTTPSourceConfigurationConstants.DEFAULT_BATCH_SIZE);
+      Preconditions.checkArgument(batchSize >= 0, "HTTPSource batchSize must not"
+          + " be negative");
+
       String handlerClassName = context.getString(
               HTTPSourceConfigurationConstants.CONFIG_HANDLER,
               HTTPSourceConfigurationConstants.DEFAULT_HANDLER).trim();
@@ -165,8 +191,9 @@ public class HTTPSource extends AbstractSource implements
       LOG.error("Error configuring HTTPSource!", ex);
       Throwables.propagate(ex);
     }
+    admissionController.configure(context);
     if (sourceCounter == null) {
-      sourceCounter = new SourceCounter(getName());
+      sourceCounter = new RpcSourceCounter(getName());
     }
   }
 
@@ -240,6 +267,15 @@ public class HTTPSource extends AbstractSource implements
     @Override
     public void doPost(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
+      // refuse before reading the request, the work of parsing it is saved
+      if (!admissionController.admit(getChannelProcessor(), -1)) {
+        sendTryLater(response, "Channel is too full to take events.");
+        return;
+      }
+      if (batchSize > 0 && handler instanceof StreamingHTTPSourceHandler) {
+        doStreamingPost(request, response);
+        return;
+      }
       List<Event> events = Collections.emptyList(); //create empty list
       try {
         events = handler.getEvents(request);
@@ -260,6 +296,12 @@ public class HTTPSource extends AbstractSource implements
       sourceCounter.addToEventReceivedCount(events.size());
       try {
         getChannelProcessor().processEventBatch(events);
+      } catch (ChannelFullException ex) {
+        LOG.warn("Channel is full, asking the client to try later. "
+                + "Consider increasing the channel "
+                + "capacity or make sure the sinks perform faster.");
+        sendTryLater(response, "Channel is full. " + ex.getMessage());
+        return;
       } catch (ChannelException ex) {
         LOG.warn("Error appending event to channel. "
                 + "Channel might be full. Consider increasing the channel "
@@ -282,6 +324,115 @@ public class HTTPSource extends AbstractSource implements
       sourceCounter.addToEventAcceptedCount(events.size());
     }
 
+    /**
+     * Reads the events of the request one at a time and commits them to the
+     * channel every batchSize events.
+     */
+    private void doStreamingPost(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+      StreamingHTTPSourceHandler.EventReader reader;
+      try {
+        reader = ((StreamingHTTPSourceHandler) handler).getEventReader(request);
+      } catch (HTTPBadRequestException ex) {
+        LOG.warn("Received bad request from client. ", ex);
+        response.setIntHeader(ACCEPTED_EVENTS_HEADER, 0);
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Bad request from client. "
+                + ex.getMessage());
+        return;
+      } catch (Exception ex) {
+        LOG.warn("Deserializer threw unexpected exception. ", ex);
+        response.setIntHeader(ACCEPTED_EVENTS_HEADER, 0);
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Deserializer threw unexpected exception. "
+                + ex.getMessage());
+        return;
+      }
+
+      int accepted = 0;
+      List<Event> batch = new ArrayList<Event>(batchSize);
+      try {
+        Event event;
+        while ((event = reader.readEvent()) != null) {
+          batch.add(event);
+          if (batch.size() == batchSize) {
+            accepted += commit(batch);
+          }
+        }
+        accepted += commit(batch);
+      } catch (HTTPBadRequestException ex) {
+        LOG.warn("Received bad request from client after " + accepted
+                + " events. ", ex);
+        response.setIntHeader(ACCEPTED_EVENTS_HEADER, accepted);
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Bad request from client after " + accepted + " events. "
+                + ex.getMessage());
+        return;
+      } catch (ChannelFullException ex) {
+        LOG.warn("Channel is full after " + accepted + " events, asking the "
+                + "client to try later. Consider increasing the channel "
+                + "capacity or make sure the sinks perform faster.");
+        response.setIntHeader(ACCEPTED_EVENTS_HEADER, accepted);
+        sendTryLater(response, "Channel is full after " + accepted
+                + " events. " + ex.getMessage());
+        return;
+      } catch (ChannelException ex) {
+        LOG.warn("Error appending event to channel after " + accepted
+                + " events. ", ex);
+        response.setIntHeader(ACCEPTED_EVENTS_HEADER, accepted);
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "Error appending event to channel after " + accepted
+                + " events. " + ex.getMessage());
+        return;
+      } catch (Exception ex) {
+        LOG.warn("Unexpected error after " + accepted + " events. ", ex);
+        response.setIntHeader(ACCEPTED_EVENTS_HEADER, accepted);
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Unexpected error after " + accepted + " events. "
+                + ex.getMessage());
+        return;
+      } finally {
+        try {
+          reader.close();
+        } catch (IOException ex) {
+          LOG.debug("Error closing the request reader. ", ex);
+        }
+      }
+      response.setCharacterEncoding(request.getCharacterEncoding());
+      response.setIntHeader(ACCEPTED_EVENTS_HEADER, accepted);
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.flushBuffer();
+    }
+
+    /**
+     * Commits the events to the channel and clears the list.
+     * @return the number of events committed
+     */
+    private int commit(List<Event> batch) {
+      if (batch.isEmpty()) {
+        return 0;
+      }
+      int size = batch.size();
+      sourceCounter.incrementAppendBatchReceivedCount();
+      sourceCounter.addToEventReceivedCount(size);
+      getChannelProcessor().processEventBatch(batch);
+      sourceCounter.incrementAppendBatchAcceptedCount();
+      sourceCounter.addToEventAcceptedCount(size);
+      batch.clear();
+      return size;
+    }
+
+    /**
+     * Answers 503 with a Retry-After header, which is in whole seconds.
+     */
+    private void sendTryLater(HttpServletResponse response, String message)
+            throws IOException {
+      sourceCounter.incrementTryLaterCount();
+      long retryAfter = admissionController.getRetryAfterMillis();
+      response.setHeader("Retry-After", String.valueOf((retryAfter + 999) / 1000));
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, message);
+    }
+
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
@@ -28,8 +28,10 @@ public class HTTPSourceConfigurationConstants {
   public static final String CONFIG_HANDLER_PREFIX =
           CONFIG_HANDLER + ".";
   public static final String CONFIG_BIND = "bind";
+  public static final String CONFIG_BATCH_SIZE = "batchSize";
 
   public static final String DEFAULT_BIND = "0.0.0.0";
+  public static final int DEFAULT_BATCH_SIZE = 0;
 
   public static final String DEFAULT_HANDLER =
           "org.apache.flume.source.http.JSONHandler";
@@ -19,9 +19,14 @@ package org.apache.flume.source.http;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
@@ -70,9 +75,13 @@ import org.slf4j.LoggerFactory;
  * {@code
  * Type type = new TypeToken<List<JSONEvent>>() {}.getType();
  * }
+ * <p>
+ * The handler can also read the array one event at a time, see
+ * {@link StreamingHTTPSourceHandler}. Requests may be compressed with gzip or
+ * deflate, see {@link HTTPContentEncoding}.
  */
 
-public class JSONHandler implements HTTPSourceHandler {
+public class JSONHandler implements StreamingHTTPSourceHandler {
 
   private static final Logger LOG = LoggerFactory.getLogger(JSONHandler.class);
   private final Type listType = new TypeToken<List<JSONEvent>>() {}.getType();
@@ -87,22 +96,8 @@ public class JSONHandler implements HTTPSourceHandler {
    */
   @Override
   public List<Event> getEvents(HttpServletRequest request) throws Exception {
-    BufferedReader reader = request.getReader();
-    String charset = request.getCharacterEncoding();
-    //UTF-8 is default for JSON. If no charset is specified, UTF-8 is to
-    //be assumed.
-    if (charset == null) {
-      LOG.debug("Charset is null, default charset of UTF-8 will be used.");
-      charset = "UTF-8";
-    } else if (!(charset.equalsIgnoreCase("utf-8")
-            || charset.equalsIgnoreCase("utf-16")
-            || charset.equalsIgnoreCase("utf-32"))) {
-      LOG.error("Unsupported character set in request {}. "
-              + "JSON handler supports UTF-8, "
-              + "UTF-16 and UTF-32 only.", charset);
-      throw new UnsupportedCharsetException("JSON handler supports UTF-8, "
-              + "UTF-16 and UTF-32 only.");
-    }
+    String charset = getCharset(request);
+    BufferedReader reader = HTTPContentEncoding.getReader(request, charset);
 
     /*
      * Gson throws Exception if the data is not parseable to JSON.
@@ -121,6 +116,80 @@ public class JSONHandler implements HTTPSourceHandler {
     return getSimpleEvents(eventList);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public EventReader getEventReader(HttpServletRequest request)
+          throws Exception {
+    final String charset = getCharset(request);
+    final JsonReader reader = new JsonReader(
+            HTTPContentEncoding.getReader(request, charset));
+    try {
+      reader.beginArray();
+    } catch (IllegalStateException ex) {
+      throw new HTTPBadRequestException("Request is not a JSON array.", ex);
+    } catch (MalformedJsonException ex) {
+      throw new HTTPBadRequestException("Request has invalid JSON Syntax.", ex);
+    }
+    return new EventReader() {
+      private boolean done;
+
+      @Override
+      public Event readEvent() throws HTTPBadRequestException, IOException {
+        if (done) {
+          return null;
+        }
+        try {
+          if (reader.peek() == JsonToken.END_ARRAY) {
+            reader.endArray();
+            done = true;
+            return null;
+          }
+          JSONEvent event = gson.fromJson(reader, JSONEvent.class);
+          if (event == null) {
+            throw new HTTPBadRequestException("Request has a null event.");
+          }
+          event.setCharset(charset);
+          return EventBuilder.withBody(event.getBody(), event.getHeaders());
+        } catch (JsonParseException ex) {
+          throw new HTTPBadRequestException("Request has invalid JSON Syntax.",
+                  ex);
+        } catch (IllegalStateException ex) {
+          throw new HTTPBadRequestException("Request has invalid JSON Syntax.",
+                  ex);
+        } catch (MalformedJsonException ex) {
+          throw new HTTPBadRequestException("Request has invalid JSON Syntax.",
+                  ex);
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  private String getCharset(HttpServletRequest request) {
+    String charset = request.getCharacterEncoding();
+    //UTF-8 is default for JSON. If no charset is specified, UTF-8 is to
+    //be assumed.
+    if (charset == null) {
+      LOG.debug("Charset is null, default charset of UTF-8 will be used.");
+      charset = "UTF-8";
+    } else if (!(charset.equalsIgnoreCase("utf-8")
+            || charset.equalsIgnoreCase("utf-16")
+            || charset.equalsIgnoreCase("utf-32"))) {
+      LOG.error("Unsupported character set in request {}. "
+              + "JSON handler supports UTF-8, "
+              + "UTF-16 and UTF-32 only.", charset);
+      throw new UnsupportedCharsetException("JSON handler supports UTF-8, "
+              + "UTF-16 and UTF-32 only.");
+    }
+    return charset;
+  }
+
   @Override
   public void configure(Context context) {
   }
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.source.http;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.event.JSONEvent;
+
+/**
+ * Handler for HTTPSource that accepts newline delimited JSON, one event per
+ * line, each encoded as a map with "headers" and "body" like the events of
+ * {@link JSONHandler}. Blank lines are skipped. An example: <p>
+ * {"headers" : {"a":"b"},"body": "random_body"}<br>
+ * {"headers" : {"e": "f"},"body": "random_body2"} <p>
+ *
+ * As each line is parsed on its own, the handler reads requests one event
+ * at a time, see {@link StreamingHTTPSourceHandler}. Requests may be
+ * compressed with gzip or deflate, see {@link HTTPContentEncoding}. The
+ * charset is read from the request as with {@link JSONHandler}.
+ */
+public class NDJSONHandler implements StreamingHTTPSourceHandler {
+
+  private final Gson gson;
+
+  public NDJSONHandler() {
+    gson = new GsonBuilder().disableHtmlEscaping().create();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public List<Event> getEvents(HttpServletRequest request) throws Exception {
+    List<Event> events = new ArrayList<Event>();
+    EventReader reader = getEventReader(request);
+    try {
+      Event event;
+      while ((event = reader.readEvent()) != null) {
+        events.add(event);
+      }
+    } finally {
+      reader.close();
+    }
+    return events;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public EventReader getEventReader(HttpServletRequest request)
+          throws Exception {
+    final String charset = getCharset(request);
+    final BufferedReader reader =
+            HTTPContentEncoding.getReader(request, charset);
+    return new EventReader() {
+      private int lineNumber;
+
+      @Override
+      public Event readEvent() throws HTTPBadRequestException, IOException {
+        String line;
+        do {
+          line = reader.readLine();
+          if (line == null) {
+            return null;
+          }
+          lineNumber++;
+        } while (line.trim().isEmpty());
+
+        JSONEvent event;
+        try {
+          event = gson.fromJson(line, JSONEvent.class);
+        } catch (JsonParseException ex) {
+          throw new HTTPBadRequestException("Request has invalid JSON " +
+                  "syntax on line " + lineNumber + ".", ex);
+        }
+        if (event == null) {
+          throw new HTTPBadRequestException("Request has no event on line " +
+                  lineNumber + ".");
+        }
+        event.setCharset(charset);
+        return EventBuilder.withBody(event.getBody(), event.getHeaders());
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  @Override
+  public void configure(Context context) {
+  }
+
+  private String getCharset(HttpServletRequest request) {
+    String charset = request.getCharacterEncoding();
+    if (charset == null) {
+      charset = "UTF-8";
+    } else if (!(charset.equalsIgnoreCase("utf-8")
+            || charset.equalsIgnoreCase("utf-16")
+            || charset.equalsIgnoreCase("utf-32"))) {
+      throw new UnsupportedCharsetException("NDJSON handler supports UTF-8, "
+              + "UTF-16 and UTF-32 only.");
+    }
+    return charset;
+  }
+}
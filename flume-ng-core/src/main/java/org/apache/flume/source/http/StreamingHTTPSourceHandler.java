@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.source.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.flume.Event;
+
+/**
+ * An {@link HTTPSourceHandler} which can also parse a request one event at
+ * a time while the request is read, so that the {@link HTTPSource} can put
+ * the events of a large request into the channel in batches of its
+ * <tt>batchSize</tt> instead of holding all of them in memory.
+ */
+public interface StreamingHTTPSourceHandler extends HTTPSourceHandler {
+
+  /**
+   * Returns a reader for the events of the request. The reader is only
+   * used by the thread handling the request and is closed once the request
+   * is done with.
+   *
+   * @param request The request to be parsed into Flume events.
+   * @return The reader of the events of the request.
+   * @throws HTTPBadRequestException If the request is not in the expected
+   * format.
+   * @throws Exception If there was an unexpected error.
+   */
+  public EventReader getEventReader(HttpServletRequest request) throws
+          HTTPBadRequestException, Exception;
+
+  /**
+   * Parses the events of one request.
+   */
+  public interface EventReader extends Closeable {
+
+    /**
+     * @return The next event of the request, or null if there are no more.
+     * @throws HTTPBadRequestException If the next event is not in the
+     * expected format.
+     * @throws IOException If the request could not be read.
+     */
+    public Event readEvent() throws HTTPBadRequestException, IOException;
+  }
+}
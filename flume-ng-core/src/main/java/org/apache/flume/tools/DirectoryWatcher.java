@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Follows the entries of a set of directories through a {@link WatchService},
+ * so that sources reading files from them only have to look at the entries
+ * which changed instead of listing every directory and checking every file
+ * on each poll.
+ *
+ * A watch service may lose events, and may deliver them late on platforms
+ * which do not have native support for it, so callers are expected to list
+ * their directories again whenever {@link #poll(Set, Set)} says events were
+ * lost, and every now and then anyway.
+ *
+ * This class is not thread safe.
+ */
+public class DirectoryWatcher implements Closeable {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(DirectoryWatcher.class);
+
+  private final WatchService watchService;
+  private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+
+  public DirectoryWatcher() throws IOException {
+    watchService = FileSystems.getDefault().newWatchService();
+  }
+
+  /**
+   * Starts watching the entries of the given directory, unless they are
+   * watched already.
+   *
+   * @return true if the directory was not watched before
+   */
+  public boolean register(Path dir) throws IOException {
+    Preconditions.checkNotNull(dir);
+    WatchKey key = keys.get(dir);
+    if (key != null && key.isValid()) {
+      return false;
+    }
+    key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    keys.put(dir, key);
+    logger.debug("Watching directory {}", dir);
+    return true;
+  }
+
+  public boolean isRegistered(Path dir) {
+    WatchKey key = keys.get(dir);
+    return key != null && key.isValid();
+  }
+
+  /**
+   * Collects the events delivered since the last call without waiting for
+   * new ones.
+   *
+   * @param entries receives the paths of the entries created in or removed
+   *                from a watched directory, including entries renamed in or
+   *                out of it
+   * @param modified receives the paths of the entries which were written to
+   * @return false if events were lost, because the watch service overflowed
+   *         or a watched directory went away, in which case the directories
+   *         should be listed again
+   */
+  public boolean poll(Set<Path> entries, Set<Path> modified) {
+    boolean complete = true;
+    WatchKey key;
+    while ((key = watchService.poll()) != null) {
+      Path dir = (Path) key.watchable();
+      for (WatchEvent<?> event : key.pollEvents()) {
+        WatchEvent.Kind<?> kind = event.kind();
+        if (kind == StandardWatchEventKinds.OVERFLOW) {
+          logger.debug("Events lost while watching {}", dir);
+          complete = false;
+        } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+          modified.add(dir.resolve((Path) event.context()));
+        } else {
+          entries.add(dir.resolve((Path) event.context()));
+        }
+      }
+      if (!key.reset()) {
+        logger.debug("Directory {} is no longer watched", dir);
+        keys.remove(dir);
+        complete = false;
+      }
+    }
+    return complete;
+  }
+
+  @Override
+  public void close() throws IOException {
+    keys.clear();
+    watchService.close();
+  }
+}
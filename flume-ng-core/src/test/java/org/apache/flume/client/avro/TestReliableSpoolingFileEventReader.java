@@ -412,6 +412,191 @@ public class TestReliableSpoolingFileEventReader {
     Assert.assertEquals(expected, actual);
   }
   
+  @Test
+  public void testWatchDirectory() throws IOException, InterruptedException {
+    ReliableSpoolingFileEventReader reader =
+        new ReliableSpoolingFileEventReader.Builder().spoolDirectory(WORK_DIR)
+                                                     .consumeOrder(ConsumeOrder.OLDEST)
+                                                     .watchDirectory(true)
+                                                     .build();
+    List<String> actual = Lists.newLinkedList();
+    readEventsFromWatchedDir(reader, actual, 1);
+
+    File file1 = new File(WORK_DIR, "new-file1");
+    File file2 = new File(WORK_DIR, "new-file2");
+    FileUtils.write(file2, "New file2 created.\n");
+    Thread.sleep(1000L);
+    FileUtils.write(file1, "New file1 created.\n");
+
+    List<String> expected = Lists.newLinkedList();
+    createExpectedFromFilesInSetup(expected);
+    expected.add(""); // Empty file was added in the last in setup.
+    expected.add("New file2 created.");
+    expected.add("New file1 created.");
+    readEventsFromWatchedDir(reader, actual, expected.size());
+    Assert.assertEquals(expected, actual);
+    // only the first poll listed the directory
+    Assert.assertEquals(1, reader.getListFilesCount());
+    reader.close();
+  }
+
+  @Test
+  public void testWatchDirectoryRecursive() throws IOException, InterruptedException {
+    ReliableSpoolingFileEventReader reader =
+        new ReliableSpoolingFileEventReader.Builder().spoolDirectory(WORK_DIR)
+                                                     .recursiveDirectorySearch(true)
+                                                     .watchDirectory(true)
+                                                     .build();
+    List<String> actual = Lists.newLinkedList();
+    readEventsFromWatchedDir(reader, actual, 1);
+
+    File subDir = new File(WORK_DIR, "sub");
+    Assert.assertTrue(subDir.mkdir());
+    FileUtils.write(new File(subDir, "new-file"), "New file in new directory.\n");
+
+    List<String> expected = Lists.newLinkedList();
+    createExpectedFromFilesInSetup(expected);
+    expected.add("");
+    expected.add("New file in new directory.");
+    readEventsFromWatchedDir(reader, actual, expected.size());
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(1, reader.getListFilesCount());
+    reader.close();
+  }
+
+  @Test
+  public void testParallelReaders() throws IOException {
+    ReliableSpoolingFileEventReader.SharedFiles sharedFiles =
+        new ReliableSpoolingFileEventReader.SharedFiles();
+    ReliableEventReader reader0 = parallelReader(0, 2, sharedFiles, null);
+    ReliableEventReader reader1 = parallelReader(1, 2, sharedFiles, null);
+
+    Map<String, List<String>> actual = new TreeMap<String, List<String>>();
+    List<Event> events0 = readParallel(reader0, actual);
+    List<Event> events1 = readParallel(reader1, actual);
+    // both readers hold a file, never the same one
+    Assert.assertFalse(events0.get(0).getHeaders().get("basename").equals(
+        events1.get(0).getHeaders().get("basename")));
+    while (!events0.isEmpty() || !events1.isEmpty()) {
+      events0 = readParallel(reader0, actual);
+      events1 = readParallel(reader1, actual);
+    }
+    reader0.close();
+    reader1.close();
+
+    Map<String, List<String>> expected = new TreeMap<String, List<String>>();
+    expected.put("emptylineFile", Lists.newArrayList(""));
+    for (int i = 0; i < 4; i++) {
+      List<String> lines = Lists.newArrayList();
+      for (int j = 0; j < i; j++) {
+        lines.add("file" + i + "line" + j);
+      }
+      expected.put("file" + i, lines.isEmpty() ? Lists.newArrayList("") : lines);
+    }
+    Assert.assertEquals(expected, actual);
+    Assert.assertTrue(sharedFiles.getFilesInProgress().isEmpty());
+    for (File f : listFiles(WORK_DIR)) {
+      // every file was renamed once it was read
+      Assert.assertFalse(f.getName(), expected.containsKey(f.getName()));
+    }
+  }
+
+  @Test
+  public void testParallelReadersResume() throws IOException {
+    for (int i = 0; i < 2; i++) {
+      Files.write("big" + i + "line0\nbig" + i + "line1\nbig" + i + "line2\n",
+          new File(WORK_DIR, "big" + i), Charsets.UTF_8);
+    }
+    ReliableSpoolingFileEventReader.SharedFiles sharedFiles =
+        new ReliableSpoolingFileEventReader.SharedFiles();
+    ReliableEventReader reader0 = parallelReader(0, 2, sharedFiles, "big.*");
+    ReliableEventReader reader1 = parallelReader(1, 2, sharedFiles, "big.*");
+    Map<String, List<String>> actual = new TreeMap<String, List<String>>();
+    String file0 = readParallel(reader0, actual).get(0).getHeaders().get("basename");
+    String file1 = readParallel(reader1, actual).get(0).getHeaders().get("basename");
+    reader0.close();
+    reader1.close();
+
+    // each reader goes back to its own file, whichever starts first
+    sharedFiles = new ReliableSpoolingFileEventReader.SharedFiles();
+    reader1 = parallelReader(1, 2, sharedFiles, "big.*");
+    reader0 = parallelReader(0, 2, sharedFiles, "big.*");
+    List<Event> events1 = readParallel(reader1, actual);
+    List<Event> events0 = readParallel(reader0, actual);
+    Assert.assertEquals(file0, events0.get(0).getHeaders().get("basename"));
+    Assert.assertEquals(file1, events1.get(0).getHeaders().get("basename"));
+    while (!events0.isEmpty() || !events1.isEmpty()) {
+      events0 = readParallel(reader0, actual);
+      events1 = readParallel(reader1, actual);
+    }
+    reader0.close();
+    reader1.close();
+
+    Map<String, List<String>> expected = new TreeMap<String, List<String>>();
+    for (int i = 0; i < 2; i++) {
+      expected.put("big" + i,
+          Lists.newArrayList("big" + i + "line0", "big" + i + "line1", "big" + i + "line2"));
+    }
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testParallelReadersShareListing() throws IOException {
+    ReliableSpoolingFileEventReader.SharedFiles sharedFiles =
+        new ReliableSpoolingFileEventReader.SharedFiles();
+    ReliableSpoolingFileEventReader reader0 = parallelReader(0, 2, sharedFiles, null);
+    ReliableSpoolingFileEventReader reader1 = parallelReader(1, 2, sharedFiles, null);
+
+    Map<String, List<String>> actual = new TreeMap<String, List<String>>();
+    List<Event> events0 = readParallel(reader0, actual);
+    List<Event> events1 = readParallel(reader1, actual);
+    while (!events0.isEmpty() || !events1.isEmpty()) {
+      // the second reader takes its files from the listing of the first one,
+      // the directory is only listed again once they have all been taken
+      Assert.assertEquals(1, reader0.getListFilesCount());
+      Assert.assertEquals(0, reader1.getListFilesCount());
+      events0 = readParallel(reader0, actual);
+      events1 = readParallel(reader1, actual);
+    }
+    reader0.close();
+    reader1.close();
+
+    Assert.assertEquals(5, actual.size());
+  }
+
+  @Test
+  public void testFewerParallelReadersResume() throws IOException {
+    for (int i = 0; i < 2; i++) {
+      Files.write("big" + i + "line0\nbig" + i + "line1\nbig" + i + "line2\n",
+          new File(WORK_DIR, "big" + i), Charsets.UTF_8);
+    }
+    ReliableSpoolingFileEventReader.SharedFiles sharedFiles =
+        new ReliableSpoolingFileEventReader.SharedFiles();
+    ReliableEventReader reader0 = parallelReader(0, 2, sharedFiles, "big.*");
+    ReliableEventReader reader1 = parallelReader(1, 2, sharedFiles, "big.*");
+    Map<String, List<String>> actual = new TreeMap<String, List<String>>();
+    readParallel(reader0, actual);
+    readParallel(reader1, actual);
+    reader0.close();
+    reader1.close();
+
+    // a single reader goes on with the file of the removed one as well
+    ReliableEventReader reader = parallelReader(0, 1, null, "big.*");
+    List<Event> events = readParallel(reader, actual);
+    while (!events.isEmpty()) {
+      events = readParallel(reader, actual);
+    }
+    reader.close();
+
+    Map<String, List<String>> expected = new TreeMap<String, List<String>>();
+    for (int i = 0; i < 2; i++) {
+      expected.put("big" + i,
+          Lists.newArrayList("big" + i + "line0", "big" + i + "line1", "big" + i + "line2"));
+    }
+    Assert.assertEquals(expected, actual);
+    Assert.assertFalse(new File(TRACKER_DIR, ".flumespool-main-1.meta").exists());
+  }
+
   @Test
   public void testConsumeFileYoungest() throws IOException, InterruptedException {
     ReliableEventReader reader =
@@ -634,6 +819,53 @@ public class TestReliableSpoolingFileEventReader {
       }
     }
   }
+  /* Read events until there are nEvents of them, giving the watcher time. */
+  private void readEventsFromWatchedDir(ReliableEventReader reader,
+                                        Collection<String> actual, int nEvents)
+      throws IOException, InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (actual.size() < nEvents && System.currentTimeMillis() < deadline) {
+      List<Event> events = reader.readEvents(10);
+      for (Event e : events) {
+        actual.add(new String(e.getBody()));
+      }
+      reader.commit();
+      if (events.isEmpty()) {
+        Thread.sleep(100L);
+      }
+    }
+  }
+
+  private ReliableSpoolingFileEventReader parallelReader(
+      int index, int count, ReliableSpoolingFileEventReader.SharedFiles sharedFiles,
+      String includePattern) throws IOException {
+    ReliableSpoolingFileEventReader.Builder builder =
+        new ReliableSpoolingFileEventReader.Builder().spoolDirectory(WORK_DIR)
+                                                     .annotateBaseName(true)
+                                                     .readerIndex(index)
+                                                     .readerCount(count)
+                                                     .sharedFiles(sharedFiles);
+    if (includePattern != null) {
+      builder.includePattern(includePattern);
+    }
+    return builder.build();
+  }
+
+  /* Read and commit a single event, collecting the lines of each file. */
+  private List<Event> readParallel(ReliableEventReader reader,
+                                   Map<String, List<String>> actual) throws IOException {
+    List<Event> events = reader.readEvents(1);
+    for (Event e : events) {
+      String file = e.getHeaders().get("basename");
+      if (!actual.containsKey(file)) {
+        actual.put(file, new ArrayList<String>());
+      }
+      actual.get(file).add(new String(e.getBody()));
+    }
+    reader.commit();
+    return events;
+  }
+
   /* Create expected results out of the files created in the setup method. */
   private void createExpectedFromFilesInSetup(Collection<String> expected) {
     expected.add("");
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class TestByteLineDeserializer {
+
+  private static final File WORK_DIR =
+      new File("target/test/work").getAbsoluteFile();
+
+  private File file;
+  private PositionTracker tracker;
+
+  @Before
+  public void setup() throws Exception {
+    Files.createParentDirs(new File(WORK_DIR, "dummy"));
+    file = File.createTempFile(getClass().getSimpleName(), ".txt", WORK_DIR);
+    tracker = new TransientPositionTracker(file.getPath());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+  }
+
+  @Test
+  public void testSimple() throws IOException {
+    Files.write("line 1\nline 2\n", file, Charsets.UTF_8);
+    EventDeserializer des = new ByteLineDeserializer(new Context(), open());
+
+    Event evt = des.readEvent();
+    Assert.assertEquals("line 1", new String(evt.getBody()));
+    des.mark();
+
+    evt = des.readEvent();
+    Assert.assertEquals("line 2", new String(evt.getBody()));
+    des.reset(); // reset!
+
+    evt = des.readEvent();
+    Assert.assertEquals("Line 2 should be repeated, " +
+        "because we reset() the stream", "line 2", new String(evt.getBody()));
+
+    evt = des.readEvent();
+    Assert.assertNull("Event should be null because there are no lines " +
+        "left to read", evt);
+
+    des.mark();
+    des.close();
+  }
+
+  @Test
+  public void testSimpleViaFactory() throws IOException {
+    Files.write("line 1\nline 2", file, Charsets.UTF_8);
+    EventDeserializer des =
+        EventDeserializerFactory.getInstance("BYTE_LINE", new Context(), open());
+    List<Event> events = des.readEvents(10);
+    Assert.assertEquals(2, events.size());
+    assertEventBodyEquals("line 1", events.get(0));
+    assertEventBodyEquals("line 2", events.get(1));
+    des.close();
+  }
+
+  // lines read ahead but not returned are read again after a mark
+  @Test
+  public void testBatchMarkAndReopen() throws IOException {
+    Files.write("line 1\nline 2\nline 3\nline 4\n", file, Charsets.UTF_8);
+    EventDeserializer des = new ByteLineDeserializer(new Context(), open());
+    List<Event> events = des.readEvents(2);
+    Assert.assertEquals(2, events.size());
+    assertEventBodyEquals("line 2", events.get(1));
+    des.mark();
+    events = des.readEvents(1);
+    assertEventBodyEquals("line 3", events.get(0));
+    des.close();
+
+    des = new ByteLineDeserializer(new Context(), open());
+    events = des.readEvents(10);
+    Assert.assertEquals(2, events.size());
+    assertEventBodyEquals("line 3", events.get(0));
+    assertEventBodyEquals("line 4", events.get(1));
+    des.close();
+  }
+
+  // truncation occurs at maxLineLength boundaries
+  @Test
+  public void testMaxLineLength() throws IOException {
+    Files.write("abcdefghijklmnopqrstuvwxyz\n0123456789\n", file, Charsets.UTF_8);
+    Context ctx = new Context();
+    ctx.put(ByteLineDeserializer.MAXLINE_KEY, "10");
+    EventDeserializer des = new ByteLineDeserializer(ctx, open());
+
+    assertEventBodyEquals("abcdefghij", des.readEvent());
+    assertEventBodyEquals("klmnopqrst", des.readEvent());
+    assertEventBodyEquals("uvwxyz", des.readEvent());
+    assertEventBodyEquals("0123456789", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  // a truncated line does not end in the middle of a character
+  @Test
+  public void testMaxLineLengthMultiByte() throws IOException {
+    Files.write("ééé\n", file, Charsets.UTF_8);
+    Context ctx = new Context();
+    ctx.put(ByteLineDeserializer.MAXLINE_KEY, "3");
+    EventDeserializer des = new ByteLineDeserializer(ctx, open());
+
+    assertEventBodyEquals("é", des.readEvent());
+    assertEventBodyEquals("é", des.readEvent());
+    assertEventBodyEquals("é", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testSameEventsAsLineDeserializer() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      sb.append("line ").append(i).append(" é中😀");
+      for (int j = 0; j < i % 50; j++) {
+        sb.append('x');
+      }
+      sb.append('\n');
+      if (i % 1000 == 0) {
+        sb.append('\n');
+      }
+    }
+    Files.write(sb.toString(), file, Charsets.UTF_8);
+
+    EventDeserializer lines = new LineDeserializer(new Context(),
+        open(new TransientPositionTracker(file.getPath())));
+    EventDeserializer bytes = new ByteLineDeserializer(new Context(), open());
+    List<Event> expected;
+    do {
+      expected = lines.readEvents(7);
+      List<Event> actual = bytes.readEvents(7);
+      Assert.assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        Assert.assertEquals(new String(expected.get(i).getBody(), Charsets.UTF_8),
+            new String(actual.get(i).getBody(), Charsets.UTF_8));
+      }
+    } while (!expected.isEmpty());
+    lines.close();
+    bytes.close();
+  }
+
+  private ResettableInputStream open() throws IOException {
+    return open(tracker);
+  }
+
+  private ResettableInputStream open(PositionTracker tracker) throws IOException {
+    // a small buffer, so that lines span refills
+    return new ResettableFileInputStream(file, tracker, 64, Charsets.UTF_8,
+        DecodeErrorPolicy.FAIL);
+  }
+
+  private void assertEventBodyEquals(String expected, Event event) {
+    String bodyStr = new String(event.getBody(), Charsets.UTF_8);
+    Assert.assertEquals(expected, bodyStr);
+  }
+}
@@ -163,6 +163,53 @@ public class TestAvroSink {
     server.close();
   }
 
+  @Test
+  public void testPipelinedProcess() throws InterruptedException,
+      EventDeliveryException, InstantiationException, IllegalAccessException {
+    setUp();
+    Context context = new Context();
+    context.put("hostname", hostname);
+    context.put("port", String.valueOf(port));
+    context.put("batch-size", String.valueOf(2));
+    context.put("max-in-flight", String.valueOf(3));
+    Configurables.configure(sink, context);
+
+    Event event = EventBuilder.withBody("test event 1", Charsets.UTF_8);
+    Server server = createServer(new MockAvroServer());
+
+    server.start();
+
+    sink.start();
+    Assert.assertTrue(LifecycleController.waitForOneOf(sink,
+        LifecycleState.START_OR_ERROR, 5000));
+
+    Transaction transaction = channel.getTransaction();
+
+    transaction.begin();
+    for (int i = 0; i < 10; i++) {
+      channel.put(event);
+    }
+    transaction.commit();
+    transaction.close();
+
+    // three batches of two events per transaction, then the remaining two
+    Assert.assertEquals(Sink.Status.READY, sink.process());
+    Assert.assertEquals(Sink.Status.READY, sink.process());
+    Assert.assertEquals(Sink.Status.BACKOFF, sink.process());
+
+    transaction = channel.getTransaction();
+    transaction.begin();
+    Assert.assertNull(channel.take());
+    transaction.commit();
+    transaction.close();
+
+    sink.stop();
+    Assert.assertTrue(LifecycleController.waitForOneOf(sink,
+        LifecycleState.STOP_OR_ERROR, 5000));
+
+    server.close();
+  }
+
   @Test
   public void testTimeout() throws InterruptedException,
       EventDeliveryException, InstantiationException, IllegalAccessException {
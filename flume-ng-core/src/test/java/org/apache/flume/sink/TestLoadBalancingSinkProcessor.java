@@ -623,6 +623,80 @@ public class TestLoadBalancingSinkProcessor {
     Assert.assertTrue(s3.getEvents().size() == 0);
   }
 
+  @Test
+  public void testLatencyPrefersFasterSink() throws Exception {
+    Channel ch = new MockChannel();
+    int n = 100;
+    for (int i = 0; i < n; i++) {
+      ch.put(new MockEvent("test" + i));
+    }
+
+    MockSink s1 = new MockSink(1);
+    s1.setName("s1");
+    s1.setChannel(ch);
+    s1.setDelay(20);
+
+    MockSink s2 = new MockSink(2);
+    s2.setName("s2");
+    s2.setChannel(ch);
+
+    List<Sink> sinks = new ArrayList<Sink>();
+    sinks.add(s1);
+    sinks.add(s2);
+
+    LoadBalancingSinkProcessor lbsp = getProcessor("latency", sinks, false);
+
+    Sink.Status s = Sink.Status.READY;
+    while (s != Sink.Status.BACKOFF) {
+      s = lbsp.process();
+    }
+    lbsp.stop();
+
+    Assert.assertEquals(n, s1.getEvents().size() + s2.getEvents().size());
+    // the slow sink is only used until it has been measured once
+    Assert.assertTrue(s1.getEvents().size() <= 2);
+  }
+
+  @Test
+  public void testLatencyOneActiveSink() throws Exception {
+    Channel ch = new MockChannel();
+    int n = 10;
+    for (int i = 0; i < n; i++) {
+      ch.put(new MockEvent("test" + i));
+    }
+
+    MockSink s1 = new MockSink(1);
+    s1.setName("s1");
+    s1.setChannel(ch);
+    s1.setFail(true);
+
+    MockSink s2 = new MockSink(2);
+    s2.setName("s2");
+    s2.setChannel(ch);
+
+    MockSink s3 = new MockSink(3);
+    s3.setName("s3");
+    s3.setChannel(ch);
+    s3.setFail(true);
+
+    List<Sink> sinks = new ArrayList<Sink>();
+    sinks.add(s1);
+    sinks.add(s2);
+    sinks.add(s3);
+
+    LoadBalancingSinkProcessor lbsp = getProcessor("latency", sinks, true);
+
+    Sink.Status s = Sink.Status.READY;
+    while (s != Sink.Status.BACKOFF) {
+      s = lbsp.process();
+    }
+    lbsp.stop();
+
+    Assert.assertTrue(s1.getEvents().size() == 0);
+    Assert.assertTrue(s2.getEvents().size() == n);
+    Assert.assertTrue(s3.getEvents().size() == 0);
+  }
+
   private static class MockSink extends AbstractSink {
 
     private final int id;
@@ -631,6 +705,8 @@ public class TestLoadBalancingSinkProcessor {
 
     private boolean fail = false;
 
+    private long delay = 0;
+
     private MockSink(int id) {
       this.id = id;
     }
@@ -647,6 +723,10 @@ public class TestLoadBalancingSinkProcessor {
       fail = bFail;
     }
 
+    void setDelay(long millis) {
+      delay = millis;
+    }
+
     @Override
     public Status process() throws EventDeliveryException {
       if (fail) {
@@ -656,6 +736,13 @@ public class TestLoadBalancingSinkProcessor {
       if (e == null) {
         return Status.BACKOFF;
       }
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
 
       events.add(e);
       return Status.READY;
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.source;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAdmissionController {
+
+  private MemoryChannel channel;
+  private ChannelProcessor processor;
+  private AdmissionController controller;
+
+  @Before
+  public void setUp() {
+    channel = new MemoryChannel();
+    Context channelContext = new Context();
+    channelContext.put("capacity", "10");
+    channelContext.put("transactionCapacity", "10");
+    Configurables.configure(channel, channelContext);
+
+    List<Channel> channels = new ArrayList<Channel>();
+    channels.add(channel);
+    ChannelSelector rcs = new ReplicatingChannelSelector();
+    rcs.setChannels(channels);
+    processor = new ChannelProcessor(rcs);
+
+    controller = new AdmissionController();
+  }
+
+  private void fill(int events) {
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    for (int i = 0; i < events; i++) {
+      channel.put(EventBuilder.withBody(new byte[1]));
+    }
+    tx.commit();
+    tx.close();
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    controller.configure(new Context());
+    fill(10);
+    Assert.assertTrue(controller.admit(processor, 1));
+  }
+
+  @Test
+  public void testWatermark() {
+    Context context = new Context();
+    context.put("admission.highWatermark", "50");
+    controller.configure(context);
+
+    fill(5);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(controller.admit(processor, 1));
+    }
+    fill(5);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertFalse(controller.admit(processor, 1));
+      Assert.assertFalse(controller.admit(processor, -1));
+    }
+    // requests without events are health checks
+    Assert.assertTrue(controller.admit(processor, 0));
+  }
+
+  @Test
+  public void testRetryAfter() {
+    Context context = new Context();
+    context.put("admission.retryAfter", "2000");
+    controller.configure(context);
+    for (int i = 0; i < 100; i++) {
+      long retryAfter = controller.getRetryAfterMillis();
+      Assert.assertTrue(retryAfter >= 1000);
+      Assert.assertTrue(retryAfter <= 3000);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidWatermark() {
+    Context context = new Context();
+    context.put("admission.highWatermark", "101");
+    controller.configure(context);
+  }
+}
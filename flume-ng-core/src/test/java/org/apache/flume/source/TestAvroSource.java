@@ -29,6 +29,7 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.Executors;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -43,10 +44,14 @@ import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.FlumeException;
 import org.apache.flume.Transaction;
+import org.apache.flume.api.RpcClient;
+import org.apache.flume.api.RpcClientFactory;
+import org.apache.flume.api.TryLaterException;
 import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.ReplicatingChannelSelector;
 import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
 import org.apache.flume.lifecycle.LifecycleController;
 import org.apache.flume.lifecycle.LifecycleState;
 import org.apache.flume.source.avro.AvroFlumeEvent;
@@ -174,6 +179,144 @@ public class TestAvroSource {
     doRequest(false, true, 6);
   }
 
+  @Test
+  public void testRequestWithSnappyOnClientAndServer() throws Exception {
+    doSnappyRequest(true);
+  }
+
+  @Test
+  public void testRequestWithSnappyOnServerOnly() throws Exception {
+    // the server keeps serving clients which do not use snappy
+    doSnappyRequest(false);
+  }
+
+  @Test
+  public void testTryLaterWhenChannelFull() throws Exception {
+    Context channelContext = new Context();
+    channelContext.put("capacity", "10");
+    channelContext.put("transactionCapacity", "10");
+    channelContext.put("keep-alive", "0");
+    Configurables.configure(channel, channelContext);
+
+    boolean bound = false;
+
+    for (int i = 0; i < 100 && !bound; i++) {
+      try {
+        Context context = new Context();
+        context.put("port", String.valueOf(selectedPort = 41414 + i));
+        context.put("bind", "0.0.0.0");
+        Configurables.configure(source, context);
+
+        source.start();
+        bound = true;
+      } catch (ChannelException e) {
+        /*
+         * NB: This assume we're using the Netty server under the hood and the
+         * failure is to bind. Yucky.
+         */
+      }
+    }
+
+    Assert.assertEquals("Server is started", LifecycleState.START,
+        source.getLifecycleState());
+
+    Properties props = new Properties();
+    props.put("hosts", "h1");
+    props.put("hosts.h1", "127.0.0.1:" + selectedPort);
+    RpcClient client = RpcClientFactory.getInstance(props);
+
+    List<Event> events = new ArrayList<Event>();
+    for (int i = 0; i < 10; i++) {
+      events.add(EventBuilder.withBody(String.valueOf(i).getBytes()));
+    }
+    client.appendBatch(events);
+
+    try {
+      client.append(EventBuilder.withBody("full".getBytes()));
+      Assert.fail("Append to a full channel should fail");
+    } catch (TryLaterException e) {
+      Assert.assertTrue(e.getRetryAfterMillis() >= 500);
+      Assert.assertTrue(e.getRetryAfterMillis() <= 1500);
+    }
+    // the client backs off without sending, but keeps its connection
+    try {
+      client.append(EventBuilder.withBody("full".getBytes()));
+      Assert.fail("Client should back off");
+    } catch (TryLaterException e) {
+      // expected
+    }
+    Assert.assertTrue(client.isActive());
+
+    client.close();
+    source.stop();
+  }
+
+  private void doSnappyRequest(boolean clientEnableSnappy) throws Exception {
+    boolean bound = false;
+
+    for (int i = 0; i < 100 && !bound; i++) {
+      try {
+        Context context = new Context();
+        context.put("port", String.valueOf(selectedPort = 41414 + i));
+        context.put("bind", "0.0.0.0");
+        context.put("compression-type", "snappy");
+        Configurables.configure(source, context);
+
+        source.start();
+        bound = true;
+      } catch (ChannelException e) {
+        /*
+         * NB: This assume we're using the Netty server under the hood and the
+         * failure is to bind. Yucky.
+         */
+      }
+    }
+
+    Assert
+        .assertTrue("Reached start or error", LifecycleController.waitForOneOf(
+            source, LifecycleState.START_OR_ERROR));
+    Assert.assertEquals("Server is started", LifecycleState.START,
+        source.getLifecycleState());
+
+    Properties props = new Properties();
+    props.put("hosts", "h1");
+    props.put("hosts.h1", "127.0.0.1:" + selectedPort);
+    if (clientEnableSnappy) {
+      props.put("compression-type", "snappy");
+    }
+    RpcClient client = RpcClientFactory.getInstance(props);
+
+    List<Event> events = new ArrayList<Event>();
+    for (int i = 0; i < 50; i++) {
+      events.add(EventBuilder.withBody(("Hello avro, this is event number " +
+          i + " of a batch of similar events").getBytes()));
+    }
+    // twice, so that more than the first request is decoded
+    client.appendBatch(events);
+    client.appendBatch(events);
+
+    Transaction transaction = channel.getTransaction();
+    transaction.begin();
+    for (int j = 0; j < 2; j++) {
+      for (int i = 0; i < 50; i++) {
+        Event event = channel.take();
+        Assert.assertNotNull(event);
+        Assert.assertEquals(new String(events.get(i).getBody()),
+            new String(event.getBody()));
+      }
+    }
+    Assert.assertNull(channel.take());
+    transaction.commit();
+    transaction.close();
+
+    client.close();
+    source.stop();
+    Assert.assertTrue("Reached stop or error",
+        LifecycleController.waitForOneOf(source, LifecycleState.STOP_OR_ERROR));
+    Assert.assertEquals("Server is stopped", LifecycleState.STOP,
+        source.getLifecycleState());
+  }
+
   private void doRequest(boolean serverEnableCompression, boolean clientEnableCompression,
                          int compressionLevel) throws InterruptedException, IOException {
     boolean bound = false;
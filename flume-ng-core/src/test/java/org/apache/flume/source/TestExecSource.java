@@ -34,6 +34,7 @@ import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.ReplicatingChannelSelector;
 import org.apache.flume.conf.Configurables;
+import org.apache.flume.instrumentation.ExecSourceCounter;
 import org.apache.flume.lifecycle.LifecycleException;
 import org.junit.After;
 import org.junit.Assert;
@@ -329,6 +330,89 @@ public class TestExecSource {
     FileUtils.forceDelete(file);
   }
 
+  @Test
+  public void testBufferedLineEndings() throws InterruptedException, IOException {
+    File inputFile = File.createTempFile("input", null);
+    FileUtils.forceDeleteOnExit(inputFile);
+    FileUtils.writeStringToFile(inputFile, "line1\r\nline2\rline3\n\nline4");
+
+    context.put(ExecSourceConfigurationConstants.CONFIG_BUFFER_CAPACITY, "100");
+    context.put("command", "cat " + inputFile.getAbsolutePath());
+    Configurables.configure(source, context);
+    source.start();
+    ExecSourceCounter counter = ((ExecSource) source).getSourceCounter();
+    waitForAccepted(counter, 5);
+
+    Transaction transaction = channel.getTransaction();
+    transaction.begin();
+    List<String> output = Lists.newArrayList();
+    Event event;
+    while ((event = channel.take()) != null) {
+      output.add(new String(event.getBody(), Charsets.UTF_8));
+    }
+    transaction.commit();
+    transaction.close();
+    Assert.assertEquals(Lists.newArrayList("line1", "line2", "line3", "", "line4"), output);
+  }
+
+  @Test
+  public void testBufferedReadingNotBlockedByChannel() throws InterruptedException {
+    Channel smallChannel = new MemoryChannel();
+    Context channelContext = new Context();
+    channelContext.put("keep-alive", "0");
+    channelContext.put("capacity", "10");
+    channelContext.put("transactionCapacity", "10");
+    Configurables.configure(smallChannel, channelContext);
+    ChannelSelector selector = new ReplicatingChannelSelector();
+    selector.setChannels(Lists.newArrayList(smallChannel));
+    source.setChannelProcessor(new ChannelProcessor(selector));
+
+    context.put(ExecSourceConfigurationConstants.CONFIG_BUFFER_CAPACITY, "1000");
+    context.put(ExecSourceConfigurationConstants.CONFIG_BATCH_SIZE, "5");
+    context.put(ExecSourceConfigurationConstants.CONFIG_BATCH_TIME_OUT, "100");
+    context.put("shell", "/bin/bash -c");
+    context.put("command", "for i in {1..300}; do echo $i; done");
+    Configurables.configure(source, context);
+    source.start();
+    ExecSourceCounter counter = ((ExecSource) source).getSourceCounter();
+
+    // the whole output is read while the channel only holds 10 events
+    long deadline = System.currentTimeMillis() + 10000;
+    while (counter.getEventReceivedCount() < 300 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    Assert.assertEquals(300, counter.getEventReceivedCount());
+    Assert.assertEquals(10, counter.getEventAcceptedCount());
+    Assert.assertTrue(counter.getBufferDepth() > 0);
+
+    List<String> output = Lists.newArrayList();
+    deadline = System.currentTimeMillis() + 30000;
+    while (output.size() < 300 && System.currentTimeMillis() < deadline) {
+      Transaction transaction = smallChannel.getTransaction();
+      transaction.begin();
+      Event event;
+      for (int i = 0; i < 10 && (event = smallChannel.take()) != null; i++) {
+        output.add(new String(event.getBody(), Charsets.UTF_8));
+      }
+      transaction.commit();
+      transaction.close();
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(300, output.size());
+    for (int i = 0; i < 300; i++) {
+      Assert.assertEquals(String.valueOf(i + 1), output.get(i));
+    }
+  }
+
+  private static void waitForAccepted(ExecSourceCounter counter, long count)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (counter.getEventAcceptedCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    Assert.assertEquals(count, counter.getEventAcceptedCount());
+  }
+
   private void runTestShellCmdHelper(String shell, String command, String[] expectedOutput)
       throws InterruptedException, LifecycleException, EventDeliveryException, IOException {
     context.put("shell", shell);
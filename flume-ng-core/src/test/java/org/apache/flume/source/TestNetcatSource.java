@@ -46,7 +46,9 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TestNetcatSource {
   private static final Logger logger =
@@ -305,8 +307,156 @@ public class TestNetcatSource {
     }
   }
 
+  /**
+   * Test that the event loop acks every event once it is in the channel
+   *
+   * @throws InterruptedException
+   * @throws IOException
+   */
+  @Test
+  public void testEventLoopAck() throws InterruptedException, IOException {
+    String encoding = "UTF-16BE";
+    String ackEvent = "OK";
+    startSource(encoding, "true", "100", "512", true);
+    Socket netcatSocket = new Socket(localhost, selectedPort);
+    LineIterator inputLineIterator = IOUtils.lineIterator(netcatSocket.getInputStream(), encoding);
+    try {
+      for (int i = 0; i < 20; i++) {
+        sendEvent(netcatSocket, french, encoding);
+        Assert.assertEquals("Socket contained the Ack", ackEvent, inputLineIterator.nextLine());
+        Assert.assertArrayEquals("Channel contained our event", french.getBytes(defaultCharset),
+            getFlumeEvent());
+      }
+    } finally {
+      netcatSocket.close();
+      stopSource();
+    }
+  }
+
+  /**
+   * Test that the event loop batches lines from several connections and acks
+   * each of them
+   *
+   * @throws InterruptedException
+   * @throws IOException
+   */
+  @Test
+  public void testEventLoopBatches() throws InterruptedException, IOException {
+    String encoding = "UTF-8";
+    Context channelContext = new Context();
+    channelContext.put("capacity", "1000");
+    channelContext.put("transactionCapacity", "100");
+    Configurables.configure(channel, channelContext);
+
+    startSource(encoding, "true", "100", "512", true);
+    Socket socket1 = new Socket(localhost, selectedPort);
+    Socket socket2 = new Socket(localhost, selectedPort);
+    try {
+      StringBuilder lines = new StringBuilder();
+      for (int i = 0; i < 250; i++) {
+        lines.append(english).append(IOUtils.LINE_SEPARATOR_UNIX);
+      }
+      IOUtils.write(lines.toString(), socket1.getOutputStream(), encoding);
+      IOUtils.write(lines.toString(), socket2.getOutputStream(), encoding);
+
+      LineIterator acks1 = IOUtils.lineIterator(socket1.getInputStream(), encoding);
+      LineIterator acks2 = IOUtils.lineIterator(socket2.getInputStream(), encoding);
+      for (int i = 0; i < 250; i++) {
+        Assert.assertEquals("OK", acks1.nextLine());
+        Assert.assertEquals("OK", acks2.nextLine());
+      }
+      for (int i = 0; i < 500; i++) {
+        Assert.assertArrayEquals("Channel contained our event", english.getBytes(defaultCharset),
+            getFlumeEvent());
+      }
+      Assert.assertNull(getRawFlumeEvent());
+    } finally {
+      socket1.close();
+      socket2.close();
+      stopSource();
+    }
+  }
+
+  /**
+   * Test that the event loop fails the pending lines and keeps serving
+   * connections when processing a batch throws a RuntimeException, e.g.
+   * from an interceptor
+   *
+   * @throws InterruptedException
+   * @throws IOException
+   */
+  @Test
+  public void testEventLoopSurvivesRuntimeException()
+      throws InterruptedException, IOException {
+    String encoding = "UTF-8";
+    ChannelSelector rcs = new ReplicatingChannelSelector();
+    rcs.setChannels(Collections.singletonList(channel));
+    final AtomicBoolean fail = new AtomicBoolean(true);
+    source.setChannelProcessor(new ChannelProcessor(rcs) {
+      @Override
+      public void processEventBatch(List<Event> events) {
+        if (fail.getAndSet(false)) {
+          throw new IllegalStateException("broken interceptor");
+        }
+        super.processEventBatch(events);
+      }
+    });
+
+    startSource(encoding, "true", "100", "512", true);
+    Socket netcatSocket = new Socket(localhost, selectedPort);
+    LineIterator inputLineIterator = IOUtils.lineIterator(netcatSocket.getInputStream(), encoding);
+    try {
+      sendEvent(netcatSocket, english, encoding);
+      Assert.assertEquals("Socket contained the Error Ack", "FAILED: broken interceptor",
+          inputLineIterator.nextLine());
+      sendEvent(netcatSocket, french, encoding);
+      Assert.assertEquals("Socket contained the Ack", "OK", inputLineIterator.nextLine());
+      Assert.assertArrayEquals("Channel contained our event", french.getBytes(defaultCharset),
+          getFlumeEvent());
+    } finally {
+      netcatSocket.close();
+      stopSource();
+    }
+  }
+
+  /**
+   * Test that the event loop drops connections sending lines above
+   * MaxLineLength
+   *
+   * @throws InterruptedException
+   * @throws IOException
+   */
+  @Test
+  public void testEventLoopMaxLineLengthwithAck() throws InterruptedException, IOException {
+    String encoding = "UTF-8";
+    String ackEvent = "OK";
+    String ackErrorEvent = "FAILED: Event exceeds the maximum length (10 chars, including newline)";
+    startSource(encoding, "true", "100", "10", true);
+    Socket netcatSocket = new Socket(localhost, selectedPort);
+    LineIterator inputLineIterator = IOUtils.lineIterator(netcatSocket.getInputStream(), encoding);
+    try {
+      sendEvent(netcatSocket, "123456789", encoding);
+      Assert.assertEquals("Socket contained the Ack", ackEvent, inputLineIterator.nextLine());
+      Assert.assertArrayEquals("Channel contained our event",
+                               "123456789".getBytes(defaultCharset), getFlumeEvent());
+      sendEvent(netcatSocket, english, encoding);
+      Assert.assertEquals("Socket contained the Error Ack", ackErrorEvent, inputLineIterator
+          .nextLine());
+      Assert.assertFalse("Connection was closed", inputLineIterator.hasNext());
+      Assert.assertEquals("Channel does not contain an event", null, getRawFlumeEvent());
+    } finally {
+      netcatSocket.close();
+      stopSource();
+    }
+  }
+
   private void startSource(String encoding, String ack, String batchSize, String maxLineLength)
       throws InterruptedException {
+    startSource(encoding, ack, batchSize, maxLineLength, false);
+  }
+
+  private void startSource(String encoding, String ack, String batchSize, String maxLineLength,
+      boolean eventLoop) throws InterruptedException {
     boolean bound = false;
 
     for (int i = 0; i < 100 && !bound; i++) {
@@ -318,6 +468,7 @@ public class TestNetcatSource {
         context.put("encoding", encoding);
         context.put("batch-size", batchSize);
         context.put("max-line-length", maxLineLength);
+        context.put("event-loop", String.valueOf(eventLoop));
 
         Configurables.configure(source, context);
 
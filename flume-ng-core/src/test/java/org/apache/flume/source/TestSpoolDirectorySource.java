@@ -41,7 +41,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class TestSpoolDirectorySource {
@@ -406,6 +408,57 @@ public class TestSpoolDirectorySource {
     source.stop();
   }
 
+  @Test
+  public void testParallelReaders() throws IOException, InterruptedException {
+    Context context = new Context();
+    for (int i = 0; i < 4; i++) {
+      StringBuilder lines = new StringBuilder();
+      for (int j = 0; j < 5; j++) {
+        lines.append("file" + i + "line" + j + "\n");
+      }
+      Files.write(lines.toString(), new File(tmpDir, "file" + i), Charsets.UTF_8);
+    }
+
+    context.put(SpoolDirectorySourceConfigurationConstants.SPOOL_DIRECTORY,
+        tmpDir.getAbsolutePath());
+    context.put(SpoolDirectorySourceConfigurationConstants.BASENAME_HEADER,
+        "true");
+    context.put(SpoolDirectorySourceConfigurationConstants.BATCH_SIZE, "2");
+    context.put(SpoolDirectorySourceConfigurationConstants.READERS, "3");
+    Configurables.configure(source, context);
+    source.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (source.getSourceCounter().getEventAcceptedCount() < 20 &&
+        System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(20, source.getSourceCounter().getEventAcceptedCount());
+
+    // events of a file come in order, whichever reader read it
+    Map<String, List<String>> lines = new HashMap<String, List<String>>();
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    for (int i = 0; i < 20; i++) {
+      Event e = channel.take();
+      String file = e.getHeaders().get("basename");
+      if (!lines.containsKey(file)) {
+        lines.put(file, new ArrayList<String>());
+      }
+      lines.get(file).add(new String(e.getBody()));
+    }
+    txn.commit();
+    txn.close();
+    Assert.assertEquals(4, lines.size());
+    for (int i = 0; i < 4; i++) {
+      List<String> expected = Lists.newArrayList();
+      for (int j = 0; j < 5; j++) {
+        expected.add("file" + i + "line" + j);
+      }
+      Assert.assertEquals(expected, lines.get("file" + i));
+    }
+    source.stop();
+  }
+
   @Test
   public void testEndWithZeroByteFiles() throws IOException, InterruptedException {
     Context context = new Context();
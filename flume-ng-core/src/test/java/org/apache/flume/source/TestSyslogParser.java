@@ -21,6 +21,9 @@ package org.apache.flume.source;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import org.apache.flume.Event;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Assert;
@@ -29,7 +32,9 @@ import org.junit.Test;
 import java.nio.charset.Charset;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.TimeZone;
 
 public class TestSyslogParser {
   @Test
@@ -108,4 +113,124 @@ public class TestSyslogParser {
           event.getHeaders().get(SyslogUtils.EVENT_STATUS));
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testHeaderParsing() {
+    SyslogParser parser = new SyslogParser();
+    SyslogParser.Header header = new SyslogParser.Header();
+
+    byte[] msg = ("xx<165>1 2003-08-24T05:14:15.000003-07:00 192.0.2.1 myproc " +
+        "8710 - - %% It's time").getBytes(Charsets.US_ASCII);
+    Assert.assertTrue(parser.parseHeader(msg, 2, msg.length - 2, header));
+    Assert.assertEquals(165, header.getPriority());
+    Assert.assertEquals(20, header.getFacility());
+    Assert.assertEquals(5, header.getSeverity());
+    Assert.assertEquals("1", header.getVersionString());
+    Assert.assertEquals("2003-08-24T05:14:15.000003-07:00", header.getTimestampString());
+    Assert.assertEquals(ISODateTimeFormat.dateTimeParser().parseMillis(
+        "2003-08-24T05:14:15.000-07:00"), header.getTimestamp());
+    Assert.assertEquals("192.0.2.1", header.getHostname());
+    Assert.assertEquals("myproc 8710 - - %% It's time",
+        new String(header.getBody(null), Charsets.US_ASCII));
+
+    msg = "<34>1 - - su - ID47".getBytes(Charsets.US_ASCII);
+    Assert.assertTrue(parser.parseHeader(msg, 0, msg.length, header));
+    Assert.assertTrue(header.isNilTimestamp());
+    Assert.assertEquals(SyslogParser.NO_TIMESTAMP, header.getTimestamp());
+    Assert.assertTrue(header.isNilHostname());
+
+    msg = "<13>Feb  5 17:32:18 10.0.0.99 Use the BFG!".getBytes(Charsets.US_ASCII);
+    Assert.assertTrue(parser.parseHeader(msg, 0, msg.length, header));
+    Assert.assertFalse(header.hasVersion());
+    Assert.assertEquals("Feb  5 17:32:18", header.getTimestampString());
+    Assert.assertEquals("10.0.0.99", header.getHostname());
+
+    Set<String> keepFields = new HashSet<String>();
+    keepFields.add(SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS_PRIORITY);
+    keepFields.add(SyslogSourceConfigurationConstants.CONFIG_KEEP_FIELDS_HOSTNAME);
+    Assert.assertEquals("<13>10.0.0.99 Use the BFG!",
+        new String(header.getBody(keepFields), Charsets.US_ASCII));
+
+    String[] bad = {
+      "", "no priority", "<> empty", "<1234>too long", "<13>", "<13>1 ",
+      "<13>Foo  5 17:32:18 host body", "<13>2003-08-24 05:14:15Z host body",
+      "<13>2003-08-24T05:14:15+0700 host body", "<13>2003-08-24T05:14:15Z host"
+    };
+    for (String ex : bad) {
+      msg = ex.getBytes(Charsets.US_ASCII);
+      Assert.assertFalse("Parsed bad header: " + ex,
+          parser.parseHeader(msg, 0, msg.length, header));
+    }
+
+    // well formed but no such date
+    msg = "<13>2003-02-30T05:14:15Z host body".getBytes(Charsets.US_ASCII);
+    Assert.assertTrue(parser.parseHeader(msg, 0, msg.length, header));
+    Assert.assertEquals(SyslogParser.NO_TIMESTAMP, header.getTimestamp());
+  }
+
+  @Test
+  public void testTimestampCache() {
+    SyslogParser parser = new SyslogParser(TimeZone.getTimeZone("America/Los_Angeles"));
+    DateTimeFormatter jodaParser = ISODateTimeFormat.dateTimeParser()
+        .withZone(DateTimeZone.forID("America/Los_Angeles"));
+
+    // the same second with different fractions and zones, then other seconds
+    final String[] examples = {
+      "2012-04-13T11:11:11", "2012-04-13T11:11:11.5", "2012-04-13T11:11:11Z",
+      "2012-04-13T11:11:11.250-08:00", "2012-04-13T11:11:12", "2012-04-13T11:11:11",
+      "2012-01-13T11:11:11", "2000-02-29T23:59:59.999Z", "1969-12-31T23:59:59Z"
+    };
+    for (String ex : examples) {
+      Assert.assertEquals("Problem parsing date string: " + ex,
+          jodaParser.parseMillis(ex), parser.parseRfc5424Date(ex));
+    }
+  }
+
+  @Test
+  public void testRfc3164YearWindow() {
+    SyslogParser parser = new SyslogParser();
+    DateTimeFormatter format = DateTimeFormat.forPattern("MMM dd HH:mm:ss")
+        .withLocale(Locale.ENGLISH).withZoneUTC();
+    DateTime now = new DateTime(DateTimeZone.UTC).withMillisOfSecond(0);
+    for (int months = -10; months <= 0; months++) {
+      DateTime date = now.plusMonths(months);
+      Assert.assertEquals(date.getMillis(),
+          parser.parseRfc3164Time(format.print(date)));
+    }
+    Assert.assertEquals(now.minusMonths(13).plusYears(1).getMillis(),
+        parser.parseRfc3164Time(format.print(now.minusMonths(13))));
+    Assert.assertEquals(now.plusMonths(2).minusYears(1).getMillis(),
+        parser.parseRfc3164Time(format.print(now.plusMonths(2))));
+  }
+
+  @Test
+  public void testSyslogUtilsCompat() {
+    SyslogParser parser = new SyslogParser(TimeZone.getTimeZone("America/Los_Angeles"),
+        SyslogParser.Compat.SYSLOG_UTILS);
+    DateTimeFormatter local = ISODateTimeFormat.dateTimeParser()
+        .withZone(DateTimeZone.forID("America/Los_Angeles"));
+
+    // a fraction is a number of milliseconds and hides the offset after it
+    Assert.assertEquals(local.parseMillis("2012-04-13T11:11:11.005"),
+        parser.parseRfc5424Date("2012-04-13T11:11:11.5+02:00"));
+    Assert.assertEquals(local.parseMillis("2012-04-13T11:11:11.123"),
+        parser.parseRfc5424Date("2012-04-13T11:11:11.123456Z"));
+    Assert.assertEquals(local.parseMillis("2012-04-13T18:11:11Z"),
+        parser.parseRfc5424Date("2012-04-13T11:11:11-07:00"));
+
+    SyslogParser.Header header = new SyslogParser.Header();
+    String[] bad = {
+      "<13>2012-04-13T11:11:11.1234567Z host body", "<13>FEB  5 17:32:18 host body",
+      "<13>Feb  5 17:32:18 -host body", "<13>Feb  5 17:32:18 - body",
+      "<13>2012-04-13T11:11:11Z host:1 body"
+    };
+    for (String ex : bad) {
+      byte[] msg = ex.getBytes(Charsets.US_ASCII);
+      Assert.assertFalse("Parsed bad header: " + ex,
+          parser.parseHeader(msg, 0, msg.length, header));
+    }
+    byte[] msg = "<13>1 - - body".getBytes(Charsets.US_ASCII);
+    Assert.assertTrue(parser.parseHeader(msg, 0, msg.length, header));
+    Assert.assertTrue(header.isNilHostname());
+  }
+}
@@ -58,6 +58,10 @@ public class TestSyslogTcpSource {
       data1 + "\n";
 
   private void init(String keepFields) {
+    init(keepFields, new Context());
+  }
+
+  private void init(String keepFields, Context context) {
     source = new SyslogTcpSource();
     channel = new MemoryChannel();
 
@@ -70,7 +74,6 @@ public class TestSyslogTcpSource {
     rcs.setChannels(channels);
 
     source.setChannelProcessor(new ChannelProcessor(rcs));
-    Context context = new Context();
     context.put("port", String.valueOf(TEST_SYSLOG_PORT));
     context.put("keepFields", keepFields);
 
@@ -153,6 +156,37 @@ public class TestSyslogTcpSource {
     runKeepFieldsTest("timestamp");
   }
 
+  @Test
+  public void testBatchLinger() throws Exception {
+    Context context = new Context();
+    context.put("batchSize", "5");
+    context.put("batchLinger", "200");
+    init("none", context);
+    source.start();
+
+    InetSocketAddress addr = source.getBoundAddress();
+    try (Socket syslogSocket = new Socket(addr.getAddress(), addr.getPort())) {
+      StringBuilder events = new StringBuilder();
+      for (int i = 0; i < 7; i++) {
+        events.append(bodyWithTandH);
+      }
+      syslogSocket.getOutputStream().write(events.toString().getBytes());
+      syslogSocket.getOutputStream().flush();
+
+      // the first full batch is written at once, the rest once the linger
+      // time has passed
+      long deadline = System.currentTimeMillis() + 5000;
+      while (source.getSourceCounter().getEventAcceptedCount() < 7 &&
+          System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(7, source.getSourceCounter().getEventAcceptedCount());
+    } finally {
+      source.stop();
+    }
+    Assert.assertEquals(7, source.getSourceCounter().getEventReceivedCount());
+  }
+
   @Test
   public void testSourceCounter() throws IOException {
     runKeepFieldsTest("all");
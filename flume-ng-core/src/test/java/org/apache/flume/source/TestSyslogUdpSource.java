@@ -19,6 +19,7 @@
 package org.apache.flume.source;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelSelector;
 import org.apache.flume.Context;
@@ -33,6 +34,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -61,6 +63,10 @@ public class TestSyslogUdpSource {
       data1;
 
   private void init(String keepFields) {
+    init(keepFields, new Context());
+  }
+
+  private void init(String keepFields, Context context) {
     source = new SyslogUDPSource();
     channel = new MemoryChannel();
 
@@ -73,7 +79,6 @@ public class TestSyslogUdpSource {
     rcs.setChannels(channels);
 
     source.setChannelProcessor(new ChannelProcessor(rcs));
-    Context context = new Context();
     context.put("host", InetAddress.getLoopbackAddress().getHostAddress());
     context.put("port", String.valueOf(TEST_SYSLOG_PORT));
     context.put("keepFields", keepFields);
@@ -206,6 +211,94 @@ public class TestSyslogUdpSource {
     Assert.assertEquals(1, source.getSourceCounter().getEventReceivedCount());
   }
 
+  @Test
+  public void testReaders() throws Exception {
+    Context context = new Context();
+    context.put("readers", "3");
+    context.put("batchSize", "7");
+    context.put("receiveBufferBytes", "262144");
+    init("none", context);
+    source.start();
+
+    DatagramPacket datagramPacket = createDatagramPacket(bodyWithTandH.getBytes());
+    for (int i = 0; i < 50; i++) {
+      sendDatagramPacket(datagramPacket);
+    }
+
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    for (int i = 0; i < 50; i++) {
+      Event e = null;
+      for (int j = 0; j < 50 && e == null; j++) {
+        e = channel.take();
+        if (e == null) {
+          Thread.sleep(100);
+        }
+      }
+      Assert.assertNotNull(e);
+      Assert.assertArrayEquals(data1.getBytes(), e.getBody());
+      Assert.assertEquals(host1, e.getHeaders().get("host"));
+    }
+    commitAndCloseTransaction(txn);
+
+    for (int i = 0; i < 10 && source.getSourceCounter().getEventAcceptedCount() < 50; i++) {
+      Thread.sleep(100);
+    }
+    source.stop();
+    Assert.assertEquals(50, source.getSourceCounter().getEventReceivedCount());
+    Assert.assertEquals(50, source.getSourceCounter().getEventAcceptedCount());
+  }
+
+  @Test
+  public void testReadersBatchLinger() throws Exception {
+    Context context = new Context();
+    context.put("readers", "1");
+    context.put("batchSize", "100");
+    context.put("batchLinger", "200");
+    init("none", context);
+    source.start();
+
+    DatagramPacket datagramPacket = createDatagramPacket(bodyWithTandH.getBytes());
+    for (int i = 0; i < 3; i++) {
+      sendDatagramPacket(datagramPacket);
+    }
+
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    for (int i = 0; i < 3; i++) {
+      Event e = null;
+      for (int j = 0; j < 50 && e == null; j++) {
+        e = channel.take();
+        if (e == null) {
+          Thread.sleep(100);
+        }
+      }
+      Assert.assertNotNull(e);
+    }
+    commitAndCloseTransaction(txn);
+    source.stop();
+    Assert.assertEquals(3, source.getSourceCounter().getEventAcceptedCount());
+  }
+
+  @Test
+  public void testReadDropCount() throws Exception {
+    File table = File.createTempFile("udp", null);
+    table.deleteOnExit();
+    Files.write(
+        "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when " +
+        "retrnsmt   uid  timeout inode ref pointer drops\n" +
+        "  120: 00000000:15E0 00000000:0000 07 00000000:00000000 00:00000000 " +
+        "00000000   100        0 31415 2 0000000000000000 12\n" +
+        "  121: 0100007F:15E0 00000000:0000 07 00000000:00000000 00:00000000 " +
+        "00000000   100        0 31416 2 0000000000000000 30\n" +
+        "  122: 00000000:0202 00000000:0000 07 00000000:00000000 00:00000000 " +
+        "00000000   100        0 31417 2 0000000000000000 99\n",
+        table, Charsets.US_ASCII);
+    Assert.assertEquals(42, SyslogUDPSource.readDropCount(table, 5600));
+    Assert.assertEquals(99, SyslogUDPSource.readDropCount(table, 514));
+    Assert.assertEquals(0, SyslogUDPSource.readDropCount(table, 5140));
+  }
+
   private DatagramPacket createDatagramPacket(byte[] payload) {
     InetSocketAddress addr = source.getBoundAddress();
     return new DatagramPacket(payload, payload.length, addr.getAddress(), addr.getPort());
@@ -30,6 +30,7 @@ import org.apache.flume.Transaction;
 import org.apache.flume.api.RpcClient;
 import org.apache.flume.api.RpcClientConfigurationConstants;
 import org.apache.flume.api.RpcClientFactory;
+import org.apache.flume.api.TryLaterException;
 import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.ReplicatingChannelSelector;
@@ -194,6 +195,45 @@ public class TestThriftSource {
     }
   }
 
+  @Test
+  public void testAppendToFullChannel() throws Exception {
+    try {
+      appendToFullChannel(false);
+      Assert.fail("Append to a full channel should fail");
+    } catch (TryLaterException e) {
+      Assert.fail("Clients should only be asked to try later if configured");
+    } catch (EventDeliveryException e) {
+      // expected, the source answered FAILED
+    }
+  }
+
+  @Test(expected = TryLaterException.class)
+  public void testAppendToFullChannelTryLater() throws Exception {
+    appendToFullChannel(true);
+  }
+
+  private void appendToFullChannel(boolean tryLater) throws Exception {
+    client = RpcClientFactory.getThriftInstance(props);
+    Context context = new Context();
+    context.put("capacity", "10");
+    context.put("transactionCapacity", "10");
+    context.put("keep-alive", "0");
+    channel.configure(context);
+    configureSource();
+    context.put(ThriftSource.CONFIG_BIND, "0.0.0.0");
+    context.put(ThriftSource.CONFIG_PORT, String.valueOf(port));
+    context.put(ThriftSource.CONFIG_QUEUE_SIZE, "10");
+    context.put(ThriftSource.CONFIG_TRY_LATER, String.valueOf(tryLater));
+    Configurables.configure(source, context);
+    source.start();
+    List<Event> events = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      events.add(EventBuilder.withBody(String.valueOf(i).getBytes()));
+    }
+    client.appendBatch(events);
+    client.append(EventBuilder.withBody("full".getBytes()));
+  }
+
   @Test
   public void testAppendBigBatch() throws Exception {
     client = RpcClientFactory.getThriftInstance(props);
@@ -38,8 +38,10 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -53,6 +55,7 @@ import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
@@ -67,6 +70,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 import static org.fest.reflect.core.Reflection.field;
 
@@ -302,6 +306,77 @@ public class TestHTTPSource {
   }
 
 
+  @Test
+  public void testStreamingNDJSON() throws Exception {
+    int port = findFreePort();
+    HTTPSource streamingSource = new HTTPSource();
+    MemoryChannel streamingChannel = new MemoryChannel();
+    Configurables.configure(streamingChannel, new Context());
+    List<Channel> channels = new ArrayList<Channel>(1);
+    channels.add(streamingChannel);
+    ChannelSelector rcs = new ReplicatingChannelSelector();
+    rcs.setChannels(channels);
+    streamingSource.setChannelProcessor(new ChannelProcessor(rcs));
+    streamingChannel.start();
+
+    Context context = new Context();
+    context.put(HTTPSourceConfigurationConstants.CONFIG_PORT,
+        String.valueOf(port));
+    context.put(HTTPSourceConfigurationConstants.CONFIG_HANDLER,
+        NDJSONHandler.class.getName());
+    context.put(HTTPSourceConfigurationConstants.CONFIG_BATCH_SIZE, "2");
+    Configurables.configure(streamingSource, context);
+    streamingSource.start();
+    try {
+      HttpPost post = new HttpPost("http://0.0.0.0:" + port);
+      post.setEntity(gzipEntity("{\"headers\":{\"a\":\"1\"},\"body\":\"e1\"}\n"
+          + "{\"body\":\"e2\"}\n\n{\"body\":\"e3\"}\n"));
+      post.setHeader("Content-Encoding", "gzip");
+      HttpResponse response = httpClient.execute(post);
+      Assert.assertEquals(HttpServletResponse.SC_OK,
+          response.getStatusLine().getStatusCode());
+      Assert.assertEquals("3", response.getFirstHeader(
+          HTTPSource.ACCEPTED_EVENTS_HEADER).getValue());
+      EntityUtils.consume(response.getEntity());
+
+      // the events before the batch with the bad line are committed
+      post.setEntity(gzipEntity("{\"body\":\"e4\"}\n{\"body\":\"e5\"}\n"
+          + "{\"body\":\"e6\"}\n{\"body\": bad}\n"));
+      response = httpClient.execute(post);
+      Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST,
+          response.getStatusLine().getStatusCode());
+      Assert.assertEquals("2", response.getFirstHeader(
+          HTTPSource.ACCEPTED_EVENTS_HEADER).getValue());
+      EntityUtils.consume(response.getEntity());
+
+      Transaction tx = streamingChannel.getTransaction();
+      tx.begin();
+      Event e = streamingChannel.take();
+      Assert.assertEquals("1", e.getHeaders().get("a"));
+      Assert.assertEquals("e1", new String(e.getBody(), "UTF-8"));
+      for (String body : new String[] {"e2", "e3", "e4", "e5"}) {
+        Assert.assertEquals(body,
+            new String(streamingChannel.take().getBody(), "UTF-8"));
+      }
+      Assert.assertNull(streamingChannel.take());
+      tx.commit();
+      tx.close();
+    } finally {
+      streamingSource.stop();
+      streamingChannel.stop();
+    }
+  }
+
+  private static ByteArrayEntity gzipEntity(String text) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(text.getBytes("UTF-8"));
+    out.close();
+    ByteArrayEntity entity = new ByteArrayEntity(bytes.toByteArray());
+    entity.setContentType("application/x-ndjson");
+    return entity;
+  }
+
   private ResultWrapper putWithEncoding(String encoding, int n) throws Exception {
     Type listType = new TypeToken<List<JSONEvent>>() {}.getType();
     List<JSONEvent> events = Lists.newArrayList();
@@ -45,6 +45,34 @@ public class TestJSONHandler {
     handler = new JSONHandler();
   }
 
+  @Test
+  public void testEventReader() throws Exception {
+    String json = "[{\"headers\":{\"a\": \"b\"},\"body\": \"random_body\"},"
+            + "{\"headers\":{\"e\": \"f\"},\"body\": \"random_body2\"}]";
+    HttpServletRequest req = new FlumeHttpServletRequestWrapper(json);
+    StreamingHTTPSourceHandler.EventReader reader =
+            ((JSONHandler) handler).getEventReader(req);
+    Event e = reader.readEvent();
+    Assert.assertEquals("b", e.getHeaders().get("a"));
+    Assert.assertEquals("random_body", new String(e.getBody(),"UTF-8"));
+    e = reader.readEvent();
+    Assert.assertEquals("f", e.getHeaders().get("e"));
+    Assert.assertEquals("random_body2", new String(e.getBody(),"UTF-8"));
+    Assert.assertNull(reader.readEvent());
+    Assert.assertNull(reader.readEvent());
+    reader.close();
+  }
+
+  @Test(expected = HTTPBadRequestException.class)
+  public void testEventReaderBadEvent() throws Exception {
+    String json = "[{\"body\": \"random_body\"}, {\"body\": ]";
+    HttpServletRequest req = new FlumeHttpServletRequestWrapper(json);
+    StreamingHTTPSourceHandler.EventReader reader =
+            ((JSONHandler) handler).getEventReader(req);
+    Assert.assertNotNull(reader.readEvent());
+    reader.readEvent();
+  }
+
   @Test
   public void testMultipleEvents() throws Exception {
     String json = "[{\"headers\":{\"a\": \"b\"},\"body\": \"random_body\"},"
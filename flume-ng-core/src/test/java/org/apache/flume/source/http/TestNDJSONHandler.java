@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.source.http;
+
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import junit.framework.Assert;
+import org.apache.flume.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNDJSONHandler {
+
+  NDJSONHandler handler;
+
+  @Before
+  public void setUp() {
+    handler = new NDJSONHandler();
+  }
+
+  @Test
+  public void testMultipleEvents() throws Exception {
+    String ndjson = "{\"headers\":{\"a\": \"b\"},\"body\": \"random_body\"}\n"
+            + "\n"
+            + "{\"headers\":{\"e\": \"f\"},\"body\": \"random_body2\"}\n";
+    HttpServletRequest req = new FlumeHttpServletRequestWrapper(ndjson);
+    List<Event> deserialized = handler.getEvents(req);
+    Assert.assertEquals(2, deserialized.size());
+    Event e = deserialized.get(0);
+    Assert.assertEquals("b", e.getHeaders().get("a"));
+    Assert.assertEquals("random_body", new String(e.getBody(), "UTF-8"));
+    e = deserialized.get(1);
+    Assert.assertEquals("f", e.getHeaders().get("e"));
+    Assert.assertEquals("random_body2", new String(e.getBody(), "UTF-8"));
+  }
+
+  @Test
+  public void testEventReader() throws Exception {
+    String ndjson = "{\"body\": \"e1\"}\n{\"body\": \"e2\"}";
+    HttpServletRequest req = new FlumeHttpServletRequestWrapper(ndjson);
+    StreamingHTTPSourceHandler.EventReader reader =
+            handler.getEventReader(req);
+    Assert.assertEquals("e1", new String(reader.readEvent().getBody(),
+            "UTF-8"));
+    Assert.assertEquals("e2", new String(reader.readEvent().getBody(),
+            "UTF-8"));
+    Assert.assertNull(reader.readEvent());
+    reader.close();
+  }
+
+  @Test
+  public void testBadLine() throws Exception {
+    String ndjson = "{\"body\": \"e1\"}\n{\"body\": e2\n";
+    HttpServletRequest req = new FlumeHttpServletRequestWrapper(ndjson);
+    StreamingHTTPSourceHandler.EventReader reader =
+            handler.getEventReader(req);
+    Assert.assertNotNull(reader.readEvent());
+    try {
+      reader.readEvent();
+      Assert.fail("Bad line should fail");
+    } catch (HTTPBadRequestException ex) {
+      Assert.assertTrue(ex.getMessage().contains("line 2"));
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.tools;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class TestDirectoryWatcher {
+
+  private File dir;
+  private DirectoryWatcher watcher;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDir();
+    watcher = new DirectoryWatcher();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    watcher.close();
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testEntriesAndModifications() throws Exception {
+    Path path = dir.toPath();
+    assertTrue(watcher.register(path));
+    assertFalse(watcher.register(path));
+
+    File file = new File(dir, "file1");
+    Files.write("line1\n", file, Charsets.UTF_8);
+    Set<Path> entries = new HashSet<Path>();
+    Set<Path> modified = new HashSet<Path>();
+    waitFor(file.toPath(), entries, modified, entries);
+
+    Files.append("line2\n", file, Charsets.UTF_8);
+    waitFor(file.toPath(), entries, modified, modified);
+
+    entries.clear();
+    assertTrue(file.delete());
+    waitFor(file.toPath(), entries, modified, entries);
+  }
+
+  @Test
+  public void testWatchedDirectoryRemoved() throws Exception {
+    Path path = dir.toPath();
+    watcher.register(path);
+    assertTrue(dir.delete());
+
+    long deadline = System.currentTimeMillis() + 10000;
+    boolean complete = true;
+    while (complete && System.currentTimeMillis() < deadline) {
+      complete = watcher.poll(new HashSet<Path>(), new HashSet<Path>());
+      Thread.sleep(50);
+    }
+    assertFalse(complete);
+    assertFalse(watcher.isRegistered(path));
+  }
+
+  private void waitFor(Path path, Set<Path> entries, Set<Path> modified,
+      Set<Path> expectedIn) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!expectedIn.contains(path) && System.currentTimeMillis() < deadline) {
+      assertTrue(watcher.poll(entries, modified));
+      Thread.sleep(50);
+    }
+    assertTrue(expectedIn.contains(path));
+  }
+}
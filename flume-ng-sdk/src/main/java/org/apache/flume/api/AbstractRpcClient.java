@@ -20,12 +20,21 @@ package org.apache.flume.api;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public abstract class AbstractRpcClient implements RpcClient {
+public abstract class AbstractRpcClient implements AsyncRpcClient {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(AbstractRpcClient.class);
 
   protected int batchSize =
       RpcClientConfigurationConstants.DEFAULT_BATCH_SIZE;
@@ -33,6 +42,8 @@ public abstract class AbstractRpcClient implements RpcClient {
       RpcClientConfigurationConstants.DEFAULT_CONNECT_TIMEOUT_MILLIS;
   protected long requestTimeout =
       RpcClientConfigurationConstants.DEFAULT_REQUEST_TIMEOUT_MILLIS;
+  protected int maxInFlight =
+      RpcClientConfigurationConstants.DEFAULT_MAX_IN_FLIGHT;
 
   @Override
   public int getBatchSize() {
@@ -51,6 +62,38 @@ public abstract class AbstractRpcClient implements RpcClient {
   @Override
   public abstract void close() throws FlumeException;
 
+  @Override
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Sends the event by calling {@link #append(Event)} in the calling thread.
+   * Clients which can pipeline requests override this.
+   */
+  @Override
+  public AppendFuture appendAsync(Event event) {
+    try {
+      append(event);
+      return AppendFuture.succeeded();
+    } catch (Exception e) {
+      return AppendFuture.failed(e);
+    }
+  }
+
+  /**
+   * Sends the events by calling {@link #appendBatch(List)} in the calling
+   * thread. Clients which can pipeline requests override this.
+   */
+  @Override
+  public AppendFuture appendBatchAsync(List<Event> events) {
+    try {
+      appendBatch(events);
+      return AppendFuture.succeeded();
+    } catch (Exception e) {
+      return AppendFuture.failed(e);
+    }
+  }
 
   /**
    * Configure the client using the given properties object.
@@ -61,4 +104,86 @@ public abstract class AbstractRpcClient implements RpcClient {
   protected abstract void configure(Properties properties)
       throws FlumeException;
 
+  /**
+   * Reads {@link RpcClientConfigurationConstants#CONFIG_MAX_IN_FLIGHT} into
+   * {@link #maxInFlight}, falling back to the default on invalid values.
+   */
+  protected void configureMaxInFlight(Properties properties) {
+    maxInFlight = RpcClientConfigurationConstants.DEFAULT_MAX_IN_FLIGHT;
+    String strMaxInFlight = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_MAX_IN_FLIGHT);
+    if (strMaxInFlight != null && strMaxInFlight.trim().length() > 0) {
+      try {
+        int parsed = Integer.parseInt(strMaxInFlight.trim());
+        if (parsed < 1) {
+          logger.warn("Invalid value for max-in-flight: {}; Using default " +
+              "value.", parsed);
+        } else {
+          maxInFlight = parsed;
+        }
+      } catch (NumberFormatException e) {
+        logger.warn("Invalid value for max-in-flight: " + strMaxInFlight +
+            ". Default value assigned.", e);
+      }
+    }
+  }
+
+  /**
+   * One async append, which clients delegating to others may have to retry
+   * on a different client.
+   */
+  interface AsyncAppend {
+    AppendFuture appendTo(RpcClient client);
+  }
+
+  /**
+   * Returns a daemon thread pool for the retries of clients delegating to
+   * others. A retry may have to connect, which must not happen on the I/O
+   * thread completing the failed attempt.
+   */
+  static ExecutorService newRetryExecutor(final String name) {
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger threadId = new AtomicInteger(0);
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName(name + " " + threadId.incrementAndGet());
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Appends without waiting if the client supports it, otherwise blocks and
+   * returns a completed future. Used by clients which delegate to others.
+   */
+  static AppendFuture appendAsync(RpcClient client, Event event) {
+    if (client instanceof AsyncRpcClient) {
+      return ((AsyncRpcClient) client).appendAsync(event);
+    }
+    try {
+      client.append(event);
+      return AppendFuture.succeeded();
+    } catch (Exception e) {
+      return AppendFuture.failed(e);
+    }
+  }
+
+  /**
+   * Batch variant of {@link #appendAsync(RpcClient, Event)}.
+   */
+  static AppendFuture appendBatchAsync(RpcClient client, List<Event> events) {
+    if (client instanceof AsyncRpcClient) {
+      return ((AsyncRpcClient) client).appendBatchAsync(events);
+    }
+    try {
+      client.appendBatch(events);
+      return AppendFuture.succeeded();
+    } catch (Exception e) {
+      return AppendFuture.failed(e);
+    }
+  }
+
 }
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.flume.EventDeliveryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The pending result of an {@link AsyncRpcClient} append. It completes
+ * exactly once, either successfully or with an
+ * {@link EventDeliveryException}.</p>
+ *
+ * <p>{@linkplain Listener Listeners} are run by the thread which completes
+ * the future, typically an I/O thread of the client, or right away by the
+ * adding thread if the future is already complete. They must not block.</p>
+ *
+ * <p>Append futures cannot be cancelled: once events are handed to the
+ * network there is no telling whether they were delivered.</p>
+ */
+public class AppendFuture implements Future<Void> {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(AppendFuture.class);
+
+  /**
+   * Callback run when an {@link AppendFuture} completes.
+   */
+  public interface Listener {
+    void operationComplete(AppendFuture future);
+  }
+
+  private final CountDownLatch latch = new CountDownLatch(1);
+  // guarded by this
+  private boolean done;
+  private List<Listener> listeners;
+  private volatile EventDeliveryException cause;
+
+  /**
+   * @return a future which has already completed successfully
+   */
+  public static AppendFuture succeeded() {
+    AppendFuture future = new AppendFuture();
+    future.setSuccess();
+    return future;
+  }
+
+  /**
+   * @return a future which has already failed with the given cause
+   */
+  public static AppendFuture failed(Throwable cause) {
+    AppendFuture future = new AppendFuture();
+    future.setFailure(cause);
+    return future;
+  }
+
+  /**
+   * Returns a future which completes once all the given futures have, even
+   * if some of them failed early, so that whoever waits on it knows none
+   * of the appends is still outstanding. It succeeds if all of them
+   * succeeded, otherwise it fails with the cause of the first one which
+   * failed.
+   */
+  public static AppendFuture allOf(List<AppendFuture> futures) {
+    if (futures.size() == 1) {
+      return futures.get(0);
+    }
+    final AppendFuture result = new AppendFuture();
+    if (futures.isEmpty()) {
+      result.setSuccess();
+      return result;
+    }
+    final AtomicInteger pending = new AtomicInteger(futures.size());
+    final AtomicReference<EventDeliveryException> firstFailure =
+        new AtomicReference<EventDeliveryException>();
+    Listener listener = new Listener() {
+      @Override
+      public void operationComplete(AppendFuture future) {
+        if (!future.isSuccess()) {
+          firstFailure.compareAndSet(null, future.getCause());
+        }
+        if (pending.decrementAndGet() == 0) {
+          EventDeliveryException failure = firstFailure.get();
+          if (failure == null) {
+            result.setSuccess();
+          } else {
+            result.setFailure(failure);
+          }
+        }
+      }
+    };
+    for (AppendFuture future : futures) {
+      future.addListener(listener);
+    }
+    return result;
+  }
+
+  /**
+   * Marks this future as successfully completed.
+   * @return false if it had already completed
+   */
+  public boolean setSuccess() {
+    return complete(null);
+  }
+
+  /**
+   * Marks this future as failed.
+   * @return false if it had already completed
+   */
+  public boolean setFailure(Throwable cause) {
+    if (cause == null) {
+      cause = new NullPointerException("cause");
+    }
+    return complete(cause instanceof EventDeliveryException ?
+        (EventDeliveryException) cause :
+        new EventDeliveryException("Failed to send events", cause));
+  }
+
+  private boolean complete(EventDeliveryException failure) {
+    List<Listener> toNotify;
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      done = true;
+      cause = failure;
+      toNotify = listeners;
+      listeners = null;
+    }
+    latch.countDown();
+    if (toNotify != null) {
+      for (Listener listener : toNotify) {
+        notify(listener);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds a listener which is run when this future completes, or right away
+   * if it already has.
+   */
+  public void addListener(Listener listener) {
+    synchronized (this) {
+      if (!done) {
+        if (listeners == null) {
+          listeners = new ArrayList<Listener>(2);
+        }
+        listeners.add(listener);
+        return;
+      }
+    }
+    notify(listener);
+  }
+
+  private void notify(Listener listener) {
+    try {
+      listener.operationComplete(this);
+    } catch (Throwable t) {
+      logger.warn("Append future listener threw an exception", t);
+    }
+  }
+
+  /**
+   * @return true if this future completed successfully
+   */
+  public boolean isSuccess() {
+    return isDone() && cause == null;
+  }
+
+  /**
+   * @return the reason this future failed, or null if it did not (yet)
+   */
+  public EventDeliveryException getCause() {
+    return cause;
+  }
+
+  /**
+   * Waits for this future to complete. All client implementations fail
+   * their futures once the request timeout passes, so this does not wait
+   * forever on a request which got lost.
+   * @throws EventDeliveryException if the append failed or the thread was
+   * interrupted
+   */
+  public void await() throws EventDeliveryException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EventDeliveryException("Interrupted while waiting for " +
+          "append", e);
+    }
+    throwIfFailed();
+  }
+
+  /**
+   * Waits at most the given time for this future to complete.
+   * @throws EventDeliveryException if the append failed, did not complete
+   * in time or the thread was interrupted
+   */
+  public void await(long timeout, TimeUnit unit)
+      throws EventDeliveryException {
+    try {
+      if (!latch.await(timeout, unit)) {
+        throw new EventDeliveryException("Append did not complete within " +
+            unit.toMillis(timeout) + " ms", new TimeoutException());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EventDeliveryException("Interrupted while waiting for " +
+          "append", e);
+    }
+    throwIfFailed();
+  }
+
+  private void throwIfFailed() throws EventDeliveryException {
+    EventDeliveryException failure = cause;
+    if (failure != null) {
+      throw new EventDeliveryException(failure.getMessage(), failure);
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public Void get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return getResult();
+  }
+
+  @Override
+  public Void get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return getResult();
+  }
+
+  private Void getResult() throws ExecutionException {
+    EventDeliveryException failure = cause;
+    if (failure != null) {
+      throw new ExecutionException(failure);
+    }
+    return null;
+  }
+}
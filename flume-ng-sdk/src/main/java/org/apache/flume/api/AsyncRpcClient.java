@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.util.List;
+
+import org.apache.flume.Event;
+
+/**
+ * <p>An {@link RpcClient} which can have several requests outstanding at the
+ * same time, so that throughput over a high latency link is not limited to
+ * one batch per round trip.</p>
+ *
+ * <p>The number of requests outstanding at the same time is limited to
+ * {@link #getMaxInFlight()}, derived from
+ * {@link RpcClientConfigurationConstants#CONFIG_MAX_IN_FLIGHT}. Once that
+ * many requests are outstanding the async methods block until one of them
+ * completes, for at most the request timeout, after which the returned
+ * future fails.</p>
+ *
+ * <p>Failures are never thrown by the async methods, they are reported
+ * through the returned {@link AppendFuture}. As with the blocking methods,
+ * a failed request usually leaves the client inactive, see
+ * {@link #isActive()}.</p>
+ *
+ * <p>No ordering is guaranteed between requests which are in flight at the
+ * same time.</p>
+ */
+public interface AsyncRpcClient extends RpcClient {
+
+  /**
+   * Returns the maximum number of requests which may be outstanding at the
+   * same time.
+   */
+  public int getMaxInFlight();
+
+  /**
+   * Send a single {@link Event} to the associated Flume source without
+   * waiting for the result.
+   *
+   * @param event
+   * @return a future which completes once the source acknowledged the event
+   */
+  public AppendFuture appendAsync(Event event);
+
+  /**
+   * Send a list of {@linkplain Event events} to the associated Flume source
+   * without waiting for the result. Lists of more than
+   * {@link #getBatchSize()} events are split into several requests which are
+   * all sent without waiting for each other, within the in-flight limit.
+   *
+   * @param events List of events to send
+   * @return a future which completes once the source acknowledged all of
+   * the events, or failed as soon as one of the requests failed
+   */
+  public AppendFuture appendBatchAsync(List<Event> events);
+}
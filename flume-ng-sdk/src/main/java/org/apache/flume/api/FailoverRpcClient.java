@@ -22,6 +22,8 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
@@ -56,6 +58,7 @@ public class FailoverRpcClient extends AbstractRpcClient implements RpcClient {
   private int lastCheckedhost;
   private boolean isActive;
   private Properties configurationProperties;
+  private ExecutorService retryExecutor;
 
   private static final Logger logger = LoggerFactory
       .getLogger(FailoverRpcClient.class);
@@ -215,6 +218,88 @@ public class FailoverRpcClient extends AbstractRpcClient implements RpcClient {
     throw new EventDeliveryException("Failed to send the event!");
   }
 
+  @Override
+  public AppendFuture appendAsync(final Event event) {
+    return appendAsync(new AsyncAppend() {
+      @Override
+      public AppendFuture appendTo(RpcClient client) {
+        return AbstractRpcClient.appendAsync(client, event);
+      }
+    });
+  }
+
+  @Override
+  public AppendFuture appendBatchAsync(final List<Event> events) {
+    return appendAsync(new AsyncAppend() {
+      @Override
+      public AppendFuture appendTo(RpcClient client) {
+        return AbstractRpcClient.appendBatchAsync(client, events);
+      }
+    });
+  }
+
+  private AppendFuture appendAsync(AsyncAppend append) {
+    AppendFuture result = new AppendFuture();
+    synchronized (this) {
+      if (!isActive) {
+        logger.error("Attempting to append to an already closed client.");
+        result.setFailure(new EventDeliveryException(
+            "Attempting to append to an already closed client."));
+        return result;
+      }
+    }
+    appendAsync(append, 0, result);
+    return result;
+  }
+
+  /**
+   * Same as the blocking calls: on failure the client is closed and the
+   * append retried on the next one, for at most maxTries attempts.
+   */
+  private void appendAsync(final AsyncAppend append, final int tries,
+                           final AppendFuture result) {
+    if (tries >= maxTries) {
+      logger.error("Tried many times, could not send event.");
+      result.setFailure(new EventDeliveryException("Failed to send the event!"));
+      return;
+    }
+    final RpcClient localClient;
+    try {
+      localClient = getClient();
+    } catch (Exception e) {
+      logger.error("No clients active: ", e);
+      result.setFailure(new EventDeliveryException("No clients currently " +
+          "active. Exception follows: ", e));
+      return;
+    }
+    append.appendTo(localClient).addListener(new AppendFuture.Listener() {
+      @Override
+      public void operationComplete(AppendFuture future) {
+        if (future.isSuccess()) {
+          result.setSuccess();
+          return;
+        }
+        logger.warn("Client failed. Exception follows: ", future.getCause());
+        try {
+          retryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                localClient.close();
+              } catch (Exception e) {
+                logger.warn("Failed to close client", e);
+              }
+              appendAsync(append, tries + 1, result);
+            }
+          });
+        } catch (RejectedExecutionException ex) {
+          result.setFailure(new EventDeliveryException(
+              "Attempting to append to an already closed client.", ex));
+        }
+      }
+    });
+  }
+
   // Returns false if and only if this client has been closed explicitly.
   // Should we check if any clients are active, if none are then return false?
   // This method has to be lightweight, so not checking if hosts are active.
@@ -228,6 +313,9 @@ public class FailoverRpcClient extends AbstractRpcClient implements RpcClient {
    */
   @Override
   public synchronized void close() throws FlumeException {
+    if (retryExecutor != null) {
+      retryExecutor.shutdown();
+    }
     if (client != null) {
       client.close();
       isActive = false;
@@ -303,5 +391,7 @@ public class FailoverRpcClient extends AbstractRpcClient implements RpcClient {
     configurationProperties.putAll(properties);
 
     configureHosts(configurationProperties);
+    configureMaxInFlight(configurationProperties);
+    retryExecutor = newRetryExecutor("Flume Failover RPC Client Retry");
   }
 }
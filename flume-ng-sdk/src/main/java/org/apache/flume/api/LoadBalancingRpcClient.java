@@ -20,13 +20,17 @@ package org.apache.flume.api;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
+import org.apache.flume.util.LatencyAwareOrderSelector;
 import org.apache.flume.util.OrderSelector;
 import org.apache.flume.util.RandomOrderSelector;
 import org.apache.flume.util.RoundRobinOrderSelector;
@@ -44,8 +48,18 @@ import org.slf4j.LoggerFactory;
  * the class that implements the <tt>HostSelector</tt> interface.
  * </p>
  * <p>
+ * The <tt>latency</tt> scheme sends each request to the faster of two
+ * randomly picked hosts, going by the average latency of recent requests
+ * and the number of requests in flight, so that a host which is slow
+ * without failing gets less of the load. Its per host statistics are
+ * available through {@link #getHostStats()}. Custom selectors which want
+ * the same feedback implement <tt>LatencyAwareHostSelector</tt>.
+ * </p>
+ * <p>
  * This implementation also performs basic failover in case the randomly
- * selected host is not available for receiving the event.
+ * selected host is not available for receiving the event. The async append
+ * methods fail over the same way, retrying on the next host once the
+ * attempt on the previous one failed.
  * </p>
  */
 public class LoadBalancingRpcClient extends AbstractRpcClient {
@@ -55,8 +69,10 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
 
   private List<HostInfo> hosts;
   private HostSelector selector;
+  private LatencyAwareHostSelector latencySelector;
   private Map<String, RpcClient> clientMap;
   private Properties configurationProperties;
+  private ExecutorService retryExecutor;
   private volatile boolean isOpen = false;
 
   @Override
@@ -67,9 +83,11 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
 
     while (it.hasNext()) {
       HostInfo host = it.next();
+      long startNanos = informStart(host);
       try {
         RpcClient client = getClient(host);
         client.append(event);
+        informSuccess(host, startNanos);
         eventSent = true;
         break;
       } catch (Exception ex) {
@@ -91,9 +109,11 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
 
     while (it.hasNext()) {
       HostInfo host = it.next();
+      long startNanos = informStart(host);
       try {
         RpcClient client = getClient(host);
         client.appendBatch(events);
+        informSuccess(host, startNanos);
         batchSent = true;
         break;
       } catch (Exception ex) {
@@ -107,6 +127,114 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     }
   }
 
+  @Override
+  public AppendFuture appendAsync(final Event event) {
+    return appendAsync(new AsyncAppend() {
+      @Override
+      public AppendFuture appendTo(RpcClient client) {
+        return AbstractRpcClient.appendAsync(client, event);
+      }
+    }, "event");
+  }
+
+  @Override
+  public AppendFuture appendBatchAsync(final List<Event> events) {
+    return appendAsync(new AsyncAppend() {
+      @Override
+      public AppendFuture appendTo(RpcClient client) {
+        return AbstractRpcClient.appendBatchAsync(client, events);
+      }
+    }, "batch");
+  }
+
+  private AppendFuture appendAsync(AsyncAppend append, String what) {
+    AppendFuture result = new AppendFuture();
+    if (!isOpen) {
+      result.setFailure(new EventDeliveryException("Rpc Client is closed"));
+      return result;
+    }
+    appendAsync(append, what, selector.createHostIterator(), result);
+    return result;
+  }
+
+  private void appendAsync(final AsyncAppend append, final String what,
+                           final Iterator<HostInfo> it,
+                           final AppendFuture result) {
+    while (it.hasNext()) {
+      final HostInfo host = it.next();
+      final long startNanos = informStart(host);
+      AppendFuture attempt;
+      try {
+        attempt = append.appendTo(getClient(host));
+      } catch (Exception ex) {
+        selector.informFailure(host);
+        LOGGER.warn("Failed to send " + what + " to host " + host, ex);
+        continue;
+      }
+      attempt.addListener(new AppendFuture.Listener() {
+        @Override
+        public void operationComplete(AppendFuture future) {
+          if (future.isSuccess()) {
+            informSuccess(host, startNanos);
+            result.setSuccess();
+            return;
+          }
+          selector.informFailure(host);
+          LOGGER.warn("Failed to send " + what + " to host " + host,
+              future.getCause());
+          try {
+            retryExecutor.execute(new Runnable() {
+              @Override
+              public void run() {
+                appendAsync(append, what, it, result);
+              }
+            });
+          } catch (RejectedExecutionException ex) {
+            result.setFailure(new EventDeliveryException(
+                "Rpc Client is closed", ex));
+          }
+        }
+      });
+      return;
+    }
+    result.setFailure(new EventDeliveryException("Unable to send " + what +
+        " to any host"));
+  }
+
+  /**
+   * Tells a latency aware selector that a request is sent to the host.
+   * @return the start time of the request
+   */
+  private long informStart(HostInfo host) {
+    if (latencySelector != null) {
+      latencySelector.informStart(host);
+    }
+    return System.nanoTime();
+  }
+
+  private void informSuccess(HostInfo host, long startNanos) {
+    if (latencySelector != null) {
+      latencySelector.informSuccess(host, System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Returns the latency statistics of each host by its reference name, if
+   * the <tt>latency</tt> host selector is used, otherwise an empty map.
+   */
+  public Map<String, LatencyAwareOrderSelector.Stats> getHostStats() {
+    Map<String, LatencyAwareOrderSelector.Stats> stats =
+        new LinkedHashMap<String, LatencyAwareOrderSelector.Stats>();
+    if (selector instanceof LatencyHostSelector) {
+      LatencyAwareOrderSelector<HostInfo> orderSelector =
+          ((LatencyHostSelector) selector).selector;
+      for (HostInfo host : orderSelector.getObjects()) {
+        stats.put(host.getReferenceName(), orderSelector.getStats(host));
+      }
+    }
+    return stats;
+  }
+
   @Override
   public boolean isActive() {
     return isOpen;
@@ -121,6 +249,9 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
   @Override
   public void close() throws FlumeException {
     isOpen = false;
+    if (retryExecutor != null) {
+      retryExecutor.shutdown();
+    }
     synchronized (this) {
       Iterator<String> it = clientMap.keySet().iterator();
       while (it.hasNext()) {
@@ -171,6 +302,17 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     } else if (lbTypeName.equalsIgnoreCase(
         RpcClientConfigurationConstants.HOST_SELECTOR_RANDOM)) {
       selector = new RandomOrderHostSelector(backoff, maxBackoff);
+    } else if (lbTypeName.equalsIgnoreCase(
+        RpcClientConfigurationConstants.HOST_SELECTOR_LATENCY)) {
+      LatencyHostSelector latencyHostSelector =
+          new LatencyHostSelector(backoff, maxBackoff);
+      String decayStr = properties.getProperty(
+          RpcClientConfigurationConstants.CONFIG_LATENCY_DECAY);
+      if (decayStr != null) {
+        latencyHostSelector.selector.setDecayTime(
+            Long.parseLong(decayStr.trim()));
+      }
+      selector = latencyHostSelector;
     } else {
       try {
         @SuppressWarnings("unchecked")
@@ -185,6 +327,10 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     }
 
     selector.setHosts(hosts);
+    latencySelector = selector instanceof LatencyAwareHostSelector ?
+        (LatencyAwareHostSelector) selector : null;
+    configureMaxInFlight(properties);
+    retryExecutor = newRetryExecutor("Flume Load Balancing RPC Client Retry");
     isOpen = true;
   }
 
@@ -233,6 +379,18 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     void informFailure(HostInfo failedHost);
   }
 
+  /**
+   * A host selector which is also told when requests are sent to a host and
+   * how long the successful ones took. Failures are reported through
+   * {@link #informFailure(HostInfo)} as before.
+   */
+  public interface LatencyAwareHostSelector extends HostSelector {
+
+    void informStart(HostInfo host);
+
+    void informSuccess(HostInfo host, long latencyNanos);
+  }
+
   /**
    * A host selector that implements the round-robin host selection policy.
    */
@@ -289,4 +447,44 @@ public class LoadBalancingRpcClient extends AbstractRpcClient {
     }
   }
 
+  /**
+   * A host selector which prefers hosts with a lower latency and fewer
+   * requests in flight.
+   */
+  private static class LatencyHostSelector implements LatencyAwareHostSelector {
+
+    private final LatencyAwareOrderSelector<HostInfo> selector;
+
+    LatencyHostSelector(boolean backoff, long maxBackoff) {
+      selector = new LatencyAwareOrderSelector<HostInfo>(backoff);
+      if (maxBackoff != 0) {
+        selector.setMaxTimeOut(maxBackoff);
+      }
+    }
+
+    @Override
+    public Iterator<HostInfo> createHostIterator() {
+      return selector.createIterator();
+    }
+
+    @Override
+    public synchronized void setHosts(List<HostInfo> hosts) {
+      selector.setObjects(hosts);
+    }
+
+    @Override
+    public void informFailure(HostInfo failedHost) {
+      selector.informFailure(failedHost);
+    }
+
+    @Override
+    public void informStart(HostInfo host) {
+      selector.informStart(host);
+    }
+
+    @Override
+    public void informSuccess(HostInfo host, long latencyNanos) {
+      selector.informSuccess(host, latencyNanos);
+    }
+  }
 }
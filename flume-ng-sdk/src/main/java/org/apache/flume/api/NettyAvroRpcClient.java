@@ -27,24 +27,31 @@ import java.security.KeyStore;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -55,8 +62,8 @@ import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.avro.ipc.CallFuture;
+import org.apache.avro.ipc.Callback;
 import org.apache.avro.ipc.NettyTransceiver;
-import org.apache.avro.ipc.Transceiver;
 import org.apache.avro.ipc.specific.SpecificRequestor;
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Event;
@@ -78,10 +85,23 @@ import org.slf4j.LoggerFactory;
  * Avro/Netty implementation of {@link RpcClient}.
  * The connections are intended to be opened before clients are given access so
  * that the object cannot ever be in an inconsistent when exposed to users.
+ * <p>
+ * The client can keep several connections to its host, see
+ * {@link RpcClientConfigurationConstants#CONFIG_CONNECTIONS_PER_HOST}, which
+ * share the I/O threads. Each request goes to the connection with the fewest
+ * requests outstanding. A connection a request failed on is taken out of the
+ * pool, and the client stays active as long as other connections are left,
+ * while a background health check probes idle connections and reopens the
+ * ones which were taken out.
  */
 public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
 
   private ExecutorService callTimeoutPool;
+  private ScheduledExecutorService timeoutScheduler;
+  private Semaphore inFlightWindow;
+  private final Set<AppendFuture> pendingAppends = Collections.newSetFromMap(
+      new ConcurrentHashMap<AppendFuture, Boolean>());
+  private final TryLaterBackoff tryLaterBackoff = new TryLaterBackoff();
   private final ReentrantLock stateLock = new ReentrantLock();
 
   /**
@@ -97,11 +117,18 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
   private String truststoreType;
   private final List<String> excludeProtocols = new LinkedList<String>();
 
-  private Transceiver transceiver;
-  private AvroSourceProtocol.Callback avroClient;
+  private SharedChannelFactory socketChannelFactory;
+  private ScheduledExecutorService connectionManager;
+  private AtomicReferenceArray<Connection> connections;
+  private final Set<Connection> openConnections = Collections.newSetFromMap(
+      new ConcurrentHashMap<Connection, Boolean>());
+  private final AtomicInteger nextConnection = new AtomicInteger();
+  private int connectionsPerHost;
+  private long healthCheckInterval;
   private static final Logger logger = LoggerFactory
       .getLogger(NettyAvroRpcClient.class);
   private boolean enableDeflateCompression;
+  private boolean enableSnappyCompression;
   private int compressionLevel;
   private int maxIoWorkers;
 
@@ -129,7 +156,12 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
   private void connect(long timeout, TimeUnit tu) throws FlumeException {
     callTimeoutPool = Executors.newCachedThreadPool(
         new TransceiverThreadFactory("Flume Avro RPC Client Call Invoker"));
-    NioClientSocketChannelFactory socketChannelFactory = null;
+    timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+        new TransceiverThreadFactory("Flume Avro RPC Client Call Timer"));
+    connectionManager = Executors.newSingleThreadScheduledExecutor(
+        new TransceiverThreadFactory("Flume Avro RPC Client Connection Manager"));
+    inFlightWindow = new Semaphore(getMaxInFlight());
+    connections = new AtomicReferenceArray<Connection>(connectionsPerHost);
 
     try {
 
@@ -140,42 +172,46 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
           Executors.newCachedThreadPool(new TransceiverThreadFactory(
               "Avro " + NettyTransceiver.class.getSimpleName() + " I/O Worker"));
 
-      if (enableDeflateCompression || enableSsl) {
+      if (enableDeflateCompression || enableSnappyCompression || enableSsl) {
         if (maxIoWorkers >= 1) {
           socketChannelFactory = new SSLCompressionChannelFactory(
             bossExecutor, workerExecutor,
-            enableDeflateCompression, enableSsl, trustAllCerts,
+            enableDeflateCompression, enableSnappyCompression, enableSsl,
+            trustAllCerts,
             compressionLevel, truststore, truststorePassword, truststoreType,
             excludeProtocols, maxIoWorkers);
         } else {
           socketChannelFactory = new SSLCompressionChannelFactory(
             bossExecutor, workerExecutor,
-            enableDeflateCompression, enableSsl, trustAllCerts,
+            enableDeflateCompression, enableSnappyCompression, enableSsl,
+            trustAllCerts,
             compressionLevel, truststore, truststorePassword, truststoreType,
             excludeProtocols);
         }
       } else {
         if (maxIoWorkers >= 1) {
-          socketChannelFactory = new NioClientSocketChannelFactory(
+          socketChannelFactory = new SharedChannelFactory(
               bossExecutor, workerExecutor, maxIoWorkers);
         } else {
-          socketChannelFactory = new NioClientSocketChannelFactory(
+          socketChannelFactory = new SharedChannelFactory(
               bossExecutor, workerExecutor);
         }
       }
 
-      transceiver = new NettyTransceiver(this.address,
-          socketChannelFactory,
-          tu.toMillis(timeout));
-      avroClient =
-          SpecificRequestor.getClient(AvroSourceProtocol.Callback.class,
-          transceiver);
+      for (int slot = 0; slot < connectionsPerHost; slot++) {
+        connections.set(slot, new Connection(slot, tu.toMillis(timeout)));
+      }
     } catch (Throwable t) {
+      for (Connection connection : openConnections) {
+        closeQuietly(connection);
+      }
       if (callTimeoutPool != null) {
         callTimeoutPool.shutdownNow();
       }
+      timeoutScheduler.shutdownNow();
+      connectionManager.shutdownNow();
       if (socketChannelFactory != null) {
-        socketChannelFactory.releaseExternalResources();
+        socketChannelFactory.releaseShared();
       }
       if (t instanceof IOException) {
         throw new FlumeException(this + ": RPC connection error", t);
@@ -189,10 +225,34 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
     }
 
     setState(ConnState.READY);
+
+    if (connectionsPerHost > 1 && healthCheckInterval > 0) {
+      connectionManager.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          checkConnections();
+        }
+      }, healthCheckInterval, healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
   }
 
+  /**
+   * Closes the client. Requests which are outstanding get up to the request
+   * timeout to complete before the connections are closed.
+   */
   @Override
   public void close() throws FlumeException {
+    // no new requests from here on
+    setState(ConnState.DEAD);
+    if (connectionManager != null) {
+      connectionManager.shutdownNow();
+      try {
+        connectionManager.awaitTermination(requestTimeout,
+            TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
     if (callTimeoutPool != null) {
       callTimeoutPool.shutdown();
       try {
@@ -215,14 +275,51 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
 
       callTimeoutPool = null;
     }
+    IOException closeError = null;
     try {
-      transceiver.close();
-    } catch (IOException ex) {
-      throw new FlumeException(this + ": Error closing transceiver.", ex);
+      long deadline = System.currentTimeMillis() + requestTimeout;
+      for (Connection connection : openConnections) {
+        try {
+          if (!Thread.currentThread().isInterrupted() &&
+              !connection.awaitDrained(deadline)) {
+            logger.warn(this + ": Closing connection with requests " +
+                "outstanding");
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        try {
+          connection.close();
+        } catch (IOException ex) {
+          closeError = ex;
+        }
+      }
     } finally {
-      setState(ConnState.DEAD);
+      if (socketChannelFactory != null) {
+        socketChannelFactory.releaseShared();
+      }
+      if (timeoutScheduler != null) {
+        timeoutScheduler.shutdownNow();
+      }
+      // anything still outstanding now would never hear back
+      for (AppendFuture future : pendingAppends) {
+        future.setFailure(new EventDeliveryException(this +
+            ": Client closed with the request outstanding"));
+      }
+    }
+    if (closeError != null) {
+      throw new FlumeException(this + ": Error closing transceiver.",
+          closeError);
     }
+  }
 
+  /**
+   * Returns the in-flight limit of all connections together, as each
+   * connection may have {@code max-in-flight} requests outstanding.
+   */
+  @Override
+  public int getMaxInFlight() {
+    return maxInFlight * connectionsPerHost;
   }
 
   @Override
@@ -233,12 +330,19 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
 
   @Override
   public void append(Event event) throws EventDeliveryException {
+    Connection connection = null;
     try {
-      append(event, requestTimeout, TimeUnit.MILLISECONDS);
+      assertReady();
+      tryLaterBackoff.check(this);
+      connection = acquireConnection();
+      append(connection, event, requestTimeout, TimeUnit.MILLISECONDS);
+    } catch (TryLaterException ex) {
+      // the host is busy rather than broken, so the connection is kept
+      throw ex;
     } catch (Throwable t) {
-      // we mark as no longer active without trying to clean up resources
-      // client is required to call close() to clean up resources
-      setState(ConnState.DEAD);
+      // the connection is not used again, once the last one is gone the
+      // client is no longer active and has to be closed
+      connectionFailed(connection);
       if (t instanceof Error) {
         throw (Error) t;
       }
@@ -247,15 +351,17 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
             "RPC request timed out after " + requestTimeout + "ms", t);
       }
       throw new EventDeliveryException(this + ": Failed to send event", t);
+    } finally {
+      if (connection != null) {
+        connection.release();
+      }
     }
   }
 
-  private void append(Event event, long timeout, TimeUnit tu)
-      throws EventDeliveryException {
+  private void append(final Connection connection, Event event, long timeout,
+      TimeUnit tu) throws EventDeliveryException {
 
-    assertReady();
-
-    final CallFuture<Status> callFuture = new CallFuture<Status>();
+    final StatusFuture callFuture = new StatusFuture();
 
     final AvroFlumeEvent avroEvent = new AvroFlumeEvent();
     avroEvent.setBody(ByteBuffer.wrap(event.getBody()));
@@ -268,7 +374,7 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
 
         @Override
         public Void call() throws Exception {
-          avroClient.append(avroEvent, callFuture);
+          connection.avroClient.append(avroEvent, callFuture);
           return null;
         }
       });
@@ -298,12 +404,19 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
 
   @Override
   public void appendBatch(List<Event> events) throws EventDeliveryException {
+    Connection connection = null;
     try {
-      appendBatch(events, requestTimeout, TimeUnit.MILLISECONDS);
+      assertReady();
+      tryLaterBackoff.check(this);
+      connection = acquireConnection();
+      appendBatch(connection, events, requestTimeout, TimeUnit.MILLISECONDS);
+    } catch (TryLaterException ex) {
+      // the host is busy rather than broken, so the connection is kept
+      throw ex;
     } catch (Throwable t) {
-      // we mark as no longer active without trying to clean up resources
-      // client is required to call close() to clean up resources
-      setState(ConnState.DEAD);
+      // the connection is not used again, once the last one is gone the
+      // client is no longer active and has to be closed
+      connectionFailed(connection);
       if (t instanceof Error) {
         throw (Error) t;
       }
@@ -312,13 +425,15 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
             "RPC request timed out after " + requestTimeout + " ms", t);
       }
       throw new EventDeliveryException(this + ": Failed to send batch", t);
+    } finally {
+      if (connection != null) {
+        connection.release();
+      }
     }
   }
 
-  private void appendBatch(List<Event> events, long timeout, TimeUnit tu)
-      throws EventDeliveryException {
-
-    assertReady();
+  private void appendBatch(final Connection connection, List<Event> events,
+      long timeout, TimeUnit tu) throws EventDeliveryException {
 
     Iterator<Event> iter = events.iterator();
     final List<AvroFlumeEvent> avroEvents = new LinkedList<AvroFlumeEvent>();
@@ -335,7 +450,7 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
         avroEvents.add(avroEvent);
       }
 
-      final CallFuture<Status> callFuture = new CallFuture<Status>();
+      final StatusFuture callFuture = new StatusFuture();
 
       Future<Void> handshake;
       try {
@@ -344,7 +459,7 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
 
           @Override
           public Void call() throws Exception {
-            avroClient.appendBatch(avroEvents, callFuture);
+            connection.avroClient.appendBatch(avroEvents, callFuture);
             return null;
           }
         });
@@ -374,6 +489,162 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
     }
   }
 
+  @Override
+  public AppendFuture appendAsync(Event event) {
+    final AvroFlumeEvent avroEvent = new AvroFlumeEvent();
+    avroEvent.setBody(ByteBuffer.wrap(event.getBody()));
+    avroEvent.setHeaders(toCharSeqMap(event.getHeaders()));
+    return invokeAsync(new AvroCall() {
+      @Override
+      public void invoke(AvroSourceProtocol.Callback avroClient,
+          Callback<Status> callback) throws IOException {
+        avroClient.append(avroEvent, callback);
+      }
+    });
+  }
+
+  @Override
+  public AppendFuture appendBatchAsync(List<Event> events) {
+    List<AppendFuture> futures = new ArrayList<AppendFuture>();
+    Iterator<Event> iter = events.iterator();
+    while (iter.hasNext()) {
+      final List<AvroFlumeEvent> avroEvents = new ArrayList<AvroFlumeEvent>();
+      for (int i = 0; i < batchSize && iter.hasNext(); i++) {
+        Event event = iter.next();
+        AvroFlumeEvent avroEvent = new AvroFlumeEvent();
+        avroEvent.setBody(ByteBuffer.wrap(event.getBody()));
+        avroEvent.setHeaders(toCharSeqMap(event.getHeaders()));
+        avroEvents.add(avroEvent);
+      }
+      AppendFuture future = invokeAsync(new AvroCall() {
+        @Override
+        public void invoke(AvroSourceProtocol.Callback avroClient,
+            Callback<Status> callback) throws IOException {
+          avroClient.appendBatch(avroEvents, callback);
+        }
+      });
+      futures.add(future);
+      if (future.isDone() && !future.isSuccess()) {
+        // don't bother sending the rest
+        break;
+      }
+    }
+    return AppendFuture.allOf(futures);
+  }
+
+  private interface AvroCall {
+    void invoke(AvroSourceProtocol.Callback avroClient,
+        Callback<Status> callback) throws IOException;
+  }
+
+  /**
+   * Sends a request on the least busy connection once there is room in the
+   * in-flight window, without waiting for the response. The request is
+   * handed to the call invoker
+   * pool, as due to AVRO-1122 it may block on the handshake, and failed
+   * once the request timeout passes without a response.
+   */
+  private AppendFuture invokeAsync(final AvroCall call) {
+    final AppendFuture future = new AppendFuture();
+    final Connection connection;
+    try {
+      assertReady();
+      tryLaterBackoff.check(this);
+      if (!inFlightWindow.tryAcquire(requestTimeout, TimeUnit.MILLISECONDS)) {
+        throw new EventDeliveryException(this + ": Timed out after " +
+            requestTimeout + " ms waiting for one of " + getMaxInFlight() +
+            " in-flight requests to complete");
+      }
+      try {
+        connection = acquireConnection();
+      } catch (EventDeliveryException ex) {
+        inFlightWindow.release();
+        throw ex;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      future.setFailure(new EventDeliveryException(this + ": Interrupted " +
+          "waiting for in-flight requests", ex));
+      return future;
+    } catch (EventDeliveryException ex) {
+      future.setFailure(ex);
+      return future;
+    }
+    pendingAppends.add(future);
+    final ScheduledFuture<?> timeout;
+    try {
+      timeout = timeoutScheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          future.setFailure(new EventDeliveryException(
+              NettyAvroRpcClient.this + ": RPC request timed out after " +
+              requestTimeout + " ms", new TimeoutException()));
+        }
+      }, requestTimeout, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ex) {
+      connection.release();
+      inFlightWindow.release();
+      pendingAppends.remove(future);
+      future.setFailure(new EventDeliveryException(this + ": Client closed",
+          ex));
+      return future;
+    }
+    future.addListener(new AppendFuture.Listener() {
+      @Override
+      public void operationComplete(AppendFuture f) {
+        timeout.cancel(false);
+        pendingAppends.remove(f);
+        if (!f.isSuccess() && !(f.getCause() instanceof TryLaterException)) {
+          // same as the blocking calls, the connection is not used again
+          connectionFailed(connection);
+        }
+        connection.release();
+        inFlightWindow.release();
+      }
+    });
+    final Callback<Status> callback = new Callback<Status>() {
+      @Override
+      public void handleResult(Status status) {
+        long retryAfter = RetryAfterPlugin.takeRetryAfter();
+        if (status == Status.OK) {
+          future.setSuccess();
+        } else if (retryAfter > 0) {
+          future.setFailure(tryLaterBackoff.backoff(NettyAvroRpcClient.this,
+              retryAfter));
+        } else {
+          future.setFailure(new EventDeliveryException(
+              NettyAvroRpcClient.this + ": Avro RPC call returned Status: " +
+              status));
+        }
+      }
+
+      @Override
+      public void handleError(Throwable error) {
+        future.setFailure(new EventDeliveryException(
+            NettyAvroRpcClient.this + ": Exception thrown from remote handler",
+            error));
+      }
+    };
+    try {
+      callTimeoutPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            call.invoke(connection.avroClient, callback);
+          } catch (Throwable t) {
+            future.setFailure(new EventDeliveryException(
+                NettyAvroRpcClient.this + ": RPC request exception", t));
+          }
+        }
+      });
+    } catch (RuntimeException ex) {
+      // rejected or already gone as the client is being closed
+      future.setFailure(new EventDeliveryException(this + ": Executor error",
+          ex));
+    }
+    return future;
+  }
+
   /**
    * Helper method that waits for a Status future to come back and validates
    * that it returns Status == OK.
@@ -381,11 +652,15 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
    * @param timeout Time to wait before failing
    * @param tu Time Unit of {@code timeout}
    * @throws EventDeliveryException If there is a timeout or if Status != OK
+   * @throws TryLaterException If the host asked to send again later
    */
-  private void waitForStatusOK(CallFuture<Status> callFuture,
+  private void waitForStatusOK(StatusFuture callFuture,
       long timeout, TimeUnit tu) throws EventDeliveryException {
     try {
       Status status = callFuture.get(timeout, tu);
+      if (status != Status.OK && callFuture.retryAfter > 0) {
+        throw tryLaterBackoff.backoff(this, callFuture.retryAfter);
+      }
       if (status != Status.OK) {
         throw new EventDeliveryException(this + ": Avro RPC call returned " +
             "Status: " + status);
@@ -403,6 +678,141 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
     }
   }
 
+  /**
+   * Replaces the connections to the host with new ones, one at a time, so
+   * that the client keeps sending while it reconnects. A client behind a
+   * load balancer picks up hosts added to it this way. The connections which
+   * were replaced are closed once their outstanding requests have completed.
+   * @throws FlumeException if the client is not active or a new connection
+   * could not be opened, the connections not yet replaced are kept then
+   */
+  public void resetConnections() throws FlumeException {
+    for (int slot = 0; slot < connections.length(); slot++) {
+      if (!isActive()) {
+        throw new FlumeException(this + ": Client is not active");
+      }
+      try {
+        replaceConnection(slot, connections.get(slot));
+      } catch (IOException ex) {
+        throw new FlumeException(this + ": Unable to open connection", ex);
+      }
+    }
+  }
+
+  /**
+   * Picks the connection with the fewest outstanding requests, starting
+   * from a rotating position so that ties are spread over the pool.
+   * @throws EventDeliveryException if no connection is left
+   */
+  private Connection acquireConnection() throws EventDeliveryException {
+    int size = connections.length();
+    for (int attempt = 0; attempt < size; attempt++) {
+      int start = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % size;
+      Connection best = null;
+      int bestOutstanding = Integer.MAX_VALUE;
+      for (int i = 0; i < size; i++) {
+        Connection connection = connections.get((start + i) % size);
+        if (connection != null && !connection.retired) {
+          int outstanding = connection.outstanding.get();
+          if (outstanding < bestOutstanding) {
+            best = connection;
+            bestOutstanding = outstanding;
+          }
+        }
+      }
+      if (best == null) {
+        break;
+      }
+      // retry if it was retired in the meantime
+      if (best.acquire()) {
+        return best;
+      }
+    }
+    throw new EventDeliveryException(this + ": No open connection to host");
+  }
+
+  /**
+   * Takes the connection a request failed on out of the pool, it is closed
+   * once its other outstanding requests completed. The client is no longer
+   * active once no connection is left.
+   * @param connection null if the request failed before it got one
+   */
+  private void connectionFailed(Connection connection) {
+    if (connection != null) {
+      connections.compareAndSet(connection.slot, connection, null);
+      connection.retire();
+    }
+    if (connection == null || !hasOpenConnection()) {
+      setState(ConnState.DEAD);
+    }
+  }
+
+  private boolean hasOpenConnection() {
+    for (int slot = 0; slot < connections.length(); slot++) {
+      Connection connection = connections.get(slot);
+      if (connection != null && !connection.retired) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Opens a new connection and puts it in the given slot, retiring the one
+   * which was there.
+   */
+  private synchronized void replaceConnection(int slot, Connection old)
+      throws IOException {
+    Connection connection = new Connection(slot, connectTimeout);
+    if (!isActive() || !connections.compareAndSet(slot, old, connection)) {
+      closeQuietly(connection);
+      return;
+    }
+    if (old != null) {
+      old.retire();
+    }
+  }
+
+  /**
+   * Run by the connection manager: probes connections which have been idle
+   * for the health check interval, and reopens the ones which failed or
+   * were taken out of the pool.
+   */
+  private void checkConnections() {
+    try {
+      long now = System.currentTimeMillis();
+      for (int slot = 0; slot < connections.length() && isActive(); slot++) {
+        Connection connection = connections.get(slot);
+        if (connection != null &&
+            (!connection.isIdle(now) || connection.probe())) {
+          continue;
+        }
+        if (connection != null) {
+          logger.warn(this + ": Health check failed, reopening connection");
+        }
+        try {
+          replaceConnection(slot, connection);
+        } catch (IOException ex) {
+          logger.warn(this + ": Unable to reopen connection", ex);
+          if (connection != null) {
+            connectionFailed(connection);
+          }
+        }
+      }
+    } catch (Throwable t) {
+      // don't rethrow, else the check won't get scheduled again
+      logger.error(this + ": Error while checking connections", t);
+    }
+  }
+
+  private void closeQuietly(Connection connection) {
+    try {
+      connection.close();
+    } catch (Throwable t) {
+      logger.warn(this + ": Error closing transceiver", t);
+    }
+  }
+
   /**
    * This method should always be used to change {@code connState} so we ensure
    * that invalid state transitions do not occur and that the {@code isIdle}
@@ -596,6 +1006,9 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
           logger.error("Invalid compression level: " + compressionLvlStr);
         }
       }
+    } else if (enableCompressionStr != null &&
+        enableCompressionStr.equalsIgnoreCase("snappy")) {
+      this.enableSnappyCompression = true;
     }
 
     enableSsl = Boolean.parseBoolean(properties.getProperty(
@@ -635,9 +1048,190 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
       maxIoWorkers = -1;
     }
 
+    connectionsPerHost =
+        RpcClientConfigurationConstants.DEFAULT_CONNECTIONS_PER_HOST;
+    String connectionsStr = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_CONNECTIONS_PER_HOST);
+    if (!StringUtils.isEmpty(connectionsStr)) {
+      try {
+        connectionsPerHost = Integer.parseInt(connectionsStr.trim());
+      } catch (NumberFormatException ex) {
+        logger.warn("Invalid connections per host: " + connectionsStr);
+      }
+      if (connectionsPerHost < 1) {
+        logger.warn("Connections per host must be at least 1. Using " +
+            "default value instead.");
+        connectionsPerHost =
+            RpcClientConfigurationConstants.DEFAULT_CONNECTIONS_PER_HOST;
+      }
+    }
+
+    healthCheckInterval =
+        RpcClientConfigurationConstants.DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS;
+    String healthCheckStr = properties.getProperty(
+        RpcClientConfigurationConstants.CONFIG_HEALTH_CHECK_INTERVAL);
+    if (!StringUtils.isEmpty(healthCheckStr)) {
+      try {
+        healthCheckInterval = Long.parseLong(healthCheckStr.trim());
+      } catch (NumberFormatException ex) {
+        logger.warn("Invalid health check interval: " + healthCheckStr);
+      }
+    }
+
+    configureMaxInFlight(properties);
+
     this.connect();
   }
 
+  /**
+   * Call future which also picks up the time the host asked to wait before
+   * sending again, if it refused the request as it is busy.
+   */
+  private static class StatusFuture extends CallFuture<Status> {
+    private volatile long retryAfter;
+
+    @Override
+    public void handleResult(Status result) {
+      retryAfter = RetryAfterPlugin.takeRetryAfter();
+      super.handleResult(result);
+    }
+  }
+
+  /**
+   * One of the connections to the host, with the number of requests
+   * outstanding on it. A retired connection takes no new requests and is
+   * closed once the outstanding ones have completed.
+   */
+  private class Connection {
+    private final int slot;
+    private final NettyTransceiver transceiver;
+    private final AvroSourceProtocol.Callback avroClient;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile boolean retired;
+    // guarded by this
+    private boolean closed;
+
+    Connection(int slot, long connectTimeoutMillis) throws IOException {
+      this.slot = slot;
+      transceiver = new NettyTransceiver(address, socketChannelFactory,
+          connectTimeoutMillis);
+      openConnections.add(this);
+      SpecificRequestor requestor = new SpecificRequestor(
+          AvroSourceProtocol.Callback.class, transceiver);
+      requestor.addRPCPlugin(new RetryAfterPlugin());
+      avroClient = SpecificRequestor.getClient(
+          AvroSourceProtocol.Callback.class, requestor);
+    }
+
+    /**
+     * Counts a request as outstanding.
+     * @return false if the connection was retired and must not be used
+     */
+    boolean acquire() {
+      outstanding.incrementAndGet();
+      if (retired) {
+        release();
+        return false;
+      }
+      return true;
+    }
+
+    void release() {
+      lastUsed = System.currentTimeMillis();
+      if (outstanding.decrementAndGet() == 0) {
+        synchronized (this) {
+          notifyAll();
+        }
+        if (retired) {
+          closeLater();
+        }
+      }
+    }
+
+    void retire() {
+      retired = true;
+      if (outstanding.get() == 0) {
+        closeLater();
+      }
+    }
+
+    boolean isIdle(long now) {
+      return outstanding.get() == 0 && now - lastUsed >= healthCheckInterval;
+    }
+
+    /**
+     * Sends an empty batch and waits for the response.
+     * @return false if it failed or timed out
+     */
+    boolean probe() {
+      if (!acquire()) {
+        return true;
+      }
+      try {
+        CallFuture<Status> callFuture = new CallFuture<Status>();
+        avroClient.appendBatch(Collections.<AvroFlumeEvent>emptyList(),
+            callFuture);
+        return callFuture.get(requestTimeout, TimeUnit.MILLISECONDS) ==
+            Status.OK;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return true;
+      } catch (Exception ex) {
+        logger.debug(NettyAvroRpcClient.this + ": Health check failed", ex);
+        return false;
+      } finally {
+        release();
+      }
+    }
+
+    /**
+     * Waits until no request is outstanding on this connection.
+     * @param deadline time in millis to give up at
+     * @return false if there are still requests outstanding
+     */
+    synchronized boolean awaitDrained(long deadline)
+        throws InterruptedException {
+      long remaining;
+      while (outstanding.get() > 0 &&
+          (remaining = deadline - System.currentTimeMillis()) > 0) {
+        wait(remaining);
+      }
+      return outstanding.get() == 0;
+    }
+
+    /**
+     * Closing a transceiver waits for its channel to close, which must not
+     * happen on a Netty I/O thread, where the last request may complete.
+     */
+    private void closeLater() {
+      try {
+        connectionManager.execute(new Runnable() {
+          @Override
+          public void run() {
+            closeQuietly(Connection.this);
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        // the client is being closed, which closes all open connections
+      }
+    }
+
+    void close() throws IOException {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+      }
+      try {
+        transceiver.close();
+      } finally {
+        openConnections.remove(this);
+      }
+    }
+  }
+
   /**
    * A thread factor implementation modeled after the implementation of
    * NettyTransceiver.NettyTransceiverThreadFactory class which is
@@ -670,13 +1264,41 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
     }
   }
 
+  /**
+   * Client channel factory shared by the connections of a client. Closing a
+   * NettyTransceiver releases the resources of its channel factory, which
+   * would stop the I/O threads of the other connections, so that is left to
+   * {@link #releaseShared()} once the client itself is closed.
+   */
+  private static class SharedChannelFactory extends NioClientSocketChannelFactory {
+
+    public SharedChannelFactory(Executor bossExecutor, Executor workerExecutor) {
+      super(bossExecutor, workerExecutor);
+    }
+
+    public SharedChannelFactory(Executor bossExecutor, Executor workerExecutor,
+        int workerCount) {
+      super(bossExecutor, workerExecutor, workerCount);
+    }
+
+    @Override
+    public void releaseExternalResources() {
+      // see releaseShared()
+    }
+
+    public void releaseShared() {
+      super.releaseExternalResources();
+    }
+  }
+
   /**
    * Factory of SSL-enabled client channels
    * Copied from Avro's org.apache.avro.ipc.TestNettyServerWithSSL test
    */
-  private static class SSLCompressionChannelFactory extends NioClientSocketChannelFactory {
+  private static class SSLCompressionChannelFactory extends SharedChannelFactory {
 
     private final boolean enableCompression;
+    private final boolean enableSnappy;
     private final int compressionLevel;
     private final boolean enableSsl;
     private final boolean trustAllCerts;
@@ -686,11 +1308,13 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
     private final List<String> excludeProtocols;
 
     public SSLCompressionChannelFactory(Executor bossExecutor, Executor workerExecutor,
-        boolean enableCompression, boolean enableSsl, boolean trustAllCerts,
+        boolean enableCompression, boolean enableSnappy, boolean enableSsl,
+        boolean trustAllCerts,
         int compressionLevel, String truststore, String truststorePassword,
         String truststoreType, List<String> excludeProtocols) {
       super(bossExecutor, workerExecutor);
       this.enableCompression = enableCompression;
+      this.enableSnappy = enableSnappy;
       this.enableSsl = enableSsl;
       this.compressionLevel = compressionLevel;
       this.trustAllCerts = trustAllCerts;
@@ -701,11 +1325,13 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
     }
 
     public SSLCompressionChannelFactory(Executor bossExecutor, Executor workerExecutor,
-        boolean enableCompression, boolean enableSsl, boolean trustAllCerts,
+        boolean enableCompression, boolean enableSnappy, boolean enableSsl,
+        boolean trustAllCerts,
         int compressionLevel, String truststore, String truststorePassword,
         String truststoreType, List<String> excludeProtocols, int maxIOWorkers) {
       super(bossExecutor, workerExecutor, maxIOWorkers);
       this.enableCompression = enableCompression;
+      this.enableSnappy = enableSnappy;
       this.enableSsl = enableSsl;
       this.compressionLevel = compressionLevel;
       this.trustAllCerts = trustAllCerts;
@@ -724,6 +1350,10 @@ public class NettyAvroRpcClient extends AbstractRpcClient implements RpcClient {
           pipeline.addFirst("deflater", encoder);
           pipeline.addFirst("inflater", new ZlibDecoder());
         }
+        if (enableSnappy) {
+          pipeline.addFirst("snappyEncoder", new SnappyFrameCodec.Encoder(true));
+          pipeline.addFirst("snappyDecoder", new SnappyFrameCodec.Decoder());
+        }
         if (enableSsl) {
           if (trustAllCerts) {
             logger.warn("No truststore configured, setting TrustManager to accept"
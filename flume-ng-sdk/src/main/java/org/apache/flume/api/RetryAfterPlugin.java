@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.nio.ByteBuffer;
+
+import org.apache.avro.ipc.RPCContext;
+import org.apache.avro.ipc.RPCPlugin;
+
+/**
+ * <p>Avro RPC plugin which passes the time a busy source asks its client to
+ * wait before sending again along with the response, in the
+ * {@value #RETRY_AFTER_META} response metadata. The response status itself
+ * stays <tt>FAILED</tt>, so clients which do not know about the hint see the
+ * same response as before.</p>
+ *
+ * <p>The source calls {@link #setRetryAfter(long)} while handling the
+ * request. The client calls {@link #takeRetryAfter()} from the callback of
+ * the request, which Avro runs on the thread and right after the plugin saw
+ * the response.</p>
+ */
+public class RetryAfterPlugin extends RPCPlugin {
+
+  public static final String RETRY_AFTER_META = "flume.retry-after";
+
+  private static final ThreadLocal<Long> RETRY_AFTER = new ThreadLocal<Long>();
+
+  /**
+   * Asks the client of the request being handled by the current thread to
+   * wait before sending again.
+   * @param millis the time to wait in millis
+   */
+  public static void setRetryAfter(long millis) {
+    RETRY_AFTER.set(millis);
+  }
+
+  /**
+   * @return the time in millis the host asked to wait in the response being
+   * handled by the current thread, or 0 if it did not ask to wait
+   */
+  public static long takeRetryAfter() {
+    Long millis = RETRY_AFTER.get();
+    RETRY_AFTER.remove();
+    return millis == null ? 0 : millis;
+  }
+
+  @Override
+  public void serverReceiveRequest(RPCContext context) {
+    RETRY_AFTER.remove();
+  }
+
+  @Override
+  public void serverSendResponse(RPCContext context) {
+    Long millis = RETRY_AFTER.get();
+    if (millis != null) {
+      RETRY_AFTER.remove();
+      ByteBuffer value = ByteBuffer.allocate(8);
+      value.putLong(0, millis);
+      context.responseCallMeta().put(RETRY_AFTER_META, value);
+    }
+  }
+
+  @Override
+  public void clientReceiveResponse(RPCContext context) {
+    ByteBuffer value = context.responseCallMeta().get(RETRY_AFTER_META);
+    if (value != null && value.remaining() == 8) {
+      RETRY_AFTER.set(value.getLong(value.position()));
+    } else {
+      RETRY_AFTER.remove();
+    }
+  }
+}
@@ -80,6 +80,18 @@ public final class RpcClientConfigurationConstants {
   public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS =
       TimeUnit.MILLISECONDS.convert(20, TimeUnit.SECONDS);
 
+  /**
+   * Configuration key to specify the maximum number of requests an
+   * {@link AsyncRpcClient} may have outstanding per connection. The default
+   * of {@value #DEFAULT_MAX_IN_FLIGHT} means requests are not pipelined.
+   */
+  public static final String CONFIG_MAX_IN_FLIGHT = "max-in-flight";
+
+  /**
+   * Default maximum number of outstanding requests per connection.
+   */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+
   /**
    * Maximum attempts to be made by the FailoverRpcClient in case of
    * failures.
@@ -106,14 +118,21 @@ public final class RpcClientConfigurationConstants {
   /**
    * The selector type used by the <tt>LoadBalancingRpcClient</tt>. This
    * value of this setting could be either <tt>round_robin</tt>,
-   * <tt>random</tt>, or the fully qualified name class that implements the
-   * <tt>LoadBalancingRpcClient.HostSelector</tt> interface.
+   * <tt>random</tt>, <tt>latency</tt>, or the fully qualified name class that
+   * implements the <tt>LoadBalancingRpcClient.HostSelector</tt> interface.
    */
   public static final String CONFIG_HOST_SELECTOR =
       "host-selector";
 
   public static final String HOST_SELECTOR_ROUND_ROBIN = "ROUND_ROBIN";
   public static final String HOST_SELECTOR_RANDOM = "RANDOM";
+  public static final String HOST_SELECTOR_LATENCY = "LATENCY";
+
+  /**
+   * Time (ms) over which the <tt>latency</tt> host selector forgets old
+   * latency samples.
+   */
+  public static final String CONFIG_LATENCY_DECAY = "latencyDecay";
 
   public static final String CONFIG_MAX_BACKOFF = "maxBackoff";
   public static final String CONFIG_BACKOFF = "backoff";
@@ -128,7 +147,10 @@ public final class RpcClientConfigurationConstants {
 
   /**
    * The following are const for the NettyAvro Client.  To enable compression
-   * and set a compression level
+   * and set a compression level. The compression type is either
+   * <tt>deflate</tt>, which compresses the connection as a stream at the
+   * given level, or <tt>snappy</tt>, which compresses each request separately,
+   * see {@link SnappyFrameCodec}.
    */
   public static final String CONFIG_COMPRESSION_TYPE = "compression-type";
   public static final String CONFIG_COMPRESSION_LEVEL = "compression-level";
@@ -153,6 +175,31 @@ public final class RpcClientConfigurationConstants {
    */
   public static final String MAX_IO_WORKERS = "maxIoWorkers";
 
+  /**
+   * Number of connections each NettyAvroRpcClient keeps to its host.
+   */
+  public static final String CONFIG_CONNECTIONS_PER_HOST =
+      "connections-per-host";
+  public static final int DEFAULT_CONNECTIONS_PER_HOST = 1;
+
+  /**
+   * Interval (ms) at which a NettyAvroRpcClient with more than one
+   * connection probes its idle connections and reopens failed ones.
+   * 0 disables the health check.
+   */
+  public static final String CONFIG_HEALTH_CHECK_INTERVAL =
+      "health-check-interval";
+  public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 30000;
+
+  /**
+   * Time (ms) a ThriftRpcClient waits before sending to a host again after
+   * it answered TRY_LATER. The time doubles with each further TRY_LATER, up
+   * to 32 times this value, and is reset once the host takes events again.
+   * Avro hosts tell the client how long to wait themselves.
+   */
+  public static final String CONFIG_TRY_LATER_BACKOFF = "try-later-backoff";
+  public static final long DEFAULT_TRY_LATER_BACKOFF_MILLIS = 1000;
+
   private RpcClientConfigurationConstants() {
     // disable explicit object creation
   }
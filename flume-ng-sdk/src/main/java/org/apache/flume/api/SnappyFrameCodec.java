@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import java.io.IOException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.xerial.snappy.Snappy;
+
+/**
+ * <p>Netty handlers which compress each message written to an Avro
+ * connection, typically one whole <tt>appendBatch</tt> request, as a
+ * separate snappy block. Unlike the <tt>deflate</tt> compression type, which
+ * compresses the connection as one stream, this keeps no state between
+ * messages and costs a fraction of the CPU.</p>
+ *
+ * <p>Each message is written as a frame: the length of the rest of the frame
+ * as an int, a flag byte telling whether the data is compressed, and the
+ * data. Messages which do not get smaller are stored uncompressed.</p>
+ *
+ * <p>A client using this codec starts the connection with {@link #MAGIC}. A
+ * server which has {@link Detector} first in its pipeline switches to the
+ * codec when a connection starts with the magic and otherwise serves the
+ * connection uncompressed, so clients can be moved to the codec one at a
+ * time.</p>
+ *
+ * <p>snappy-java is an optional dependency of the SDK. Clients which use
+ * compression-type snappy must add it to their classpath themselves.</p>
+ */
+public final class SnappyFrameCodec {
+
+  /**
+   * Bytes a client sends when it opens a connection: "FLZ" and the codec
+   * version.
+   */
+  public static final int MAGIC = 0x464c5a01;
+
+  /**
+   * Frames longer than this are taken as corrupt.
+   */
+  public static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+  private static final byte STORED = 0;
+  private static final byte COMPRESSED = 1;
+  private static final int HEADER_LENGTH = 5;
+
+  private SnappyFrameCodec() {
+    // disable explicit object creation
+  }
+
+  /**
+   * Compresses each outgoing message into one frame. Whether the magic was
+   * sent is kept in the handler context, so one encoder may be shared by
+   * several connections.
+   */
+  @ChannelHandler.Sharable
+  public static class Encoder extends OneToOneEncoder {
+    private final boolean sendMagic;
+
+    /**
+     * @param sendMagic whether to start the connection with {@link #MAGIC},
+     * true on the client side
+     */
+    public Encoder(boolean sendMagic) {
+      this.sendMagic = sendMagic;
+    }
+
+    @Override
+    protected Object encode(ChannelHandlerContext ctx, Channel channel,
+                            Object msg) throws Exception {
+      if (!(msg instanceof ChannelBuffer)) {
+        return msg;
+      }
+      ChannelBuffer buffer = (ChannelBuffer) msg;
+      byte[] data = new byte[buffer.readableBytes()];
+      buffer.readBytes(data);
+      byte[] compressed = Snappy.compress(data);
+      boolean useCompressed = compressed.length < data.length;
+      byte[] payload = useCompressed ? compressed : data;
+
+      // the first message of the connection carries the magic
+      boolean magic = sendMagic && ctx.getAttachment() == null;
+      ChannelBuffer frame = ChannelBuffers.buffer(
+          (magic ? 4 : 0) + HEADER_LENGTH + payload.length);
+      if (magic) {
+        frame.writeInt(MAGIC);
+        ctx.setAttachment(Boolean.TRUE);
+      }
+      frame.writeInt(payload.length + 1);
+      frame.writeByte(useCompressed ? COMPRESSED : STORED);
+      frame.writeBytes(payload);
+      return frame;
+    }
+  }
+
+  /**
+   * Turns incoming frames back into the messages they were made from.
+   */
+  public static class Decoder extends FrameDecoder {
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel,
+                            ChannelBuffer buffer) throws Exception {
+      if (buffer.readableBytes() < 4) {
+        return null;
+      }
+      int length = buffer.getInt(buffer.readerIndex());
+      if (length < 1 || length > MAX_FRAME_LENGTH) {
+        throw new CorruptedFrameException("Invalid snappy frame length: " +
+            length);
+      }
+      if (buffer.readableBytes() < length + 4) {
+        return null;
+      }
+      buffer.skipBytes(4);
+      byte flag = buffer.readByte();
+      byte[] data = new byte[length - 1];
+      buffer.readBytes(data);
+      if (flag == STORED) {
+        return ChannelBuffers.wrappedBuffer(data);
+      } else if (flag == COMPRESSED) {
+        try {
+          return ChannelBuffers.wrappedBuffer(Snappy.uncompress(data));
+        } catch (IOException e) {
+          throw new CorruptedFrameException("Invalid snappy frame", e);
+        }
+      }
+      throw new CorruptedFrameException("Unknown snappy frame flag: " + flag);
+    }
+  }
+
+  /**
+   * Server side handler which looks at the first bytes of a connection. If
+   * they are {@link #MAGIC} it replaces itself with an {@link Encoder} and a
+   * {@link Decoder}, otherwise it removes itself and the connection is not
+   * compressed.
+   */
+  public static class Detector extends FrameDecoder {
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel,
+                            ChannelBuffer buffer) throws Exception {
+      if (buffer.readableBytes() < 4) {
+        return null;
+      }
+      ChannelPipeline pipeline = ctx.getPipeline();
+      if (buffer.getInt(buffer.readerIndex()) == MAGIC) {
+        buffer.skipBytes(4);
+        pipeline.addAfter(ctx.getName(), "snappyDecoder",
+            new Decoder());
+        pipeline.addAfter(ctx.getName(), "snappyEncoder", new Encoder(false));
+      }
+      pipeline.remove(this);
+      // hand what was read so far on to the handlers after this one
+      return buffer.readable() ? buffer.readBytes(buffer.readableBytes()) : null;
+    }
+  }
+}
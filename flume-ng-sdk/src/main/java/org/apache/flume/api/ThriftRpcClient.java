@@ -24,6 +24,7 @@ import org.apache.flume.FlumeException;
 import org.apache.flume.thrift.Status;
 import org.apache.flume.thrift.ThriftFlumeEvent;
 import org.apache.flume.thrift.ThriftSourceProtocol;
+import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.transport.TFastFramedTransport;
@@ -54,10 +55,15 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -80,9 +86,14 @@ public class ThriftRpcClient extends AbstractRpcClient {
   private int port;
   private ConnectionPoolManager connectionManager;
   private final ExecutorService callTimeoutPool;
+  private final ScheduledExecutorService timeoutScheduler;
+  private Semaphore inFlightWindow;
   private final AtomicLong threadCounter;
   private final Random random = new Random();
   private String protocol;
+  private long tryLaterBackoffMillis;
+  private final TryLaterBackoff tryLaterBackoff = new TryLaterBackoff();
+  private final AtomicInteger tryLaterCount = new AtomicInteger();
 
   private boolean enableSsl;
   private String truststore;
@@ -105,6 +116,16 @@ public class ThriftRpcClient extends AbstractRpcClient {
         return t;
       }
     });
+    timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName("Flume Thrift RPC timer");
+            t.setDaemon(true);
+            return t;
+          }
+        });
   }
 
 
@@ -113,8 +134,14 @@ public class ThriftRpcClient extends AbstractRpcClient {
     return batchSize;
   }
 
+  @Override
+  public String toString() {
+    return "ThriftRpcClient { host: " + hostname + ", port: " + port + " }";
+  }
+
   @Override
   public void append(Event event) throws EventDeliveryException {
+    tryLaterBackoff.check(this);
     // Thrift IPC client is not thread safe, so don't allow state changes or
     // client.append* calls unless the lock is acquired.
     ClientWrapper client = null;
@@ -158,6 +185,7 @@ public class ThriftRpcClient extends AbstractRpcClient {
 
   @Override
   public void appendBatch(List<Event> events) throws EventDeliveryException {
+    tryLaterBackoff.check(this);
     // Thrift IPC client is not thread safe, so don't allow state changes or
     // client.append* calls unless the lock is acquired.
     ClientWrapper client = null;
@@ -217,11 +245,7 @@ public class ThriftRpcClient extends AbstractRpcClient {
     return callTimeoutPool.submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
-        Status status = client.client.append(e);
-        if (status != Status.OK) {
-          throw new EventDeliveryException("Failed to deliver events. Server " +
-              "returned status : " + status.name());
-        }
+        checkStatus(client.client.append(e));
         return null;
       }
     });
@@ -233,16 +257,170 @@ public class ThriftRpcClient extends AbstractRpcClient {
     return callTimeoutPool.submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
-        Status status = client.client.appendBatch(e);
-        if (status != Status.OK) {
-          throw new EventDeliveryException("Failed to deliver events. Server " +
-              "returned status : " + status.name());
-        }
+        checkStatus(client.client.appendBatch(e));
         return null;
       }
     });
   }
 
+  @Override
+  public AppendFuture appendAsync(Event event) {
+    final ThriftFlumeEvent thriftEvent = new ThriftFlumeEvent(event
+        .getHeaders(), ByteBuffer.wrap(event.getBody()));
+    return invokeAsync(new ThriftCall() {
+      @Override
+      public Status invoke(ThriftSourceProtocol.Client client)
+          throws TException {
+        return client.append(thriftEvent);
+      }
+    });
+  }
+
+  @Override
+  public AppendFuture appendBatchAsync(List<Event> events) {
+    List<AppendFuture> futures = new ArrayList<AppendFuture>();
+    Iterator<Event> eventsIter = events.iterator();
+    while (eventsIter.hasNext()) {
+      final List<ThriftFlumeEvent> thriftFlumeEvents =
+          new ArrayList<ThriftFlumeEvent>();
+      for (int i = 0; i < batchSize && eventsIter.hasNext(); i++) {
+        Event event = eventsIter.next();
+        thriftFlumeEvents.add(new ThriftFlumeEvent(event.getHeaders(),
+            ByteBuffer.wrap(event.getBody())));
+      }
+      AppendFuture future = invokeAsync(new ThriftCall() {
+        @Override
+        public Status invoke(ThriftSourceProtocol.Client client)
+            throws TException {
+          return client.appendBatch(thriftFlumeEvents);
+        }
+      });
+      futures.add(future);
+      if (future.isDone() && !future.isSuccess()) {
+        break;
+      }
+    }
+    return AppendFuture.allOf(futures);
+  }
+
+  /**
+   * @throws TryLaterException if the host answered TRY_LATER, after which
+   * the client backs off for longer each time until the host answers OK
+   * @throws EventDeliveryException if the host did not answer OK
+   */
+  private void checkStatus(Status status) throws EventDeliveryException {
+    if (status == Status.OK) {
+      tryLaterCount.set(0);
+      return;
+    }
+    if (status == Status.TRY_LATER) {
+      int count = Math.min(tryLaterCount.getAndIncrement(), 5);
+      throw tryLaterBackoff.backoff(this, tryLaterBackoffMillis << count);
+    }
+    throw new EventDeliveryException("Failed to deliver events. Server " +
+        "returned status : " + (status == null ? null : status.name()));
+  }
+
+  private interface ThriftCall {
+    Status invoke(ThriftSourceProtocol.Client client) throws TException;
+  }
+
+  /**
+   * Runs a call on a pooled connection without waiting for it. Thrift
+   * clients can't multiplex requests, so requests in flight at the same time
+   * each use a connection of their own and the in-flight window is bounded
+   * by the connection pool size as well. A call which does not complete
+   * within the request timeout has its connection closed, which is also
+   * what unblocks the thread waiting on it.
+   */
+  private AppendFuture invokeAsync(final ThriftCall call) {
+    final AppendFuture future = new AppendFuture();
+    try {
+      if (!isActive()) {
+        throw new EventDeliveryException("Client was closed " +
+            "due to error or is not yet configured.");
+      }
+      tryLaterBackoff.check(this);
+      if (!inFlightWindow.tryAcquire(requestTimeout, TimeUnit.MILLISECONDS)) {
+        throw new EventDeliveryException("Timed out after " + requestTimeout +
+            " ms waiting for one of " + maxInFlight + " in-flight requests " +
+            "to complete");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      future.setFailure(new EventDeliveryException("Interrupted waiting " +
+          "for in-flight requests", ex));
+      return future;
+    } catch (EventDeliveryException ex) {
+      future.setFailure(ex);
+      return future;
+    }
+    final AtomicReference<ClientWrapper> inUse =
+        new AtomicReference<ClientWrapper>();
+    final ScheduledFuture<?> timeout;
+    try {
+      timeout = timeoutScheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (future.setFailure(new EventDeliveryException(
+              "Append call timeout", new TimeoutException()))) {
+            ClientWrapper client = inUse.get();
+            if (client != null) {
+              client.transport.close();
+            }
+          }
+        }
+      }, requestTimeout, TimeUnit.MILLISECONDS);
+      future.addListener(new AppendFuture.Listener() {
+        @Override
+        public void operationComplete(AppendFuture f) {
+          timeout.cancel(false);
+          inFlightWindow.release();
+        }
+      });
+      callTimeoutPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          ClientWrapper client = null;
+          boolean destroyedClient = false;
+          try {
+            client = connectionManager.checkout();
+            if (future.isDone()) {
+              // timed out waiting for a connection
+              return;
+            }
+            inUse.set(client);
+            checkStatus(call.invoke(client.client));
+            if (!future.setSuccess()) {
+              // timed out meanwhile, so the transport may have been closed
+              destroyedClient = true;
+              connectionManager.destroy(client);
+            }
+          } catch (TryLaterException e) {
+            future.setFailure(e);
+          } catch (Throwable e) {
+            destroyedClient = true;
+            if (client != null) {
+              connectionManager.destroy(client);
+            }
+            future.setFailure(e instanceof EventDeliveryException ? e :
+                new EventDeliveryException("Failed to send event. ", e));
+          } finally {
+            inUse.set(null);
+            if (client != null && !destroyedClient) {
+              connectionManager.checkIn(client);
+            }
+          }
+        }
+      });
+    } catch (RuntimeException ex) {
+      // the client is being closed
+      future.setFailure(new EventDeliveryException("Failed to send event. ",
+          ex));
+    }
+    return future;
+  }
+
   @Override
   public boolean isActive() {
     stateLock.lock();
@@ -260,6 +438,7 @@ public class ThriftRpcClient extends AbstractRpcClient {
       stateLock.lock();
       connState = State.DEAD;
       connectionManager.closeAll();
+      timeoutScheduler.shutdownNow();
       callTimeoutPool.shutdown();
       if (!callTimeoutPool.awaitTermination(5, TimeUnit.SECONDS)) {
         callTimeoutPool.shutdownNow();
@@ -312,6 +491,16 @@ public class ThriftRpcClient extends AbstractRpcClient {
         requestTimeout =
             RpcClientConfigurationConstants.DEFAULT_REQUEST_TIMEOUT_MILLIS;
       }
+      tryLaterBackoffMillis = Long.parseLong(properties.getProperty(
+          RpcClientConfigurationConstants.CONFIG_TRY_LATER_BACKOFF,
+          String.valueOf(
+              RpcClientConfigurationConstants.DEFAULT_TRY_LATER_BACKOFF_MILLIS)));
+      if (tryLaterBackoffMillis < 0) {
+        LOGGER.warn("Try later backoff specified is less than 0. " +
+            "Using default value instead.");
+        tryLaterBackoffMillis =
+            RpcClientConfigurationConstants.DEFAULT_TRY_LATER_BACKOFF_MILLIS;
+      }
       int connectionPoolSize = Integer.parseInt(properties.getProperty(
           RpcClientConfigurationConstants.CONFIG_CONNECTION_POOL_SIZE,
           String.valueOf(RpcClientConfigurationConstants
@@ -344,6 +533,8 @@ public class ThriftRpcClient extends AbstractRpcClient {
         }
       }
 
+      configureMaxInFlight(properties);
+      inFlightWindow = new Semaphore(maxInFlight);
       connectionManager = new ConnectionPoolManager(connectionPoolSize);
       connState = State.READY;
     } catch (Throwable ex) {
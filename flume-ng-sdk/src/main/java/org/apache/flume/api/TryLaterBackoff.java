@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+/**
+ * Keeps an {@link RpcClient} from sending to a host which asked it to try
+ * later until the time it asked for has passed, so that a busy host is not
+ * hit by the retries of all its clients at once.
+ */
+final class TryLaterBackoff {
+
+  private volatile long retryAt;
+
+  /**
+   * @throws TryLaterException if the client is still backing off
+   */
+  void check(Object client) throws TryLaterException {
+    long wait = retryAt - System.currentTimeMillis();
+    if (wait > 0) {
+      throw new TryLaterException(client + ": Host is busy, backing off for " +
+          wait + " ms", wait);
+    }
+  }
+
+  /**
+   * Starts backing off for the given time, unless already backing off for
+   * longer.
+   * @return the exception to fail the request the host refused with
+   */
+  TryLaterException backoff(Object client, long millis) {
+    long until = System.currentTimeMillis() + millis;
+    synchronized (this) {
+      if (until > retryAt) {
+        retryAt = until;
+      }
+    }
+    return new TryLaterException(client + ": Host is busy, asked to try " +
+        "again after " + millis + " ms", millis);
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import org.apache.flume.EventDeliveryException;
+
+/**
+ * Raised by an {@link RpcClient} when the host it sends to is too busy to
+ * take events, either because the host answered so or because the client
+ * is still backing off from an earlier such answer. The events were not
+ * delivered and should be sent again, to this host once
+ * {@link #getRetryAfterMillis()} has passed or to another host right away.
+ */
+public class TryLaterException extends EventDeliveryException {
+
+  private static final long serialVersionUID = -6052232717326582353L;
+
+  private final long retryAfterMillis;
+
+  public TryLaterException(String message, long retryAfterMillis) {
+    super(message);
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  /**
+   * @return the time in millis after which the host expects to take events
+   * again
+   */
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+}
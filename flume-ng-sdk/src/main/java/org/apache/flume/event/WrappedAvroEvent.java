@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.event;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.flume.Event;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+
+/**
+ * An {@link Event} backed by the {@link AvroFlumeEvent} it was received as.
+ * The body array of the Avro event is used as is when it covers the whole
+ * array, and the <tt>CharSequence</tt> headers are only converted to
+ * <tt>String</tt>s the first time they are asked for, so events whose
+ * headers are never looked at before reaching the channel are not copied
+ * at all.
+ *
+ * The Avro event must not be modified once it is wrapped.
+ */
+public class WrappedAvroEvent implements Event {
+
+  private Map<CharSequence, CharSequence> avroHeaders;
+  private ByteBuffer avroBody;
+  private Map<String, String> headers;
+  private byte[] body;
+
+  public WrappedAvroEvent(AvroFlumeEvent avroEvent) {
+    this.avroHeaders = avroEvent.getHeaders();
+    this.avroBody = avroEvent.getBody();
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    if (headers == null) {
+      if (avroHeaders == null) {
+        headers = new HashMap<String, String>();
+      } else {
+        headers = new HashMap<String, String>(
+            (int) (avroHeaders.size() / 0.75f) + 1);
+        for (Map.Entry<CharSequence, CharSequence> entry
+            : avroHeaders.entrySet()) {
+          headers.put(entry.getKey().toString(), entry.getValue().toString());
+        }
+      }
+      avroHeaders = null;
+    }
+    return headers;
+  }
+
+  @Override
+  public void setHeaders(Map<String, String> headers) {
+    this.headers = headers;
+    this.avroHeaders = null;
+  }
+
+  @Override
+  public byte[] getBody() {
+    if (body == null) {
+      ByteBuffer buffer = avroBody;
+      if (buffer == null) {
+        body = new byte[0];
+      } else if (buffer.hasArray() && buffer.arrayOffset() == 0
+          && buffer.position() == 0
+          && buffer.remaining() == buffer.array().length) {
+        body = buffer.array();
+      } else {
+        body = new byte[buffer.remaining()];
+        buffer.duplicate().get(body);
+      }
+      avroBody = null;
+    }
+    return body;
+  }
+
+  @Override
+  public void setBody(byte[] body) {
+    if (body == null) {
+      body = new byte[0];
+    }
+    this.body = body;
+    this.avroBody = null;
+  }
+
+  @Override
+  public String toString() {
+    return "[Event headers = " + getHeaders() + ", body.length = " +
+        getBody().length + " ]";
+  }
+}
@@ -32,7 +32,8 @@ public enum Status implements org.apache.thrift.TEnum {
   OK(0),
   FAILED(1),
   ERROR(2),
-  UNKNOWN(3);
+  UNKNOWN(3),
+  TRY_LATER(4);
 
   private final int value;
 
@@ -61,6 +62,8 @@ public enum Status implements org.apache.thrift.TEnum {
         return ERROR;
       case 3:
         return UNKNOWN;
+      case 4:
+        return TRY_LATER;
       default:
         return null;
     }
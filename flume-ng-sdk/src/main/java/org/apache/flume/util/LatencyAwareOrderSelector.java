@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>An implementation of OrderSelector which orders objects by their
+ * observed latency, so that load moves away from objects which are slow
+ * without failing outright. Also supports backoff.</p>
+ *
+ * <p>Each object has a cost: a moving average of its latency, multiplied by
+ * one plus the number of its requests in flight. The average follows a
+ * slower request right away and otherwise moves towards the latest samples
+ * with the decay time; while no request completes it decays towards zero,
+ * so that an object which was slow is tried again after a while. A failure
+ * counts as a request ten times slower than the average, and at least one
+ * second.</p>
+ *
+ * <p>The first object returned is the cheaper one of two picked at random,
+ * which spreads load over objects of similar cost instead of sending all of
+ * it to the single cheapest one. The remaining objects follow cheapest first.
+ * </p>
+ *
+ * <p>Callers report each request: {@link #informStart(Object)} when it is
+ * sent, then either {@link #informSuccess(Object, long)} or
+ * {@link #informFailure(Object)}. Callers which only ever have one request
+ * outstanding may skip {@code informStart}.</p>
+ */
+public class LatencyAwareOrderSelector<T> extends OrderSelector<T> {
+
+  private static final long DEFAULT_DECAY_TIME = 10000L;
+  private static final int FAILURE_PENALTY_FACTOR = 10;
+  private static final double MIN_FAILURE_PENALTY_MILLIS = 1000.0;
+
+  private final Map<T, LatencyState> latencyMap =
+      new ConcurrentHashMap<T, LatencyState>();
+  private final Random random = new Random();
+  private volatile long decayNanos =
+      TimeUnit.MILLISECONDS.toNanos(DEFAULT_DECAY_TIME);
+
+  public LatencyAwareOrderSelector(boolean shouldBackOff) {
+    super(shouldBackOff);
+  }
+
+  @Override
+  public void setObjects(List<T> objects) {
+    super.setObjects(objects);
+    for (T object : objects) {
+      latencyMap.put(object, new LatencyState());
+    }
+  }
+
+  /**
+   * Sets the time over which the latency average forgets old samples.
+   */
+  public void setDecayTime(long millis) {
+    this.decayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, millis));
+  }
+
+  public long getDecayTime() {
+    return TimeUnit.NANOSECONDS.toMillis(decayNanos);
+  }
+
+  @Override
+  public synchronized Iterator<T> createIterator() {
+    List<Integer> indexList = getIndexList();
+    List<T> objects = getObjects();
+    long now = System.nanoTime();
+
+    final double[] costs = new double[objects.size()];
+    for (int index : indexList) {
+      costs[index] = latencyMap.get(objects.get(index)).getCost(now, decayNanos);
+    }
+    Integer[] order = indexList.toArray(new Integer[indexList.size()]);
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(costs[a], costs[b]);
+      }
+    });
+
+    int size = order.length;
+    int first = 0;
+    if (size > 1) {
+      int a = random.nextInt(size);
+      int b = random.nextInt(size - 1);
+      if (b >= a) {
+        b++;
+      }
+      first = costs[order[a]] <= costs[order[b]] ? a : b;
+    }
+    int[] indexOrder = new int[size];
+    if (size > 0) {
+      indexOrder[0] = order[first];
+    }
+    for (int i = 0, j = 1; i < size; i++) {
+      if (i != first) {
+        indexOrder[j++] = order[i];
+      }
+    }
+
+    return new SpecificOrderIterator<T>(indexOrder, objects);
+  }
+
+  /**
+   * Inform this class that a request was sent to an object.
+   */
+  public void informStart(T object) {
+    LatencyState state = latencyMap.get(object);
+    if (state != null) {
+      state.start();
+    }
+  }
+
+  /**
+   * Inform this class that a request to an object succeeded.
+   * @param latencyNanos time the request took
+   */
+  public void informSuccess(T object, long latencyNanos) {
+    LatencyState state = latencyMap.get(object);
+    if (state != null) {
+      state.succeeded(System.nanoTime(), latencyNanos, decayNanos);
+    }
+  }
+
+  @Override
+  public synchronized void informFailure(T failedObject) {
+    super.informFailure(failedObject);
+    LatencyState state = latencyMap.get(failedObject);
+    if (state != null) {
+      state.failed(System.nanoTime(), decayNanos);
+    }
+  }
+
+  /**
+   * @return the current statistics of an object, or null if it is not one
+   * of the objects of this selector
+   */
+  public Stats getStats(T object) {
+    LatencyState state = latencyMap.get(object);
+    return state == null ? null : state.snapshot(System.nanoTime(), decayNanos);
+  }
+
+  /**
+   * Latency statistics of one of the objects.
+   */
+  public static class Stats {
+    private final double latencyMillis;
+    private final int inFlight;
+    private final long successCount;
+    private final long failureCount;
+
+    Stats(double latencyMillis, int inFlight, long successCount,
+          long failureCount) {
+      this.latencyMillis = latencyMillis;
+      this.inFlight = inFlight;
+      this.successCount = successCount;
+      this.failureCount = failureCount;
+    }
+
+    /**
+     * @return the moving average of the latency, including failure penalties
+     */
+    public double getLatencyMillis() {
+      return latencyMillis;
+    }
+
+    public int getInFlight() {
+      return inFlight;
+    }
+
+    public long getSuccessCount() {
+      return successCount;
+    }
+
+    public long getFailureCount() {
+      return failureCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("latency: %.2f ms, in flight: %d, succeeded: %d, " +
+          "failed: %d", latencyMillis, inFlight, successCount, failureCount);
+    }
+  }
+
+  private static class LatencyState {
+    private double averageMillis;
+    private long lastUpdate;
+    private boolean sampled;
+    private int inFlight;
+    private long successCount;
+    private long failureCount;
+
+    synchronized void start() {
+      inFlight++;
+    }
+
+    synchronized void succeeded(long now, long latencyNanos, long decayNanos) {
+      complete();
+      successCount++;
+      observe(now, latencyNanos / 1000000.0, decayNanos);
+    }
+
+    synchronized void failed(long now, long decayNanos) {
+      complete();
+      failureCount++;
+      observe(now, Math.max(MIN_FAILURE_PENALTY_MILLIS,
+          FAILURE_PENALTY_FACTOR * getAverage(now, decayNanos)), decayNanos);
+    }
+
+    synchronized double getCost(long now, long decayNanos) {
+      return getAverage(now, decayNanos) * (inFlight + 1);
+    }
+
+    synchronized Stats snapshot(long now, long decayNanos) {
+      return new Stats(getAverage(now, decayNanos), inFlight, successCount,
+          failureCount);
+    }
+
+    private void complete() {
+      if (inFlight > 0) {
+        inFlight--;
+      }
+    }
+
+    private void observe(long now, double millis, long decayNanos) {
+      double average = getAverage(now, decayNanos);
+      if (!sampled || millis > average) {
+        averageMillis = millis;
+      } else {
+        double weight = weight(now, decayNanos);
+        averageMillis = averageMillis * weight + millis * (1 - weight);
+      }
+      sampled = true;
+      lastUpdate = now;
+    }
+
+    /**
+     * The average as if requests of no latency had completed since the last
+     * update.
+     */
+    private double getAverage(long now, long decayNanos) {
+      return sampled ? averageMillis * weight(now, decayNanos) : 0.0;
+    }
+
+    private double weight(long now, long decayNanos) {
+      return Math.exp(-(double) Math.max(0L, now - lastUpdate) / decayNanos);
+    }
+  }
+}
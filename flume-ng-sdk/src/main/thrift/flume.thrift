@@ -28,7 +28,9 @@ enum Status {
   OK,
   FAILED,
   ERROR,
-  UNKNOWN
+  UNKNOWN,
+  // only sent by sources with try-later set, older clients do not know it
+  TRY_LATER
 }
 
 service ThriftSourceProtocol {
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.api;
+
+import junit.framework.Assert;
+import org.apache.flume.EventDeliveryException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestAppendFuture {
+
+  @Test
+  public void testAllOfSucceeds() {
+    List<AppendFuture> futures = newFutures(3);
+    AppendFuture all = AppendFuture.allOf(futures);
+    futures.get(1).setSuccess();
+    futures.get(0).setSuccess();
+    Assert.assertFalse(all.isDone());
+    futures.get(2).setSuccess();
+    Assert.assertTrue(all.isSuccess());
+  }
+
+  @Test
+  public void testAllOfWaitsForAllAfterFailure() {
+    List<AppendFuture> futures = newFutures(3);
+    AppendFuture all = AppendFuture.allOf(futures);
+    EventDeliveryException first = new EventDeliveryException("first");
+    futures.get(0).setFailure(first);
+    Assert.assertFalse(all.isDone());
+    futures.get(1).setFailure(new EventDeliveryException("second"));
+    Assert.assertFalse(all.isDone());
+    futures.get(2).setSuccess();
+    Assert.assertTrue(all.isDone());
+    Assert.assertFalse(all.isSuccess());
+    Assert.assertSame(first, all.getCause());
+  }
+
+  @Test
+  public void testAllOfEmpty() {
+    Assert.assertTrue(
+        AppendFuture.allOf(new ArrayList<AppendFuture>()).isSuccess());
+  }
+
+  private static List<AppendFuture> newFutures(int count) {
+    List<AppendFuture> futures = new ArrayList<AppendFuture>();
+    for (int i = 0; i < count; i++) {
+      futures.add(new AppendFuture());
+    }
+    return futures;
+  }
+}
@@ -28,6 +28,7 @@ import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 import org.apache.flume.api.RpcTestUtils.FailedAvroHandler;
+import org.apache.flume.api.RpcTestUtils.LoadBalancedAvroHandler;
 import org.apache.flume.api.RpcTestUtils.OKAvroHandler;
 import org.apache.flume.api.RpcTestUtils.ThrowingAvroHandler;
 import org.apache.flume.api.RpcTestUtils.UnknownAvroHandler;
@@ -396,4 +397,147 @@ public class TestNettyAvroRpcClient {
       }
     }
   }
+
+  /**
+   * Several batches in flight at the same time on one connection
+   */
+  @Test
+  public void testAppendBatchAsync() throws FlumeException,
+      EventDeliveryException {
+    NettyAvroRpcClient client = null;
+    Server server = RpcTestUtils.startServer(new OKAvroHandler());
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_BATCH_SIZE, "10");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_MAX_IN_FLIGHT, "4");
+    try {
+      client = RpcTestUtils.getStockLocalClient(server.getPort(), props);
+      Assert.assertEquals(4, client.getMaxInFlight());
+      List<Event> events = new ArrayList<Event>();
+      for (int i = 0; i < 95; i++) {
+        events.add(EventBuilder.withBody("evt: " + i, Charset.forName("UTF8")));
+      }
+      List<AppendFuture> futures = new ArrayList<AppendFuture>();
+      for (int i = 0; i < 5; i++) {
+        futures.add(client.appendBatchAsync(events));
+      }
+      AppendFuture.allOf(futures).await();
+      for (AppendFuture future : futures) {
+        Assert.assertTrue(future.isSuccess());
+      }
+      Assert.assertTrue(client.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) {
+        client.close();
+      }
+    }
+  }
+
+  /**
+   * Failures are reported through the future and leave the client inactive
+   */
+  @Test
+  public void testAppendBatchAsyncFailure() throws FlumeException {
+    NettyAvroRpcClient client = null;
+    Server server = RpcTestUtils.startServer(new FailedAvroHandler());
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_MAX_IN_FLIGHT, "2");
+    try {
+      client = RpcTestUtils.getStockLocalClient(server.getPort(), props);
+      List<Event> events = new ArrayList<Event>();
+      for (int i = 0; i < 10; i++) {
+        events.add(EventBuilder.withBody("evt: " + i, Charset.forName("UTF8")));
+      }
+      AppendFuture future = client.appendBatchAsync(events);
+      try {
+        future.await();
+        Assert.fail("Expected EventDeliveryException");
+      } catch (EventDeliveryException e) {
+        logger.info("Received expected exception", e);
+      }
+      Assert.assertFalse(future.isSuccess());
+      Assert.assertNotNull(future.getCause());
+      Assert.assertFalse(client.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) {
+        client.close();
+      }
+    }
+  }
+
+  /**
+   * Requests spread over several connections, which are then replaced
+   * without closing the client
+   */
+  @Test
+  public void testConnectionPool() throws FlumeException,
+      EventDeliveryException {
+    NettyAvroRpcClient client = null;
+    LoadBalancedAvroHandler handler = new LoadBalancedAvroHandler();
+    Server server = RpcTestUtils.startServer(handler);
+    Properties props = new Properties();
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_BATCH_SIZE, "10");
+    props.setProperty(RpcClientConfigurationConstants.CONFIG_MAX_IN_FLIGHT, "2");
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_CONNECTIONS_PER_HOST, "3");
+    try {
+      client = RpcTestUtils.getStockLocalClient(server.getPort(), props);
+      Assert.assertEquals(6, client.getMaxInFlight());
+      List<Event> events = new ArrayList<Event>();
+      for (int i = 0; i < 60; i++) {
+        events.add(EventBuilder.withBody("evt: " + i, Charset.forName("UTF8")));
+      }
+      AppendFuture future = client.appendBatchAsync(events);
+      future.await();
+      Assert.assertTrue(future.isSuccess());
+
+      client.resetConnections();
+      Assert.assertTrue(client.isActive());
+      client.appendBatch(events.subList(0, 10));
+      client.append(events.get(0));
+      Assert.assertEquals(1, handler.getAppendCount());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) {
+        client.close();
+      }
+    }
+  }
+
+  /**
+   * A failed request only takes its connection out of the pool, the client
+   * is inactive once all of them are gone
+   */
+  @Test
+  public void testConnectionPoolFailure() throws FlumeException {
+    NettyAvroRpcClient client = null;
+    LoadBalancedAvroHandler handler = new LoadBalancedAvroHandler();
+    Server server = RpcTestUtils.startServer(handler);
+    Properties props = new Properties();
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_CONNECTIONS_PER_HOST, "2");
+    props.setProperty(
+        RpcClientConfigurationConstants.CONFIG_HEALTH_CHECK_INTERVAL, "0");
+    try {
+      client = RpcTestUtils.getStockLocalClient(server.getPort(), props);
+      handler.setFailed();
+      for (int i = 0; i < 2; i++) {
+        Assert.assertTrue(client.isActive());
+        try {
+          client.append(EventBuilder.withBody("evt: " + i,
+              Charset.forName("UTF8")));
+          Assert.fail("Expected EventDeliveryException");
+        } catch (EventDeliveryException e) {
+          logger.info("Received expected exception", e);
+        }
+      }
+      Assert.assertFalse(client.isActive());
+    } finally {
+      RpcTestUtils.stopServer(server);
+      if (client != null) {
+        client.close();
+      }
+    }
+  }
 }
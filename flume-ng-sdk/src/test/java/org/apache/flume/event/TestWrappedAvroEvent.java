@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.event;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.flume.Event;
+import org.apache.flume.source.avro.AvroFlumeEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWrappedAvroEvent {
+
+  @Test
+  public void testBodyIsNotCopied() {
+    byte[] body = "e1".getBytes();
+    AvroFlumeEvent avroEvent = new AvroFlumeEvent(
+        new HashMap<CharSequence, CharSequence>(), ByteBuffer.wrap(body));
+    Event e1 = new WrappedAvroEvent(avroEvent);
+    Assert.assertSame(body, e1.getBody());
+  }
+
+  @Test
+  public void testBodySlice() {
+    ByteBuffer buffer = ByteBuffer.wrap("xxe1".getBytes());
+    buffer.position(2);
+    AvroFlumeEvent avroEvent = new AvroFlumeEvent(
+        new HashMap<CharSequence, CharSequence>(), buffer.slice());
+    Event e1 = new WrappedAvroEvent(avroEvent);
+    Assert.assertArrayEquals("e1".getBytes(), e1.getBody());
+  }
+
+  @Test
+  public void testHeaders() {
+    Map<CharSequence, CharSequence> headers =
+        new HashMap<CharSequence, CharSequence>();
+    headers.put(new Utf8("one"), new Utf8("1"));
+    headers.put("two", "2");
+    AvroFlumeEvent avroEvent = new AvroFlumeEvent(headers,
+        ByteBuffer.wrap("e1".getBytes()));
+
+    Event e1 = new WrappedAvroEvent(avroEvent);
+    Assert.assertEquals(2, e1.getHeaders().size());
+    Assert.assertEquals("1", e1.getHeaders().get("one"));
+    Assert.assertEquals("2", e1.getHeaders().get("two"));
+
+    e1.getHeaders().put("three", "3");
+    Assert.assertEquals("3", e1.getHeaders().get("three"));
+
+    Map<String, String> replaced = new HashMap<String, String>();
+    e1.setHeaders(replaced);
+    Assert.assertSame(replaced, e1.getHeaders());
+  }
+
+  @Test
+  public void testSetBody() {
+    AvroFlumeEvent avroEvent = new AvroFlumeEvent(
+        new HashMap<CharSequence, CharSequence>(),
+        ByteBuffer.wrap("e1".getBytes()));
+    Event e1 = new WrappedAvroEvent(avroEvent);
+    e1.setBody("e2".getBytes());
+    Assert.assertArrayEquals("e2".getBytes(), e1.getBody());
+    e1.setBody(null);
+    Assert.assertEquals(0, e1.getBody().length);
+  }
+}
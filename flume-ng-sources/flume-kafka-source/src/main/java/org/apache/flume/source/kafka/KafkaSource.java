@@ -17,19 +17,32 @@
 package org.apache.flume.source.kafka;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import kafka.cluster.BrokerEndPoint;
 import kafka.utils.ZKGroupTopicDirs;
 import kafka.utils.ZkUtils;
@@ -55,6 +68,7 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.protocol.SecurityProtocol;
@@ -92,6 +106,13 @@ import static scala.collection.JavaConverters.asJavaListConverter;
  * <tt>useFlumeEventFormat: </tt> Reads events from Kafka Topic as an Avro FlumeEvent. Used
  * in conjunction with useFlumeEventFormat (Kafka Sink) or parseAsFlumeEvent (Kafka Channel)
  * <p>
+ * <tt>workerThreads: </tt> Number of threads writing polled messages to the Channel while
+ * the source keeps polling. Offsets are then committed asynchronously once the Channel took
+ * the messages. 0 polls, writes and commits on a single thread. Default: 0
+ * <p>
+ * <tt>workerQueueCapacity: </tt> Number of polled messages waiting for a worker thread above
+ * which the source pauses polling. Default: 10000
+ * <p>
  */
 public class KafkaSource extends AbstractPollableSource
         implements Configurable {
@@ -111,16 +132,20 @@ public class KafkaSource extends AbstractPollableSource
   private Map<TopicPartition, OffsetAndMetadata> tpAndOffsetMetadata;
   private AtomicBoolean rebalanceFlag;
 
-  private Map<String, String> headers;
-
-  private Optional<SpecificDatumReader<AvroFlumeEvent>> reader = Optional.absent();
-  private BinaryDecoder decoder = null;
+  private final AvroEventDecoder avroDecoder = new AvroEventDecoder();
 
   private boolean useAvroEventFormat;
 
   private int batchUpperLimit;
   private int maxBatchDurationMillis;
 
+  private int workerThreads;
+  private int workerQueueCapacity;
+  private Pipeline pipeline;
+  private int maxWriteAttempts = 10;
+  private long maxRetryBackoff = 4000;
+  private long revokeTimeout = 10000;
+
   private Subscriber subscriber;
 
   private String zookeeperConnect;
@@ -179,11 +204,11 @@ public class KafkaSource extends AbstractPollableSource
 
   @Override
   protected Status doProcess() throws EventDeliveryException {
+    if (pipeline != null) {
+      return pipeline.process();
+    }
+
     final String batchUUID = UUID.randomUUID().toString();
-    byte[] kafkaMessage;
-    String kafkaKey;
-    Event event;
-    byte[] eventBody;
 
     try {
       // prepare time variables for new batch
@@ -220,64 +245,7 @@ public class KafkaSource extends AbstractPollableSource
 
         // get next message
         ConsumerRecord<String, byte[]> message = it.next();
-        kafkaKey = message.key();
-        kafkaMessage = message.value();
-
-        if (useAvroEventFormat) {
-          //Assume the event is in Avro format using the AvroFlumeEvent schema
-          //Will need to catch the exception if it is not
-          ByteArrayInputStream in =
-                  new ByteArrayInputStream(message.value());
-          decoder = DecoderFactory.get().directBinaryDecoder(in, decoder);
-          if (!reader.isPresent()) {
-            reader = Optional.of(
-                    new SpecificDatumReader<AvroFlumeEvent>(AvroFlumeEvent.class));
-          }
-          //This may throw an exception but it will be caught by the
-          //exception handler below and logged at error
-          AvroFlumeEvent avroevent = reader.get().read(null, decoder);
-
-          eventBody = avroevent.getBody().array();
-          headers = toStringMap(avroevent.getHeaders());
-        } else {
-          eventBody = message.value();
-          headers.clear();
-          headers = new HashMap<String, String>(4);
-        }
-
-        // Add headers to event (timestamp, topic, partition, key) only if they don't exist
-        if (!headers.containsKey(KafkaSourceConstants.TIMESTAMP_HEADER)) {
-          headers.put(KafkaSourceConstants.TIMESTAMP_HEADER,
-              String.valueOf(System.currentTimeMillis()));
-        }
-        if (!headers.containsKey(KafkaSourceConstants.TOPIC_HEADER)) {
-          headers.put(KafkaSourceConstants.TOPIC_HEADER, message.topic());
-        }
-        if (!headers.containsKey(KafkaSourceConstants.PARTITION_HEADER)) {
-          headers.put(KafkaSourceConstants.PARTITION_HEADER,
-              String.valueOf(message.partition()));
-        }
-
-        if (kafkaKey != null) {
-          headers.put(KafkaSourceConstants.KEY_HEADER, kafkaKey);
-        }
-
-        if (log.isTraceEnabled()) {
-          if (LogPrivacyUtil.allowLogRawData()) {
-            log.trace("Topic: {} Partition: {} Message: {}", new String[]{
-                message.topic(),
-                String.valueOf(message.partition()),
-                new String(eventBody)
-            });
-          } else {
-            log.trace("Topic: {} Partition: {} Message arrived.",
-                message.topic(),
-                String.valueOf(message.partition()));
-          }
-        }
-
-        event = EventBuilder.withBody(eventBody, headers);
-        eventList.add(event);
+        eventList.add(toEvent(message, avroDecoder));
 
         if (log.isDebugEnabled()) {
           log.debug("Waited: {} ", System.currentTimeMillis() - batchStartTime);
@@ -330,7 +298,6 @@ public class KafkaSource extends AbstractPollableSource
   @Override
   protected void doConfigure(Context context) throws FlumeException {
     this.context = context;
-    headers = new HashMap<String, String>(4);
     tpAndOffsetMetadata = new HashMap<TopicPartition, OffsetAndMetadata>();
     rebalanceFlag = new AtomicBoolean(false);
     kafkaProps = new Properties();
@@ -363,6 +330,15 @@ public class KafkaSource extends AbstractPollableSource
       log.debug(KafkaSourceConstants.AVRO_EVENT + " set to: {}", useAvroEventFormat);
     }
 
+    workerThreads = context.getInteger(KafkaSourceConstants.WORKER_THREADS,
+                                       KafkaSourceConstants.DEFAULT_WORKER_THREADS);
+    Preconditions.checkState(workerThreads >= 0, "%s must not be negative",
+        KafkaSourceConstants.WORKER_THREADS);
+    workerQueueCapacity = context.getInteger(KafkaSourceConstants.WORKER_QUEUE_CAPACITY,
+        KafkaSourceConstants.DEFAULT_WORKER_QUEUE_CAPACITY);
+    Preconditions.checkState(workerQueueCapacity > 0, "%s must be greater than zero",
+        KafkaSourceConstants.WORKER_QUEUE_CAPACITY);
+
     zookeeperConnect = context.getString(ZOOKEEPER_CONNECT_FLUME_KEY);
     migrateZookeeperOffsets = context.getBoolean(MIGRATE_ZOOKEEPER_OFFSETS,
         DEFAULT_MIGRATE_ZOOKEEPER_OFFSETS);
@@ -471,6 +447,23 @@ public class KafkaSource extends AbstractPollableSource
     return bootstrapServers;
   }
 
+  @VisibleForTesting
+  KafkaConsumer<String, byte[]> createConsumer() {
+    return new KafkaConsumer<String, byte[]>(kafkaProps);
+  }
+
+  /**
+   * How often the workers of a pipelined source try to write a batch, the
+   * longest they back off between two attempts and how long a rebalance
+   * waits for them.
+   */
+  @VisibleForTesting
+  void setPipelineRetries(int maxWriteAttempts, long maxRetryBackoff, long revokeTimeout) {
+    this.maxWriteAttempts = maxWriteAttempts;
+    this.maxRetryBackoff = maxRetryBackoff;
+    this.revokeTimeout = revokeTimeout;
+  }
+
   Properties getConsumerProps() {
     return kafkaProps;
   }
@@ -486,6 +479,78 @@ public class KafkaSource extends AbstractPollableSource
     return stringMap;
   }
 
+  /**
+   * Turns a Kafka record into an event, adding the timestamp, topic,
+   * partition and key headers unless the event already carries them.
+   */
+  private Event toEvent(ConsumerRecord<String, byte[]> message, AvroEventDecoder avroDecoder)
+      throws IOException {
+    byte[] eventBody;
+    Map<String, String> headers;
+    if (useAvroEventFormat) {
+      //Assume the event is in Avro format using the AvroFlumeEvent schema
+      //Will need to catch the exception if it is not
+      AvroFlumeEvent avroevent = avroDecoder.decode(message.value());
+      eventBody = avroevent.getBody().array();
+      headers = toStringMap(avroevent.getHeaders());
+    } else {
+      eventBody = message.value();
+      headers = new HashMap<String, String>(4);
+    }
+
+    // Add headers to event (timestamp, topic, partition, key) only if they don't exist
+    if (!headers.containsKey(KafkaSourceConstants.TIMESTAMP_HEADER)) {
+      headers.put(KafkaSourceConstants.TIMESTAMP_HEADER,
+          String.valueOf(System.currentTimeMillis()));
+    }
+    if (!headers.containsKey(KafkaSourceConstants.TOPIC_HEADER)) {
+      headers.put(KafkaSourceConstants.TOPIC_HEADER, message.topic());
+    }
+    if (!headers.containsKey(KafkaSourceConstants.PARTITION_HEADER)) {
+      headers.put(KafkaSourceConstants.PARTITION_HEADER,
+          String.valueOf(message.partition()));
+    }
+
+    if (message.key() != null) {
+      headers.put(KafkaSourceConstants.KEY_HEADER, message.key());
+    }
+
+    if (log.isTraceEnabled()) {
+      if (LogPrivacyUtil.allowLogRawData()) {
+        log.trace("Topic: {} Partition: {} Message: {}", new String[]{
+            message.topic(),
+            String.valueOf(message.partition()),
+            new String(eventBody)
+        });
+      } else {
+        log.trace("Topic: {} Partition: {} Message arrived.",
+            message.topic(),
+            String.valueOf(message.partition()));
+      }
+    }
+
+    return EventBuilder.withBody(eventBody, headers);
+  }
+
+  /**
+   * Reads AvroFlumeEvents, reusing its reader and decoder between records.
+   * Not thread safe, each thread decoding records needs its own.
+   */
+  private static class AvroEventDecoder {
+    private Optional<SpecificDatumReader<AvroFlumeEvent>> reader = Optional.absent();
+    private BinaryDecoder decoder = null;
+
+    AvroFlumeEvent decode(byte[] data) throws IOException {
+      ByteArrayInputStream in = new ByteArrayInputStream(data);
+      decoder = DecoderFactory.get().directBinaryDecoder(in, decoder);
+      if (!reader.isPresent()) {
+        reader = Optional.of(
+                new SpecificDatumReader<AvroFlumeEvent>(AvroFlumeEvent.class));
+      }
+      return reader.get().read(null, decoder);
+    }
+  }
+
   <T> Subscriber<T> getSubscriber() {
     return subscriber;
   }
@@ -510,19 +575,33 @@ public class KafkaSource extends AbstractPollableSource
     }
 
     //initialize a consumer.
-    consumer = new KafkaConsumer<String, byte[]>(kafkaProps);
+    consumer = createConsumer();
+
+    if (workerThreads > 0) {
+      pipeline = new Pipeline();
+      it = null;
+    }
 
     // Subscribe for topics by already specified strategy
-    subscriber.subscribe(consumer, new SourceRebalanceListener(rebalanceFlag));
+    subscriber.subscribe(consumer, new SourceRebalanceListener(rebalanceFlag, pipeline));
 
     // Connect to kafka. 1 second is optimal time.
-    it = consumer.poll(1000).iterator();
+    if (pipeline != null) {
+      pipeline.start();
+      pipeline.dispatch(consumer.poll(1000));
+    } else {
+      it = consumer.poll(1000).iterator();
+    }
     log.info("Kafka source {} started.", getName());
     counter.start();
   }
 
   @Override
   protected void doStop() throws FlumeException {
+    if (pipeline != null) {
+      pipeline.stop();
+      pipeline = null;
+    }
     if (consumer != null) {
       consumer.wakeup();
       consumer.close();
@@ -531,6 +610,441 @@ public class KafkaSource extends AbstractPollableSource
     log.info("Kafka Source {} stopped. Metrics: {}", getName(), counter);
   }
 
+  /**
+   * Writes polled records to the channel on worker threads, so that the
+   * runner thread goes on polling while a batch is being committed.
+   * <p>
+   * The runner thread is the only one using the consumer. It hands the
+   * records of each partition, in order, to the same worker and pauses the
+   * assigned partitions while more than workerQueueCapacity records wait to
+   * be written. A worker decodes a batch, writes it to the channel, retrying
+   * a few times until the channel takes it, and then marks the batch offsets
+   * completed. The runner thread commits completed offsets to Kafka
+   * asynchronously, so the committed offset of a partition never passes a
+   * record that the channel has not taken.
+   * <p>
+   * Each assignment of a partition gets a new generation, which its batches
+   * carry. When the partition is revoked, or a batch of it could not be
+   * written, its generation ends: the workers skip the records of the ended
+   * generation still queued and complete no more offsets for it. After a
+   * failed batch the runner thread seeks the partition back to the first
+   * record of the batch and starts a new generation.
+   */
+  private class Pipeline implements ConsumerRebalanceListener {
+    private static final long STOP_TIMEOUT = 10000;
+
+    private final List<BlockingQueue<Batch>> queues;
+    private final ExecutorService workers;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // current generation of each assigned partition, null while a failed
+    // batch waits to be read again, guarded by generations
+    private final Map<TopicPartition, Integer> generations =
+        new HashMap<TopicPartition, Integer>();
+    private int lastGeneration = 0;
+    // offset to go back to of each partition whose batch could not be written
+    private final ConcurrentMap<TopicPartition, Long> seeks =
+        new ConcurrentHashMap<TopicPartition, Long>();
+    // next offset to read of each partition, once the channel took the ones before it
+    private final ConcurrentMap<TopicPartition, OffsetAndMetadata> completed =
+        new ConcurrentHashMap<TopicPartition, OffsetAndMetadata>();
+    private final ConcurrentMap<TopicPartition, OffsetAndMetadata> committed =
+        new ConcurrentHashMap<TopicPartition, OffsetAndMetadata>();
+    private final Set<TopicPartition> paused = new HashSet<TopicPartition>();
+    private volatile boolean stopping = false;
+
+    Pipeline() {
+      queues = new ArrayList<BlockingQueue<Batch>>();
+      for (int i = 0; i < workerThreads; i++) {
+        queues.add(new LinkedBlockingQueue<Batch>());
+      }
+      workers = Executors.newFixedThreadPool(workerThreads,
+          new ThreadFactoryBuilder().setNameFormat(
+              "kafka-source-" + getName() + "-worker-%d").build());
+    }
+
+    void start() {
+      for (BlockingQueue<Batch> queue : queues) {
+        workers.submit(new Worker(queue));
+      }
+    }
+
+    /**
+     * Runs on the runner thread: commits what the workers completed and
+     * polls the next records for them.
+     */
+    Status process() {
+      try {
+        seekFailed();
+        commitCompleted();
+
+        boolean full = inFlight.get() >= workerQueueCapacity;
+        if (full) {
+          pause();
+        } else {
+          resume();
+        }
+
+        final long nanoPollStartTime = System.nanoTime();
+        ConsumerRecords<String, byte[]> records =
+            consumer.poll(full ? Math.min(100, maxBatchDurationMillis) : maxBatchDurationMillis);
+        if (records.isEmpty()) {
+          if (full) {
+            return Status.READY;
+          }
+          counter.incrementKafkaEmptyCount();
+          log.debug("Returning with backoff. No more data to read");
+          return Status.BACKOFF;
+        }
+        counter.addToKafkaEventGetTimer((System.nanoTime() - nanoPollStartTime) / (1000 * 1000));
+        dispatch(records);
+        return Status.READY;
+      } catch (Exception e) {
+        log.error("KafkaSource EXCEPTION, {}", e);
+        return Status.BACKOFF;
+      }
+    }
+
+    /**
+     * Queues the records in batches of at most batchSize, all the records
+     * of a partition going to the same worker.
+     */
+    void dispatch(ConsumerRecords<String, byte[]> records) {
+      Map<TopicPartition, Integer> current;
+      synchronized (generations) {
+        current = new HashMap<TopicPartition, Integer>(generations);
+      }
+      List<Batch> batches = new ArrayList<Batch>(queues.size());
+      for (int i = 0; i < queues.size(); i++) {
+        batches.add(new Batch());
+      }
+      for (ConsumerRecord<String, byte[]> record : records) {
+        int index = ((31 * record.topic().hashCode() + record.partition()) & Integer.MAX_VALUE)
+            % queues.size();
+        Batch batch = batches.get(index);
+        batch.add(record, current);
+        if (batch.records.size() >= batchUpperLimit) {
+          enqueue(index, batch);
+          batches.set(index, new Batch());
+        }
+      }
+      for (int i = 0; i < batches.size(); i++) {
+        if (!batches.get(i).records.isEmpty()) {
+          enqueue(i, batches.get(i));
+        }
+      }
+    }
+
+    private void enqueue(int index, Batch batch) {
+      inFlight.addAndGet(batch.records.size());
+      queues.get(index).add(batch);
+    }
+
+    /**
+     * Goes back to the first record of the batches that could not be
+     * written, in a new generation of their partitions.
+     */
+    private void seekFailed() {
+      for (TopicPartition partition : seeks.keySet()) {
+        Long offset = seeks.remove(partition);
+        synchronized (generations) {
+          // revoked meanwhile
+          if (offset == null || !generations.containsKey(partition)) {
+            continue;
+          }
+          log.info("Reading partition {} again from offset {}", partition, offset);
+          consumer.seek(partition, offset);
+          generations.put(partition, ++lastGeneration);
+        }
+      }
+    }
+
+    private void pause() {
+      List<TopicPartition> partitions = new ArrayList<TopicPartition>();
+      for (TopicPartition partition : consumer.assignment()) {
+        if (paused.add(partition)) {
+          partitions.add(partition);
+        }
+      }
+      if (!partitions.isEmpty()) {
+        log.debug("{} records waiting for the channel, pausing {}", inFlight.get(), partitions);
+        consumer.pause(partitions.toArray(new TopicPartition[partitions.size()]));
+      }
+    }
+
+    private void resume() {
+      if (paused.isEmpty()) {
+        return;
+      }
+      // partitions revoked meanwhile are not paused anymore
+      paused.retainAll(consumer.assignment());
+      if (!paused.isEmpty()) {
+        log.debug("Resuming {}", paused);
+        consumer.resume(paused.toArray(new TopicPartition[paused.size()]));
+      }
+      paused.clear();
+    }
+
+    private void commitCompleted() {
+      final Map<TopicPartition, OffsetAndMetadata> offsets = changedOffsets();
+      if (offsets.isEmpty()) {
+        return;
+      }
+      committed.putAll(offsets);
+      consumer.commitAsync(offsets, new OffsetCommitCallback() {
+        @Override
+        public void onComplete(Map<TopicPartition, OffsetAndMetadata> result, Exception e) {
+          if (e != null) {
+            log.warn("Could not commit offsets " + offsets + ", will retry", e);
+            // commit them again next time, unless newer ones are committed by then
+            for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+              committed.remove(entry.getKey(), entry.getValue());
+            }
+          }
+        }
+      });
+    }
+
+    private void commitCompletedSync() {
+      Map<TopicPartition, OffsetAndMetadata> offsets = changedOffsets();
+      if (offsets.isEmpty()) {
+        return;
+      }
+      long commitStartTime = System.nanoTime();
+      consumer.commitSync(offsets);
+      counter.addToKafkaCommitTimer((System.nanoTime() - commitStartTime) / (1000 * 1000));
+      committed.putAll(offsets);
+    }
+
+    /**
+     * Completed offsets of assigned partitions that are not committed yet.
+     */
+    private Map<TopicPartition, OffsetAndMetadata> changedOffsets() {
+      Set<TopicPartition> assignment = consumer.assignment();
+      Map<TopicPartition, OffsetAndMetadata> offsets =
+          new HashMap<TopicPartition, OffsetAndMetadata>();
+      for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : completed.entrySet()) {
+        if (assignment.contains(entry.getKey()) &&
+            !entry.getValue().equals(committed.get(entry.getKey()))) {
+          offsets.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return offsets;
+    }
+
+    /**
+     * Gives the workers some time to write what they have before the
+     * partitions go to another consumer, and commits what they wrote.
+     */
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+      long deadline = System.currentTimeMillis() + revokeTimeout;
+      try {
+        while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (inFlight.get() > 0) {
+        log.warn("{} records were not written to the channel before the rebalance, " +
+            "they will be read again", inFlight.get());
+      }
+      // the workers skip what is left of the revoked partitions from now on
+      synchronized (generations) {
+        for (TopicPartition partition : partitions) {
+          generations.remove(partition);
+        }
+        try {
+          commitCompletedSync();
+        } catch (Exception e) {
+          log.warn("Could not commit offsets before the rebalance", e);
+        }
+        for (TopicPartition partition : partitions) {
+          completed.remove(partition);
+          committed.remove(partition);
+          seeks.remove(partition);
+        }
+      }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+      // the consumer starts again from the committed offsets
+      synchronized (generations) {
+        for (TopicPartition partition : partitions) {
+          completed.remove(partition);
+          committed.remove(partition);
+          seeks.remove(partition);
+          generations.put(partition, ++lastGeneration);
+        }
+      }
+    }
+
+    /**
+     * Runs on the runner thread, once it stopped polling. Batches the
+     * workers can not write right away are left for the next start.
+     */
+    void stop() {
+      stopping = true;
+      workers.shutdown();
+      try {
+        if (!workers.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          log.warn("Kafka source {} workers did not stop in time", getName());
+          workers.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        workers.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      try {
+        commitCompletedSync();
+      } catch (Exception e) {
+        log.warn("Could not commit offsets on stop", e);
+      }
+    }
+
+    private class Worker implements Runnable {
+      private final BlockingQueue<Batch> queue;
+      private final AvroEventDecoder avroDecoder = new AvroEventDecoder();
+
+      Worker(BlockingQueue<Batch> queue) {
+        this.queue = queue;
+      }
+
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Batch batch = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (batch == null) {
+              if (stopping) {
+                return;
+              }
+            } else if (!write(batch)) {
+              // later records of the partitions must not be written either
+              return;
+            }
+          }
+        } catch (InterruptedException e) {
+          log.debug("Kafka source worker interrupted");
+        }
+      }
+
+      /**
+       * @return false if the batch could not be written because the source stops
+       */
+      private boolean write(Batch batch) throws InterruptedException {
+        final String batchUUID = UUID.randomUUID().toString();
+        Map<TopicPartition, Integer> current;
+        synchronized (generations) {
+          current = new HashMap<TopicPartition, Integer>(generations);
+        }
+        List<Event> events = new ArrayList<Event>(batch.records.size());
+        Map<TopicPartition, OffsetAndMetadata> offsets =
+            new HashMap<TopicPartition, OffsetAndMetadata>();
+        // first offset of each partition, to go back to if the batch fails
+        Map<TopicPartition, Long> firstOffsets = new HashMap<TopicPartition, Long>();
+        for (ConsumerRecord<String, byte[]> message : batch.records) {
+          TopicPartition partition = new TopicPartition(message.topic(), message.partition());
+          Integer generation = batch.generations.get(partition);
+          if (generation == null || !generation.equals(current.get(partition))) {
+            continue; // revoked, or read again after a failed batch
+          }
+          if (!firstOffsets.containsKey(partition)) {
+            firstOffsets.put(partition, message.offset());
+          }
+          try {
+            events.add(toEvent(message, avroDecoder));
+          } catch (Exception e) {
+            log.error("Could not read the record at offset " + message.offset() +
+                " of topic " + message.topic() + " partition " + message.partition() +
+                ", skipping it", e);
+          }
+          offsets.put(partition, new OffsetAndMetadata(message.offset() + 1, batchUUID));
+        }
+
+        if (!events.isEmpty()) {
+          counter.addToEventReceivedCount((long) events.size());
+          long backoff = 100;
+          for (int attempt = 1; ; attempt++) {
+            try {
+              getChannelProcessor().processEventBatch(events);
+              break;
+            } catch (Exception e) {
+              if (stopping) {
+                log.warn("Kafka source stopping, {} events were not written to the channel " +
+                    "and will be read again", events.size());
+                return false;
+              }
+              if (attempt >= maxWriteAttempts) {
+                log.error("Could not write " + events.size() + " events to the channel " +
+                    "after " + attempt + " attempts, they will be read again", e);
+                fail(batch, firstOffsets);
+                return true;
+              }
+              log.warn("Could not write " + events.size() + " events to the channel, " +
+                  "retrying in " + backoff + " ms", e);
+              Thread.sleep(backoff);
+              backoff = Math.min(backoff * 2, maxRetryBackoff);
+            }
+          }
+          counter.addToEventAcceptedCount(events.size());
+          if (log.isDebugEnabled()) {
+            log.debug("Wrote {} events to channel", events.size());
+          }
+        }
+
+        synchronized (generations) {
+          for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            // not if the partition was revoked while the batch was written
+            if (batch.generations.get(entry.getKey()).equals(generations.get(entry.getKey()))) {
+              completed.put(entry.getKey(), entry.getValue());
+            }
+          }
+        }
+        inFlight.addAndGet(-batch.records.size());
+        return true;
+      }
+
+      /**
+       * Ends the generation of the partitions of a batch that could not be
+       * written, so that the records queued after it are skipped, and has
+       * the runner thread read them again from the batch on.
+       */
+      private void fail(Batch batch, Map<TopicPartition, Long> firstOffsets) {
+        synchronized (generations) {
+          for (Map.Entry<TopicPartition, Long> entry : firstOffsets.entrySet()) {
+            TopicPartition partition = entry.getKey();
+            if (batch.generations.get(partition).equals(generations.get(partition))) {
+              generations.put(partition, null);
+              seeks.put(partition, entry.getValue());
+            }
+          }
+        }
+        inFlight.addAndGet(-batch.records.size());
+      }
+    }
+  }
+
+  /**
+   * Records of the same worker, with the generation each of their partitions
+   * had when they were polled.
+   */
+  private static class Batch {
+    private final List<ConsumerRecord<String, byte[]>> records =
+        new ArrayList<ConsumerRecord<String, byte[]>>();
+    private final Map<TopicPartition, Integer> generations =
+        new HashMap<TopicPartition, Integer>();
+
+    void add(ConsumerRecord<String, byte[]> record, Map<TopicPartition, Integer> current) {
+      records.add(record);
+      TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+      if (!generations.containsKey(partition)) {
+        generations.put(partition, current.get(partition));
+      }
+    }
+  }
+
   private void migrateOffsets(String topicStr) {
     ZkUtils zkUtils = ZkUtils.apply(zookeeperConnect, ZK_SESSION_TIMEOUT, ZK_CONNECTION_TIMEOUT,
         JaasUtils.isZkSecurityEnabled());
@@ -605,9 +1119,18 @@ public class KafkaSource extends AbstractPollableSource
 class SourceRebalanceListener implements ConsumerRebalanceListener {
   private static final Logger log = LoggerFactory.getLogger(SourceRebalanceListener.class);
   private AtomicBoolean rebalanceFlag;
+  private ConsumerRebalanceListener next;
 
   public SourceRebalanceListener(AtomicBoolean rebalanceFlag) {
+    this(rebalanceFlag, null);
+  }
+
+  /**
+   * @param next also told about the rebalance, after logging it. May be null.
+   */
+  public SourceRebalanceListener(AtomicBoolean rebalanceFlag, ConsumerRebalanceListener next) {
     this.rebalanceFlag = rebalanceFlag;
+    this.next = next;
   }
 
   // Set a flag that a rebalance has occurred. Then commit already read events to kafka.
@@ -616,11 +1139,17 @@ class SourceRebalanceListener implements ConsumerRebalanceListener {
       log.info("topic {} - partition {} revoked.", partition.topic(), partition.partition());
       rebalanceFlag.set(true);
     }
+    if (next != null) {
+      next.onPartitionsRevoked(partitions);
+    }
   }
 
   public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
     for (TopicPartition partition : partitions) {
       log.info("topic {} - partition {} assigned.", partition.topic(), partition.partition());
     }
+    if (next != null) {
+      next.onPartitionsAssigned(partitions);
+    }
   }
 }
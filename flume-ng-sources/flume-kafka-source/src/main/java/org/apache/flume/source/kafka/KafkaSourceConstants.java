@@ -43,6 +43,11 @@ public class KafkaSourceConstants {
   public static final String AVRO_EVENT = "useFlumeEventFormat";
   public static final boolean DEFAULT_AVRO_EVENT = false;
 
+  public static final String WORKER_THREADS = "workerThreads";
+  public static final int DEFAULT_WORKER_THREADS = 0;
+  public static final String WORKER_QUEUE_CAPACITY = "workerQueueCapacity";
+  public static final int DEFAULT_WORKER_QUEUE_CAPACITY = 10000;
+
   /* Old Properties */
   public static final String ZOOKEEPER_CONNECT_FLUME_KEY = "zookeeperConnect";
   public static final String TOPIC = "topic";
@@ -36,8 +36,12 @@ import org.apache.flume.PollableSource.Status;
 import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.source.avro.AvroFlumeEvent;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
@@ -56,12 +60,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static org.apache.flume.source.kafka.KafkaSourceConstants.AVRO_EVENT;
@@ -77,11 +85,14 @@ import static org.apache.flume.source.kafka.KafkaSourceConstants.TOPIC;
 import static org.apache.flume.source.kafka.KafkaSourceConstants.TOPICS;
 import static org.apache.flume.source.kafka.KafkaSourceConstants.TOPICS_REGEX;
 import static org.apache.flume.source.kafka.KafkaSourceConstants.TOPIC_HEADER;
+import static org.apache.flume.source.kafka.KafkaSourceConstants.WORKER_THREADS;
 import static org.apache.flume.source.kafka.KafkaSourceConstants.ZOOKEEPER_CONNECT_FLUME_KEY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
 public class TestKafkaSource {
@@ -428,6 +439,136 @@ public class TestKafkaSource {
     Assert.assertEquals("hello, world", new String(events.get(0).getBody(), Charsets.UTF_8));
   }
 
+  @Test
+  public void testPipelined() throws InterruptedException, EventDeliveryException {
+    context.put(TOPICS, topic1);
+    context.put(BATCH_SIZE, "10");
+    context.put(WORKER_THREADS, "2");
+    kafkaSource.configure(context);
+    kafkaSource.start();
+
+    Thread.sleep(500L);
+
+    for (int i = 0; i < 100; i++) {
+      kafkaServer.produce(topic1, "key" + (i % 5), String.valueOf(i));
+    }
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (events.size() < 100 && System.currentTimeMillis() < deadline) {
+      kafkaSource.process();
+    }
+    Assert.assertEquals(100, events.size());
+
+    // the records of a partition reach the channel in order
+    Map<String, Integer> lastOfPartition = new HashMap<String, Integer>();
+    synchronized (events) {
+      for (Event event : events) {
+        String partition = event.getHeaders().get(PARTITION_HEADER);
+        int value = Integer.parseInt(new String(event.getBody(), Charsets.UTF_8));
+        Integer last = lastOfPartition.get(partition);
+        Assert.assertTrue(last == null || last < value);
+        lastOfPartition.put(partition, value);
+      }
+    }
+    events.clear();
+
+    // offsets were committed, only the new record is read after a restart
+    kafkaSource.stop();
+    kafkaServer.produce(topic1, "", "record100");
+    kafkaSource = new KafkaSource();
+    kafkaSource.setChannelProcessor(createGoodChannel());
+    kafkaSource.configure(context);
+    kafkaSource.start();
+
+    deadline = System.currentTimeMillis() + 10000;
+    while (events.isEmpty() && System.currentTimeMillis() < deadline) {
+      kafkaSource.process();
+    }
+    Thread.sleep(500L);
+    kafkaSource.process();
+    Assert.assertEquals(1, events.size());
+    Assert.assertEquals("record100", new String(events.get(0).getBody(), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testPipelinedReadsRefusedBatchAgain() throws Exception {
+    MockedPartition partition = new MockedPartition(5, 5);
+    kafkaSource = newMockedSource(partition.newConsumer());
+    kafkaSource.setChannelProcessor(createRefusingChannel(3));
+    kafkaSource.setPipelineRetries(3, 10, 100);
+    context.put(TOPICS, partition.topicPartition.topic());
+    context.put(BATCH_SIZE, "2");
+    context.put(WORKER_THREADS, "1");
+    kafkaSource.configure(context);
+    kafkaSource.start();
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((events.size() < 5 || !partition.isCommitted(10)) &&
+        System.currentTimeMillis() < deadline) {
+      kafkaSource.process();
+      Thread.sleep(10);
+    }
+
+    // the refused batch and the ones queued after it were read again from
+    // the first record of the refused batch, in order and only once
+    Assert.assertEquals(Lists.newArrayList(5L), partition.seeks);
+    List<String> bodies = Lists.newArrayList();
+    for (Event event : events) {
+      bodies.add(new String(event.getBody(), Charsets.UTF_8));
+    }
+    Assert.assertEquals(Lists.newArrayList("5", "6", "7", "8", "9"), bodies);
+    Assert.assertTrue(partition.isCommitted(10));
+    // no offset was committed past a record the channel had not taken
+    for (int i = 0; i < partition.commits.size(); i++) {
+      Assert.assertTrue(partition.commits.get(i) <= 5 + partition.deliveredAtCommit.get(i));
+    }
+  }
+
+  @Test
+  public void testPipelinedRevokeWhileBatchesQueued() throws Exception {
+    MockedPartition partition = new MockedPartition(0, 6);
+    kafkaSource = newMockedSource(partition.newConsumer());
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    events = Collections.synchronizedList(Lists.<Event>newArrayList());
+    ChannelProcessor channelProcessor = mock(ChannelProcessor.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writing.countDown();
+        release.await();
+        events.addAll((List<Event>)invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(channelProcessor).processEventBatch(any(List.class));
+    kafkaSource.setChannelProcessor(channelProcessor);
+    kafkaSource.setPipelineRetries(3, 10, 100);
+    context.put(TOPICS, partition.topicPartition.topic());
+    context.put(BATCH_SIZE, "2");
+    context.put(WORKER_THREADS, "1");
+    kafkaSource.configure(context);
+    kafkaSource.start();
+
+    // the partition is revoked, and assigned again, while the first batch
+    // is being written and the other two wait behind it
+    Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+    partition.rebalance = true;
+    kafkaSource.process();
+    release.countDown();
+
+    long deadline = System.currentTimeMillis() + 1000;
+    while (System.currentTimeMillis() < deadline) {
+      kafkaSource.process();
+      Thread.sleep(10);
+    }
+    kafkaSource.stop();
+
+    // the batch being written went through, the queued ones were skipped,
+    // and none of them counts as completed in the new assignment
+    Assert.assertEquals(2, events.size());
+    Assert.assertTrue(partition.commits.isEmpty());
+  }
+
   @Test
   public void testSourceProperties() {
     Context context = new Context();
@@ -710,7 +851,8 @@ public class TestKafkaSource {
 
     ChannelProcessor channelProcessor = mock(ChannelProcessor.class);
 
-    events = Lists.newArrayList();
+    // written to by the worker threads of a pipelined source
+    events = Collections.synchronizedList(Lists.<Event>newArrayList());
 
     doAnswer(new Answer<Void>() {
       @Override
@@ -723,6 +865,26 @@ public class TestKafkaSource {
     return channelProcessor;
   }
 
+  ChannelProcessor createRefusingChannel(final int refusals) {
+    ChannelProcessor channelProcessor = mock(ChannelProcessor.class);
+    final AtomicInteger calls = new AtomicInteger();
+
+    events = Collections.synchronizedList(Lists.<Event>newArrayList());
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        if (calls.incrementAndGet() <= refusals) {
+          throw new ChannelException("channel intentional full");
+        }
+        events.addAll((List<Event>)invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(channelProcessor).processEventBatch(any(List.class));
+
+    return channelProcessor;
+  }
+
   ChannelProcessor createBadChannel() {
     ChannelProcessor channelProcessor = mock(ChannelProcessor.class);
 
@@ -736,6 +898,126 @@ public class TestKafkaSource {
     return channelProcessor;
   }
 
+  private KafkaSource newMockedSource(final KafkaConsumer<String, byte[]> consumer) {
+    return new KafkaSource() {
+      @Override
+      KafkaConsumer<String, byte[]> createConsumer() {
+        return consumer;
+      }
+    };
+  }
+
+  /**
+   * One partition served by a mocked consumer from the offset the source
+   * last sought, keeping what the source commits. The consumer is only used
+   * by the runner thread, which is the test thread.
+   */
+  private class MockedPartition {
+    private final TopicPartition topicPartition = new TopicPartition("mocked", 0);
+    private final List<ConsumerRecord<String, byte[]>> records =
+        new ArrayList<ConsumerRecord<String, byte[]>>();
+    private final long firstOffset;
+    private final List<Long> seeks = new ArrayList<Long>();
+    private final List<Long> commits = new ArrayList<Long>();
+    // number of events the channel had taken when each offset was committed
+    private final List<Integer> deliveredAtCommit = new ArrayList<Integer>();
+    private ConsumerRebalanceListener listener;
+    private boolean assigned = false;
+    private long position;
+    // revoke the partition and assign it again, in the next poll
+    private boolean rebalance = false;
+
+    MockedPartition(long firstOffset, int count) {
+      this.firstOffset = firstOffset;
+      for (long offset = firstOffset; offset < firstOffset + count; offset++) {
+        records.add(new ConsumerRecord<String, byte[]>(topicPartition.topic(),
+            topicPartition.partition(), offset, null,
+            String.valueOf(offset).getBytes(Charsets.UTF_8)));
+      }
+      position = firstOffset;
+    }
+
+    boolean isCommitted(long offset) {
+      return !commits.isEmpty() && commits.get(commits.size() - 1) == offset;
+    }
+
+    @SuppressWarnings("unchecked")
+    KafkaConsumer<String, byte[]> newConsumer() {
+      KafkaConsumer<String, byte[]> consumer = mock(KafkaConsumer.class);
+      doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          listener = (ConsumerRebalanceListener) invocation.getArguments()[1];
+          return null;
+        }
+      }).when(consumer).subscribe(any(List.class), any(ConsumerRebalanceListener.class));
+      doAnswer(new Answer<ConsumerRecords<String, byte[]>>() {
+        @Override
+        public ConsumerRecords<String, byte[]> answer(InvocationOnMock invocation)
+            throws Throwable {
+          return poll();
+        }
+      }).when(consumer).poll(anyLong());
+      doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          position = (Long) invocation.getArguments()[1];
+          seeks.add(position);
+          return null;
+        }
+      }).when(consumer).seek(any(TopicPartition.class), anyLong());
+      doReturn(Collections.singleton(topicPartition)).when(consumer).assignment();
+      doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          commit((Map<TopicPartition, OffsetAndMetadata>) invocation.getArguments()[0]);
+          return null;
+        }
+      }).when(consumer).commitSync(any(Map.class));
+      doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          Map<TopicPartition, OffsetAndMetadata> offsets =
+              (Map<TopicPartition, OffsetAndMetadata>) invocation.getArguments()[0];
+          commit(offsets);
+          ((OffsetCommitCallback) invocation.getArguments()[1]).onComplete(offsets, null);
+          return null;
+        }
+      }).when(consumer).commitAsync(any(Map.class), any(OffsetCommitCallback.class));
+      return consumer;
+    }
+
+    private ConsumerRecords<String, byte[]> poll() {
+      Set<TopicPartition> partitions = Collections.singleton(topicPartition);
+      if (!assigned) {
+        assigned = true;
+        listener.onPartitionsAssigned(partitions);
+      }
+      if (rebalance) {
+        rebalance = false;
+        listener.onPartitionsRevoked(partitions);
+        listener.onPartitionsAssigned(partitions);
+      }
+      Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> polled =
+          new HashMap<TopicPartition, List<ConsumerRecord<String, byte[]>>>();
+      int from = (int) (position - firstOffset);
+      if (from < records.size()) {
+        polled.put(topicPartition,
+            new ArrayList<ConsumerRecord<String, byte[]>>(records.subList(from, records.size())));
+        position = firstOffset + records.size();
+      }
+      return new ConsumerRecords<String, byte[]>(polled);
+    }
+
+    private void commit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+      OffsetAndMetadata offset = offsets.get(topicPartition);
+      if (offset != null) {
+        commits.add(offset.offset());
+        deliveredAtCommit.add(events.size());
+      }
+    }
+  }
+
   public String findUnusedTopic() {
     String newTopic = null;
     boolean topicFound = false;
@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.source.taildir;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary position file of the {@link TaildirSource}, the alternative to the JSON one.
+ * <p></p>
+ * The file is memory mapped and made of fixed size slots, one per tailed file, holding its
+ * inode, a hash of its path and its position. A write only stores the positions which changed
+ * since the last one, each as a single aligned long, so only the pages holding those slots
+ * are written back by the operating system and a crash never leaves a torn position. A slot
+ * given to a new file is guarded by a check word written last, so a slot which was only
+ * partly filled is ignored when the file is read back.
+ * <p></p>
+ * Slots of files which are no longer tailed are freed and reused. When most of the slots
+ * are free the live ones are copied to a smaller file which replaces this one atomically.
+ * <p></p>
+ * Methods are synchronized, the store is written by the position writer and on stop.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class PositionStore implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(PositionStore.class);
+
+  // "FLTP" followed by the format version
+  private static final int MAGIC = 0x464c5450;
+  private static final int VERSION = 1;
+  private static final long CHECK_SEED = 0x9e3779b97f4a7c15L;
+
+  @VisibleForTesting
+  static final int SLOT_SIZE = 32;
+  private static final int HEADER_SIZE = SLOT_SIZE;
+  @VisibleForTesting
+  static final int MIN_SLOTS = 1024;
+
+  // slot layout
+  private static final int INODE = 0;
+  private static final int PATH_HASH = 8;
+  private static final int POS = 16;
+  private static final int CHECK = 24;
+
+  private final File file;
+  private RandomAccessFile raf;
+  private MappedByteBuffer buffer;
+  private int capacity;
+  // set until a new store, written next to the old position file, has replaced it
+  private File pendingFile;
+
+  private final Map<Long, Integer> slots = Maps.newHashMap();
+  private final LinkedList<Integer> freeSlots = Lists.newLinkedList();
+
+  private PositionStore(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Opens the store kept in the given file. If the file does not hold one, for example
+   * because it is a JSON position file, a new store is started next to it and replaces it
+   * on the first {@linkplain #write(Collection) write}.
+   */
+  public static PositionStore open(File file) throws IOException {
+    PositionStore store = new PositionStore(file);
+    if (isPositionStore(file)) {
+      store.map(file, 0);
+      store.indexSlots();
+    } else {
+      File tmpFile = tmpFile(file);
+      Files.deleteIfExists(tmpFile.toPath());
+      store.map(tmpFile, MIN_SLOTS);
+      store.pendingFile = tmpFile;
+    }
+    return store;
+  }
+
+  /**
+   * Whether the given file holds a binary position store.
+   */
+  public static boolean isPositionStore(File file) {
+    if (!file.isFile() || file.length() < HEADER_SIZE) {
+      return false;
+    }
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads the positions kept in the given store file without mapping it.
+   */
+  public static List<Position> readPositions(File file) throws IOException {
+    List<Position> positions = Lists.newArrayList();
+    try (FileChannel channel = FileChannel.open(file.toPath())) {
+      ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+      while (data.hasRemaining() && channel.read(data) >= 0) {
+        // keep reading
+      }
+      data.flip();
+      checkHeader(data, file);
+      for (int offset = HEADER_SIZE; offset + SLOT_SIZE <= data.limit(); offset += SLOT_SIZE) {
+        if (isValidSlot(data, offset)) {
+          positions.add(new Position(data.getLong(offset + INODE),
+              data.getLong(offset + PATH_HASH), data.getLong(offset + POS)));
+        }
+      }
+    }
+    return positions;
+  }
+
+  /**
+   * Stores the positions of the given files and frees the slots of any other file.
+   */
+  public synchronized void write(Collection<TailFile> tailFiles) throws IOException {
+    Set<Long> live = Sets.newHashSetWithExpectedSize(tailFiles.size());
+    for (TailFile tf : tailFiles) {
+      long inode = tf.getInode();
+      if (!live.add(inode)) {
+        continue;
+      }
+      long pathHash = pathHash(tf.getPath());
+      Integer slot = slots.get(inode);
+      if (slot != null && buffer.getLong(offset(slot) + PATH_HASH) != pathHash) {
+        // the inode now belongs to another path, the file was renamed or replaced
+        freeSlot(slot);
+        slot = null;
+      }
+      if (slot == null) {
+        slot = allocateSlot(inode, pathHash, tf.getPos());
+      } else if (buffer.getLong(offset(slot) + POS) != tf.getPos()) {
+        buffer.putLong(offset(slot) + POS, tf.getPos());
+      }
+    }
+
+    if (live.size() < slots.size()) {
+      for (Long inode : Lists.newArrayList(slots.keySet())) {
+        if (!live.contains(inode)) {
+          freeSlot(slots.get(inode));
+        }
+      }
+    }
+
+    if (capacity > MIN_SLOTS && slots.size() <= capacity / 4) {
+      compact();
+    } else if (pendingFile != null) {
+      replaceFile();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (raf != null) {
+      buffer.force();
+      raf.close();
+      raf = null;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getCapacity() {
+    return capacity;
+  }
+
+  private int allocateSlot(long inode, long pathHash, long pos) throws IOException {
+    if (freeSlots.isEmpty()) {
+      grow();
+    }
+    int slot = freeSlots.removeFirst();
+    int offset = offset(slot);
+    buffer.putLong(offset + CHECK, 0);
+    buffer.putLong(offset + INODE, inode);
+    buffer.putLong(offset + PATH_HASH, pathHash);
+    buffer.putLong(offset + POS, pos);
+    buffer.putLong(offset + CHECK, check(inode, pathHash));
+    slots.put(inode, slot);
+    return slot;
+  }
+
+  private void freeSlot(int slot) {
+    int offset = offset(slot);
+    slots.remove(buffer.getLong(offset + INODE));
+    buffer.putLong(offset + CHECK, 0);
+    freeSlots.add(slot);
+  }
+
+  private void grow() throws IOException {
+    int oldCapacity = capacity;
+    map(pendingFile != null ? pendingFile : file, oldCapacity * 2);
+    logger.debug("Grew position store {} to {} slots", file, capacity);
+  }
+
+  /**
+   * Copies the live slots to a new, smaller file which then replaces the current one.
+   */
+  private void compact() throws IOException {
+    int newCapacity = MIN_SLOTS;
+    while (newCapacity < slots.size() * 2) {
+      newCapacity *= 2;
+    }
+    MappedByteBuffer oldBuffer = buffer;
+    List<Integer> oldSlots = Lists.newArrayList(slots.values());
+    RandomAccessFile oldRaf = raf;
+
+    File tmpFile = tmpFile(file);
+    Files.deleteIfExists(tmpFile.toPath());
+    raf = null;
+    capacity = 0;
+    freeSlots.clear();
+    slots.clear();
+    map(tmpFile, newCapacity);
+    for (int slot : oldSlots) {
+      int offset = offset(slot);
+      allocateSlot(oldBuffer.getLong(offset + INODE), oldBuffer.getLong(offset + PATH_HASH),
+          oldBuffer.getLong(offset + POS));
+    }
+    oldRaf.close();
+    pendingFile = tmpFile;
+    replaceFile();
+    logger.info("Compacted position store {} to {} slots", file, capacity);
+  }
+
+  private void replaceFile() throws IOException {
+    buffer.force();
+    Files.move(pendingFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    pendingFile = null;
+  }
+
+  /**
+   * Maps the given file with room for the given number of slots, or for as many slots as
+   * it holds when newCapacity is 0.
+   */
+  private void map(File target, int newCapacity) throws IOException {
+    if (raf == null) {
+      raf = new RandomAccessFile(target, "rw");
+    }
+    if (newCapacity == 0) {
+      newCapacity = (int) ((raf.length() - HEADER_SIZE) / SLOT_SIZE);
+    }
+    long size = HEADER_SIZE + (long) newCapacity * SLOT_SIZE;
+    if (raf.length() < size) {
+      raf.setLength(size);
+    }
+    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    if (buffer.getInt(0) != MAGIC) {
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, VERSION);
+    }
+    checkHeader(buffer, target);
+    for (int slot = capacity; slot < newCapacity; slot++) {
+      freeSlots.add(slot);
+    }
+    capacity = newCapacity;
+  }
+
+  private void indexSlots() {
+    freeSlots.clear();
+    for (int slot = 0; slot < capacity; slot++) {
+      int offset = offset(slot);
+      long inode = buffer.getLong(offset + INODE);
+      if (isValidSlot(buffer, offset) && !slots.containsKey(inode)) {
+        slots.put(inode, slot);
+      } else {
+        freeSlots.add(slot);
+      }
+    }
+  }
+
+  private static void checkHeader(ByteBuffer data, File file) throws IOException {
+    if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+      throw new IOException("Not a position store: " + file);
+    }
+    if (data.getInt(4) != VERSION) {
+      throw new IOException("Unsupported position store version " + data.getInt(4) + ": "
+          + file);
+    }
+  }
+
+  private static boolean isValidSlot(ByteBuffer data, int offset) {
+    long check = data.getLong(offset + CHECK);
+    return check != 0 && check == check(data.getLong(offset + INODE),
+        data.getLong(offset + PATH_HASH));
+  }
+
+  private static long check(long inode, long pathHash) {
+    long check = (inode * CHECK_SEED) ^ pathHash ^ CHECK_SEED;
+    return check != 0 ? check : 1;
+  }
+
+  private static int offset(int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private static File tmpFile(File file) {
+    return new File(file.getPath() + ".tmp");
+  }
+
+  /**
+   * 64 bit FNV-1a hash of the path, which tells whether a stored inode still belongs to
+   * the same path.
+   */
+  static long pathHash(String path) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < path.length(); i++) {
+      hash ^= path.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * A position read back from a store.
+   */
+  public static class Position {
+    private final long inode;
+    private final long pathHash;
+    private final long pos;
+
+    Position(long inode, long pathHash, long pos) {
+      this.inode = inode;
+      this.pathHash = pathHash;
+      this.pos = pos;
+    }
+
+    public long getInode() {
+      return inode;
+    }
+
+    public long getPos() {
+      return pos;
+    }
+
+    public boolean isPathOf(String path) {
+      return pathHash == pathHash(path);
+    }
+  }
+}
@@ -30,6 +30,7 @@ import org.apache.flume.FlumeException;
 import org.apache.flume.annotations.InterfaceAudience;
 import org.apache.flume.annotations.InterfaceStability;
 import org.apache.flume.client.avro.ReliableEventReader;
+import org.apache.flume.tools.DirectoryWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,10 +39,13 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
@@ -53,11 +57,17 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
   private TaildirCache taildirCache;
   private TailFile currentFile = null;
   private Map<String, TailFile> tailFiles;
-  private long updateTime;
+  private volatile long updateTime;
   private boolean addByteOffset;
   private boolean committed = true;
   private final boolean annotateFileName;
   private final String fileNameHeader;
+  private final int readBufferSize;
+  private final int maxLineLength;
+  private final long rescanInterval;
+  // set when the parent directories are watched instead of polled
+  private DirectoryWatcher watcher;
+  private long lastRescan;
 
   /**
    * Create a ReliableTaildirEventReader to watch the given directory.
@@ -65,7 +75,9 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
   private ReliableTaildirEventReader(Map<String, String> filePaths,
       Table<String, String, String> headerTable, String positionFilePath,
       boolean skipToEnd, boolean addByteOffset, boolean cachePatternMatching,
-      boolean annotateFileName, String fileNameHeader, int maxTailFileSize) throws IOException {
+      boolean annotateFileName, String fileNameHeader, int maxTailFileSize,
+      int readBufferSize, int maxLineLength, boolean watchDirectories, long rescanInterval)
+      throws IOException {
     // Sanity checks
     Preconditions.checkNotNull(filePaths);
     Preconditions.checkNotNull(positionFilePath);
@@ -83,6 +95,16 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
     this.addByteOffset = addByteOffset;
     this.annotateFileName = annotateFileName;
     this.fileNameHeader = fileNameHeader;
+    this.readBufferSize = readBufferSize;
+    this.maxLineLength = maxLineLength;
+    this.rescanInterval = rescanInterval;
+    if (watchDirectories) {
+      try {
+        this.watcher = new DirectoryWatcher();
+      } catch (IOException e) {
+        logger.warn("Unable to watch the parent directories, they will be polled instead", e);
+      }
+    }
     updateTailFiles(skipToEnd, false);
 
     logger.info("Updating position from position file: " + positionFilePath);
@@ -94,6 +116,10 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
    * If the position file exists, update tailFiles mapping.
    */
   public void loadPositionFile(String filePath) {
+    if (PositionStore.isPositionStore(new File(filePath))) {
+      loadPositionStore(filePath);
+      return;
+    }
     Long inode, pos;
     String path;
     FileReader fr = null;
@@ -153,6 +179,38 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
     }
   }
 
+  /**
+   * Same as {@link #loadPositionFile(String)} for a binary {@link PositionStore}, where files
+   * are found by inode and only kept if their path did not change.
+   */
+  private void loadPositionStore(String filePath) {
+    List<PositionStore.Position> positions;
+    try {
+      positions = PositionStore.readPositions(new File(filePath));
+    } catch (IOException e) {
+      logger.error("Failed loading positionFile: " + filePath, e);
+      return;
+    }
+    Map<Long, TailFile> byInode = Maps.newHashMap();
+    for (TailFile tf : tailFiles.values()) {
+      byInode.put(tf.getInode(), tf);
+    }
+    for (PositionStore.Position position : positions) {
+      TailFile tf = byInode.get(position.getInode());
+      if (tf != null && position.isPathOf(tf.getPath())) {
+        tf.setPos(position.getPos());
+        File f = new File(tf.getPath());
+        if (f.length() == position.getPos()) {
+          tf.setLastUpdated(f.lastModified());
+        }
+        tailFiles.put(tf.getPath(), tf);
+      } else {
+        logger.info("Missing file with inode: " + position.getInode() + ", pos: "
+            + position.getPos());
+      }
+    }
+  }
+
   public Map<String, TailFile> getTailFiles() {
     return tailFiles;
   }
@@ -195,41 +253,66 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
       long lastPos = currentFile.getPos();
       currentFile.updateFilePos(lastPos);
     }
-    List<Event> events = currentFile.readEvents(numEvents, backoffWithoutNL, addByteOffset);
+    List<Event> events = readEvents(currentFile, numEvents, backoffWithoutNL);
     if (events.isEmpty()) {
       return events;
     }
+    committed = false;
+    return events;
+  }
 
-    Map<String, String> headers = currentFile.getHeaders();
+  /**
+   * Reads events from the given file without making it the current file.
+   * Different files can be read this way by different threads at the same
+   * time. The read is ended by {@link #commit(TailFile)} or
+   * {@link #rollback(TailFile)}.
+   */
+  public List<Event> readEvents(TailFile tf, int numEvents, boolean backoffWithoutNL)
+      throws IOException {
+    List<Event> events = tf.readEvents(numEvents, backoffWithoutNL, addByteOffset);
+    if (events.isEmpty()) {
+      return events;
+    }
+
+    Map<String, String> headers = tf.getHeaders();
     if (annotateFileName || (headers != null && !headers.isEmpty())) {
       for (Event event : events) {
         if (headers != null && !headers.isEmpty()) {
           event.getHeaders().putAll(headers);
         }
         if (annotateFileName) {
-          event.getHeaders().put(fileNameHeader, currentFile.getPath());
+          event.getHeaders().put(fileNameHeader, tf.getPath());
         }
       }
     }
-    committed = false;
     return events;
   }
 
+  /** Commit the last lines which were read from the given file. */
+  public void commit(TailFile tf) {
+    tf.setPos(tf.getLineReadPos());
+    tf.setLastUpdated(updateTime);
+  }
+
+  /** Go back to the last committed position of the given file. */
+  public void rollback(TailFile tf) throws IOException {
+    tf.updateFilePos(tf.getPos());
+  }
+
   @Override
   public void close() throws IOException {
     for (TailFile tf : tailFiles.values()) {
       if (tf.getRaf() != null) tf.getRaf().close();
     }
     if (taildirCache != null) taildirCache.close();
+    if (watcher != null) watcher.close();
   }
 
   /** Commit the last lines which were read. */
   @Override
   public void commit() throws IOException {
     if (!committed && currentFile != null) {
-      long pos = currentFile.getLineReadPos();
-      currentFile.setPos(pos);
-      currentFile.setLastUpdated(updateTime);
+      commit(currentFile);
       committed = true;
     }
   }
@@ -241,14 +324,25 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
   public List<String> updateTailFiles(boolean skipToEnd, boolean isOpenRaf) throws IOException {
     updateTime = System.currentTimeMillis();
     List<String> updatedPaths = Lists.newArrayList();
+    // paths the watcher saw changing, null when every file has to be checked
+    Set<Path> changed = watcher != null ? pollWatcher() : null;
 
     for (TaildirMatcher taildir : taildirCache.getDirCache()) {
       Map<String, String> headers = headerTable.row(taildir.getFileGroup());
+      if (watcher != null) {
+        watch(taildir, changed == null);
+      }
 
       for (File f : taildir.getMatchingFiles()) {
         String path = f.getAbsolutePath();
-        long inode = getInode(f);
         TailFile tf = tailFiles.get(path);
+        if (tf != null && changed != null && !tf.needTail() && !changed.contains(f.toPath())) {
+          // neither written to nor replaced since it was last found caught up
+          tailFiles.put(path, tf);
+          updatedPaths.add(path);
+          continue;
+        }
+        long inode = getInode(f);
         if (tf == null) {
           long startPos = skipToEnd ? f.length() : 0;
           tf = openFile(f, isOpenRaf, headers, inode, startPos);
@@ -267,6 +361,7 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
           }
           tf.setNeedTail(updated);
         }
+        tf.setFileGroup(taildir.getFileGroup());
         tailFiles.put(path, tf);
         updatedPaths.add(path);
       }
@@ -278,6 +373,46 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
     return updateTailFiles(false, true);
   }
 
+  /**
+   * Collects the events the watcher received since the last update and makes the
+   * matchers of the directories where entries were created or removed list them again.
+   *
+   * @return the paths which were created, removed or written to, or null if events
+   * were lost or the rescan interval passed, so that every file has to be checked
+   */
+  private Set<Path> pollWatcher() {
+    Set<Path> entries = new HashSet<>();
+    Set<Path> changed = new HashSet<>();
+    if (!watcher.poll(entries, changed) || updateTime - lastRescan >= rescanInterval) {
+      lastRescan = updateTime;
+      return null;
+    }
+    for (Path entry : entries) {
+      for (TaildirMatcher taildir : taildirCache.getDirCache()) {
+        if (taildir.getParentDir().toPath().equals(entry.getParent())) {
+          taildir.invalidate();
+        }
+      }
+    }
+    changed.addAll(entries);
+    return changed;
+  }
+
+  private void watch(TaildirMatcher taildir, boolean rescan) {
+    try {
+      if (watcher.register(taildir.getParentDir().toPath())) {
+        taildir.setWatched(true);
+        rescan = true;
+      }
+    } catch (IOException e) {
+      logger.debug("Unable to watch " + taildir.getParentDir() + ", polling it instead", e);
+      taildir.setWatched(false);
+    }
+    if (rescan) {
+      taildir.invalidate();
+    }
+  }
+
   private long getInode(File file) throws IOException {
     long inode = (long) Files.getAttribute(file.toPath(), "unix:ino");
     return inode;
@@ -286,7 +421,8 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
   private TailFile openFile(File file, boolean isOpenRaf, Map<String, String> headers, long inode, long pos) {
     try {
       logger.info("Opening file: " + file + ", inode: " + inode + ", pos: " + pos);
-      return new TailFile(file, isOpenRaf, headers, inode, pos);
+      return new TailFile(file, isOpenRaf, headers, inode, pos, readBufferSize,
+          maxLineLength);
     } catch (IOException e) {
       throw new FlumeException("Failed opening file: " + file, e);
     }
@@ -306,7 +442,16 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
             TaildirSourceConfigurationConstants.DEFAULT_FILE_HEADER;
     private String fileNameHeader =
             TaildirSourceConfigurationConstants.DEFAULT_FILENAME_HEADER_KEY;
-    private int maxTailFileSize;
+    private int maxTailFileSize =
+            TaildirSourceConfigurationConstants.DEFAULT_MAX_TAIL_FILE_SIZE;
+    private int readBufferSize =
+            TaildirSourceConfigurationConstants.DEFAULT_READ_BUFFER_SIZE;
+    private int maxLineLength =
+            TaildirSourceConfigurationConstants.DEFAULT_MAX_LINE_LENGTH;
+    private boolean watchDirectories =
+            TaildirSourceConfigurationConstants.DEFAULT_WATCH_DIRECTORIES;
+    private long rescanInterval =
+            TaildirSourceConfigurationConstants.DEFAULT_RESCAN_INTERVAL;
 
     public Builder filePaths(Map<String, String> filePaths) {
       this.filePaths = filePaths;
@@ -353,10 +498,32 @@ public class ReliableTaildirEventReader implements ReliableEventReader {
       return this;
     }
 
+    public Builder readBufferSize(int readBufferSize) {
+      this.readBufferSize = readBufferSize;
+      return this;
+    }
+
+    public Builder maxLineLength(int maxLineLength) {
+      this.maxLineLength = maxLineLength;
+      return this;
+    }
+
+    public Builder watchDirectories(boolean watchDirectories) {
+      this.watchDirectories = watchDirectories;
+      return this;
+    }
+
+    public Builder rescanInterval(long rescanInterval) {
+      this.rescanInterval = rescanInterval;
+      return this;
+    }
+
     public ReliableTaildirEventReader build() throws IOException {
       return new ReliableTaildirEventReader(filePaths, headerTable, positionFilePath, skipToEnd,
                                             addByteOffset, cachePatternMatching,
-                                            annotateFileName, fileNameHeader, maxTailFileSize);
+                                            annotateFileName, fileNameHeader, maxTailFileSize,
+                                            readBufferSize, maxLineLength, watchDirectories,
+                                            rescanInterval);
     }
   }
 
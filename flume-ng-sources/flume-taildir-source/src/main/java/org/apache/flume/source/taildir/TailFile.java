@@ -28,10 +28,14 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
 import java.util.Map;
 
 import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.BYTE_OFFSET_HEADER_KEY;
+import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.DEFAULT_MAX_LINE_LENGTH;
+import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.DEFAULT_READ_BUFFER_SIZE;
 
 public class TailFile {
   private static final Logger logger = LoggerFactory.getLogger(TailFile.class);
@@ -39,27 +43,42 @@ public class TailFile {
   private static final byte BYTE_NL = (byte) 10;
   private static final byte BYTE_CR = (byte) 13;
 
-  private static final int BUFFER_SIZE = 8192;
-  private static final int NEED_READING = -1;
+  // Words to find newlines in eight bytes at a time
+  private static final long NL_WORD = 0x0A0A0A0A0A0A0A0AL;
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
 
   private RandomAccessFile raf;
   private final String path;
   private final long inode;
-  private long pos;
-  private long lastUpdated;
+  private volatile long pos;
+  private volatile long lastUpdated;
   private boolean needTail;
+  private String fileGroup;
   private final Map<String, String> headers;
-  private byte[] buffer;
-  private byte[] oldBuffer;
-  private int bufferPos;
+  private final int readBufferSize;
+  private final int maxLineLength;
+  // Bytes read from the file but not yet returned as lines, between the
+  // position and the limit. Allocated on the first read and dropped on close,
+  // grown up to maxLineLength for long lines and shrunk again after them.
+  private ByteBuffer buffer;
+  // Where the search for the next newline continues in the buffer
+  private int scanPos;
+  // File offset of the end of the buffered bytes
+  private long readPos;
   private long lineReadPos;
 
   public TailFile(File file, boolean isOpenRaf, Map<String, String> headers, long inode, long pos)
       throws IOException {
+    this(file, isOpenRaf, headers, inode, pos, DEFAULT_READ_BUFFER_SIZE, DEFAULT_MAX_LINE_LENGTH);
+  }
+
+  public TailFile(File file, boolean isOpenRaf, Map<String, String> headers, long inode, long pos,
+      int readBufferSize, int maxLineLength) throws IOException {
     if (isOpenRaf) {
       this.raf = new RandomAccessFile(file, "r");
       if (pos > 0) {
-        raf.seek(pos);
+        readPos = pos;
         lineReadPos = pos;
       }
     } else {
@@ -72,8 +91,8 @@ public class TailFile {
     this.lastUpdated = 0L;
     this.needTail = true;
     this.headers = headers;
-    this.oldBuffer = new byte[0];
-    this.bufferPos = NEED_READING;
+    this.readBufferSize = Math.min(readBufferSize, maxLineLength);
+    this.maxLineLength = maxLineLength;
   }
 
   public RandomAccessFile getRaf() {
@@ -100,6 +119,10 @@ public class TailFile {
     return needTail;
   }
 
+  public String getFileGroup() {
+    return fileGroup;
+  }
+
   public Map<String, String> getHeaders() {
     return headers;
   }
@@ -120,6 +143,10 @@ public class TailFile {
     this.needTail = needTail;
   }
 
+  public void setFileGroup(String fileGroup) {
+    this.fileGroup = fileGroup;
+  }
+
   public void setLineReadPos(long lineReadPos) {
     this.lineReadPos = lineReadPos;
   }
@@ -139,10 +166,13 @@ public class TailFile {
   }
 
   public void updateFilePos(long pos) throws IOException {
-    raf.seek(pos);
+    readPos = pos;
     lineReadPos = pos;
-    bufferPos = NEED_READING;
-    oldBuffer = new byte[0];
+    if (buffer != null) {
+      buffer.clear();
+      buffer.limit(0);
+    }
+    scanPos = 0;
   }
 
 
@@ -167,7 +197,7 @@ public class TailFile {
     }
     if (backoffWithoutNL && !line.lineSepInclude) {
       logger.info("Backing off in file without newline: "
-          + path + ", inode: " + inode + ", pos: " + raf.getFilePointer());
+          + path + ", inode: " + inode + ", pos: " + readPos);
       updateFilePos(posTmp);
       return null;
     }
@@ -178,71 +208,114 @@ public class TailFile {
     return event;
   }
 
-  private void readFile() throws IOException {
-    if ((raf.length() - raf.getFilePointer()) < BUFFER_SIZE) {
-      buffer = new byte[(int) (raf.length() - raf.getFilePointer())];
+  /**
+   * Reads more of the file after the bytes already buffered, moving them to
+   * the start of the buffer first. The buffer is doubled, up to
+   * maxLineLength, when it is full of one line, and goes back to
+   * readBufferSize once the line is consumed. Returns false at the end of the
+   * file.
+   */
+  private boolean readFile() throws IOException {
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(readBufferSize).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.limit(0);
+    }
+    int start = buffer.position();
+    int remaining = buffer.remaining();
+    if (remaining == buffer.capacity()) {
+      resize((int) Math.min(2L * buffer.capacity(), maxLineLength));
+    } else if (buffer.capacity() > readBufferSize && remaining < readBufferSize) {
+      resize(readBufferSize);
     } else {
-      buffer = new byte[BUFFER_SIZE];
+      buffer.compact();
+    }
+    scanPos -= start;
+    int n = raf.getChannel().read(buffer, readPos);
+    buffer.flip();
+    if (n <= 0) {
+      return false;
     }
-    raf.read(buffer, 0, buffer.length);
-    bufferPos = 0;
+    readPos += n;
+    return true;
   }
 
-  private byte[] concatByteArrays(byte[] a, int startIdxA, int lenA,
-                                  byte[] b, int startIdxB, int lenB) {
-    byte[] c = new byte[lenA + lenB];
-    System.arraycopy(a, startIdxA, c, 0, lenA);
-    System.arraycopy(b, startIdxB, c, lenA, lenB);
-    return c;
+  /**
+   * Moves the buffered bytes to the start of a new buffer of the given
+   * capacity, leaving it ready to be filled like {@link ByteBuffer#compact}.
+   */
+  private void resize(int capacity) {
+    ByteBuffer resized = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    resized.put(buffer);
+    buffer = resized;
+  }
+
+  /**
+   * Returns the index of the first newline between from and to in the
+   * buffer, or -1. Eight bytes are tested at a time: after the xor a newline
+   * is a zero byte, and the lowest byte flagged by the subtraction is the
+   * first zero byte since the buffer is little endian.
+   */
+  private int indexOfNewline(int from, int to) {
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      long word = buffer.getLong(i) ^ NL_WORD;
+      long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+      if (found != 0) {
+        return i + (Long.numberOfTrailingZeros(found) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      if (buffer.get(i) == BYTE_NL) {
+        return i;
+      }
+    }
+    return -1;
   }
 
   public LineResult readLine() throws IOException {
-    LineResult lineResult = null;
     while (true) {
-      if (bufferPos == NEED_READING) {
-        if (raf.getFilePointer() < raf.length()) {
-          readFile();
-        } else {
-          if (oldBuffer.length > 0) {
-            lineResult = new LineResult(false, oldBuffer);
-            oldBuffer = new byte[0];
-            setLineReadPos(lineReadPos + lineResult.line.length);
-          }
-          break;
-        }
-      }
-      for (int i = bufferPos; i < buffer.length; i++) {
-        if (buffer[i] == BYTE_NL) {
-          int oldLen = oldBuffer.length;
+      if (buffer != null) {
+        int start = buffer.position();
+        int nl = indexOfNewline(Math.max(scanPos, start), buffer.limit());
+        if (nl >= 0) {
           // Don't copy last byte(NEW_LINE)
-          int lineLen = i - bufferPos;
+          int lineLen = nl - start;
           // For windows, check for CR
-          if (i > 0 && buffer[i - 1] == BYTE_CR) {
+          if (lineLen > 0 && buffer.get(nl - 1) == BYTE_CR) {
             lineLen -= 1;
-          } else if (oldBuffer.length > 0 && oldBuffer[oldBuffer.length - 1] == BYTE_CR) {
-            oldLen -= 1;
-          }
-          lineResult = new LineResult(true,
-              concatByteArrays(oldBuffer, 0, oldLen, buffer, bufferPos, lineLen));
-          setLineReadPos(lineReadPos + (oldBuffer.length + (i - bufferPos + 1)));
-          oldBuffer = new byte[0];
-          if (i + 1 < buffer.length) {
-            bufferPos = i + 1;
-          } else {
-            bufferPos = NEED_READING;
           }
-          break;
+          byte[] line = new byte[lineLen];
+          buffer.get(line);
+          buffer.position(nl + 1);
+          scanPos = nl + 1;
+          setLineReadPos(lineReadPos + (nl + 1 - start));
+          return new LineResult(true, line);
+        }
+        scanPos = buffer.limit();
+        if (buffer.remaining() >= maxLineLength) {
+          // Return the longest part of the line allowed as a line of its own
+          logger.warn("Line longer than " + maxLineLength + " bytes in file: " + path
+              + ", inode: " + inode + ", pos: " + lineReadPos + ", splitting it");
+          byte[] line = new byte[maxLineLength];
+          buffer.get(line);
+          scanPos = buffer.position();
+          setLineReadPos(lineReadPos + line.length);
+          return new LineResult(true, line);
         }
       }
-      if (lineResult != null) {
+      if (!readFile()) {
         break;
       }
-      // NEW_LINE not showed up at the end of the buffer
-      oldBuffer = concatByteArrays(oldBuffer, 0, oldBuffer.length,
-                                   buffer, bufferPos, buffer.length - bufferPos);
-      bufferPos = NEED_READING;
     }
-    return lineResult;
+    // NEW_LINE not showed up at the end of the file
+    if (buffer.hasRemaining()) {
+      byte[] line = new byte[buffer.remaining()];
+      buffer.get(line);
+      scanPos = buffer.position();
+      setLineReadPos(lineReadPos + line.length);
+      return new LineResult(false, line);
+    }
+    return null;
   }
 
   public void close() {
@@ -251,6 +324,7 @@ public class TailFile {
     try {
       raf.close();
       raf = null;
+      buffer = null;
       long now = System.currentTimeMillis();
       setLastUpdated(now);
     } catch (IOException e) {
@@ -92,6 +92,11 @@ public class TaildirMatcher {
   private long lastCheckedTime = -1;
   // cached content, files which matched the pattern within the parent directory
   private List<File> lastMatchedFiles = Lists.newArrayList();
+  // set when the parent directory is followed by a watch service, in which case the
+  // cached content is only recalculated after the watcher reported a change
+  private boolean watched;
+  // whether the cached content may be out of date, only used when watched
+  private boolean stale = true;
 
   /**
    * Package accessible constructor. From configuration context it represents a single
@@ -181,17 +186,24 @@ public class TaildirMatcher {
    * @see #getMatchingFilesNoCache()
    */
   List<File> getMatchingFiles() {
+    if (watched && !stale) {
+      return lastMatchedFiles;
+    }
+    boolean relist = stale;
+    stale = false;
+
     long now = TimeUnit.SECONDS.toMillis(
         TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
     long currentParentDirMTime = parentDir.lastModified();
     List<File> result;
 
     // calculate matched files if
+    // - the watcher reported a change OR
     // - we don't want to use cache (recalculate every time) OR
     // - directory was clearly updated after the last check OR
     // - last mtime change wasn't already checked for sure
     //   (system clock hasn't passed that second yet)
-    if (!cachePatternMatching ||
+    if ((watched && relist) || !cachePatternMatching ||
         lastSeenParentDirMTime < currentParentDirMTime ||
         !(currentParentDirMTime < lastCheckedTime)) {
       lastMatchedFiles = sortByLastModifiedTime(getMatchingFilesNoCache());
@@ -202,6 +214,26 @@ public class TaildirMatcher {
     return lastMatchedFiles;
   }
 
+  /**
+   * Switches to serving {@linkplain #getMatchingFiles()} from the cache until
+   * {@linkplain #invalidate()} is called, instead of checking the mtime of the parentDir.
+   * The caller has to watch the parentDir and report every entry created in or removed from it.
+   */
+  void setWatched(boolean watched) {
+    this.watched = watched;
+  }
+
+  /**
+   * Makes the next {@linkplain #getMatchingFiles()} call list the parentDir again.
+   */
+  void invalidate() {
+    stale = true;
+  }
+
+  File getParentDir() {
+    return parentDir;
+  }
+
   /**
    * Provides the actual files within the parentDir which
    * files are matching the regex pattern. Each invocation uses {@link DirectoryStream}
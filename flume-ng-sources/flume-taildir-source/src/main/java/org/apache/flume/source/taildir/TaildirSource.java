@@ -25,12 +25,19 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -48,6 +55,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -65,16 +73,25 @@ public class TaildirSource extends AbstractSource implements
   private Table<String, String, String> headerTable;
   private int batchSize;
   private String positionFilePath;
+  private boolean binaryPositionFile;
   private boolean skipToEnd;
   private boolean byteOffsetHeader;
   private int maxTailFileSize;
+  private int readBufferSize;
+  private int maxLineLength;
+  private int tailThreads;
+  private long maxBatchCount;
+  private boolean watchDirectories;
+  private long rescanInterval;
 
   private SourceCounter sourceCounter;
   private ReliableTaildirEventReader reader;
+  private PositionStore positionStore;
   private ScheduledExecutorService idleFileChecker;
   private ScheduledExecutorService positionWriter;
   private ScheduledExecutorService taildirChecker;
-  private int retryInterval = 1000;
+  private ExecutorService tailService;
+  private volatile int retryInterval = 1000;
   private int maxRetryInterval = 5000;
   private int idleTimeout;
   private int checkIdleInterval = 5000;
@@ -84,7 +101,7 @@ public class TaildirSource extends AbstractSource implements
   private int checkTailDirDelay = 5000;
   private int checkTailDirInterval;
 
-  private List<String> existingPaths = new CopyOnWriteArrayList<>();
+  private volatile List<String> existingPaths = new CopyOnWriteArrayList<>();
   private List<String> idlePaths = new CopyOnWriteArrayList<>();
   private Long backoffSleepIncrement;
   private Long maxBackOffSleepInterval;
@@ -105,10 +122,21 @@ public class TaildirSource extends AbstractSource implements
           .annotateFileName(fileHeader)
           .fileNameHeader(fileHeaderKey)
           .maxTailFileSize(maxTailFileSize)
+          .readBufferSize(readBufferSize)
+          .maxLineLength(maxLineLength)
+          .watchDirectories(watchDirectories)
+          .rescanInterval(rescanInterval)
           .build();
     } catch (IOException e) {
       throw new FlumeException("Error instantiating ReliableTaildirEventReader", e);
     }
+    if (binaryPositionFile) {
+      try {
+        positionStore = PositionStore.open(new File(positionFilePath));
+      } catch (IOException e) {
+        throw new FlumeException("Error opening positionFile: " + positionFilePath, e);
+      }
+    }
     idleFileChecker = Executors.newSingleThreadScheduledExecutor(
         new ThreadFactoryBuilder().setNameFormat("idleFileChecker").build());
     idleFileChecker.scheduleWithFixedDelay(new idleFileCheckerRunnable(),
@@ -124,6 +152,10 @@ public class TaildirSource extends AbstractSource implements
     taildirChecker.scheduleWithFixedDelay(new TailDirCheckerRunnable(),
             checkTailDirDelay, checkTailDirInterval, TimeUnit.MILLISECONDS);
 
+    if (tailThreads > 1) {
+      tailService = Executors.newFixedThreadPool(tailThreads,
+          new ThreadFactoryBuilder().setNameFormat("taildir-tail-" + getName() + "-%d").build());
+    }
 
     super.start();
     logger.debug("TaildirSource started");
@@ -134,16 +166,24 @@ public class TaildirSource extends AbstractSource implements
   public synchronized void stop() {
     try {
       super.stop();
-      ExecutorService[] services = {idleFileChecker, positionWriter, taildirChecker};
+      ExecutorService[] services = {idleFileChecker, positionWriter, taildirChecker, tailService};
       for (ExecutorService service : services) {
+        if (service == null) {
+          continue;
+        }
         service.shutdown();
         if (!service.awaitTermination(1, TimeUnit.SECONDS)) {
           service.shutdownNow();
         }
       }
+      tailService = null;
       // write the last position
       writePosition();
       reader.close();
+      if (positionStore != null) {
+        positionStore.close();
+        positionStore = null;
+      }
     } catch (InterruptedException e) {
       logger.info("Interrupted while awaiting termination", e);
     } catch (IOException e) {
@@ -173,6 +213,12 @@ public class TaildirSource extends AbstractSource implements
     String homePath = System.getProperty("user.home").replace('\\', '/');
     positionFilePath = context.getString(POSITION_FILE, homePath + DEFAULT_POSITION_FILE);
     Path positionFile = Paths.get(positionFilePath);
+    String positionFileFormat = context.getString(POSITION_FILE_FORMAT,
+        DEFAULT_POSITION_FILE_FORMAT).toLowerCase(Locale.ENGLISH);
+    Preconditions.checkState(positionFileFormat.equals("json")
+        || positionFileFormat.equals("binary"),
+        POSITION_FILE_FORMAT + " must be json or binary");
+    binaryPositionFile = positionFileFormat.equals("binary");
     try {
       Files.createDirectories(positionFile.getParent());
     } catch (IOException e) {
@@ -197,6 +243,17 @@ public class TaildirSource extends AbstractSource implements
     fileHeaderKey = context.getString(FILENAME_HEADER_KEY,
             DEFAULT_FILENAME_HEADER_KEY);
     maxTailFileSize = context.getInteger(MAX_TAIL_FILE_SIZE, DEFAULT_MAX_TAIL_FILE_SIZE);
+    readBufferSize = context.getInteger(READ_BUFFER_SIZE, DEFAULT_READ_BUFFER_SIZE);
+    Preconditions.checkState(readBufferSize > 0, READ_BUFFER_SIZE + " must be greater than 0");
+    maxLineLength = context.getInteger(MAX_LINE_LENGTH, DEFAULT_MAX_LINE_LENGTH);
+    Preconditions.checkState(maxLineLength > 0, MAX_LINE_LENGTH + " must be greater than 0");
+    tailThreads = context.getInteger(TAIL_THREADS, DEFAULT_TAIL_THREADS);
+    Preconditions.checkState(tailThreads > 0, TAIL_THREADS + " must be greater than 0");
+    maxBatchCount = context.getLong(MAX_BATCH_COUNT, DEFAULT_MAX_BATCH_COUNT);
+    Preconditions.checkState(maxBatchCount > 0, MAX_BATCH_COUNT + " must be greater than 0");
+    watchDirectories = context.getBoolean(WATCH_DIRECTORIES, DEFAULT_WATCH_DIRECTORIES);
+    rescanInterval = context.getLong(RESCAN_INTERVAL, DEFAULT_RESCAN_INTERVAL);
+    Preconditions.checkState(rescanInterval > 0, RESCAN_INTERVAL + " must be greater than 0");
 
     if (sourceCounter == null) {
       sourceCounter = new SourceCounter(getName());
@@ -231,19 +288,24 @@ public class TaildirSource extends AbstractSource implements
   public Status process() {
     Status status = Status.READY;
     try {
-      existingPaths.clear();
-      existingPaths.addAll(reader.updateTailFiles());
-      for (String path : existingPaths) {
+      List<String> paths = new CopyOnWriteArrayList<>(reader.updateTailFiles());
+      existingPaths = paths;
+      List<TailFile> needTail = Lists.newArrayList();
+      for (String path : paths) {
         TailFile tf = reader.getTailFiles().get(path);
         if (tf.needTail()) {
-          tailFileProcess(tf, true);
+          needTail.add(tf);
         }
       }
+      boolean moreToRead = tailFiles(interleaveFileGroups(needTail));
       closeTailFiles();
-      try {
-        TimeUnit.MILLISECONDS.sleep(retryInterval);
-      } catch (InterruptedException e) {
-        logger.info("Interrupted while sleeping");
+      // files which were cut off at maxBatchCount are read on right away
+      if (!moreToRead) {
+        try {
+          TimeUnit.MILLISECONDS.sleep(retryInterval);
+        } catch (InterruptedException e) {
+          logger.info("Interrupted while sleeping");
+        }
       }
     } catch (Throwable t) {
       logger.error("Unable to tail files", t);
@@ -262,32 +324,112 @@ public class TaildirSource extends AbstractSource implements
     return maxBackOffSleepInterval;
   }
 
-  private void tailFileProcess(TailFile tf, boolean backoffWithoutNL)
+  /**
+   * Orders the files so that each file group gets a file in turn, which
+   * keeps a group with many files from holding back the other groups.
+   */
+  private List<TailFile> interleaveFileGroups(List<TailFile> files) {
+    Map<String, Deque<TailFile>> groups = Maps.newLinkedHashMap();
+    for (TailFile tf : files) {
+      Deque<TailFile> group = groups.get(tf.getFileGroup());
+      if (group == null) {
+        group = new ArrayDeque<TailFile>();
+        groups.put(tf.getFileGroup(), group);
+      }
+      group.add(tf);
+    }
+    List<TailFile> result = Lists.newArrayListWithCapacity(files.size());
+    while (result.size() < files.size()) {
+      for (Deque<TailFile> group : groups.values()) {
+        if (!group.isEmpty()) {
+          result.add(group.poll());
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Tails the files in order on this thread, or hands them to the tailing
+   * threads and waits until every file has had its turn. Each file is only
+   * ever read by one thread at a time.
+   *
+   * @return true if a file was left with lines to read at maxBatchCount
+   */
+  private boolean tailFiles(List<TailFile> files) throws IOException, InterruptedException {
+    boolean moreToRead = false;
+    if (tailService == null) {
+      for (TailFile tf : files) {
+        moreToRead |= tailFileProcess(tf, true);
+      }
+      return moreToRead;
+    }
+    List<Callable<Boolean>> tasks = Lists.newArrayListWithCapacity(files.size());
+    for (final TailFile tf : files) {
+      tasks.add(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return tailFileProcess(tf, true);
+        }
+      });
+    }
+    Throwable failure = null;
+    for (Future<Boolean> future : tailService.invokeAll(tasks)) {
+      try {
+        moreToRead |= future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        } else {
+          logger.error("Unable to tail file", e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      Throwables.propagateIfPossible(failure, IOException.class, InterruptedException.class);
+      throw Throwables.propagate(failure);
+    }
+    return moreToRead;
+  }
+
+  /**
+   * @return true if reading stopped at maxBatchCount rather than at the
+   *         end of the file
+   */
+  private boolean tailFileProcess(TailFile tf, boolean backoffWithoutNL)
       throws IOException, InterruptedException {
+    long batchCount = 0;
     while (true) {
-      reader.setCurrentFile(tf);
-      List<Event> events = reader.readEvents(batchSize, backoffWithoutNL);
+      List<Event> events = reader.readEvents(tf, batchSize, backoffWithoutNL);
       if (events.isEmpty()) {
-        break;
+        return false;
       }
       sourceCounter.addToEventReceivedCount(events.size());
       sourceCounter.incrementAppendBatchReceivedCount();
       try {
         getChannelProcessor().processEventBatch(events);
-        reader.commit();
       } catch (ChannelException ex) {
+        reader.rollback(tf);
         logger.warn("The channel is full or unexpected failure. " +
             "The source will try again after " + retryInterval + " ms");
         TimeUnit.MILLISECONDS.sleep(retryInterval);
-        retryInterval = retryInterval << 1;
-        retryInterval = Math.min(retryInterval, maxRetryInterval);
+        retryInterval = Math.min(retryInterval << 1, maxRetryInterval);
         continue;
+      } catch (RuntimeException ex) {
+        reader.rollback(tf);
+        throw ex;
       }
+      reader.commit(tf);
       retryInterval = 1000;
       sourceCounter.addToEventAcceptedCount(events.size());
       sourceCounter.incrementAppendBatchAcceptedCount();
       if (events.size() < batchSize) {
-        break;
+        return false;
+      }
+      if (++batchCount >= maxBatchCount) {
+        logger.debug("Read {} batches from {}, giving the other files a turn",
+            batchCount, tf.getPath());
+        return true;
       }
     }
   }
@@ -296,7 +438,10 @@ public class TaildirSource extends AbstractSource implements
     for (String path : idlePaths) {
       TailFile tf = reader.getTailFiles().get(path);
       if (tf.getRaf() != null) { // when file has not closed yet
-        tailFileProcess(tf, false);
+        // an idle file is read to its end before it is closed
+        while (tailFileProcess(tf, false)) {
+          continue;
+        }
         tf.close();
         logger.info("Closed file: " + path + ", inode: " + tf.getInode() + ", pos: " + tf.getPos());
       }
@@ -347,15 +492,41 @@ public class TaildirSource extends AbstractSource implements
     }
   }
 
+  /**
+   * Writes the position file. It is written to a temporary file first and
+   * moved over the old one, so a crash never leaves a partly written file.
+   * A binary position file is updated in place instead, see {@link PositionStore}.
+   */
   private void writePosition() {
+    if (positionStore != null) {
+      List<TailFile> tailFiles = Lists.newArrayList();
+      for (String path : existingPaths) {
+        TailFile tf = reader.getTailFiles().get(path);
+        if (tf != null) {
+          tailFiles.add(tf);
+        }
+      }
+      try {
+        positionStore.write(tailFiles);
+      } catch (Throwable t) {
+        logger.error("Failed writing positionFile", t);
+      }
+      return;
+    }
     File file = new File(positionFilePath);
+    File tmpFile = new File(positionFilePath + ".tmp");
     FileWriter writer = null;
     try {
-      writer = new FileWriter(file);
-      if (!existingPaths.isEmpty()) {
-        String json = toPosInfoJson();
+      writer = new FileWriter(tmpFile);
+      List<String> paths = existingPaths;
+      if (!paths.isEmpty()) {
+        String json = toPosInfoJson(paths);
         writer.write(json);
       }
+      writer.close();
+      writer = null;
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
     } catch (Throwable t) {
       logger.error("Failed writing positionFile", t);
     } finally {
@@ -367,10 +538,10 @@ public class TaildirSource extends AbstractSource implements
     }
   }
 
-  private String toPosInfoJson() {
+  private String toPosInfoJson(List<String> paths) {
     @SuppressWarnings("rawtypes")
     List<Map> posInfos = Lists.newArrayList();
-    for (String path : existingPaths) {
+    for (String path : paths) {
       TailFile tf = reader.getTailFiles().get(path);
       posInfos.add(ImmutableMap.of("inode", tf.getInode(), "pos", tf.getPos(), "file", path));
     }
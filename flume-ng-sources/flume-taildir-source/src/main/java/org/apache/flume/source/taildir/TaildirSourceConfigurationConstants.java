@@ -29,6 +29,10 @@ public class TaildirSourceConfigurationConstants {
   public static final String POSITION_FILE = "positionFile";
   public static final String DEFAULT_POSITION_FILE = "/.flume/taildir_position.json";
 
+  /** Format of the position file, json or binary. */
+  public static final String POSITION_FILE_FORMAT = "positionFileFormat";
+  public static final String DEFAULT_POSITION_FILE_FORMAT = "json";
+
   /** What size to batch with before sending to ChannelProcessor. */
   public static final String BATCH_SIZE = "batchSize";
   public static final int DEFAULT_BATCH_SIZE = 100;
@@ -71,4 +75,28 @@ public class TaildirSourceConfigurationConstants {
   /** Max tail file size. */
   public static final String MAX_TAIL_FILE_SIZE = "maxTailFileSize";
   public static final int DEFAULT_MAX_TAIL_FILE_SIZE = 100000;
+
+  /** Size (bytes) of the buffer each open file is read into. */
+  public static final String READ_BUFFER_SIZE = "readBufferSize";
+  public static final int DEFAULT_READ_BUFFER_SIZE = 65536;
+
+  /** Max length (bytes) of a line, longer lines are split into several events. */
+  public static final String MAX_LINE_LENGTH = "maxLineLength";
+  public static final int DEFAULT_MAX_LINE_LENGTH = 16 * 1024 * 1024;
+
+  /** Number of threads tailing files. */
+  public static final String TAIL_THREADS = "tailThreads";
+  public static final int DEFAULT_TAIL_THREADS = 1;
+
+  /** Max number of batches read from one file before the other files get their turn. */
+  public static final String MAX_BATCH_COUNT = "maxBatchCount";
+  public static final long DEFAULT_MAX_BATCH_COUNT = 100;
+
+  /** Whether to follow the parent directories through a watch service instead of polling them. */
+  public static final String WATCH_DIRECTORIES = "watchDirectories";
+  public static final boolean DEFAULT_WATCH_DIRECTORIES = false;
+
+  /** Interval (ms) at which watched directories are listed and their files checked anyway. */
+  public static final String RESCAN_INTERVAL = "rescanInterval";
+  public static final long DEFAULT_RESCAN_INTERVAL = 300000L;
 }
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.source.taildir;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestPositionStore {
+  private File tmpDir;
+  private File posFile;
+
+  @Before
+  public void setUp() {
+    tmpDir = Files.createTempDir();
+    posFile = new File(tmpDir, "taildir_position");
+  }
+
+  @After
+  public void tearDown() {
+    for (File f : tmpDir.listFiles()) {
+      f.delete();
+    }
+    tmpDir.delete();
+  }
+
+  private TailFile tailFile(String name, long inode, long pos) throws IOException {
+    return new TailFile(new File(tmpDir, name), false, Collections.<String, String>emptyMap(),
+        inode, pos);
+  }
+
+  private Map<Long, Long> readPositions() throws IOException {
+    Map<Long, Long> positions = Maps.newHashMap();
+    for (PositionStore.Position position : PositionStore.readPositions(posFile)) {
+      positions.put(position.getInode(), position.getPos());
+    }
+    return positions;
+  }
+
+  @Test
+  public void testWriteAndReopen() throws IOException {
+    TailFile tf1 = tailFile("file1", 1, 10);
+    TailFile tf2 = tailFile("file2", 2, 20);
+    PositionStore store = PositionStore.open(posFile);
+    store.write(Lists.newArrayList(tf1, tf2));
+    assertTrue(PositionStore.isPositionStore(posFile));
+    assertEquals(20L, (long) readPositions().get(2L));
+
+    tf1.setPos(15);
+    store.write(Lists.newArrayList(tf1, tf2));
+    store.close();
+    assertEquals(15L, (long) readPositions().get(1L));
+
+    // the slots survive a restart, the one of a file no longer tailed is freed
+    store = PositionStore.open(posFile);
+    tf2.setPos(25);
+    store.write(Lists.newArrayList(tf2));
+    store.close();
+    Map<Long, Long> positions = readPositions();
+    assertEquals(1, positions.size());
+    assertEquals(25L, (long) positions.get(2L));
+  }
+
+  @Test
+  public void testPathChecked() throws IOException {
+    PositionStore store = PositionStore.open(posFile);
+    store.write(Lists.newArrayList(tailFile("file1", 1, 10)));
+    // the same inode under a new path starts a new slot
+    store.write(Lists.newArrayList(tailFile("file1.1", 1, 5)));
+    store.close();
+
+    List<PositionStore.Position> positions = PositionStore.readPositions(posFile);
+    assertEquals(1, positions.size());
+    assertEquals(5, positions.get(0).getPos());
+    assertTrue(positions.get(0).isPathOf(new File(tmpDir, "file1.1").getAbsolutePath()));
+    assertFalse(positions.get(0).isPathOf(new File(tmpDir, "file1").getAbsolutePath()));
+  }
+
+  @Test
+  public void testReplacesJsonFile() throws IOException {
+    Files.write("[]", posFile, Charsets.UTF_8);
+    assertFalse(PositionStore.isPositionStore(posFile));
+    PositionStore store = PositionStore.open(posFile);
+    // the JSON file is left alone until the first write
+    assertFalse(PositionStore.isPositionStore(posFile));
+    store.write(Lists.newArrayList(tailFile("file1", 1, 10)));
+    store.close();
+    assertTrue(PositionStore.isPositionStore(posFile));
+    assertFalse(new File(posFile.getPath() + ".tmp").exists());
+    assertEquals(10L, (long) readPositions().get(1L));
+  }
+
+  @Test
+  public void testGrowAndCompact() throws IOException {
+    List<TailFile> tailFiles = Lists.newArrayList();
+    for (int i = 0; i < PositionStore.MIN_SLOTS * 3; i++) {
+      tailFiles.add(tailFile("file" + i, i + 1, i));
+    }
+    PositionStore store = PositionStore.open(posFile);
+    store.write(tailFiles);
+    assertEquals(PositionStore.MIN_SLOTS * 4, store.getCapacity());
+    assertEquals(tailFiles.size(), readPositions().size());
+
+    List<TailFile> remaining = tailFiles.subList(0, 10);
+    store.write(remaining);
+    assertEquals(PositionStore.MIN_SLOTS, store.getCapacity());
+    store.close();
+    assertEquals(PositionStore.SLOT_SIZE * (PositionStore.MIN_SLOTS + 1), posFile.length());
+    Map<Long, Long> positions = readPositions();
+    assertEquals(10, positions.size());
+    for (TailFile tf : remaining) {
+      assertEquals(tf.getPos(), (long) positions.get(tf.getInode()));
+    }
+  }
+
+  @Test
+  public void testPartlyWrittenSlotIgnored() throws IOException {
+    PositionStore store = PositionStore.open(posFile);
+    store.write(Lists.newArrayList(tailFile("file1", 1, 10), tailFile("file2", 2, 20)));
+    store.close();
+
+    // clobber the inode of the second slot as if the write of its identity was torn
+    try (RandomAccessFile raf = new RandomAccessFile(posFile, "rw")) {
+      raf.seek(PositionStore.SLOT_SIZE * 2);
+      raf.writeLong(42);
+    }
+    Map<Long, Long> positions = readPositions();
+    assertEquals(1, positions.size());
+    assertEquals(10L, (long) positions.get(1L));
+  }
+}
@@ -70,6 +70,19 @@ public class TestTaildirEventReader {
 
   private ReliableTaildirEventReader getReader(Map<String, String> filePaths,
       Table<String, String, String> headerTable, boolean addByteOffset) {
+    return getReader(filePaths, headerTable, addByteOffset,
+        TaildirSourceConfigurationConstants.DEFAULT_READ_BUFFER_SIZE);
+  }
+
+  private ReliableTaildirEventReader getReader(Map<String, String> filePaths,
+      Table<String, String, String> headerTable, boolean addByteOffset, int readBufferSize) {
+    return getReader(filePaths, headerTable, addByteOffset, readBufferSize,
+        TaildirSourceConfigurationConstants.DEFAULT_MAX_LINE_LENGTH);
+  }
+
+  private ReliableTaildirEventReader getReader(Map<String, String> filePaths,
+      Table<String, String, String> headerTable, boolean addByteOffset, int readBufferSize,
+      int maxLineLength) {
     ReliableTaildirEventReader reader;
     try {
       reader = new ReliableTaildirEventReader.Builder()
@@ -78,6 +91,8 @@ public class TestTaildirEventReader {
           .positionFilePath(posFilePath)
           .skipToEnd(false)
           .addByteOffset(addByteOffset)
+          .readBufferSize(readBufferSize)
+          .maxLineLength(maxLineLength)
           .build();
       reader.updateTailFiles();
     } catch (IOException ioe) {
@@ -427,6 +442,33 @@ public class TestTaildirEventReader {
     }
   }
 
+  @Test
+  public void testLoadBinaryPositionFile() throws IOException {
+    File f1 = new File(tmpDir, "file1");
+    File f2 = new File(tmpDir, "file2");
+    Files.write("file1line1\nfile1line2\n", f1, Charsets.UTF_8);
+    Files.write("file2line1\n", f2, Charsets.UTF_8);
+
+    ReliableTaildirEventReader reader = getReader();
+    for (TailFile tf : reader.getTailFiles().values()) {
+      tf.setPos(tf.getPath().equals(f1.getAbsolutePath()) ? 11 : f2.length());
+    }
+    PositionStore store = PositionStore.open(new File(posFilePath));
+    store.write(reader.getTailFiles().values());
+    store.close();
+    reader.close();
+
+    reader = getReader();
+    for (TailFile tf : reader.getTailFiles().values()) {
+      if (tf.getPath().equals(f1.getAbsolutePath())) {
+        assertEquals(11, tf.getPos());
+        assertEquals(Lists.newArrayList("file1line2"), bodiesAsStrings(reader.readEvents(tf, 10)));
+      } else {
+        assertEquals(f2.length(), tf.getPos());
+      }
+    }
+  }
+
   @Test
   public void testSkipToEndPosition() throws IOException {
     ReliableTaildirEventReader reader = getReader();
@@ -493,4 +535,120 @@ public class TestTaildirEventReader {
     assertTrue(out.contains("file1line3"));
     assertTrue(out.contains("file1line4"));
   }
+
+  @Test
+  // Lines longer than the read buffer, lines ending across buffer refills and
+  // newlines at every position within a word must all be found.
+  public void testSmallReadBuffer() throws IOException {
+    File f1 = new File(tmpDir, "file1");
+    StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      longLine.append("0123456789");
+    }
+    List<String> expected = Lists.newArrayList();
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      String line = longLine.substring(0, i);
+      expected.add(line);
+      content.append(line).append(i % 2 == 0 ? "\n" : "\r\n");
+    }
+    expected.add(longLine.toString());
+    content.append(longLine).append("\n");
+    Files.write(content.toString() + "file1", f1, Charsets.UTF_8);
+
+    Map<String, String> filePaths = ImmutableMap.of("testFiles",
+                                                    tmpDir.getAbsolutePath() + "/file.*");
+    ReliableTaildirEventReader reader =
+        getReader(filePaths, HashBasedTable.<String, String, String>create(), true, 16);
+    TailFile tf = reader.getTailFiles().values().iterator().next();
+    List<Event> events = reader.readEvents(tf, 100);
+    reader.commit();
+    assertEquals(expected, bodiesAsStrings(events));
+    assertEquals(String.valueOf(content.length() - longLine.length() - 1),
+        events.get(events.size() - 1).getHeaders().get(BYTE_OFFSET_HEADER_KEY));
+    assertEquals(content.length(), tf.getPos());
+
+    // the partial line is picked up once it is finished
+    Files.append("line2\n", f1, Charsets.UTF_8);
+    assertEquals(Lists.newArrayList("file1line2"), bodiesAsStrings(reader.readEvents(tf, 100)));
+    reader.commit();
+    assertEquals(content.length() + "file1line2\n".length(), tf.getPos());
+  }
+
+  @Test
+  // Lines longer than maxLineLength are split, and the buffer goes back to
+  // its size after them.
+  public void testMaxLineLength() throws IOException {
+    File f1 = new File(tmpDir, "file1");
+    StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 25; i++) {
+      longLine.append("0123456789");
+    }
+    Files.write(longLine + "\nshort\n", f1, Charsets.UTF_8);
+
+    Map<String, String> filePaths = ImmutableMap.of("testFiles",
+                                                    tmpDir.getAbsolutePath() + "/file.*");
+    ReliableTaildirEventReader reader =
+        getReader(filePaths, HashBasedTable.<String, String, String>create(), true, 16, 100);
+    TailFile tf = reader.getTailFiles().values().iterator().next();
+    List<Event> events = reader.readEvents(tf, 100);
+    reader.commit();
+    assertEquals(Lists.newArrayList(longLine.substring(0, 100), longLine.substring(100, 200),
+        longLine.substring(200), "short"), bodiesAsStrings(events));
+    assertEquals(Lists.newArrayList("0", "100", "200", "251"),
+        headersAsStrings(events, BYTE_OFFSET_HEADER_KEY));
+    assertEquals(longLine.length() + "\nshort\n".length(), tf.getPos());
+  }
+
+  @Test
+  // With watched directories unchanged files are not checked on every update,
+  // but appended lines and new files must still be found.
+  public void testWatchDirectories() throws Exception {
+    File f1 = new File(tmpDir, "file1");
+    Files.write("file1line1\n", f1, Charsets.UTF_8);
+
+    Map<String, String> filePaths = ImmutableMap.of("testFiles",
+                                                    tmpDir.getAbsolutePath() + "/file.*");
+    ReliableTaildirEventReader reader = new ReliableTaildirEventReader.Builder()
+        .filePaths(filePaths)
+        .headerTable(HashBasedTable.<String, String, String>create())
+        .positionFilePath(posFilePath)
+        .watchDirectories(true)
+        .build();
+    List<String> out = Lists.newArrayList();
+    readWatchedFiles(reader, out, 1);
+    assertEquals(Lists.newArrayList("file1line1"), out);
+
+    Files.append("file1line2\n", f1, Charsets.UTF_8);
+    Files.write("file2line1\n", new File(tmpDir, "file2"), Charsets.UTF_8);
+    readWatchedFiles(reader, out, 3);
+    assertEquals(3, out.size());
+    assertTrue(out.contains("file1line2"));
+    assertTrue(out.contains("file2line1"));
+
+    // once caught up, nothing is left to tail without new events
+    reader.updateTailFiles();
+    reader.updateTailFiles();
+    for (TailFile tf : reader.getTailFiles().values()) {
+      assertTrue(!tf.needTail());
+    }
+    reader.close();
+  }
+
+  // Updates and reads the files which need it until there are nEvents lines,
+  // giving the watcher time to deliver its events.
+  private void readWatchedFiles(ReliableTaildirEventReader reader, List<String> out,
+      int nEvents) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (out.size() < nEvents && System.currentTimeMillis() < deadline) {
+      reader.updateTailFiles();
+      for (TailFile tf : reader.getTailFiles().values()) {
+        if (tf.needTail()) {
+          out.addAll(bodiesAsStrings(reader.readEvents(tf, 100)));
+          reader.commit();
+        }
+      }
+      Thread.sleep(50);
+    }
+  }
 }
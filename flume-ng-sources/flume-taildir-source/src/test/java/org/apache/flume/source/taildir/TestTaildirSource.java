@@ -19,6 +19,7 @@ package org.apache.flume.source.taildir;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelSelector;
@@ -40,12 +41,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.BATCH_SIZE;
 import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.FILE_GROUPS;
 import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.FILE_GROUPS_PREFIX;
 import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.HEADERS_PREFIX;
 import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.POSITION_FILE;
 import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.FILENAME_HEADER;
 import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.FILENAME_HEADER_KEY;
+import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.DEFAULT_MAX_BATCH_COUNT;
+import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.MAX_BATCH_COUNT;
+import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.POSITION_FILE_FORMAT;
+import static org.apache.flume.source.taildir.TaildirSourceConfigurationConstants.TAIL_THREADS;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -316,4 +322,170 @@ public class TestTaildirSource {
     assertEquals(f1.getAbsolutePath(),
             e.getHeaders().get("path"));
   }
+
+  @Test
+  public void testMaxBatchCount() throws IOException {
+    File f1 = new File(tmpDir, "busy.log");
+    File f2 = new File(tmpDir, "quiet.log");
+    StringBuilder busy = new StringBuilder();
+    for (int i = 0; i < 10; i++) {
+      busy.append("busy").append(i).append("\n");
+    }
+    Files.write(busy.toString(), f1, Charsets.UTF_8);
+    Files.write("quiet0\nquiet1\n", f2, Charsets.UTF_8);
+
+    Context context = new Context();
+    context.put(POSITION_FILE, posFilePath);
+    context.put(FILE_GROUPS, "busy quiet");
+    context.put(FILE_GROUPS_PREFIX + "busy", tmpDir.getAbsolutePath() + "/busy.log");
+    context.put(FILE_GROUPS_PREFIX + "quiet", tmpDir.getAbsolutePath() + "/quiet.log");
+    context.put(BATCH_SIZE, "2");
+    context.put(MAX_BATCH_COUNT, "1");
+
+    Configurables.configure(source, context);
+    source.start();
+    // one batch of the busy file, then the quiet file gets its turn
+    source.process();
+    assertEquals(Lists.newArrayList("busy0", "busy1", "quiet0", "quiet1"), takeBodies(4));
+    assertTrue(takeBodies(1).isEmpty());
+
+    for (int i = 0; i < 4; i++) {
+      source.process();
+    }
+    assertEquals(Lists.newArrayList("busy2", "busy3", "busy4", "busy5", "busy6", "busy7",
+        "busy8", "busy9"), takeBodies(8));
+    source.stop();
+  }
+
+  @Test
+  public void testDefaultMaxBatchCount() throws IOException {
+    File hot = new File(tmpDir, "hot.log");
+    File cold = new File(tmpDir, "cold.log");
+    int batchSize = 2;
+    int hotLines = (int) DEFAULT_MAX_BATCH_COUNT * batchSize + 10;
+    List<String> hotBodies = Lists.newArrayList();
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < hotLines; i++) {
+      hotBodies.add("hot" + i);
+      content.append("hot").append(i).append("\n");
+    }
+    Files.write(content.toString(), hot, Charsets.UTF_8);
+    Files.write("cold0\n", cold, Charsets.UTF_8);
+    Context channelContext = new Context();
+    channelContext.put("capacity", String.valueOf(hotLines + 1));
+    channelContext.put("transactionCapacity", String.valueOf(hotLines + 1));
+    Configurables.configure(channel, channelContext);
+
+    Context context = new Context();
+    context.put(POSITION_FILE, posFilePath);
+    context.put(FILE_GROUPS, "hot cold");
+    context.put(FILE_GROUPS_PREFIX + "hot", hot.getAbsolutePath());
+    context.put(FILE_GROUPS_PREFIX + "cold", cold.getAbsolutePath());
+    context.put(BATCH_SIZE, String.valueOf(batchSize));
+
+    Configurables.configure(source, context);
+    source.start();
+    // the cold file gets its turn before the hot one is read to its end,
+    // and the round does not wait before the hot file is read on
+    long start = System.currentTimeMillis();
+    source.process();
+    assertTrue(System.currentTimeMillis() - start < 900);
+    List<String> expected = Lists.newArrayList(
+        hotBodies.subList(0, (int) DEFAULT_MAX_BATCH_COUNT * batchSize));
+    expected.add("cold0");
+    assertEquals(Sets.newHashSet(expected), Sets.newHashSet(takeBodies(expected.size() + 1)));
+
+    source.process();
+    assertEquals(hotBodies.subList((int) DEFAULT_MAX_BATCH_COUNT * batchSize, hotLines),
+        takeBodies(hotLines));
+    source.stop();
+  }
+
+  @Test
+  public void testTailThreads() throws IOException {
+    List<String> expected = Lists.newArrayList();
+    for (int f = 0; f < 6; f++) {
+      StringBuilder content = new StringBuilder();
+      for (int i = 0; i < 15; i++) {
+        String line = "file" + f + "line" + i;
+        expected.add(line);
+        content.append(line).append("\n");
+      }
+      Files.write(content.toString(), new File(tmpDir, (f % 2 == 0 ? "a" : "b") + f + ".log"),
+          Charsets.UTF_8);
+    }
+
+    Context context = new Context();
+    context.put(POSITION_FILE, posFilePath);
+    context.put(FILE_GROUPS, "a b");
+    context.put(FILE_GROUPS_PREFIX + "a", tmpDir.getAbsolutePath() + "/a.*\\.log");
+    context.put(FILE_GROUPS_PREFIX + "b", tmpDir.getAbsolutePath() + "/b.*\\.log");
+    context.put(BATCH_SIZE, "4");
+    context.put(TAIL_THREADS, "3");
+
+    Configurables.configure(source, context);
+    source.start();
+    source.process();
+    List<String> out = takeBodies(expected.size() + 1);
+    assertEquals(expected.size(), out.size());
+    assertEquals(Sets.newHashSet(expected), Sets.newHashSet(out));
+    assertEquals(expected.size(), source.getSourceCounter().getEventAcceptedCount());
+    source.stop();
+
+    String positions = Files.toString(new File(posFilePath), Charsets.UTF_8);
+    for (int f = 0; f < 6; f++) {
+      File file = new File(tmpDir, (f % 2 == 0 ? "a" : "b") + f + ".log");
+      assertTrue(positions, positions.contains("\"pos\":" + file.length() + ",\"file\":\""
+          + file.getAbsolutePath() + "\""));
+    }
+    assertFalse(new File(posFilePath + ".tmp").exists());
+  }
+
+  @Test
+  public void testBinaryPositionFile() throws IOException {
+    File f1 = new File(tmpDir, "a.log");
+    Files.write("a.log line1\na.log line2\n", f1, Charsets.UTF_8);
+
+    Context context = new Context();
+    context.put(POSITION_FILE, posFilePath);
+    context.put(POSITION_FILE_FORMAT, "binary");
+    context.put(FILE_GROUPS, "fg");
+    context.put(FILE_GROUPS_PREFIX + "fg", tmpDir.getAbsolutePath() + "/a\\.log");
+
+    Configurables.configure(source, context);
+    source.start();
+    source.process();
+    assertEquals(Lists.newArrayList("a.log line1", "a.log line2"), takeBodies(10));
+    source.stop();
+
+    File posFile = new File(posFilePath);
+    assertTrue(PositionStore.isPositionStore(posFile));
+    List<PositionStore.Position> positions = PositionStore.readPositions(posFile);
+    assertEquals(1, positions.size());
+    assertEquals(f1.length(), positions.get(0).getPos());
+
+    // a restarted source carries on where it stopped
+    Files.append("a.log line3\n", f1, Charsets.UTF_8);
+    source.start();
+    source.process();
+    assertEquals(Lists.newArrayList("a.log line3"), takeBodies(10));
+    source.stop();
+    assertEquals(f1.length(), PositionStore.readPositions(posFile).get(0).getPos());
+  }
+
+  private List<String> takeBodies(int max) {
+    List<String> bodies = Lists.newArrayList();
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    for (int i = 0; i < max; i++) {
+      Event e = channel.take();
+      if (e == null) {
+        break;
+      }
+      bodies.add(TestTaildirEventReader.bodyAsString(e));
+    }
+    txn.commit();
+    txn.close();
+    return bodies;
+  }
 }
@@ -76,7 +76,8 @@ public class FileChannelIntegrityTool implements FlumeTool {
           if (!name.endsWith(Serialization.METADATA_FILENAME)
               && !name.endsWith(Serialization.METADATA_TMP_FILENAME)
               && !name.endsWith(Serialization.OLD_METADATA_FILENAME)
-              && !name.equals(Log.FILE_LOCK)) {
+              && !name.equals(Log.FILE_LOCK)
+              && !new File(dir, name).isDirectory()) {
             return true;
           }
           return false;